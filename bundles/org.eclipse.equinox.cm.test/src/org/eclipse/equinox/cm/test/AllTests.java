@@ -24,6 +24,7 @@ public class AllTests {
 		suite.addTestSuite(ConfigurationPluginTest.class);
 		suite.addTestSuite(ConfigurationListenerTest.class);
 		suite.addTestSuite(ConfigurationEventAdapterTest.class);
+		suite.addTestSuite(ConfigurationJournalTest.class);
 		return suite;
 	}
 
@@ -0,0 +1,112 @@
+/*******************************************************************************
+ * Copyright (c) 2015 IBM Corporation and others
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.cm.test;
+
+import java.util.Dictionary;
+import java.util.Hashtable;
+import junit.framework.TestCase;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.cm.ConfigurationAdmin;
+
+/**
+ * Measures the throughput of a mixed workload of getConfiguration, update and
+ * listConfigurations calls from several threads. Not part of AllTests; run it on
+ * its own to print the results.
+ */
+public class ConfigurationAdminBenchmark extends TestCase {
+
+	private static final int PIDS = 1000;
+	private static final int OPERATIONS = 200000;
+	// one in UPDATE_RATIO operations is an update, one in LIST_RATIO a listConfigurations call
+	private static final int UPDATE_RATIO = 20;
+	private static final int LIST_RATIO = 10;
+
+	private ConfigurationAdmin cm;
+	private ServiceReference reference;
+
+	public ConfigurationAdminBenchmark(String name) {
+		super(name);
+	}
+
+	protected void setUp() throws Exception {
+		Activator.getBundle("org.eclipse.equinox.cm").start();
+		reference = Activator.getBundleContext().getServiceReference(ConfigurationAdmin.class.getName());
+		cm = (ConfigurationAdmin) Activator.getBundleContext().getService(reference);
+		for (int i = 0; i < PIDS; i++)
+			cm.getConfiguration(getPid(i), null).update(createProperties(i));
+	}
+
+	protected void tearDown() throws Exception {
+		for (int i = 0; i < PIDS; i++)
+			cm.getConfiguration(getPid(i), null).delete();
+		Activator.getBundleContext().ungetService(reference);
+		Activator.getBundle("org.eclipse.equinox.cm").stop();
+	}
+
+	public void testOneThread() throws Exception {
+		run(1);
+	}
+
+	public void testFourThreads() throws Exception {
+		run(4);
+	}
+
+	public void testSixteenThreads() throws Exception {
+		run(16);
+	}
+
+	private void run(int threadCount) throws Exception {
+		final Exception[] failure = new Exception[1];
+		Thread[] threads = new Thread[threadCount];
+		final int operations = OPERATIONS / threadCount;
+		for (int t = 0; t < threadCount; t++) {
+			final int seed = t * 7919;
+			threads[t] = new Thread() {
+				public void run() {
+					try {
+						for (int i = 0; i < operations; i++) {
+							int n = (seed + i * 31) % PIDS;
+							if (i % UPDATE_RATIO == 0) {
+								cm.getConfiguration(getPid(n), null).update(createProperties(i));
+							} else if (i % LIST_RATIO == 0) {
+								cm.listConfigurations("(service.pid=" + getPid(n) + ")");
+							} else {
+								cm.getConfiguration(getPid(n), null).getProperties();
+							}
+						}
+					} catch (Exception e) {
+						failure[0] = e;
+					}
+				}
+			};
+		}
+		long start = System.currentTimeMillis();
+		for (int t = 0; t < threadCount; t++)
+			threads[t].start();
+		for (int t = 0; t < threadCount; t++)
+			threads[t].join();
+		long time = System.currentTimeMillis() - start;
+		if (failure[0] != null)
+			throw failure[0];
+		int total = operations * threadCount;
+		System.out.println(threadCount + " threads: " + total + " operations in " + time + " ms, " + (total * 1000L / Math.max(time, 1)) + " operations/s");
+	}
+
+	static String getPid(int n) {
+		return "benchmark." + n;
+	}
+
+	static Dictionary createProperties(int n) {
+		Dictionary properties = new Hashtable();
+		properties.put("value", Integer.valueOf(n));
+		return properties;
+	}
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2007, 2013 IBM Corporation and others
+ * Copyright (c) 2007, 2015 IBM Corporation and others
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -10,7 +10,7 @@
  *******************************************************************************/
 package org.eclipse.equinox.cm.test;
 
-import java.util.Properties;
+import java.util.*;
 import junit.framework.TestCase;
 import org.osgi.framework.Constants;
 import org.osgi.framework.ServiceReference;
@@ -206,6 +206,49 @@ public class ConfigurationAdminTest extends TestCase {
 		}
 	}
 
+	public void testListFactoryConfigurationWithProperties() throws Exception {
+		Configuration[] created = new Configuration[10];
+		for (int i = 0; i < created.length; i++) {
+			created[i] = cm.createFactoryConfiguration("test", null);
+			Properties props = new Properties();
+			props.put("testkey", (i % 2 == 0) ? "even" : "odd");
+			created[i].update(props);
+		}
+		try {
+			Configuration[] configs = cm.listConfigurations("(&(" + ConfigurationAdmin.SERVICE_FACTORYPID + "=test)(testkey=even))");
+			assertNotNull(configs);
+			assertEquals(5, configs.length);
+			for (int i = 0; i < configs.length; i++)
+				assertEquals("even", configs[i].getProperties().get("testkey"));
+			assertEquals(10, cm.listConfigurations("(" + ConfigurationAdmin.SERVICE_FACTORYPID + "=test)").length);
+			assertNull(cm.listConfigurations("(" + ConfigurationAdmin.SERVICE_FACTORYPID + "=test2)"));
+			created[0].delete();
+			assertEquals(4, cm.listConfigurations("(&(" + ConfigurationAdmin.SERVICE_FACTORYPID + "=test)(testkey=even))").length);
+		} finally {
+			for (int i = 1; i < created.length; i++)
+				created[i].delete();
+		}
+	}
+
+	public void testListConfigurationAfterLocationChange() throws Exception {
+		Configuration config = cm.getConfiguration("test", null);
+		config.update();
+		try {
+			String filterString = "(" + ConfigurationAdmin.SERVICE_BUNDLELOCATION + "=location1)";
+			assertNull(cm.listConfigurations(filterString));
+			config.setBundleLocation("location1");
+			Configuration[] configs = cm.listConfigurations(filterString);
+			assertTrue(configs != null && configs.length == 1);
+			config.setBundleLocation("location2");
+			assertNull(cm.listConfigurations(filterString));
+			configs = cm.listConfigurations("(" + ConfigurationAdmin.SERVICE_BUNDLELOCATION + "=location2)");
+			assertTrue(configs != null && configs.length == 1);
+		} finally {
+			config.delete();
+		}
+		assertNull(cm.listConfigurations("(" + ConfigurationAdmin.SERVICE_BUNDLELOCATION + "=location2)"));
+	}
+
 	public void testPersistentConfig() throws Exception {
 		Configuration config = cm.getConfiguration("test");
 		assertNull(config.getProperties());
@@ -244,4 +287,81 @@ public class ConfigurationAdminTest extends TestCase {
 		config = cm.getConfiguration(pid);
 		assertNull(config.getProperties());
 	}
+
+	public void testPersistentConfigValueTypes() throws Exception {
+		Configuration config = cm.getConfiguration("test");
+		Properties props = new Properties();
+		props.put("string", "testvalue");
+		props.put("long", new Long(1));
+		props.put("char", new Character('c'));
+		props.put("stringArray", new String[] {"a", "b"});
+		props.put("intArray", new int[] {1, 2});
+		Vector vector = new Vector();
+		vector.add("a");
+		vector.add(new Integer(1));
+		props.put("vector", vector);
+		config.update(props);
+		tearDown();
+		setUp();
+		config = cm.getConfiguration("test");
+		Dictionary dict = config.getProperties();
+		assertEquals("testvalue", dict.get("string"));
+		assertEquals(new Long(1), dict.get("long"));
+		assertEquals(new Character('c'), dict.get("char"));
+		assertTrue(Arrays.equals(new String[] {"a", "b"}, (String[]) dict.get("stringArray")));
+		assertTrue(Arrays.equals(new int[] {1, 2}, (int[]) dict.get("intArray")));
+		assertEquals(vector, dict.get("vector"));
+		config.delete();
+	}
+
+	public void testPersistentCollectionTypes() throws Exception {
+		Configuration config = cm.getConfiguration("test");
+		Properties props = new Properties();
+		ArrayList list = new ArrayList();
+		list.add("a");
+		list.add(new Integer(1));
+		props.put("list", list);
+		TreeSet set = new TreeSet();
+		set.add("b");
+		set.add("a");
+		props.put("set", set);
+		props.put("fixedList", Arrays.asList(new String[] {"a", "b"}));
+		config.update(props);
+		Dictionary before = config.getProperties();
+		tearDown();
+		setUp();
+		config = cm.getConfiguration("test");
+		Dictionary dict = config.getProperties();
+		// the collections are read back with the class they were stored with
+		for (Enumeration keys = before.keys(); keys.hasMoreElements();) {
+			Object key = keys.nextElement();
+			assertEquals(before.get(key).getClass(), dict.get(key).getClass());
+			assertEquals(before.get(key), dict.get(key));
+		}
+		config.delete();
+	}
+
+	public void testPersistentConfigStrings() throws Exception {
+		StringBuffer longValue = new StringBuffer();
+		for (int i = 0; i < 70000; i++)
+			longValue.append((char) ('a' + i % 26));
+		String[] values = new String[] {"", "\u0000", "caf\u00e9 \u20ac", "\ud83d\ude00", "unpaired high \ud83d", "\ude00 unpaired low", "reversed \ude00\ud83d", longValue.toString()};
+
+		Configuration config = cm.getConfiguration("test");
+		Properties props = new Properties();
+		for (int i = 0; i < values.length; i++)
+			props.put("string" + i, values[i]);
+		props.put("key \ud83d", "value");
+		props.put("stringArray", values);
+		config.update(props);
+		tearDown();
+		setUp();
+		config = cm.getConfiguration("test");
+		Dictionary dict = config.getProperties();
+		for (int i = 0; i < values.length; i++)
+			assertEquals("string" + i, values[i], dict.get("string" + i));
+		assertEquals("value", dict.get("key \ud83d"));
+		assertTrue(Arrays.equals(values, (String[]) dict.get("stringArray")));
+		config.delete();
+	}
 }
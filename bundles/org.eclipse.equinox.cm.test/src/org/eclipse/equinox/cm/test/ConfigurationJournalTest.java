@@ -0,0 +1,266 @@
+/*******************************************************************************
+ * Copyright (c) 2015 IBM Corporation and others
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.cm.test;
+
+import java.io.*;
+import java.util.*;
+import junit.framework.TestCase;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.cm.Configuration;
+import org.osgi.service.cm.ConfigurationAdmin;
+
+public class ConfigurationJournalTest extends TestCase {
+
+	private static final String PROP_STORE = "org.eclipse.equinox.cm.store";
+	private static final String STORE_JOURNAL = "journal";
+
+	private ConfigurationAdmin cm;
+	private ServiceReference reference;
+
+	public ConfigurationJournalTest(String name) {
+		super(name);
+	}
+
+	protected void setUp() throws Exception {
+		System.setProperty(PROP_STORE, STORE_JOURNAL);
+		startCM();
+	}
+
+	protected void tearDown() throws Exception {
+		stopCM();
+		System.getProperties().remove(PROP_STORE);
+	}
+
+	private void startCM() throws Exception {
+		Activator.getBundle("org.eclipse.equinox.cm").start();
+		reference = Activator.getBundleContext().getServiceReference(ConfigurationAdmin.class.getName());
+		cm = (ConfigurationAdmin) Activator.getBundleContext().getService(reference);
+	}
+
+	private void stopCM() throws Exception {
+		Activator.getBundleContext().ungetService(reference);
+		Activator.getBundle("org.eclipse.equinox.cm").stop();
+	}
+
+	private void restartCM() throws Exception {
+		stopCM();
+		startCM();
+	}
+
+	public void testReplay() throws Exception {
+		Configuration config = cm.getConfiguration("test1");
+		Properties props = new Properties();
+		props.put("key", "value1");
+		config.update(props);
+		props.put("key", "value2");
+		config.update(props);
+		Configuration deleted = cm.getConfiguration("test2");
+		deleted.update(props);
+		deleted.delete();
+		restartCM();
+		assertTrue(getJournals().length > 0);
+		assertEquals(0, getFiles(".cfg").length);
+		config = cm.getConfiguration("test1");
+		assertEquals("value2", config.getProperties().get("key"));
+		assertNull(cm.listConfigurations("(service.pid=test2)"));
+		config.delete();
+		restartCM();
+		assertNull(cm.listConfigurations("(service.pid=test1)"));
+	}
+
+	public void testTornRecord() throws Exception {
+		Configuration config = cm.getConfiguration("test");
+		Properties props = new Properties();
+		props.put("key", "value1");
+		config.update(props);
+		stopCM();
+		File[] journals = getJournals();
+		File journal = journals[journals.length - 1];
+		long length = journal.length();
+		// a record header promising more data than was written
+		RandomAccessFile raf = new RandomAccessFile(journal, "rw");
+		try {
+			raf.seek(length);
+			raf.writeInt(1000);
+			raf.writeInt(0);
+			raf.write(new byte[] {1, 2, 3});
+		} finally {
+			raf.close();
+		}
+		startCM();
+		assertEquals(length, journal.length());
+		config = cm.getConfiguration("test");
+		assertEquals("value1", config.getProperties().get("key"));
+		props.put("key", "value2");
+		config.update(props);
+		restartCM();
+		config = cm.getConfiguration("test");
+		assertEquals("value2", config.getProperties().get("key"));
+		config.delete();
+	}
+
+	public void testCompaction() throws Exception {
+		char[] chars = new char[100 * 1024];
+		Configuration config = cm.getConfiguration("test");
+		Properties props = new Properties();
+		for (int i = 0; i < 15; i++) {
+			Arrays.fill(chars, (char) ('a' + i));
+			props.put("key", new String(chars));
+			config.update(props);
+		}
+		Configuration other = cm.getConfiguration("test2");
+		Properties otherProps = new Properties();
+		otherProps.put("key", "value");
+		other.update(otherProps);
+
+		for (int i = 0; i < 100 && getSnapshots().length == 0; i++)
+			Thread.sleep(100);
+		assertEquals(1, getSnapshots().length);
+		restartCM();
+		config = cm.getConfiguration("test");
+		assertEquals(props.get("key"), config.getProperties().get("key"));
+		assertNotNull(cm.listConfigurations("(service.pid=test2)"));
+		// the journals replaced by the snapshot are deleted
+		long size = 0;
+		File[] journals = getJournals();
+		for (int i = 0; i < journals.length; i++)
+			size += journals[i].length();
+		assertTrue("journals: " + size, size < 1024 * 1024);
+		config.delete();
+		cm.getConfiguration("test2").delete();
+	}
+
+	public void testMigration() throws Exception {
+		stopCM();
+		System.getProperties().remove(PROP_STORE);
+		startCM();
+		Configuration config = cm.getConfiguration("test");
+		Properties props = new Properties();
+		props.put("key", "value1");
+		config.update(props);
+		File[] files = getFiles(".cfg");
+		assertEquals(1, files.length);
+		// the reliable file keeps the content in generations next to the file
+		String name = files[0].getName();
+		File[] generations = getFiles(name, false);
+		byte[][] contents = new byte[generations.length][];
+		for (int i = 0; i < generations.length; i++)
+			contents[i] = read(generations[i]);
+
+		System.setProperty(PROP_STORE, STORE_JOURNAL);
+		restartCM();
+		assertEquals(0, getFiles(".cfg").length);
+		config = cm.getConfiguration("test");
+		assertEquals("value1", config.getProperties().get("key"));
+		props.put("key", "value2");
+		config.update(props);
+
+		// a crash after the file was moved to the journal but before it was deleted; the file is
+		// restored under another name as the reliable file cache remembers the deleted file
+		stopCM();
+		for (int i = 0; i < generations.length; i++)
+			write(new File(getStore(), "data0.cfg" + generations[i].getName().substring(name.length())), contents[i]);
+		startCM();
+		assertEquals(0, getFiles(".cfg").length);
+		Configuration[] configs = cm.listConfigurations("(service.pid=test)");
+		assertEquals(1, configs.length);
+		assertEquals("value1", configs[0].getProperties().get("key"));
+		configs[0].delete();
+		restartCM();
+		assertNull(cm.listConfigurations("(service.pid=test)"));
+
+		// moving back to files
+		config = cm.getConfiguration("test");
+		config.update(props);
+		stopCM();
+		System.getProperties().remove(PROP_STORE);
+		startCM();
+		assertEquals(0, getJournals().length);
+		assertEquals(1, getFiles(".cfg").length);
+		config = cm.getConfiguration("test");
+		assertEquals("value2", config.getProperties().get("key"));
+		config.delete();
+	}
+
+	private File getStore() {
+		long id = Activator.getBundle("org.eclipse.equinox.cm").getBundleId();
+		// the data directories of the bundles are siblings
+		File bundles = Activator.getBundleContext().getDataFile("").getParentFile().getParentFile();
+		return new File(bundles, id + "/data/store");
+	}
+
+	private File[] getFiles(final String suffix) {
+		File[] files = getStore().listFiles(new FileFilter() {
+			public boolean accept(File file) {
+				return file.getName().endsWith(suffix);
+			}
+		});
+		return files == null ? new File[0] : files;
+	}
+
+	private File[] getJournals() {
+		return getFiles("journal.", false);
+	}
+
+	private File[] getSnapshots() {
+		return getFiles("snapshot.", true);
+	}
+
+	private File[] getFiles(final String prefix, final boolean complete) {
+		File[] files = getStore().listFiles(new FileFilter() {
+			public boolean accept(File file) {
+				return file.getName().startsWith(prefix) && !(complete && file.getName().endsWith(".tmp"));
+			}
+		});
+		if (files == null)
+			return new File[0];
+		Arrays.sort(files, new Comparator() {
+			public int compare(Object o1, Object o2) {
+				String name1 = ((File) o1).getName();
+				String name2 = ((File) o2).getName();
+				return getGeneration(name1) - getGeneration(name2);
+			}
+		});
+		return files;
+	}
+
+	private static int getGeneration(String name) {
+		int index = name.lastIndexOf('.');
+		try {
+			return Integer.parseInt(name.substring(index + 1));
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	private static byte[] read(File file) throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int n;
+			while ((n = in.read(buffer)) != -1)
+				out.write(buffer, 0, n);
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+	private static void write(File file, byte[] content) throws IOException {
+		OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(content);
+		} finally {
+			out.close();
+		}
+	}
+}
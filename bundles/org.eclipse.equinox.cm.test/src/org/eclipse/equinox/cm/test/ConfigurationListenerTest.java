@@ -10,7 +10,7 @@
  *******************************************************************************/
 package org.eclipse.equinox.cm.test;
 
-import java.util.Properties;
+import java.util.*;
 import junit.framework.TestCase;
 import org.osgi.framework.ServiceReference;
 import org.osgi.framework.ServiceRegistration;
@@ -18,6 +18,8 @@ import org.osgi.service.cm.*;
 
 public class ConfigurationListenerTest extends TestCase {
 
+	private static final String PROP_COALESCE = "org.eclipse.equinox.cm.update.coalesce";
+
 	private ConfigurationAdmin cm;
 	private ServiceReference reference;
 	boolean locked = false;
@@ -66,4 +68,88 @@ public class ConfigurationListenerTest extends TestCase {
 		config.delete();
 	}
 
+	public void testCoalescedEvents() throws Exception {
+		System.setProperty(PROP_COALESCE, "true");
+		try {
+			tearDown();
+			setUp();
+			Configuration blocker = cm.getConfiguration("blocker");
+			Configuration config = cm.getConfiguration("test");
+			Configuration other = cm.getConfiguration("other");
+			Properties props = new Properties();
+			props.put("testkey", "testvalue");
+			RecordingListener listener = new RecordingListener();
+			ServiceRegistration reg = Activator.getBundleContext().registerService(ConfigurationListener.class.getName(), listener, null);
+
+			// the event of the blocker holds the event thread while the others are queued
+			listener.block();
+			blocker.update(props);
+			listener.awaitEvents(1);
+			config.update(props);
+			other.update(props);
+			config.update(props);
+			config.update(props);
+			config.delete();
+			config = cm.getConfiguration("test");
+			config.update(props);
+			listener.release();
+			listener.awaitEvents(5);
+			Thread.sleep(100);
+			// the repeated updates of test are delivered once, in the place of the first one
+			List expected = Arrays.asList(new String[] {"blocker:1", "test:1", "other:1", "test:2", "test:1"});
+			assertEquals(expected, listener.getEvents());
+
+			reg.unregister();
+			blocker.delete();
+			config.delete();
+			other.delete();
+		} finally {
+			System.getProperties().remove(PROP_COALESCE);
+			tearDown();
+			setUp();
+		}
+	}
+
+	/**
+	 * Records the pid and type of each event; can hold the event thread in the next event.
+	 */
+	static class RecordingListener implements ConfigurationListener {
+		private final List events = new ArrayList();
+		private boolean blocked;
+
+		public void configurationEvent(ConfigurationEvent event) {
+			synchronized (this) {
+				events.add(event.getPid() + ":" + event.getType());
+				notifyAll();
+				long end = System.currentTimeMillis() + 5000;
+				while (blocked && System.currentTimeMillis() < end) {
+					try {
+						wait(100);
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				blocked = false;
+			}
+		}
+
+		synchronized void block() {
+			blocked = true;
+		}
+
+		synchronized void release() {
+			blocked = false;
+			notifyAll();
+		}
+
+		synchronized List getEvents() {
+			return new ArrayList(events);
+		}
+
+		synchronized void awaitEvents(int count) throws InterruptedException {
+			long end = System.currentTimeMillis() + 5000;
+			while (events.size() < count && System.currentTimeMillis() < end)
+				wait(100);
+		}
+	}
 }
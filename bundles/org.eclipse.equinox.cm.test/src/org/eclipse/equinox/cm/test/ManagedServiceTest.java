@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2007, 2012 IBM Corporation and others
+ * Copyright (c) 2007, 2015 IBM Corporation and others
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -10,8 +10,7 @@
  *******************************************************************************/
 package org.eclipse.equinox.cm.test;
 
-import java.util.Dictionary;
-import java.util.Properties;
+import java.util.*;
 import junit.framework.TestCase;
 import org.eclipse.equinox.log.ExtendedLogReaderService;
 import org.eclipse.equinox.log.LogFilter;
@@ -21,6 +20,8 @@ import org.osgi.service.log.*;
 
 public class ManagedServiceTest extends TestCase {
 
+	private static final String PROP_COALESCE = "org.eclipse.equinox.cm.update.coalesce";
+
 	private ConfigurationAdmin cm;
 	private ServiceReference reference;
 	int updateCount = 0;
@@ -88,6 +89,59 @@ public class ManagedServiceTest extends TestCase {
 		config.delete();
 	}
 
+	public void testSlowManagedServiceDoesNotBlockOthers() throws Exception {
+		final Object slowLock = new Object();
+		final boolean[] released = new boolean[1];
+		ManagedService slow = new ManagedService() {
+			public void updated(Dictionary properties) throws ConfigurationException {
+				synchronized (slowLock) {
+					long end = System.currentTimeMillis() + 5000;
+					while (!released[0] && System.currentTimeMillis() < end) {
+						try {
+							slowLock.wait(100);
+						} catch (InterruptedException e) {
+							return;
+						}
+					}
+				}
+			}
+		};
+		updateCount = 0;
+		ManagedService ms = new ManagedService() {
+			public void updated(Dictionary properties) throws ConfigurationException {
+				synchronized (lock) {
+					locked = false;
+					lock.notify();
+					updateCount++;
+				}
+			}
+		};
+
+		Dictionary dict = new Properties();
+		dict.put(Constants.SERVICE_PID, "slow");
+		ServiceRegistration slowReg = Activator.getBundleContext().registerService(ManagedService.class.getName(), slow, dict);
+		dict.put(Constants.SERVICE_PID, "test");
+		ServiceRegistration reg = null;
+		try {
+			synchronized (lock) {
+				reg = Activator.getBundleContext().registerService(ManagedService.class.getName(), ms, dict);
+				locked = true;
+				lock.wait(2000);
+				if (locked)
+					fail("should have updated while the slow service is updating");
+				assertEquals(1, updateCount);
+			}
+		} finally {
+			synchronized (slowLock) {
+				released[0] = true;
+				slowLock.notifyAll();
+			}
+			if (reg != null)
+				reg.unregister();
+			slowReg.unregister();
+		}
+	}
+
 	public void testBug374637() throws Exception {
 
 		ManagedService ms = new ManagedService() {
@@ -241,4 +295,130 @@ public class ManagedServiceTest extends TestCase {
 		}
 		reg.unregister();
 	}
+
+	public void testCoalescedUpdatesKeepOrder() throws Exception {
+		System.setProperty(PROP_COALESCE, "true");
+		try {
+			tearDown();
+			setUp();
+			Configuration config1 = cm.getConfiguration("coalesce1");
+			Configuration config2 = cm.getConfiguration("coalesce2");
+			RecordingManagedService ms = new RecordingManagedService();
+			Dictionary dict = new Properties();
+			dict.put(Constants.SERVICE_PID, new String[] {"coalesce1", "coalesce2"});
+			ServiceRegistration reg = Activator.getBundleContext().registerService(ManagedService.class.getName(), ms, dict);
+			ms.awaitUpdates(2);
+			ms.reset();
+
+			// the update of coalesce2 holds the update thread of the service while the others are queued
+			ms.block();
+			config2.update(value("c2-v0"));
+			ms.awaitUpdates(1);
+			config1.update(value("c1-v1"));
+			config2.update(value("c2-v1"));
+			config1.update(value("c1-v2"));
+			ms.release();
+			ms.awaitUpdates(3);
+			Thread.sleep(100);
+			// the second update of coalesce1 takes the place of the first one
+			assertEquals(Arrays.asList(new String[] {"c2-v0", "c1-v2", "c2-v1"}), ms.getUpdates());
+
+			reg.unregister();
+			config1.delete();
+			config2.delete();
+		} finally {
+			System.getProperties().remove(PROP_COALESCE);
+			tearDown();
+			setUp();
+		}
+	}
+
+	public void testCoalescedDeleteAfterUpdate() throws Exception {
+		assertEquals(Arrays.asList(new String[] {"v0", "v1", null}), updateAndDelete());
+		System.setProperty(PROP_COALESCE, "true");
+		try {
+			tearDown();
+			setUp();
+			// the pending update is replaced by the delete
+			assertEquals(Arrays.asList(new String[] {"v0", null}), updateAndDelete());
+		} finally {
+			System.getProperties().remove(PROP_COALESCE);
+			tearDown();
+			setUp();
+		}
+	}
+
+	private List updateAndDelete() throws Exception {
+		Configuration config = cm.getConfiguration("coalesce");
+		RecordingManagedService ms = new RecordingManagedService();
+		Dictionary dict = new Properties();
+		dict.put(Constants.SERVICE_PID, "coalesce");
+		ServiceRegistration reg = Activator.getBundleContext().registerService(ManagedService.class.getName(), ms, dict);
+		ms.awaitUpdates(1);
+		ms.reset();
+
+		ms.block();
+		config.update(value("v0"));
+		ms.awaitUpdates(1);
+		config.update(value("v1"));
+		config.delete();
+		ms.release();
+		ms.awaitUpdates(3);
+		Thread.sleep(100);
+		reg.unregister();
+		return ms.getUpdates();
+	}
+
+	private static Dictionary value(String value) {
+		Dictionary props = new Properties();
+		props.put("value", value);
+		return props;
+	}
+
+	/**
+	 * Records the value of each update; can hold the update thread in the next update.
+	 */
+	static class RecordingManagedService implements ManagedService {
+		private final List updates = new ArrayList();
+		private boolean blocked;
+
+		public void updated(Dictionary properties) {
+			synchronized (this) {
+				updates.add(properties == null ? null : properties.get("value"));
+				notifyAll();
+				long end = System.currentTimeMillis() + 5000;
+				while (blocked && System.currentTimeMillis() < end) {
+					try {
+						wait(100);
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				blocked = false;
+			}
+		}
+
+		synchronized void block() {
+			blocked = true;
+		}
+
+		synchronized void release() {
+			blocked = false;
+			notifyAll();
+		}
+
+		synchronized void reset() {
+			updates.clear();
+		}
+
+		synchronized List getUpdates() {
+			return new ArrayList(updates);
+		}
+
+		synchronized void awaitUpdates(int count) throws InterruptedException {
+			long end = System.currentTimeMillis() + 5000;
+			while (updates.size() < count && System.currentTimeMillis() < end)
+				wait(100);
+		}
+	}
 }
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2005, 2013 Cognos Incorporated, IBM Corporation and others.
+ * Copyright (c) 2005, 2015 Cognos Incorporated, IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -25,20 +25,43 @@ import org.osgi.service.cm.ConfigurationPermission;
 public class ConfigurationAdminFactory implements ServiceFactory<ConfigurationAdmin>, BundleListener {
 
 	static private final Permission allConfigurationPermission = new ConfigurationPermission("*", ConfigurationPermission.CONFIGURE); //$NON-NLS-1$
+	/**
+	 * The framework property for the number of threads delivering updates to ManagedServices and
+	 * ManagedServiceFactories. Each target receives its updates in order on one thread at a time.
+	 */
+	static final String PROP_UPDATE_THREADS = "org.eclipse.equinox.cm.update.threads"; //$NON-NLS-1$
+	private static final int DEFAULT_UPDATE_THREADS = 4;
+	/**
+	 * The framework property enabling the coalescing of pending updates; <code>false</code> by default.
+	 * When set to <code>true</code>, an update or delete of a pid which is still pending for a ManagedService
+	 * or ManagedServiceFactory is replaced by a later update or delete of the pid. The later one is delivered
+	 * in place of the replaced one, so the updates of different pids are delivered in the order of their
+	 * first pending update. An event which is still pending for a ConfigurationListener is not queued again
+	 * for the same pid and type; a delete after an update is always delivered.
+	 */
+	static final String PROP_COALESCE = "org.eclipse.equinox.cm.update.coalesce"; //$NON-NLS-1$
+	private static final String UPDATE_THREAD_NAME = "CM Update Queue"; //$NON-NLS-1$
+	private final BundleContext context;
 	private final EventDispatcher eventDispatcher;
 	private final PluginManager pluginManager;
 	private final LogTracker log;
 	private final ManagedServiceTracker managedServiceTracker;
 	private final ManagedServiceFactoryTracker managedServiceFactoryTracker;
 	private final ConfigurationStore configurationStore;
+	private final UpdateQueue updateQueue;
+	// ConfigurationAdminMetrics; not typed to avoid a dependency on JMX
+	private Object metrics;
 
 	public ConfigurationAdminFactory(BundleContext context, LogTracker log) {
+		this.context = context;
 		this.log = log;
+		boolean coalesce = Boolean.valueOf(context.getProperty(PROP_COALESCE)).booleanValue();
 		configurationStore = new ConfigurationStore(this, context);
-		eventDispatcher = new EventDispatcher(context, log);
+		eventDispatcher = new EventDispatcher(context, log, coalesce);
 		pluginManager = new PluginManager(context);
-		managedServiceTracker = new ManagedServiceTracker(this, configurationStore, context);
-		managedServiceFactoryTracker = new ManagedServiceFactoryTracker(this, configurationStore, context);
+		updateQueue = new UpdateQueue(UPDATE_THREAD_NAME, getIntProperty(context, PROP_UPDATE_THREADS, DEFAULT_UPDATE_THREADS), coalesce);
+		managedServiceTracker = new ManagedServiceTracker(this, configurationStore, updateQueue, context);
+		managedServiceFactoryTracker = new ManagedServiceFactoryTracker(this, configurationStore, updateQueue, context);
 	}
 
 	void start() {
@@ -46,13 +69,36 @@ public class ConfigurationAdminFactory implements ServiceFactory<ConfigurationAd
 		pluginManager.start();
 		managedServiceTracker.open();
 		managedServiceFactoryTracker.open();
+		try {
+			metrics = ConfigurationAdminMetrics.register(updateQueue, eventDispatcher, context);
+		} catch (NoClassDefFoundError noClass) {
+			// expected if JMX is not available
+		}
 	}
 
 	void stop() {
+		if (metrics != null) {
+			((ConfigurationAdminMetrics) metrics).unregister();
+			metrics = null;
+		}
 		managedServiceTracker.close();
 		managedServiceFactoryTracker.close();
+		updateQueue.close();
 		eventDispatcher.stop();
 		pluginManager.stop();
+		configurationStore.close();
+	}
+
+	private static int getIntProperty(BundleContext context, String key, int defaultValue) {
+		String value = context.getProperty(key);
+		if (value == null)
+			return defaultValue;
+		try {
+			int result = Integer.parseInt(value.trim());
+			return result > 0 ? result : defaultValue;
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
 	}
 
 	public ConfigurationAdmin getService(Bundle bundle, ServiceRegistration<ConfigurationAdmin> registration) {
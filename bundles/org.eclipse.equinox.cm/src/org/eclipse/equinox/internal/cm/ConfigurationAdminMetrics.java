@@ -0,0 +1,100 @@
+/*******************************************************************************
+ * Copyright (c) 2015 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.cm;
+
+import java.lang.management.ManagementFactory;
+import javax.management.*;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+
+/**
+ * Exposes the Configuration Admin delivery metrics as an MBean in the platform MBean server.
+ */
+public class ConfigurationAdminMetrics implements ConfigurationAdminMetricsMBean {
+	private static final String DOMAIN = "org.eclipse.equinox.cm"; //$NON-NLS-1$
+
+	private final UpdateQueue updateQueue;
+	private final EventDispatcher eventDispatcher;
+	private final MBeanServer mbeanServer;
+	private final ObjectName mbeanName;
+
+	private ConfigurationAdminMetrics(UpdateQueue updateQueue, EventDispatcher eventDispatcher, MBeanServer mbeanServer, ObjectName mbeanName) {
+		this.updateQueue = updateQueue;
+		this.eventDispatcher = eventDispatcher;
+		this.mbeanServer = mbeanServer;
+		this.mbeanName = mbeanName;
+	}
+
+	/**
+	 * Register an MBean for the metrics.
+	 * 
+	 * @return the registered MBean or null if the registration failed
+	 */
+	static ConfigurationAdminMetrics register(UpdateQueue updateQueue, EventDispatcher eventDispatcher, BundleContext context) {
+		String name = DOMAIN + ":type=ConfigurationAdminMetrics"; //$NON-NLS-1$
+		String frameworkUUID = context.getProperty(Constants.FRAMEWORK_UUID);
+		if (frameworkUUID != null)
+			name += ",frameworkUUID=" + frameworkUUID; //$NON-NLS-1$
+		try {
+			MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+			ConfigurationAdminMetrics metrics = new ConfigurationAdminMetrics(updateQueue, eventDispatcher, mbeanServer, new ObjectName(name));
+			try {
+				mbeanServer.registerMBean(metrics, metrics.mbeanName);
+			} catch (InstanceAlreadyExistsException e) {
+				// Recover as this happens when a JVM is reused.
+				mbeanServer.unregisterMBean(metrics.mbeanName);
+				mbeanServer.registerMBean(metrics, metrics.mbeanName);
+			}
+			return metrics;
+		} catch (JMException e) {
+			return null;
+		} catch (SecurityException e) {
+			return null;
+		}
+	}
+
+	void unregister() {
+		try {
+			mbeanServer.unregisterMBean(mbeanName);
+		} catch (JMException e) {
+			// Something else unregistered the bean
+		}
+	}
+
+	public int getUpdateLaneCount() {
+		return updateQueue.getLaneCount();
+	}
+
+	public int getUpdateBacklog() {
+		return updateQueue.getBacklog();
+	}
+
+	public int getMaxLaneBacklog() {
+		return updateQueue.getMaxLaneBacklog();
+	}
+
+	public long getCompletedUpdates() {
+		return updateQueue.getCompleted();
+	}
+
+	public long getCoalescedUpdates() {
+		return updateQueue.getCoalesced();
+	}
+
+	public long getCoalescedEvents() {
+		return eventDispatcher.getCoalesced();
+	}
+
+	public void reset() {
+		updateQueue.reset();
+		eventDispatcher.resetCoalesced();
+	}
+}
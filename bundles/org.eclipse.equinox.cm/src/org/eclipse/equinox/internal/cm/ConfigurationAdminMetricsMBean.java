@@ -0,0 +1,52 @@
+/*******************************************************************************
+ * Copyright (c) 2015 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.cm;
+
+/**
+ * Management interface of the Configuration Admin delivery metrics.
+ */
+public interface ConfigurationAdminMetricsMBean {
+	/**
+	 * @return The number of ManagedServices and ManagedServiceFactories with pending updates.
+	 */
+	int getUpdateLaneCount();
+
+	/**
+	 * @return The number of pending updates of all ManagedServices and ManagedServiceFactories.
+	 */
+	int getUpdateBacklog();
+
+	/**
+	 * @return The largest number of pending updates of a single target since the last reset.
+	 */
+	int getMaxLaneBacklog();
+
+	/**
+	 * @return The number of updates delivered since the last reset.
+	 */
+	long getCompletedUpdates();
+
+	/**
+	 * @return The number of pending updates replaced by a later update of the same pid since the last reset.
+	 */
+	long getCoalescedUpdates();
+
+	/**
+	 * @return The number of ConfigurationListener events not queued since the last reset because
+	 * the same event was pending.
+	 */
+	long getCoalescedEvents();
+
+	/**
+	 * Reset the counters.
+	 */
+	void reset();
+}
@@ -0,0 +1,413 @@
+/*******************************************************************************
+ * Copyright (c) 2015 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.cm;
+
+import java.io.*;
+import java.lang.reflect.Array;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * ConfigurationCodec reads and writes configuration dictionaries in a compact, versioned binary
+ * encoding. The encoding covers the value types permitted by {@link ConfigurationDictionary}:
+ * the simple types, arrays of simple types and primitives, and collections of simple types.
+ * A collection is restored with its own class when that class can be created with a public no-argument
+ * constructor, and otherwise with a standard collection of the same kind, falling back to a
+ * <code>Vector</code>.
+ * <p>
+ * Strings are encoded in the modified UTF-8 of {@link DataOutputStream#writeUTF(String)}, which keeps any
+ * sequence of chars including unpaired surrogates, preceded by the number of bytes instead of a 16 bit length.
+ * <p>
+ * Property keys read by a codec are interned in a table shared by all dictionaries read with it.
+ * The codec can also read dictionaries written with Java serialization by earlier versions.
+ */
+class ConfigurationCodec {
+	// 'E' 'Q' 'C' 'M'; differs from the Java serialization stream magic 0xACED
+	private static final int MAGIC = 0x4551434D;
+	// version 3 records the class of the collections; version 2 encodes strings in modified UTF-8 so
+	// that unpaired surrogates are kept; version 1 used UTF-8
+	private static final int VERSION = 3;
+	private static final int VERSION_MODIFIED_UTF8 = 2;
+	private static final int VERSION_UTF8 = 1;
+	private static final int SERIALIZATION_MAGIC = 0xACED;
+
+	private static final byte NULL = 0;
+	private static final byte STRING = 1;
+	private static final byte INTEGER = 2;
+	private static final byte LONG = 3;
+	private static final byte FLOAT = 4;
+	private static final byte DOUBLE = 5;
+	private static final byte BYTE = 6;
+	private static final byte SHORT = 7;
+	private static final byte CHARACTER = 8;
+	private static final byte BOOLEAN = 9;
+	private static final byte ARRAY = 16;
+	private static final byte PRIMITIVE_ARRAY = 17;
+	private static final byte COLLECTION = 18;
+
+	private static final Class<?>[] SIMPLE_TYPES = {null, String.class, Integer.class, Long.class, Float.class, Double.class, Byte.class, Short.class, Character.class, Boolean.class};
+	private static final Class<?>[] PRIMITIVE_TYPES = {null, null, int.class, long.class, float.class, double.class, byte.class, short.class, char.class, boolean.class};
+
+	private final ConcurrentHashMap<String, String> keys = new ConcurrentHashMap<String, String>();
+
+	/**
+	 * The result of reading a dictionary.
+	 */
+	static final class Result {
+		final Dictionary<String, Object> dictionary;
+		// true if the dictionary was read from the Java serialization format
+		final boolean serialized;
+
+		Result(Dictionary<String, Object> dictionary, boolean serialized) {
+			this.dictionary = dictionary;
+			this.serialized = serialized;
+		}
+	}
+
+	/**
+	 * Reads a dictionary in the binary encoding or in the Java serialization format.
+	 */
+	Result read(InputStream in) throws IOException, ClassNotFoundException {
+		BufferedInputStream bis = new BufferedInputStream(in);
+		bis.mark(2);
+		int magic = (bis.read() << 8) | bis.read();
+		bis.reset();
+		if (magic == SERIALIZATION_MAGIC) {
+			@SuppressWarnings("unchecked")
+			Dictionary<String, Object> dictionary = (Dictionary<String, Object>) new ObjectInputStream(bis).readObject();
+			return new Result(dictionary, true);
+		}
+		return new Result(readDictionary(new DataInputStream(bis)), false);
+	}
+
+	private Dictionary<String, Object> readDictionary(DataInputStream in) throws IOException {
+		if (in.readInt() != MAGIC)
+			throw new IOException("Not a configuration file"); //$NON-NLS-1$
+		int version = in.readUnsignedByte();
+		if (version != VERSION && version != VERSION_MODIFIED_UTF8 && version != VERSION_UTF8)
+			throw new IOException("Unsupported configuration file version " + version); //$NON-NLS-1$
+		ConfigurationDictionary dictionary = new ConfigurationDictionary();
+		int size = readLength(in);
+		for (int i = 0; i < size; i++) {
+			String key = intern(readString(in, version));
+			dictionary.put(key, readValue(in, in.readByte(), version));
+		}
+		return dictionary;
+	}
+
+	private String intern(String key) {
+		String existing = keys.putIfAbsent(key, key);
+		return existing == null ? key : existing;
+	}
+
+	/**
+	 * Writes a dictionary in the binary encoding.
+	 */
+	void write(OutputStream out, Dictionary<String, Object> dictionary) throws IOException {
+		DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(out));
+		dos.writeInt(MAGIC);
+		dos.writeByte(VERSION);
+		List<String> keyList = new ArrayList<String>(dictionary.size());
+		List<Object> valueList = new ArrayList<Object>(dictionary.size());
+		for (Enumeration<String> e = dictionary.keys(); e.hasMoreElements();) {
+			String key = e.nextElement();
+			keyList.add(key);
+			valueList.add(dictionary.get(key));
+		}
+		writeLength(dos, keyList.size());
+		for (int i = 0; i < keyList.size(); i++) {
+			writeString(dos, keyList.get(i));
+			writeValue(dos, valueList.get(i));
+		}
+		dos.flush();
+	}
+
+	private static void writeValue(DataOutputStream out, Object value) throws IOException {
+		if (value == null) {
+			out.writeByte(NULL);
+			return;
+		}
+		byte type = simpleType(value.getClass());
+		if (type != NULL) {
+			out.writeByte(type);
+			writeSimple(out, type, value);
+			return;
+		}
+		if (value instanceof Collection) {
+			Collection<?> collection = (Collection<?>) value;
+			out.writeByte(COLLECTION);
+			writeString(out, collection.getClass().getName());
+			writeLength(out, collection.size());
+			for (Object element : collection)
+				writeValue(out, element);
+			return;
+		}
+		Class<?> componentType = value.getClass().getComponentType();
+		if (componentType == null)
+			throw new IOException("Unsupported configuration value type " + value.getClass().getName()); //$NON-NLS-1$
+		int length = Array.getLength(value);
+		if (componentType.isPrimitive()) {
+			type = primitiveType(componentType);
+			out.writeByte(PRIMITIVE_ARRAY);
+			out.writeByte(type);
+			writeLength(out, length);
+			for (int i = 0; i < length; i++)
+				writeSimple(out, type, Array.get(value, i));
+			return;
+		}
+		type = simpleType(componentType);
+		if (type == NULL)
+			throw new IOException("Unsupported configuration value type " + value.getClass().getName()); //$NON-NLS-1$
+		out.writeByte(ARRAY);
+		out.writeByte(type);
+		writeLength(out, length);
+		for (int i = 0; i < length; i++) {
+			Object element = Array.get(value, i);
+			out.writeBoolean(element != null);
+			if (element != null)
+				writeSimple(out, type, element);
+		}
+	}
+
+	private static Object readValue(DataInputStream in, byte type, int version) throws IOException {
+		switch (type) {
+			case NULL :
+				return null;
+			case COLLECTION : {
+				String className = version >= VERSION ? readString(in, version) : null;
+				int length = readLength(in);
+				Collection<Object> collection = newCollection(className, length);
+				for (int i = 0; i < length; i++)
+					collection.add(readValue(in, in.readByte(), version));
+				return collection;
+			}
+			case PRIMITIVE_ARRAY : {
+				byte componentType = in.readByte();
+				checkSimpleType(componentType);
+				if (componentType == STRING)
+					throw new IOException("Unknown configuration value type " + componentType); //$NON-NLS-1$
+				int length = readLength(in);
+				Object array = Array.newInstance(PRIMITIVE_TYPES[componentType], length);
+				for (int i = 0; i < length; i++)
+					Array.set(array, i, readSimple(in, componentType, version));
+				return array;
+			}
+			case ARRAY : {
+				byte componentType = in.readByte();
+				checkSimpleType(componentType);
+				int length = readLength(in);
+				Object[] array = (Object[]) Array.newInstance(SIMPLE_TYPES[componentType], length);
+				for (int i = 0; i < length; i++)
+					array[i] = in.readBoolean() ? readSimple(in, componentType, version) : null;
+				return array;
+			}
+			default :
+				checkSimpleType(type);
+				return readSimple(in, type, version);
+		}
+	}
+
+	/**
+	 * Creates an empty collection of the given class, or of the standard class closest to it if it cannot
+	 * be created. The class is only initialized once it is known to be a collection.
+	 */
+	@SuppressWarnings("unchecked")
+	private static Collection<Object> newCollection(String className, int length) {
+		if (className == null)
+			return new Vector<Object>(length);
+		Class<?> clazz;
+		try {
+			clazz = Class.forName(className, false, ConfigurationCodec.class.getClassLoader());
+		} catch (ClassNotFoundException e) {
+			return new Vector<Object>(length);
+		}
+		if (!Collection.class.isAssignableFrom(clazz))
+			return new Vector<Object>(length);
+		try {
+			return (Collection<Object>) clazz.getConstructor().newInstance();
+		} catch (Exception e) {
+			// not public or no default constructor, such as the collections of Arrays and Collections
+		} catch (LinkageError e) {
+			// fall back to a standard collection
+		}
+		if (SortedSet.class.isAssignableFrom(clazz))
+			return new TreeSet<Object>();
+		if (Set.class.isAssignableFrom(clazz))
+			return new LinkedHashSet<Object>(length);
+		if (List.class.isAssignableFrom(clazz) && !Vector.class.isAssignableFrom(clazz))
+			return new ArrayList<Object>(length);
+		return new Vector<Object>(length);
+	}
+
+	private static void checkSimpleType(byte type) throws IOException {
+		if (type <= NULL || type > BOOLEAN)
+			throw new IOException("Unknown configuration value type " + type); //$NON-NLS-1$
+	}
+
+	private static byte simpleType(Class<?> clazz) {
+		for (byte i = STRING; i <= BOOLEAN; i++) {
+			if (SIMPLE_TYPES[i] == clazz)
+				return i;
+		}
+		return NULL;
+	}
+
+	private static byte primitiveType(Class<?> clazz) throws IOException {
+		for (byte i = INTEGER; i <= BOOLEAN; i++) {
+			if (PRIMITIVE_TYPES[i] == clazz)
+				return i;
+		}
+		throw new IOException("Unsupported configuration value type " + clazz.getName()); //$NON-NLS-1$
+	}
+
+	private static void writeSimple(DataOutputStream out, byte type, Object value) throws IOException {
+		switch (type) {
+			case STRING :
+				writeString(out, (String) value);
+				break;
+			case INTEGER :
+				out.writeInt(((Integer) value).intValue());
+				break;
+			case LONG :
+				out.writeLong(((Long) value).longValue());
+				break;
+			case FLOAT :
+				out.writeFloat(((Float) value).floatValue());
+				break;
+			case DOUBLE :
+				out.writeDouble(((Double) value).doubleValue());
+				break;
+			case BYTE :
+				out.writeByte(((Byte) value).byteValue());
+				break;
+			case SHORT :
+				out.writeShort(((Short) value).shortValue());
+				break;
+			case CHARACTER :
+				out.writeChar(((Character) value).charValue());
+				break;
+			case BOOLEAN :
+				out.writeBoolean(((Boolean) value).booleanValue());
+				break;
+		}
+	}
+
+	private static Object readSimple(DataInputStream in, byte type, int version) throws IOException {
+		switch (type) {
+			case STRING :
+				return readString(in, version);
+			case INTEGER :
+				return Integer.valueOf(in.readInt());
+			case LONG :
+				return Long.valueOf(in.readLong());
+			case FLOAT :
+				return Float.valueOf(in.readFloat());
+			case DOUBLE :
+				return Double.valueOf(in.readDouble());
+			case BYTE :
+				return Byte.valueOf(in.readByte());
+			case SHORT :
+				return Short.valueOf(in.readShort());
+			case CHARACTER :
+				return Character.valueOf(in.readChar());
+			default :
+				return Boolean.valueOf(in.readBoolean());
+		}
+	}
+
+	/**
+	 * Writes a string in modified UTF-8: each char is encoded on its own, so unpaired surrogates are kept.
+	 */
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		int length = value.length();
+		int encodedLength = 0;
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			encodedLength += (c >= 0x0001 && c <= 0x007F) ? 1 : (c <= 0x07FF ? 2 : 3);
+		}
+		writeLength(out, encodedLength);
+		if (encodedLength == length) {
+			out.writeBytes(value);
+			return;
+		}
+		byte[] bytes = new byte[encodedLength];
+		int pos = 0;
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			if (c >= 0x0001 && c <= 0x007F) {
+				bytes[pos++] = (byte) c;
+			} else if (c <= 0x07FF) {
+				bytes[pos++] = (byte) (0xC0 | (c >> 6));
+				bytes[pos++] = (byte) (0x80 | (c & 0x3F));
+			} else {
+				bytes[pos++] = (byte) (0xE0 | (c >> 12));
+				bytes[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+				bytes[pos++] = (byte) (0x80 | (c & 0x3F));
+			}
+		}
+		out.write(bytes);
+	}
+
+	private static String readString(DataInputStream in, int version) throws IOException {
+		byte[] bytes = new byte[readLength(in)];
+		in.readFully(bytes);
+		if (version == VERSION_UTF8)
+			return new String(bytes, "UTF-8"); //$NON-NLS-1$
+
+		char[] chars = new char[bytes.length];
+		int length = 0;
+		for (int pos = 0; pos < bytes.length;) {
+			int b = bytes[pos++] & 0xFF;
+			if (b < 0x80) {
+				chars[length++] = (char) b;
+			} else if ((b & 0xE0) == 0xC0 && pos < bytes.length) {
+				chars[length++] = (char) (((b & 0x1F) << 6) | continuation(bytes[pos++]));
+			} else if ((b & 0xF0) == 0xE0 && pos + 1 < bytes.length) {
+				int c = ((b & 0x0F) << 12) | (continuation(bytes[pos++]) << 6);
+				chars[length++] = (char) (c | continuation(bytes[pos++]));
+			} else {
+				throw new UTFDataFormatException("Malformed string in configuration file"); //$NON-NLS-1$
+			}
+		}
+		return new String(chars, 0, length);
+	}
+
+	private static int continuation(byte b) throws IOException {
+		if ((b & 0xC0) != 0x80)
+			throw new UTFDataFormatException("Malformed string in configuration file"); //$NON-NLS-1$
+		return b & 0x3F;
+	}
+
+	/**
+	 * Writes a non-negative length with seven bits per byte.
+	 */
+	private static void writeLength(DataOutputStream out, int length) throws IOException {
+		while ((length & ~0x7F) != 0) {
+			out.writeByte((length & 0x7F) | 0x80);
+			length >>>= 7;
+		}
+		out.writeByte(length);
+	}
+
+	private static int readLength(DataInputStream in) throws IOException {
+		int length = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			int b = in.readUnsignedByte();
+			length |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				if (length < 0)
+					break;
+				return length;
+			}
+		}
+		throw new IOException("Invalid length in configuration file"); //$NON-NLS-1$
+	}
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2005, 2013 Cognos Incorporated, IBM Corporation and others.
+ * Copyright (c) 2005, 2015 Cognos Incorporated, IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -14,38 +14,46 @@ package org.eclipse.equinox.internal.cm;
 import java.io.IOException;
 import java.lang.reflect.Array;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.Constants;
 import org.osgi.service.cm.*;
+import org.osgi.service.log.LogService;
 
 /**
  * ConfigurationImpl provides the Configuration implementation.
  * The lock and unlock methods are used for synchronization. Operations outside of
- * ConfigurationImpl that expect to have control of the lock should call checkLocked
+ * ConfigurationImpl that expect to have control of the lock should call checkLocked.
+ * A thread which waits for the lock longer than a few seconds logs the owner of the
+ * lock and any cycle of threads waiting for each other's configuration locks.
  */
 class ConfigurationImpl implements Configuration {
 	final static String LOCATION_BOUND = "org.eclipse.equinox.cm.location.bound"; //$NON-NLS-1$
 	final static String PROPERTIES_NULL = "org.eclipse.equinox.cm.properties.null"; //$NON-NLS-1$
 	final static String CHANGE_COUNT = "org.eclipse.equinox.cm.change.count"; //$NON-NLS-1$
+	// the time after which a thread waiting for a configuration lock logs diagnostics and continues to wait
+	private static final long LOCK_WAIT_WARNING = 10000;
+	private static final String LINE_SEPARATOR = System.getProperty("line.separator", "\n"); //$NON-NLS-1$ //$NON-NLS-2$
+	// the configuration each thread is waiting to lock, used to detect deadlocks
+	private static final ConcurrentHashMap<Thread, ConfigurationImpl> waitingThreads = new ConcurrentHashMap<Thread, ConfigurationImpl>();
 
 	private final ConfigurationAdminFactory configurationAdminFactory;
 	private final ConfigurationStore configurationStore;
-	/** @GuardedBy this*/
+	/** @GuardedBy configLock*/
 	private String bundleLocation;
 	private final String factoryPid;
 	private final String pid;
 	private ConfigurationDictionary dictionary;
-	/** @GuardedBy this*/
+	/** @GuardedBy configLock*/
 	private boolean deleted = false;
-	/** @GuardedBy this*/
+	/** @GuardedBy configLock*/
 	private boolean bound = false;
-	/** @GuardedBy this*/
-	private int lockedCount = 0;
-	/** @GuardedBy this*/
-	private Thread lockHolder = null;
-	/** @GuardedBy this*/
+	private final ConfigurationLock configLock = new ConfigurationLock();
+	/** @GuardedBy configLock*/
 	private long changeCount;
-	/** @GuardedBy this*/
+	/** @GuardedBy configLock*/
 	private Object storageToken;
 
 	public ConfigurationImpl(ConfigurationAdminFactory configurationAdminFactory, ConfigurationStore configurationStore, String factoryPid, String pid, String bundleLocation, boolean bind) {
@@ -75,44 +83,85 @@ class ConfigurationImpl implements Configuration {
 		this.storageToken = storageToken;
 	}
 
-	synchronized void lock() {
+	void lock() {
+		if (configLock.tryLock())
+			return;
 		Thread current = Thread.currentThread();
-		if (lockHolder != current) {
-			boolean interrupted = false;
-			try {
-				while (lockedCount != 0)
-					try {
-						wait();
-					} catch (InterruptedException e) {
-						// although we don't handle an interrupt we should still 
-						// save and restore the interrupt for others further up the stack
-						interrupted = true;
-					}
-			} finally {
-				if (interrupted)
-					current.interrupt(); // restore interrupted status
+		boolean interrupted = false;
+		waitingThreads.put(current, this);
+		try {
+			while (true) {
+				try {
+					if (configLock.tryLock(LOCK_WAIT_WARNING, TimeUnit.MILLISECONDS))
+						return;
+					configurationAdminFactory.log(LogService.LOG_WARNING, getLockDiagnostics(current));
+				} catch (InterruptedException e) {
+					// although we don't handle an interrupt we should still 
+					// save and restore the interrupt for others further up the stack
+					interrupted = true;
+				}
 			}
+		} finally {
+			waitingThreads.remove(current);
+			if (interrupted)
+				current.interrupt(); // restore interrupted status
 		}
-		lockedCount++;
-		lockHolder = current;
 	}
 
-	synchronized void unlock() {
-		Thread current = Thread.currentThread();
-		if (lockHolder != current)
+	void unlock() {
+		if (!configLock.isHeldByCurrentThread())
+			throw new IllegalStateException("Thread not lock owner"); //$NON-NLS-1$
+		configLock.unlock();
+	}
+
+	void checkLocked() {
+		if (!configLock.isHeldByCurrentThread())
 			throw new IllegalStateException("Thread not lock owner"); //$NON-NLS-1$
+	}
 
-		lockedCount--;
-		if (lockedCount == 0) {
-			lockHolder = null;
-			notify();
+	/**
+	 * Describes why a thread is still waiting for the lock: the owner of the lock, what the owner is
+	 * doing and the cycle of threads if they wait for each other's configuration locks.
+	 */
+	private String getLockDiagnostics(Thread waiting) {
+		StringBuffer message = new StringBuffer();
+		message.append("Thread \"").append(waiting.getName()).append("\" is waiting for more than ").append(LOCK_WAIT_WARNING).append(" ms for the lock of configuration ").append(pid); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		Thread owner = configLock.getOwner();
+		if (owner == null)
+			return message.toString();
+		message.append(" held by \"").append(owner.getName()).append('"'); //$NON-NLS-1$
+		// follow the configurations the owners are waiting for
+		List<Thread> chain = new ArrayList<Thread>();
+		chain.add(waiting);
+		Thread next = owner;
+		while (next != null && !chain.contains(next)) {
+			chain.add(next);
+			ConfigurationImpl waitingFor = waitingThreads.get(next);
+			next = waitingFor == null ? null : waitingFor.configLock.getOwner();
+		}
+		if (next == waiting) {
+			message.append("; deadlock:"); //$NON-NLS-1$
+			for (Thread thread : chain) {
+				ConfigurationImpl waitingFor = waitingThreads.get(thread);
+				message.append(" \"").append(thread.getName()).append("\" waits for ").append(waitingFor == null ? "?" : waitingFor.pid).append(';'); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			}
 		}
+		message.append(LINE_SEPARATOR).append("\"").append(owner.getName()).append("\" stack:"); //$NON-NLS-1$ //$NON-NLS-2$
+		StackTraceElement[] stack = owner.getStackTrace();
+		for (int i = 0; i < stack.length; i++)
+			message.append(LINE_SEPARATOR).append("\tat ").append(stack[i]); //$NON-NLS-1$
+		return message.toString();
 	}
 
-	synchronized void checkLocked() {
-		Thread current = Thread.currentThread();
-		if (lockHolder != current)
-			throw new IllegalStateException("Thread not lock owner"); //$NON-NLS-1$
+	/**
+	 * A reentrant lock exposing its owner for diagnostics.
+	 */
+	private static class ConfigurationLock extends ReentrantLock {
+		private static final long serialVersionUID = 1L;
+
+		protected Thread getOwner() {
+			return super.getOwner();
+		}
 	}
 
 	boolean bind(String callerLocation) {
@@ -121,6 +170,7 @@ class ConfigurationImpl implements Configuration {
 			if (bundleLocation == null) {
 				bundleLocation = callerLocation;
 				bound = true;
+				configurationStore.locationChanged(this, bundleLocation);
 				try {
 					save();
 				} catch (IOException e) {
@@ -151,6 +201,7 @@ class ConfigurationImpl implements Configuration {
 			if (bound && callerLocation.equals(bundleLocation)) {
 				bundleLocation = null;
 				bound = false;
+				configurationStore.locationChanged(this, null);
 				try {
 					save();
 				} catch (IOException e) {
@@ -209,10 +260,11 @@ class ConfigurationImpl implements Configuration {
 	}
 
 	String getFactoryPid(boolean checkDeleted) {
+		if (!checkDeleted)
+			return factoryPid; // final, no need to lock
 		try {
 			lock();
-			if (checkDeleted)
-				checkDeleted();
+			checkDeleted();
 			return factoryPid;
 		} finally {
 			unlock();
@@ -224,10 +276,11 @@ class ConfigurationImpl implements Configuration {
 	}
 
 	String getPid(boolean checkDeleted) {
+		if (!checkDeleted)
+			return pid; // final, no need to lock
 		try {
 			lock();
-			if (checkDeleted)
-				checkDeleted();
+			checkDeleted();
 			return pid;
 		} finally {
 			unlock();
@@ -304,6 +357,7 @@ class ConfigurationImpl implements Configuration {
 			String oldLocation = this.bundleLocation;
 			this.bundleLocation = bundleLocation;
 			this.bound = false;
+			configurationStore.locationChanged(this, bundleLocation);
 			try {
 				save();
 			} catch (IOException e) {
@@ -377,7 +431,8 @@ class ConfigurationImpl implements Configuration {
 	}
 
 	public boolean equals(Object obj) {
-		return (obj instanceof ConfigurationImpl) && pid.equals(((ConfigurationImpl) obj).getPid());
+		// the pid is final; comparing it must not lock nor fail once a configuration is deleted
+		return (obj instanceof ConfigurationImpl) && pid.equals(((ConfigurationImpl) obj).pid);
 	}
 
 	public int hashCode() {
@@ -0,0 +1,578 @@
+/*******************************************************************************
+ * Copyright (c) 2015 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.cm;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.zip.CRC32;
+import org.osgi.service.log.LogService;
+
+/**
+ * ConfigurationJournal persists encoded configuration dictionaries in an append-only journal.
+ * <p>
+ * Each update or delete appends a checksummed record to the current journal file. Threads which
+ * append concurrently share a single write and <code>force</code> of the journal (group commit):
+ * the first waiting thread writes all records appended so far while the others wait for it.
+ * <p>
+ * When the journal outgrows the live data, the next commit starts a new journal generation and a
+ * background thread writes a snapshot of the live data for that generation. Once the snapshot is
+ * complete the older snapshots and journals are deleted. On startup the latest complete snapshot
+ * is read and the journals of the same or later generations are replayed; a torn record at the end
+ * of a journal is truncated.
+ * <p>
+ * A failed write only fails the updates of its batch. As the failed records may be torn, the next
+ * batch is written to a new journal generation, so the records which follow are never replayed
+ * after a torn record.
+ * <p>
+ * Each configuration is identified by its pid and an id which is the storage token of the
+ * configuration. A delete only applies to the configuration with the same id, so a delete of a
+ * configuration cannot remove a new configuration with the same pid.
+ */
+class ConfigurationJournal {
+	private static final String JOURNAL_PRE = "journal."; //$NON-NLS-1$
+	private static final String SNAPSHOT_PRE = "snapshot."; //$NON-NLS-1$
+	private static final String TMP_EXT = ".tmp"; //$NON-NLS-1$
+	private static final String COMPACTOR_THREAD_NAME = "CM Journal Compactor"; //$NON-NLS-1$
+	// 'E' 'Q' 'C' 'J'
+	private static final int MAGIC = 0x4551434A;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 5;
+	// the length and checksum preceding each record
+	private static final int RECORD_HEADER_SIZE = 8;
+	private static final byte PUT = 1;
+	private static final byte DELETE = 2;
+	// the journal is compacted when it is larger than this and than the last snapshot
+	private static final long MIN_COMPACT_SIZE = 1024 * 1024;
+
+	/**
+	 * A configuration in the journal.
+	 */
+	static final class Entry {
+		final String pid;
+		final long id;
+		// the encoded dictionary
+		final byte[] data;
+
+		Entry(String pid, long id, byte[] data) {
+			this.pid = pid;
+			this.id = id;
+			this.data = data;
+		}
+	}
+
+	private final File directory;
+	private final ConfigurationAdminFactory configurationAdminFactory;
+
+	/**
+	 * Records appended to the journal which are written together.
+	 */
+	private static final class Batch {
+		final List<byte[]> records = new ArrayList<byte[]>();
+		/** @GuardedBy the journal*/
+		boolean done;
+		/** @GuardedBy the journal*/
+		IOException error;
+	}
+
+	/** @GuardedBy this*/
+	private final Map<String, Entry> entries = new HashMap<String, Entry>();
+	/** @GuardedBy this*/
+	private Batch pending = new Batch();
+	/** @GuardedBy this*/
+	private boolean writing = false;
+	/** @GuardedBy this*/
+	private boolean compacting = false;
+	// true if the last write failed, so the next batch must start a new journal generation
+	/** @GuardedBy this*/
+	private boolean rollover = false;
+	// set if the journal could not be opened or is closed
+	/** @GuardedBy this*/
+	private IOException failure;
+	/** @GuardedBy this*/
+	private long nextId = 1;
+	/** @GuardedBy this*/
+	private long snapshotSize = 0;
+	/** @GuardedBy this*/
+	private Thread compactor;
+
+	// only used by the thread which is writing
+	private FileChannel channel;
+	private int generation;
+	private long journalSize;
+
+	ConfigurationJournal(File directory, ConfigurationAdminFactory configurationAdminFactory) {
+		this.directory = directory;
+		this.configurationAdminFactory = configurationAdminFactory;
+	}
+
+	/**
+	 * Returns true if the directory contains a journal or snapshot.
+	 */
+	static boolean exists(File directory) {
+		String[] names = directory.list();
+		if (names == null)
+			return false;
+		for (int i = 0; i < names.length; i++) {
+			if (getGeneration(names[i], JOURNAL_PRE) >= 0 || getGeneration(names[i], SNAPSHOT_PRE) >= 0)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Recovers the configurations from the latest snapshot and journals and opens the journal for appending.
+	 * A torn record at the end of a journal is truncated.
+	 * @return the recovered configurations, one per pid
+	 */
+	synchronized Collection<Entry> open() throws IOException {
+		try {
+			int snapshotGeneration = load(true);
+			deleteObsoleteFiles(snapshotGeneration, true);
+			openChannel();
+			return new ArrayList<Entry>(entries.values());
+		} catch (IOException e) {
+			failure = e;
+			closeChannel();
+			throw e;
+		}
+	}
+
+	/**
+	 * Reads the configurations from the latest snapshot and journals without modifying any file.
+	 * The journal cannot be appended to afterwards.
+	 * @return the configurations, one per pid
+	 */
+	synchronized Collection<Entry> read() throws IOException {
+		failure = new IOException("The configuration journal is read only."); //$NON-NLS-1$
+		load(false);
+		return new ArrayList<Entry>(entries.values());
+	}
+
+	/**
+	 * Replays the latest snapshot and the journals of the same or later generations.
+	 * @param repair true to truncate a torn record at the end of a journal
+	 * @return the generation of the snapshot, or -1 if there is no snapshot
+	 */
+	private int load(boolean repair) throws IOException {
+		int snapshotGeneration = -1;
+		int journalGeneration = -1;
+		List<Integer> journals = new ArrayList<Integer>();
+		String[] names = directory.list();
+		if (names == null)
+			throw new IOException("Unable to list " + directory); //$NON-NLS-1$
+		for (int i = 0; i < names.length; i++) {
+			snapshotGeneration = Math.max(snapshotGeneration, getGeneration(names[i], SNAPSHOT_PRE));
+			int g = getGeneration(names[i], JOURNAL_PRE);
+			if (g >= 0)
+				journals.add(Integer.valueOf(g));
+		}
+		Collections.sort(journals);
+		if (snapshotGeneration >= 0) {
+			File snapshot = getFile(SNAPSHOT_PRE, snapshotGeneration);
+			replay(snapshot, repair);
+			snapshotSize = snapshot.length();
+		}
+		journalSize = 0;
+		for (Integer g : journals) {
+			if (g.intValue() < snapshotGeneration)
+				continue;
+			File journal = getFile(JOURNAL_PRE, g.intValue());
+			replay(journal, repair);
+			journalSize += journal.length();
+			journalGeneration = g.intValue();
+		}
+		generation = Math.max(0, Math.max(snapshotGeneration, journalGeneration));
+		return snapshotGeneration;
+	}
+
+	/**
+	 * Returns the id of the configuration with the pid, or <code>null</code> if there is none.
+	 */
+	synchronized Long getId(String pid) {
+		Entry entry = entries.get(pid);
+		return entry == null ? null : Long.valueOf(entry.id);
+	}
+
+	/**
+	 * Appends an update of a configuration and waits until it is durable.
+	 * @param id the id of the configuration or <code>null</code> to assign a new id
+	 * @return the id of the configuration
+	 */
+	Long put(String pid, Long id, byte[] data) throws IOException {
+		Batch batch;
+		Entry entry;
+		synchronized (this) {
+			checkFailure();
+			entry = new Entry(pid, id == null ? nextId++ : id.longValue(), data);
+			entries.put(pid, entry);
+			batch = pending;
+			batch.records.add(encodeRecord(PUT, entry));
+		}
+		commit(batch);
+		return Long.valueOf(entry.id);
+	}
+
+	/**
+	 * Appends a delete of a configuration and waits until it is durable.
+	 */
+	void remove(String pid, Long id) throws IOException {
+		Batch batch;
+		synchronized (this) {
+			checkFailure();
+			Entry entry = entries.get(pid);
+			if (entry == null || entry.id != id.longValue())
+				return; // already deleted or replaced by a new configuration
+			entries.remove(pid);
+			batch = pending;
+			batch.records.add(encodeRecord(DELETE, new Entry(pid, entry.id, null)));
+		}
+		commit(batch);
+	}
+
+	/**
+	 * Waits for a running compaction and closes the journal.
+	 */
+	void close() {
+		Thread currentCompactor;
+		synchronized (this) {
+			boolean interrupted = false;
+			while (writing) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted)
+				Thread.currentThread().interrupt();
+			if (failure == null)
+				failure = new IOException("The configuration journal is closed."); //$NON-NLS-1$
+			currentCompactor = compactor;
+			closeChannel();
+		}
+		if (currentCompactor != null) {
+			try {
+				currentCompactor.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Deletes the journals and snapshots. The journal must be closed.
+	 */
+	void delete() {
+		String[] names = directory.list();
+		if (names == null)
+			return;
+		for (int i = 0; i < names.length; i++) {
+			if (names[i].startsWith(JOURNAL_PRE) || names[i].startsWith(SNAPSHOT_PRE))
+				new File(directory, names[i]).delete();
+		}
+	}
+
+	private void checkFailure() throws IOException {
+		if (failure != null) {
+			IOException e = new IOException("The configuration journal is not available."); //$NON-NLS-1$
+			e.initCause(failure);
+			throw e;
+		}
+	}
+
+	/**
+	 * Waits until the batch is durable. If no other thread is writing, this thread writes the
+	 * pending batch.
+	 */
+	private void commit(Batch own) throws IOException {
+		Batch batch;
+		boolean roll;
+		List<Entry> snapshot = null;
+		synchronized (this) {
+			boolean interrupted = false;
+			try {
+				while (!own.done && writing) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						// the record is already appended, so wait for it anyway
+						interrupted = true;
+					}
+				}
+			} finally {
+				if (interrupted)
+					Thread.currentThread().interrupt();
+			}
+			if (own.done) {
+				if (own.error == null)
+					return;
+				IOException e = new IOException("The configuration journal could not be written."); //$NON-NLS-1$
+				e.initCause(own.error);
+				throw e;
+			}
+			checkFailure();
+			writing = true;
+			batch = pending;
+			pending = new Batch();
+			roll = rollover || channel == null;
+			if (!compacting && journalSize > Math.max(MIN_COMPACT_SIZE, snapshotSize)) {
+				// the entries are exactly the state after the batch which ends the current generation
+				snapshot = new ArrayList<Entry>(entries.values());
+				compacting = true;
+			}
+		}
+
+		IOException error = null;
+		try {
+			if (roll)
+				nextGeneration();
+			write(batch.records);
+			if (snapshot != null)
+				nextGeneration();
+		} catch (IOException e) {
+			error = e;
+		}
+
+		synchronized (this) {
+			writing = false;
+			batch.done = true;
+			batch.error = error;
+			// a failed write may leave a torn record, which must remain the last record of its journal
+			rollover = error != null;
+			if (error != null && snapshot != null)
+				compacting = false;
+			notifyAll();
+			if (error != null)
+				throw error;
+			if (snapshot != null)
+				startCompaction(snapshot, generation);
+		}
+	}
+
+	private void nextGeneration() throws IOException {
+		closeChannel();
+		generation++;
+		openChannel();
+	}
+
+	private void write(List<byte[]> records) throws IOException {
+		int length = 0;
+		for (byte[] record : records)
+			length += record.length;
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		for (byte[] record : records)
+			buffer.put(record);
+		buffer.flip();
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		channel.force(false);
+		journalSize += length;
+	}
+
+	private void openChannel() throws IOException {
+		File journal = getFile(JOURNAL_PRE, generation);
+		FileChannel newChannel = new RandomAccessFile(journal, "rw").getChannel(); //$NON-NLS-1$
+		try {
+			if (newChannel.size() < HEADER_SIZE) {
+				newChannel.truncate(0);
+				ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+				header.putInt(MAGIC).put((byte) VERSION).flip();
+				while (header.hasRemaining())
+					newChannel.write(header);
+				newChannel.force(true);
+				journalSize += HEADER_SIZE;
+			}
+			newChannel.position(newChannel.size());
+		} catch (IOException e) {
+			newChannel.close();
+			throw e;
+		}
+		channel = newChannel;
+	}
+
+	private void closeChannel() {
+		if (channel == null)
+			return;
+		try {
+			channel.close();
+		} catch (IOException e) {
+			// ignore
+		}
+		channel = null;
+	}
+
+	private void startCompaction(final List<Entry> snapshot, final int snapshotGeneration) {
+		// the new journal holds only the header
+		journalSize = HEADER_SIZE;
+		compactor = new Thread(COMPACTOR_THREAD_NAME) {
+			public void run() {
+				compact(snapshot, snapshotGeneration);
+			}
+		};
+		compactor.setDaemon(true);
+		compactor.start();
+	}
+
+	void compact(List<Entry> snapshot, int snapshotGeneration) {
+		File tmp = new File(directory, SNAPSHOT_PRE + snapshotGeneration + TMP_EXT);
+		long size = -1;
+		try {
+			FileOutputStream out = new FileOutputStream(tmp);
+			try {
+				BufferedOutputStream bos = new BufferedOutputStream(out, 64 * 1024);
+				DataOutputStream dos = new DataOutputStream(bos);
+				dos.writeInt(MAGIC);
+				dos.writeByte(VERSION);
+				for (Entry entry : snapshot)
+					dos.write(encodeRecord(PUT, entry));
+				dos.flush();
+				out.getFD().sync();
+			} finally {
+				out.close();
+			}
+			File target = getFile(SNAPSHOT_PRE, snapshotGeneration);
+			if (!tmp.renameTo(target))
+				throw new IOException("Unable to rename " + tmp + " to " + target); //$NON-NLS-1$ //$NON-NLS-2$
+			size = target.length();
+			deleteObsoleteFiles(snapshotGeneration, false);
+		} catch (IOException e) {
+			// the previous snapshot and journals remain valid
+			tmp.delete();
+			configurationAdminFactory.log(LogService.LOG_ERROR, "{Configuration Admin - journal} could not be compacted.", e); //$NON-NLS-1$
+		} finally {
+			synchronized (this) {
+				if (size >= 0)
+					snapshotSize = size;
+				compacting = false;
+				compactor = null;
+			}
+		}
+	}
+
+	/**
+	 * Deletes the snapshots and journals older than a generation and, if requested, incomplete snapshots.
+	 */
+	private void deleteObsoleteFiles(int minGeneration, boolean deleteIncomplete) {
+		String[] names = directory.list();
+		if (names == null)
+			return;
+		for (int i = 0; i < names.length; i++) {
+			String name = names[i];
+			int g = Math.max(getGeneration(name, SNAPSHOT_PRE), getGeneration(name, JOURNAL_PRE));
+			if ((g >= 0 && g < minGeneration) || (deleteIncomplete && name.startsWith(SNAPSHOT_PRE) && name.endsWith(TMP_EXT)))
+				new File(directory, name).delete();
+		}
+	}
+
+	/**
+	 * Applies the records of a snapshot or journal file.
+	 * @param repair true to truncate the file after the last valid record
+	 */
+	private void replay(File file, boolean repair) throws IOException {
+		long valid = 0;
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+		try {
+			long length = file.length();
+			if (length >= HEADER_SIZE && in.readInt() == MAGIC) {
+				int version = in.readUnsignedByte();
+				if (version != VERSION)
+					throw new IOException("Unsupported configuration journal version " + version + ": " + file); //$NON-NLS-1$ //$NON-NLS-2$
+				valid = HEADER_SIZE;
+				CRC32 crc = new CRC32();
+				while (valid + RECORD_HEADER_SIZE <= length) {
+					int recordLength = in.readInt();
+					int checksum = in.readInt();
+					if (recordLength < 0 || recordLength > length - valid - RECORD_HEADER_SIZE)
+						break;
+					byte[] record = new byte[recordLength];
+					in.readFully(record);
+					crc.reset();
+					crc.update(record);
+					if ((int) crc.getValue() != checksum)
+						break;
+					apply(record);
+					valid += RECORD_HEADER_SIZE + recordLength;
+				}
+			}
+		} finally {
+			in.close();
+		}
+		if (repair && valid < file.length()) {
+			configurationAdminFactory.log(LogService.LOG_WARNING, "{Configuration Admin - journal = " + file + "} truncated after " + valid + " bytes."); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			RandomAccessFile raf = new RandomAccessFile(file, "rw"); //$NON-NLS-1$
+			try {
+				raf.setLength(valid);
+			} finally {
+				raf.close();
+			}
+		}
+	}
+
+	private void apply(byte[] record) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+		byte type = in.readByte();
+		String pid = in.readUTF();
+		long id = in.readLong();
+		nextId = Math.max(nextId, id + 1);
+		if (type == PUT) {
+			byte[] data = new byte[in.available()];
+			in.readFully(data);
+			entries.put(pid, new Entry(pid, id, data));
+		} else if (type == DELETE) {
+			Entry entry = entries.get(pid);
+			if (entry != null && entry.id == id)
+				entries.remove(pid);
+		} else {
+			throw new IOException("Unknown configuration journal record " + type); //$NON-NLS-1$
+		}
+	}
+
+	private static byte[] encodeRecord(byte type, Entry entry) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(RECORD_HEADER_SIZE + 32 + (entry.data == null ? 0 : entry.data.length));
+		DataOutputStream out = new DataOutputStream(bytes);
+		// reserve the length and checksum
+		out.writeLong(0);
+		out.writeByte(type);
+		out.writeUTF(entry.pid);
+		out.writeLong(entry.id);
+		if (entry.data != null)
+			out.write(entry.data);
+		byte[] record = bytes.toByteArray();
+		int length = record.length - RECORD_HEADER_SIZE;
+		CRC32 crc = new CRC32();
+		crc.update(record, RECORD_HEADER_SIZE, length);
+		ByteBuffer.wrap(record).putInt(length).putInt((int) crc.getValue());
+		return record;
+	}
+
+	private File getFile(String prefix, int g) {
+		return new File(directory, prefix + g);
+	}
+
+	/**
+	 * Returns the generation of a file name with the prefix, or -1 if the name does not match.
+	 */
+	private static int getGeneration(String name, String prefix) {
+		if (!name.startsWith(prefix) || name.length() == prefix.length())
+			return -1;
+		for (int i = prefix.length(); i < name.length(); i++) {
+			if (!Character.isDigit(name.charAt(i)))
+				return -1;
+		}
+		try {
+			return Integer.parseInt(name.substring(prefix.length()));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+}
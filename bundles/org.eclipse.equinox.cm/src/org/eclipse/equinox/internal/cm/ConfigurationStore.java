@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2005, 2013 Cognos Incorporated, IBM Corporation and others.
+ * Copyright (c) 2005, 2015 Cognos Incorporated, IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -14,6 +14,9 @@ package org.eclipse.equinox.internal.cm;
 import java.io.*;
 import java.security.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.eclipse.equinox.internal.cm.FilterAnalyzer.Equality;
 import org.eclipse.equinox.internal.cm.reliablefile.*;
 import org.osgi.framework.*;
 import org.osgi.service.cm.ConfigurationAdmin;
@@ -21,9 +24,20 @@ import org.osgi.service.log.LogService;
 
 /**
  * ConfigurationStore manages all active configurations along with persistence. The current
- * implementation uses a filestore and serialization of the configuration dictionaries to files
- * identified by their pid. Persistence details are in the constructor, saveConfiguration, and
- * deleteConfiguration and can be factored out separately if required.
+ * implementation uses a filestore and a binary encoding of the configuration dictionaries
+ * (see ConfigurationCodec) to files identified by their pid. Persistence details are in the constructor, saveConfiguration, and
+ * deleteConfiguration and can be factored out separately if required. With the {@link #PROP_STORE} framework property
+ * set to <code>journal</code> the dictionaries are kept in a ConfigurationJournal instead, and existing files are moved
+ * into the journal; without it a journal left by an earlier run is moved back into files.
+ * <p>
+ * Configurations are additionally indexed by factory pid and bundle location. Configurations are created
+ * and removed holding a lock selected by the hash of the pid, and the set of configurations of an index key
+ * is modified holding a lock selected by the hash of the key, so operations on different pids rarely
+ * contend. Queries read the concurrent maps without locking.
+ * <p>
+ * Locks are taken in the order configuration lock, pid lock, index lock. No configuration lock is taken
+ * while a pid lock or an index lock is held, so the store never waits for a configuration which may in turn
+ * wait for the store.
  */
 class ConfigurationStore {
 
@@ -31,73 +45,271 @@ class ConfigurationStore {
 	private static final String STORE_DIR = "store"; //$NON-NLS-1$
 	private static final String DATA_PRE = "data"; //$NON-NLS-1$
 	private static final String CFG_EXT = ".cfg"; //$NON-NLS-1$
-	private final Map<String, ConfigurationImpl> configurations = new HashMap<String, ConfigurationImpl>();
-	private int createdPidCount = 0;
+	/**
+	 * The framework property selecting the store; set to <code>journal</code> to keep all configurations
+	 * in an append-only journal instead of one file per configuration.
+	 */
+	static final String PROP_STORE = "org.eclipse.equinox.cm.store"; //$NON-NLS-1$
+	static final String STORE_JOURNAL = "journal"; //$NON-NLS-1$
+	private static final String LOADER_THREAD_NAME = "CM Configuration Loader"; //$NON-NLS-1$
+	// the minimum number of files read by each thread when the store is loaded in parallel
+	private static final int MIN_FILES_PER_LOADER = 32;
+	private final ConfigurationCodec codec = new ConfigurationCodec();
+	private final ConcurrentHashMap<String, ConfigurationImpl> configurations = new ConcurrentHashMap<String, ConfigurationImpl>();
+	// the configurations of an index key by pid; keyed by pid so that the index never calls equals or hashCode of a configuration
+	private final ConcurrentHashMap<String, Map<String, ConfigurationImpl>> factoryIndex = new ConcurrentHashMap<String, Map<String, ConfigurationImpl>>();
+	private final ConcurrentHashMap<String, Map<String, ConfigurationImpl>> locationIndex = new ConcurrentHashMap<String, Map<String, ConfigurationImpl>>();
+	// the location each configuration is indexed with; the lock of a shared configuration must not be taken while holding a pid lock
+	/** @GuardedBy pidLocks*/
+	private final ConcurrentHashMap<String, String> indexedLocations = new ConcurrentHashMap<String, String>();
+	// the number of lock stripes; a power of two
+	private static final int STRIPES = 32;
+	// the locks for pids; a pid lock may be held while taking an index lock but not the other way around
+	private final Object[] pidLocks = newLocks();
+	// the locks for the keys of the factory pid and location indexes
+	private final Object[] indexLocks = newLocks();
+	private final AtomicInteger createdPidCount = new AtomicInteger();
 	private final File store;
+	// the journal if the configurations are stored in a journal instead of one file per configuration;
+	// reset while constructing the store if the journal cannot be opened
+	private volatile ConfigurationJournal journal;
 
 	public ConfigurationStore(ConfigurationAdminFactory configurationAdminFactory, BundleContext context) {
 		this.configurationAdminFactory = configurationAdminFactory;
 		store = context.getDataFile(STORE_DIR);
+		journal = store != null && STORE_JOURNAL.equals(context.getProperty(PROP_STORE)) ? new ConfigurationJournal(store, configurationAdminFactory) : null;
 		if (store == null)
 			return; // no persistent store
 
 		store.mkdir();
 		File[] configurationFiles = store.listFiles();
+		List<File> cfgFiles = new ArrayList<File>(configurationFiles.length);
 		for (int i = 0; i < configurationFiles.length; ++i) {
-			String configurationFileName = configurationFiles[i].getName();
-			if (!configurationFileName.endsWith(CFG_EXT))
+			if (configurationFiles[i].getName().endsWith(CFG_EXT))
+				cfgFiles.add(configurationFiles[i]);
+		}
+
+		List<Dictionary<String, Object>> dictionaries = readConfigurationFiles(cfgFiles);
+		List<Object> tokens = new ArrayList<Object>(cfgFiles);
+		if (journal != null) {
+			if (!openJournal(dictionaries, tokens)) {
+				// keep the configurations in files for this session
+				journal.close();
+				journal = null;
+				migrateJournal(dictionaries, tokens);
+			}
+		} else if (ConfigurationJournal.exists(store)) {
+			migrateJournal(dictionaries, tokens);
+		}
+
+		for (int i = 0; i < dictionaries.size(); ++i) {
+			Dictionary<String, Object> dictionary = dictionaries.get(i);
+			if (dictionary == null)
 				continue;
+			// before adding, make sure the bundle exists if the location is set
+			String location = (String) dictionary.get(ConfigurationAdmin.SERVICE_BUNDLELOCATION);
+			if (location != null && context.getBundle(location) == null) {
+				Boolean boundProp = (Boolean) dictionary.remove(ConfigurationImpl.LOCATION_BOUND);
+				if (boundProp != null && boundProp.booleanValue()) {
+					dictionary.remove(ConfigurationAdmin.SERVICE_BUNDLELOCATION);
+				}
+			}
+			ConfigurationImpl config = new ConfigurationImpl(configurationAdminFactory, this, dictionary, tokens.get(i));
+			addConfiguration(config, (String) dictionary.get(ConfigurationAdmin.SERVICE_BUNDLELOCATION));
+		}
+	}
 
-			InputStream ris = null;
-			ObjectInputStream ois = null;
-			boolean deleteFile = false;
+	/**
+	 * Recovers the configurations from the journal. Configurations read from files are moved into the journal.
+	 * A file is moved with the id the journal has for its pid, so moving it again after a crash replaces the
+	 * configuration instead of adding another one.
+	 * @return false if the journal could not be opened
+	 */
+	private boolean openJournal(List<Dictionary<String, Object>> dictionaries, List<Object> tokens) {
+		Collection<ConfigurationJournal.Entry> entries;
+		try {
+			entries = journal.open();
+		} catch (IOException e) {
+			configurationAdminFactory.log(LogService.LOG_ERROR, "{Configuration Admin - journal} could not be opened.", e); //$NON-NLS-1$
+			return false;
+		}
+		// the index of the dictionary moved from a file for each pid
+		Map<String, Integer> moved = new HashMap<String, Integer>();
+		for (int i = 0; i < tokens.size(); i++) {
+			Dictionary<String, Object> dictionary = dictionaries.get(i);
+			if (dictionary == null)
+				continue;
+			String pid = (String) dictionary.get(Constants.SERVICE_PID);
+			File file = (File) tokens.get(i);
 			try {
-				ris = new ReliableFileInputStream(configurationFiles[i]);
-				ois = new ObjectInputStream(ris);
-				@SuppressWarnings("unchecked")
-				Dictionary<String, Object> dictionary = (Dictionary<String, Object>) ois.readObject();
-				// before adding, make sure the bundle exists if the location is set
-				String location = (String) dictionary.get(ConfigurationAdmin.SERVICE_BUNDLELOCATION);
-				if (location != null && context.getBundle(location) == null) {
-					Boolean boundProp = (Boolean) dictionary.remove(ConfigurationImpl.LOCATION_BOUND);
-					if (boundProp != null && boundProp.booleanValue()) {
-						dictionary.remove(ConfigurationAdmin.SERVICE_BUNDLELOCATION);
-					}
-				}
-				ConfigurationImpl config = new ConfigurationImpl(configurationAdminFactory, this, dictionary, configurationFiles[i]);
-				configurations.put(config.getPid(), config);
+				tokens.set(i, journal.put(pid, journal.getId(pid), encode(dictionary)));
+				deleteConfigurationFile(file);
+				Integer previous = moved.put(pid, Integer.valueOf(i));
+				if (previous != null)
+					dictionaries.set(previous.intValue(), null);
 			} catch (IOException e) {
-				String message = e.getMessage();
-				String pid = configurationFileName.substring(0, configurationFileName.length() - 4);
-				String errorMessage = "{Configuration Admin - pid = " + pid + "} could not be restored." + ((message == null) ? "" : " " + message); //$NON-NLS-1$//$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
-				configurationAdminFactory.log(LogService.LOG_ERROR, errorMessage);
-				deleteFile = true;
-			} catch (ClassNotFoundException e) {
-				configurationAdminFactory.log(LogService.LOG_ERROR, e.getMessage());
-			} finally {
-				if (ois != null) {
-					try {
-						ois.close();
-					} catch (IOException e) {
-						// ignore 
+				configurationAdminFactory.log(LogService.LOG_ERROR, "{Configuration Admin - file = " + file + "} could not be moved to the journal.", e); //$NON-NLS-1$ //$NON-NLS-2$
+				dictionaries.set(i, null);
+			}
+		}
+		for (ConfigurationJournal.Entry entry : entries) {
+			if (moved.containsKey(entry.pid))
+				continue; // replaced by the file
+			try {
+				dictionaries.add(codec.read(new ByteArrayInputStream(entry.data)).dictionary);
+				tokens.add(Long.valueOf(entry.id));
+			} catch (Exception e) {
+				configurationAdminFactory.log(LogService.LOG_ERROR, "{Configuration Admin - pid = " + entry.pid + "} could not be restored.", e); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Moves the configurations from a journal left by an earlier run into files.
+	 */
+	private void migrateJournal(List<Dictionary<String, Object>> dictionaries, List<Object> tokens) {
+		ConfigurationJournal oldJournal = new ConfigurationJournal(store, configurationAdminFactory);
+		List<Dictionary<String, Object>> migrated = new ArrayList<Dictionary<String, Object>>();
+		List<File> files = new ArrayList<File>();
+		try {
+			for (ConfigurationJournal.Entry entry : oldJournal.read()) {
+				Dictionary<String, Object> dictionary = codec.read(new ByteArrayInputStream(entry.data)).dictionary;
+				File file = File.createTempFile(DATA_PRE, CFG_EXT, store);
+				files.add(file);
+				writeConfigurationFile(file, dictionary);
+				migrated.add(dictionary);
+			}
+		} catch (Exception e) {
+			// keep the journal so no configuration is lost or duplicated
+			configurationAdminFactory.log(LogService.LOG_ERROR, "{Configuration Admin - journal} could not be moved to files.", e); //$NON-NLS-1$
+			oldJournal.close();
+			for (File file : files)
+				deleteConfigurationFile(file);
+			return;
+		}
+		oldJournal.close();
+		oldJournal.delete();
+		dictionaries.addAll(migrated);
+		tokens.addAll(files);
+	}
+
+	private byte[] encode(Dictionary<String, Object> dictionary) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		codec.write(bytes, dictionary);
+		return bytes.toByteArray();
+	}
+
+	void close() {
+		if (journal != null)
+			journal.close();
+	}
+
+	/**
+	 * Reads the configuration files, in parallel if there are enough of them.
+	 * @return the dictionaries in the order of the files; <code>null</code> for a file which could not be read
+	 */
+	private List<Dictionary<String, Object>> readConfigurationFiles(List<File> files) {
+		List<Dictionary<String, Object>> result = new ArrayList<Dictionary<String, Object>>(files.size());
+		int threads = Math.min(Runtime.getRuntime().availableProcessors(), files.size() / MIN_FILES_PER_LOADER);
+		if (threads <= 1) {
+			for (File file : files)
+				result.add(readConfigurationFile(file));
+			return result;
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, LOADER_THREAD_NAME);
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		try {
+			List<Future<Dictionary<String, Object>>> futures = new ArrayList<Future<Dictionary<String, Object>>>(files.size());
+			for (final File file : files) {
+				futures.add(executor.submit(new Callable<Dictionary<String, Object>>() {
+					public Dictionary<String, Object> call() {
+						return readConfigurationFile(file);
 					}
+				}));
+			}
+			for (int i = 0; i < futures.size(); i++)
+				result.add(getResult(futures.get(i), files.get(i)));
+		} finally {
+			executor.shutdown();
+		}
+		return result;
+	}
+
+	private Dictionary<String, Object> getResult(Future<Dictionary<String, Object>> future, File file) {
+		// the store must be complete, so wait for the file even if interrupted
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					return future.get();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				} catch (ExecutionException e) {
+					configurationAdminFactory.log(LogService.LOG_ERROR, "{Configuration Admin - file = " + file + "} could not be restored.", e.getCause()); //$NON-NLS-1$ //$NON-NLS-2$
+					return null;
 				}
-				if (ris != null) {
-					try {
-						ris.close();
-					} catch (IOException e) {
-						// ignore 
-					}
+			}
+		} finally {
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Reads a configuration file. A file written with Java serialization is rewritten in the binary encoding.
+	 * @return the dictionary or <code>null</code> if the file could not be read
+	 */
+	Dictionary<String, Object> readConfigurationFile(File configurationFile) {
+		InputStream ris = null;
+		ConfigurationCodec.Result result = null;
+		boolean deleteFile = false;
+		try {
+			ris = new ReliableFileInputStream(configurationFile);
+			result = codec.read(ris);
+		} catch (IOException e) {
+			String message = e.getMessage();
+			String configurationFileName = configurationFile.getName();
+			String pid = configurationFileName.substring(0, configurationFileName.length() - 4);
+			String errorMessage = "{Configuration Admin - pid = " + pid + "} could not be restored." + ((message == null) ? "" : " " + message); //$NON-NLS-1$//$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+			configurationAdminFactory.log(LogService.LOG_ERROR, errorMessage);
+			deleteFile = true;
+		} catch (ClassNotFoundException e) {
+			configurationAdminFactory.log(LogService.LOG_ERROR, e.getMessage());
+		} finally {
+			if (ris != null) {
+				try {
+					ris.close();
+				} catch (IOException e) {
+					// ignore 
 				}
 			}
-			if (deleteFile) {
-				ReliableFile.delete(configurationFiles[i]);
-				configurationFiles[i].delete();
+		}
+		if (deleteFile) {
+			ReliableFile.delete(configurationFile);
+			configurationFile.delete();
+		}
+		if (result == null)
+			return null;
+
+		if (result.serialized) {
+			// migrate the file to the binary encoding; the serialized file remains readable if this fails
+			try {
+				writeConfigurationFile(configurationFile, result.dictionary);
+			} catch (IOException e) {
+				configurationAdminFactory.log(LogService.LOG_WARNING, "{Configuration Admin - file = " + configurationFile + "} could not be migrated.", e); //$NON-NLS-1$ //$NON-NLS-2$
 			}
 		}
+		return result.dictionary;
 	}
 
-	public Object saveConfiguration(String pid, ConfigurationImpl config, final Object token) throws IOException {
+	public Object saveConfiguration(final String pid, ConfigurationImpl config, final Object token) throws IOException {
 		if (store == null)
 			return null; // no persistent store
 
@@ -108,8 +320,10 @@ class ConfigurationStore {
 		}
 		try {
 			final File storeCopy = store;
-			return AccessController.doPrivileged(new PrivilegedExceptionAction<File>() {
-				public File run() throws Exception {
+			return AccessController.doPrivileged(new PrivilegedExceptionAction<Object>() {
+				public Object run() throws Exception {
+					if (journal != null)
+						return journal.put(pid, token instanceof Long ? (Long) token : null, encode(configProperties));
 					File toFile = token == null ? File.createTempFile(DATA_PRE, CFG_EXT, storeCopy) : (File) token;
 					writeConfigurationFile(toFile, configProperties);
 					return toFile;
@@ -122,20 +336,11 @@ class ConfigurationStore {
 
 	void writeConfigurationFile(File configFile, Dictionary<String, Object> configProperties) throws IOException {
 		OutputStream ros = null;
-		ObjectOutputStream oos = null;
 		try {
 			configFile.createNewFile();
 			ros = new ReliableFileOutputStream(configFile);
-			oos = new ObjectOutputStream(ros);
-			oos.writeObject(configProperties);
+			codec.write(ros, configProperties);
 		} finally {
-			if (oos != null) {
-				try {
-					oos.close();
-				} catch (IOException e) {
-					// ignore 
-				}
-			}
 			if (ros != null) {
 				try {
 					ros.close();
@@ -146,13 +351,27 @@ class ConfigurationStore {
 		}
 	}
 
-	public synchronized void removeConfiguration(String pid, final Object token) {
-		configurations.remove(pid);
+	public void removeConfiguration(final String pid, final Object token) {
+		synchronized (getLock(pidLocks, pid)) {
+			ConfigurationImpl config = configurations.remove(pid);
+			if (config != null) {
+				removeFromIndex(factoryIndex, config.getFactoryPid(false), config);
+				removeFromIndex(locationIndex, indexedLocations.remove(pid), config);
+			}
+		}
 		if (store == null || token == null)
 			return; // no persistent store
 		AccessController.doPrivileged(new PrivilegedAction<Object>() {
 			public Object run() {
-				deleteConfigurationFile((File) token);
+				if (token instanceof File) {
+					deleteConfigurationFile((File) token);
+					return null;
+				}
+				try {
+					journal.remove(pid, (Long) token);
+				} catch (IOException e) {
+					configurationAdminFactory.log(LogService.LOG_ERROR, "{Configuration Admin - pid = " + pid + "} could not be deleted.", e); //$NON-NLS-1$ //$NON-NLS-2$
+				}
 				return null;
 			}
 		});
@@ -163,41 +382,133 @@ class ConfigurationStore {
 		configFile.delete();
 	}
 
-	public synchronized ConfigurationImpl getConfiguration(String pid, String location, boolean bind) {
+	public ConfigurationImpl getConfiguration(String pid, String location, boolean bind) {
 		ConfigurationImpl config = configurations.get(pid);
-		if (config == null) {
-			config = new ConfigurationImpl(configurationAdminFactory, this, null, pid, location, bind);
-			configurations.put(pid, config);
+		if (config != null)
+			return config;
+		synchronized (getLock(pidLocks, pid)) {
+			config = configurations.get(pid);
+			if (config == null) {
+				config = new ConfigurationImpl(configurationAdminFactory, this, null, pid, location, bind);
+				addConfiguration(config, location);
+			}
+			return config;
 		}
-		return config;
 	}
 
-	public synchronized ConfigurationImpl createFactoryConfiguration(String factoryPid, String location, boolean bind) {
-		String pid = factoryPid + "-" + new Date().getTime() + "-" + createdPidCount++; //$NON-NLS-1$ //$NON-NLS-2$
+	public ConfigurationImpl createFactoryConfiguration(String factoryPid, String location, boolean bind) {
+		String pid = factoryPid + "-" + new Date().getTime() + "-" + createdPidCount.getAndIncrement(); //$NON-NLS-1$ //$NON-NLS-2$
 		ConfigurationImpl config = new ConfigurationImpl(configurationAdminFactory, this, factoryPid, pid, location, bind);
-		configurations.put(pid, config);
+		synchronized (getLock(pidLocks, pid)) {
+			addConfiguration(config, location);
+		}
 		return config;
 	}
 
-	public synchronized ConfigurationImpl findConfiguration(String pid) {
-		return configurations.get(pid);
+	/**
+	 * Adds a configuration holding its pid lock, or while the store is constructed.
+	 * @param location the bundle location the configuration was created with
+	 */
+	private void addConfiguration(ConfigurationImpl config, String location) {
+		String pid = config.getPid(false);
+		configurations.put(pid, config);
+		addToIndex(factoryIndex, config.getFactoryPid(false), config);
+		addToIndex(locationIndex, location, config);
+		if (location != null)
+			indexedLocations.put(pid, location);
 	}
 
-	public synchronized ConfigurationImpl[] getFactoryConfigurations(String factoryPid) {
-		List<ConfigurationImpl> resultList = new ArrayList<ConfigurationImpl>();
-		for (Iterator<ConfigurationImpl> it = configurations.values().iterator(); it.hasNext();) {
-			ConfigurationImpl config = it.next();
-			String otherFactoryPid = config.getFactoryPid();
-			if (otherFactoryPid != null && otherFactoryPid.equals(factoryPid))
-				resultList.add(config);
+	/**
+	 * Called by a configuration holding its lock when its bundle location changes.
+	 */
+	void locationChanged(ConfigurationImpl config, String newLocation) {
+		String pid = config.getPid(false);
+		synchronized (getLock(pidLocks, pid)) {
+			if (configurations.get(pid) != config)
+				return; // not yet added or already removed
+			removeFromIndex(locationIndex, indexedLocations.remove(pid), config);
+			addToIndex(locationIndex, newLocation, config);
+			if (newLocation != null)
+				indexedLocations.put(pid, newLocation);
+		}
+	}
+
+	private static Object[] newLocks() {
+		Object[] locks = new Object[STRIPES];
+		for (int i = 0; i < STRIPES; i++)
+			locks[i] = new Object();
+		return locks;
+	}
+
+	private static Object getLock(Object[] locks, String key) {
+		int hash = key.hashCode();
+		// spread the higher bits as the stripe is selected by the lower bits
+		hash ^= (hash >>> 16);
+		return locks[hash & (STRIPES - 1)];
+	}
+
+	private void addToIndex(ConcurrentHashMap<String, Map<String, ConfigurationImpl>> index, String key, ConfigurationImpl config) {
+		if (key == null)
+			return;
+		// read before taking the index lock; getPid(false) does not lock the configuration
+		String pid = config.getPid(false);
+		synchronized (getLock(indexLocks, key)) {
+			Map<String, ConfigurationImpl> configs = index.get(key);
+			if (configs == null) {
+				configs = new ConcurrentHashMap<String, ConfigurationImpl>();
+				index.put(key, configs);
+			}
+			configs.put(pid, config);
+		}
+	}
+
+	private void removeFromIndex(ConcurrentHashMap<String, Map<String, ConfigurationImpl>> index, String key, ConfigurationImpl config) {
+		if (key == null)
+			return;
+		// read before taking the index lock; getPid(false) does not lock the configuration
+		String pid = config.getPid(false);
+		synchronized (getLock(indexLocks, key)) {
+			Map<String, ConfigurationImpl> configs = index.get(key);
+			// a configuration created again for the pid may already replace the removed one
+			if (configs == null || configs.get(pid) != config)
+				return;
+			configs.remove(pid);
+			if (configs.isEmpty())
+				index.remove(key);
 		}
-		return resultList.toArray(new ConfigurationImpl[resultList.size()]);
 	}
 
-	public synchronized ConfigurationImpl[] listConfigurations(Filter filter) {
+	private static ConfigurationImpl[] getIndexed(ConcurrentHashMap<String, Map<String, ConfigurationImpl>> index, String key) {
+		Map<String, ConfigurationImpl> configs = index.get(key);
+		if (configs == null)
+			return new ConfigurationImpl[0];
+		return configs.values().toArray(new ConfigurationImpl[0]);
+	}
+
+	public ConfigurationImpl findConfiguration(String pid) {
+		return configurations.get(pid);
+	}
+
+	public ConfigurationImpl[] getFactoryConfigurations(String factoryPid) {
+		return getIndexed(factoryIndex, factoryPid);
+	}
+
+	public ConfigurationImpl[] listConfigurations(Filter filter) {
+		Collection<ConfigurationImpl> candidates;
+		Equality equality = FilterAnalyzer.analyze(filter.toString());
+		if (equality == null) {
+			candidates = configurations.values();
+		} else if (equality.key == Constants.SERVICE_PID) {
+			ConfigurationImpl config = configurations.get(equality.value);
+			candidates = config == null ? Collections.<ConfigurationImpl> emptyList() : Collections.singletonList(config);
+		} else if (equality.key == ConfigurationAdmin.SERVICE_FACTORYPID) {
+			candidates = Arrays.asList(getIndexed(factoryIndex, equality.value));
+		} else {
+			candidates = Arrays.asList(getIndexed(locationIndex, equality.value));
+		}
+
 		List<ConfigurationImpl> resultList = new ArrayList<ConfigurationImpl>();
-		for (Iterator<ConfigurationImpl> it = configurations.values().iterator(); it.hasNext();) {
-			ConfigurationImpl config = it.next();
+		for (ConfigurationImpl config : candidates) {
 			Dictionary<String, Object> properties = config.getAllProperties(false);
 			if (properties != null && filter.match(properties))
 				resultList.add(config);
@@ -207,12 +518,9 @@ class ConfigurationStore {
 	}
 
 	public void unbindConfigurations(Bundle bundle) {
-		ConfigurationImpl[] copy;
-		synchronized (this) {
-			copy = configurations.values().toArray(new ConfigurationImpl[configurations.size()]);
-		}
+		ConfigurationImpl[] copy = getIndexed(locationIndex, ConfigurationAdminImpl.getLocation(bundle));
 		for (ConfigurationImpl config : copy) {
 			config.unbind(bundle);
 		}
 	}
-}
\ No newline at end of file
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2005, 2013 Cognos Incorporated, IBM Corporation and others.
+ * Copyright (c) 2005, 2015 Cognos Incorporated, IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -11,6 +11,8 @@
  *******************************************************************************/
 package org.eclipse.equinox.internal.cm;
 
+import java.util.HashMap;
+import java.util.Map;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.ServiceReference;
 import org.osgi.service.cm.*;
@@ -21,6 +23,10 @@ import org.osgi.util.tracker.ServiceTracker;
  * EventDispatcher is responsible for delivering Configuration Events to ConfigurationListeners.
  * The originating ConfigAdmin ServiceReference is needed when delivering events. This reference
  * is made available by the service factory before returning the service object.
+ * <p>
+ * If coalescing is enabled, an event is not queued for a ConfigurationListener which already has a
+ * pending event of the same type for the same pid as the last event queued for that pid. Listeners
+ * read the current configuration when they receive an event, so the second event adds nothing.
  */
 
 public class EventDispatcher {
@@ -30,9 +36,16 @@ public class EventDispatcher {
 	/** @GuardedBy this */
 	private ServiceReference<ConfigurationAdmin> configAdminReference;
 	final LogTracker log;
+	private final boolean coalesce;
+	// the last queued event for each listener and pid which has not been delivered yet
+	/** @GuardedBy pendingEvents */
+	final Map<PendingEvent, PendingEvent> pendingEvents = new HashMap<PendingEvent, PendingEvent>();
+	/** @GuardedBy pendingEvents */
+	private long coalesced;
 
-	public EventDispatcher(BundleContext context, LogTracker log) {
+	public EventDispatcher(BundleContext context, LogTracker log, boolean coalesce) {
 		this.log = log;
+		this.coalesce = coalesce;
 		tracker = new ServiceTracker<ConfigurationListener, ConfigurationListener>(context, ConfigurationListener.class, null);
 		syncTracker = new ServiceTracker<SynchronousConfigurationListener, SynchronousConfigurationListener>(context, SynchronousConfigurationListener.class, null);
 	}
@@ -79,8 +92,25 @@ public class EventDispatcher {
 
 		for (int i = 0; i < refs.length; ++i) {
 			final ServiceReference<ConfigurationListener> ref = refs[i];
+			final PendingEvent pending = coalesce ? new PendingEvent(ref, event) : null;
+			if (pending != null) {
+				synchronized (pendingEvents) {
+					PendingEvent last = pendingEvents.get(pending);
+					if (last != null && last.event.getType() == type) {
+						coalesced++;
+						continue;
+					}
+					pendingEvents.put(pending, pending);
+				}
+			}
 			queue.put(new Runnable() {
 				public void run() {
+					if (pending != null) {
+						synchronized (pendingEvents) {
+							if (pendingEvents.get(pending) == pending)
+								pendingEvents.remove(pending);
+						}
+					}
 					ConfigurationListener listener = tracker.getService(ref);
 					if (listener == null) {
 						return;
@@ -95,10 +125,49 @@ public class EventDispatcher {
 		}
 	}
 
+	/**
+	 * Returns the number of events not queued since the last reset because an equal event was pending.
+	 */
+	long getCoalesced() {
+		synchronized (pendingEvents) {
+			return coalesced;
+		}
+	}
+
+	void resetCoalesced() {
+		synchronized (pendingEvents) {
+			coalesced = 0;
+		}
+	}
+
 	private synchronized ConfigurationEvent createConfigurationEvent(int type, String factoryPid, String pid) {
 		if (configAdminReference == null)
 			return null;
 
 		return new ConfigurationEvent(configAdminReference, type, factoryPid, pid);
 	}
+
+	/**
+	 * A queued event for a listener; equal to the other events queued for the same listener and pid.
+	 */
+	private static final class PendingEvent {
+		final ServiceReference<ConfigurationListener> ref;
+		final ConfigurationEvent event;
+
+		PendingEvent(ServiceReference<ConfigurationListener> ref, ConfigurationEvent event) {
+			this.ref = ref;
+			this.event = event;
+		}
+
+		public boolean equals(Object obj) {
+			if (!(obj instanceof PendingEvent))
+				return false;
+			PendingEvent other = (PendingEvent) obj;
+			return ref.equals(other.ref) && event.getPid().equals(other.event.getPid());
+		}
+
+		public int hashCode() {
+			return ref.hashCode() * 31 + event.getPid().hashCode();
+		}
+	}
 }
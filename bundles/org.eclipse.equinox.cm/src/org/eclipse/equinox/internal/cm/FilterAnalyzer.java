@@ -0,0 +1,142 @@
+/*******************************************************************************
+ * Copyright (c) 2015 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.cm;
+
+import org.osgi.framework.Constants;
+import org.osgi.service.cm.ConfigurationAdmin;
+
+/**
+ * FilterAnalyzer finds an equality on an indexed configuration property in a filter string.
+ * Only a filter which is a single equality or an AND with at least one equality clause at the
+ * top level is analyzed. The configurations selected with the equality are a superset of the
+ * configurations matching the filter, so the filter must still be matched against them.
+ */
+final class FilterAnalyzer {
+	// the indexed properties, the most selective first
+	private static final String[] INDEXED_KEYS = {Constants.SERVICE_PID, ConfigurationAdmin.SERVICE_FACTORYPID, ConfigurationAdmin.SERVICE_BUNDLELOCATION};
+
+	/**
+	 * An equality <code>(key=value)</code> on an indexed property.
+	 */
+	static final class Equality {
+		final String key;
+		final String value;
+
+		Equality(String key, String value) {
+			this.key = key;
+			this.value = value;
+		}
+	}
+
+	private FilterAnalyzer() {
+		// no instances
+	}
+
+	/**
+	 * Analyze a filter string.
+	 * @param filter the normalized filter string as returned by <code>Filter.toString()</code>
+	 * @return the most selective equality on an indexed property or <code>null</code> if
+	 * the filter must be matched against all configurations
+	 */
+	static Equality analyze(String filter) {
+		if (filter.startsWith("(&") && filter.endsWith(")")) { //$NON-NLS-1$ //$NON-NLS-2$
+			Equality best = null;
+			int index = 2;
+			int end = filter.length() - 1;
+			while (index < end) {
+				int close = findClose(filter, index);
+				if (close < 0)
+					return best;
+				Equality equality = parseEquality(filter.substring(index, close + 1));
+				if (equality != null && (best == null || rank(equality.key) < rank(best.key)))
+					best = equality;
+				index = close + 1;
+			}
+			return best;
+		}
+		return parseEquality(filter);
+	}
+
+	/**
+	 * Returns the index of the parenthesis closing the clause which starts at the index,
+	 * or -1 if the clause is not well formed.
+	 */
+	private static int findClose(String filter, int start) {
+		if (filter.charAt(start) != '(')
+			return -1;
+		int depth = 0;
+		for (int i = start; i < filter.length(); i++) {
+			switch (filter.charAt(i)) {
+				case '\\' :
+					i++;
+					break;
+				case '(' :
+					depth++;
+					break;
+				case ')' :
+					if (--depth == 0)
+						return i;
+					break;
+			}
+		}
+		return -1;
+	}
+
+	private static int rank(String key) {
+		for (int i = 0; i < INDEXED_KEYS.length; i++) {
+			if (INDEXED_KEYS[i].equalsIgnoreCase(key))
+				return i;
+		}
+		return INDEXED_KEYS.length;
+	}
+
+	/**
+	 * Parse a clause <code>(key=value)</code> on an indexed key. Substrings, presence tests and other
+	 * operators are rejected.
+	 */
+	private static Equality parseEquality(String clause) {
+		int length = clause.length();
+		if (length < 4 || clause.charAt(0) != '(' || clause.charAt(length - 1) != ')')
+			return null;
+		int equals = clause.indexOf('=');
+		if (equals < 2)
+			return null;
+		char operator = clause.charAt(equals - 1);
+		if (operator == '~' || operator == '<' || operator == '>')
+			return null;
+		String key = clause.substring(1, equals);
+		int rank = rank(key);
+		if (rank == INDEXED_KEYS.length)
+			return null;
+
+		StringBuffer value = new StringBuffer(length - equals);
+		for (int i = equals + 1; i < length - 1; i++) {
+			char c = clause.charAt(i);
+			switch (c) {
+				case '\\' :
+					if (++i == length - 1)
+						return null;
+					value.append(clause.charAt(i));
+					break;
+				case '*' :
+				case '(' :
+				case ')' :
+					return null;
+				default :
+					value.append(c);
+			}
+		}
+		// leave values with surrounding whitespace to the filter, which may ignore it
+		if (value.length() == 0 || Character.isWhitespace(value.charAt(0)) || Character.isWhitespace(value.charAt(value.length() - 1)))
+			return null;
+		return new Equality(INDEXED_KEYS[rank], value.toString());
+	}
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2005, 2013 Cognos Incorporated, IBM Corporation and others.
+ * Copyright (c) 2005, 2015 Cognos Incorporated, IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -29,12 +29,13 @@ class ManagedServiceFactoryTracker extends ServiceTracker<ManagedServiceFactory,
 	/** @GuardedBy targets*/
 	private final TargetMap targets = new TargetMap();
 
-	private final SerializedTaskQueue queue = new SerializedTaskQueue("ManagedServiceFactory Update Queue"); //$NON-NLS-1$
+	private final UpdateQueue queue;
 
-	public ManagedServiceFactoryTracker(ConfigurationAdminFactory configurationAdminFactory, ConfigurationStore configurationStore, BundleContext context) {
+	public ManagedServiceFactoryTracker(ConfigurationAdminFactory configurationAdminFactory, ConfigurationStore configurationStore, UpdateQueue queue, BundleContext context) {
 		super(context, ManagedServiceFactory.class.getName(), null);
 		this.configurationAdminFactory = configurationAdminFactory;
 		this.configurationStore = configurationStore;
+		this.queue = queue;
 	}
 
 	void notifyDeleted(ConfigurationImpl config) {
@@ -262,7 +263,7 @@ class ManagedServiceFactoryTracker extends ServiceTracker<ManagedServiceFactory,
 	}
 
 	private void asynchDeleted(final ManagedServiceFactory service, final String pid) {
-		queue.put(new Runnable() {
+		queue.put(service, pid, new Runnable() {
 			public void run() {
 				try {
 					service.deleted(pid);
@@ -277,7 +278,7 @@ class ManagedServiceFactoryTracker extends ServiceTracker<ManagedServiceFactory,
 		if (properties == null) {
 			return;
 		}
-		queue.put(new Runnable() {
+		queue.put(service, pid, new Runnable() {
 			public void run() {
 				try {
 					service.updated(pid, properties);
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2005, 2013 Cognos Incorporated, IBM Corporation and others.
+ * Copyright (c) 2005, 2015 Cognos Incorporated, IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -28,12 +28,13 @@ class ManagedServiceTracker extends ServiceTracker<ManagedService, ManagedServic
 	/** @GuardedBy targets*/
 	private final TargetMap targets = new TargetMap();
 
-	private final SerializedTaskQueue queue = new SerializedTaskQueue("ManagedService Update Queue"); //$NON-NLS-1$
+	private final UpdateQueue queue;
 
-	public ManagedServiceTracker(ConfigurationAdminFactory configurationAdminFactory, ConfigurationStore configurationStore, BundleContext context) {
+	public ManagedServiceTracker(ConfigurationAdminFactory configurationAdminFactory, ConfigurationStore configurationStore, UpdateQueue queue, BundleContext context) {
 		super(context, ManagedService.class.getName(), null);
 		this.configurationAdminFactory = configurationAdminFactory;
 		this.configurationStore = configurationStore;
+		this.queue = queue;
 	}
 
 	void notifyDeleted(ConfigurationImpl config) {
@@ -77,7 +78,7 @@ class ManagedServiceTracker extends ServiceTracker<ManagedService, ManagedServic
 					if (isMultiple || config.bind(ConfigurationAdminImpl.getLocation(ref.getBundle()))) {
 						Dictionary<String, Object> properties = config.getProperties();
 						configurationAdminFactory.modifyConfiguration(ref, properties);
-						asynchUpdated(service, properties);
+						asynchUpdated(service, getSpecifiedPid(ref, pid), properties);
 					}
 				}
 			}
@@ -128,7 +129,7 @@ class ManagedServiceTracker extends ServiceTracker<ManagedService, ManagedServic
 					} else if (update) {
 						Dictionary<String, Object> properties = config.getProperties();
 						configurationAdminFactory.modifyConfiguration(ref, properties);
-						asynchUpdated(service, properties);
+						asynchUpdated(service, getSpecifiedPid(ref, pid), properties);
 					}
 					// do not break on !isMultiple since we need to check if the other refs apply no matter what
 				}
@@ -136,6 +137,26 @@ class ManagedServiceTracker extends ServiceTracker<ManagedService, ManagedServic
 		}
 	}
 
+	/**
+	 * Returns the pid specified by the target which matches a configuration pid.
+	 */
+	private String getSpecifiedPid(ServiceReference<ManagedService> ref, String pid) {
+		List<List<String>> qualifiedPidsLists;
+		synchronized (targets) {
+			qualifiedPidsLists = targets.getQualifiedPids(ref);
+		}
+		for (List<String> qualifiedPids : qualifiedPidsLists) {
+			if (qualifiedPids.contains(pid))
+				return getSpecifiedPid(qualifiedPids);
+		}
+		return pid;
+	}
+
+	private static String getSpecifiedPid(List<String> qualifiedPids) {
+		// the qualified pids are ordered from the most specific to the specified pid
+		return qualifiedPids.get(qualifiedPids.size() - 1);
+	}
+
 	private boolean hasMoreSpecificConfigPids(ServiceReference<ManagedService> ref, String pid) {
 		List<List<String>> qualifiedPidsLists;
 		synchronized (targets) {
@@ -226,7 +247,7 @@ class ManagedServiceTracker extends ServiceTracker<ManagedService, ManagedServic
 								if ((shouldBind && config.bind(ConfigurationAdminImpl.getLocation(reference.getBundle()))) || !shouldBind) {
 									Dictionary<String, Object> properties = config.getProperties();
 									configurationAdminFactory.modifyConfiguration(reference, properties);
-									asynchUpdated(service, properties);
+									asynchUpdated(service, getSpecifiedPid(qualifiedPids), properties);
 									foundConfig = true;
 									break qualifiedPids;
 								}
@@ -241,7 +262,7 @@ class ManagedServiceTracker extends ServiceTracker<ManagedService, ManagedServic
 			if (!foundConfig) {
 				// This seems questionable to me, but is required for the spec.
 				// if a ManagedService has multiple pids, watch out!!
-				asynchUpdated(service, null);
+				asynchUpdated(service, getSpecifiedPid(qualifiedPids), null);
 			}
 		}
 	}
@@ -269,8 +290,9 @@ class ManagedServiceTracker extends ServiceTracker<ManagedService, ManagedServic
 		}
 	}
 
-	private void asynchUpdated(final ManagedService service, final Dictionary<String, ?> properties) {
-		queue.put(new Runnable() {
+	private void asynchUpdated(final ManagedService service, String specifiedPid, final Dictionary<String, ?> properties) {
+		// a pending update for the same pid of the service is superseded by this update
+		queue.put(service, specifiedPid, new Runnable() {
 			public void run() {
 				try {
 					service.updated(properties);
@@ -0,0 +1,243 @@
+/*******************************************************************************
+ * Copyright (c) 2015 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.cm;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * UpdateQueue delivers configuration updates to ManagedServices and ManagedServiceFactories
+ * with a bounded pool of threads.
+ * <p>
+ * The tasks for a target service are queued in a serial lane for the target. A lane is scheduled on
+ * the pool while it has pending tasks, so each target receives its updates in the order they were
+ * queued while different targets are updated concurrently.
+ * <p>
+ * If coalescing is enabled, a task queued with a key replaces a pending task of the target with the
+ * same key which has not started yet. The new task takes the place of the replaced task in the lane,
+ * so only the latest update for a pid is delivered to the target and the tasks for different keys
+ * keep the order in which their first pending task was queued. A task for a key is never run
+ * before a task for another key which was queued earlier.
+ */
+class UpdateQueue {
+	// the maximum number of tasks a lane runs before yielding its thread to other lanes
+	private static final int MAX_LANE_BATCH = 64;
+	// the time to wait for the pending tasks when the queue is closed
+	private static final long CLOSE_TIMEOUT = 5000;
+
+	private final ThreadPoolExecutor executor;
+	private final boolean coalesce;
+	// set when the pending tasks are discarded after the close timeout
+	private volatile boolean discarded;
+	/** @GuardedBy lanes*/
+	private final IdentityHashMap<Object, Lane> lanes = new IdentityHashMap<Object, Lane>();
+	/** @GuardedBy lanes*/
+	private int backlog;
+	/** @GuardedBy lanes*/
+	private int maxLaneBacklog;
+	/** @GuardedBy lanes*/
+	private long completed;
+	/** @GuardedBy lanes*/
+	private long coalesced;
+
+	UpdateQueue(final String threadName, int threads, boolean coalesce) {
+		this.coalesce = coalesce;
+		executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+			private int count;
+
+			public synchronized Thread newThread(Runnable r) {
+				Thread t = new Thread(r, threadName + '-' + ++count);
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Queues a task for a target. The tasks for the same target, compared by identity, are run in order.
+	 * @param key the key of a task which may be replaced by a later task with an equal key, or <code>null</code>
+	 */
+	void put(Object target, Object key, Runnable task) {
+		Lane lane;
+		synchronized (lanes) {
+			lane = lanes.get(target);
+			if (lane == null) {
+				lane = new Lane(target);
+				lanes.put(target, lane);
+			}
+			if (coalesce && key != null) {
+				PendingTask queued = lane.keyed.get(key);
+				if (queued != null) {
+					// the lane is scheduled as it has a pending task
+					queued.task = task;
+					coalesced++;
+					return;
+				}
+			}
+			PendingTask pending = new PendingTask(coalesce ? key : null, task);
+			if (pending.key != null)
+				lane.keyed.put(pending.key, pending);
+			lane.tasks.add(pending);
+			backlog++;
+			maxLaneBacklog = Math.max(maxLaneBacklog, lane.tasks.size());
+			if (lane.scheduled)
+				return;
+			lane.scheduled = true;
+		}
+		execute(lane);
+	}
+
+	/**
+	 * Stops the threads once the pending tasks are run. Tasks queued after the queue is closed are
+	 * discarded, as are the tasks still pending after waiting {@link #CLOSE_TIMEOUT} milliseconds.
+	 */
+	void close() {
+		executor.shutdown();
+		try {
+			if (!executor.awaitTermination(CLOSE_TIMEOUT, TimeUnit.MILLISECONDS))
+				discard();
+		} catch (InterruptedException e) {
+			discard();
+			Thread.currentThread().interrupt();
+		}
+		synchronized (lanes) {
+			lanes.clear();
+			backlog = 0;
+		}
+	}
+
+	private void discard() {
+		discarded = true;
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Returns the number of targets with pending tasks.
+	 */
+	int getLaneCount() {
+		synchronized (lanes) {
+			return lanes.size();
+		}
+	}
+
+	/**
+	 * Returns the number of pending tasks of all targets.
+	 */
+	int getBacklog() {
+		synchronized (lanes) {
+			return backlog;
+		}
+	}
+
+	/**
+	 * Returns the largest number of pending tasks of a single target since the last reset.
+	 */
+	int getMaxLaneBacklog() {
+		synchronized (lanes) {
+			return maxLaneBacklog;
+		}
+	}
+
+	/**
+	 * Returns the number of tasks run since the last reset.
+	 */
+	long getCompleted() {
+		synchronized (lanes) {
+			return completed;
+		}
+	}
+
+	/**
+	 * Returns the number of tasks discarded since the last reset because a later task replaced them.
+	 */
+	long getCoalesced() {
+		synchronized (lanes) {
+			return coalesced;
+		}
+	}
+
+	void reset() {
+		synchronized (lanes) {
+			maxLaneBacklog = 0;
+			completed = 0;
+			coalesced = 0;
+		}
+	}
+
+	private void execute(Runnable task) {
+		try {
+			executor.execute(task);
+		} catch (RejectedExecutionException e) {
+			// the queue is closed
+		}
+	}
+
+	/**
+	 * A queued task; the task is replaced by a later task with the same key until it is run.
+	 */
+	private static class PendingTask {
+		final Object key;
+		/** @GuardedBy lanes*/
+		Runnable task;
+
+		PendingTask(Object key, Runnable task) {
+			this.key = key;
+			this.task = task;
+		}
+	}
+
+	/**
+	 * A serial lane of pending tasks for a target. At most one thread runs the tasks of a lane at a time.
+	 */
+	private class Lane implements Runnable {
+		private final Object target;
+		/** @GuardedBy lanes*/
+		final LinkedList<PendingTask> tasks = new LinkedList<PendingTask>();
+		// the pending tasks with a key
+		/** @GuardedBy lanes*/
+		final Map<Object, PendingTask> keyed = new HashMap<Object, PendingTask>();
+		/** @GuardedBy lanes*/
+		boolean scheduled;
+
+		Lane(Object target) {
+			this.target = target;
+		}
+
+		public void run() {
+			// a lane cannot be scheduled again once the queue is closed, so it runs all its tasks
+			for (int i = 0; i < MAX_LANE_BATCH || executor.isShutdown(); i++) {
+				if (discarded)
+					return;
+				Runnable task;
+				synchronized (lanes) {
+					PendingTask pending = tasks.poll();
+					if (pending == null) {
+						// remove the drained lane so lanes of unregistered targets do not leak
+						scheduled = false;
+						if (lanes.get(target) == this)
+							lanes.remove(target);
+						return;
+					}
+					task = pending.task;
+					if (pending.key != null)
+						keyed.remove(pending.key);
+					backlog--;
+				}
+				task.run();
+				synchronized (lanes) {
+					completed++;
+				}
+			}
+			// yield to other lanes; the lane stays scheduled
+			execute(this);
+		}
+	}
+}
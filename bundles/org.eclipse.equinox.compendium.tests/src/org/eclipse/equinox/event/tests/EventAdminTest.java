@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2010 IBM Corporation and others
+ * Copyright (c) 2008, 2015 IBM Corporation and others
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -10,14 +10,20 @@
  *******************************************************************************/
 package org.eclipse.equinox.event.tests;
 
-import java.util.Dictionary;
-import java.util.Hashtable;
+import java.util.*;
 import junit.framework.TestCase;
 import org.eclipse.equinox.compendium.tests.Activator;
+import org.eclipse.equinox.event.BatchEventAdmin;
+import org.eclipse.equinox.event.BatchEventHandler;
+import org.eclipse.equinox.event.EventAdminMetrics;
+import org.eclipse.equinox.event.HandlerMetrics;
 import org.osgi.framework.*;
 import org.osgi.service.event.*;
 
 public class EventAdminTest extends TestCase {
+	private static final String PROP_ASYNC_THREADS = "org.eclipse.equinox.event.async.threads"; //$NON-NLS-1$
+	private static final int ASYNC_EVENT_COUNT = 1000;
+
 	private EventAdmin eventAdmin;
 	private ServiceReference eventAdminReference;
 
@@ -150,4 +156,267 @@ public class EventAdminTest extends TestCase {
 		assertNotNull("Did not receive event published to topic 'a/b/c/d' while listening to 'a/b/c/*'", handler.lastEvent()); //$NON-NLS-1$
 		handlerRegistration.unregister();
 	}
+
+	/*
+	 * Ensures EventAdmin delivers an event only once to an EventHandler whose
+	 * topics "*", "a/*" and "a/b/c" all match the event topic "a/b/c".
+	 */
+	public void testEventDeliveryForOverlappingTopics() {
+		Dictionary properties = new Hashtable();
+		properties.put(EventConstants.EVENT_TOPIC, new String[] {"*", "a/*", "a/b/c"}); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		BundleContext bundleContext = Activator.getBundleContext();
+		final int[] count = new int[1];
+		EventHandler handler = new EventHandler() {
+			public synchronized void handleEvent(Event event) {
+				// "*" also matches the framework events posted by EventAdmin
+				if ("a/b/c".equals(event.getTopic())) //$NON-NLS-1$
+					count[0]++;
+			}
+		};
+		ServiceRegistration handlerRegistration = bundleContext.registerService(EventHandler.class, handler, properties);
+		Event event = new Event("a/b/c", (Dictionary) null); //$NON-NLS-1$
+		eventAdmin.sendEvent(event);
+		assertEquals("Wrong number of deliveries for overlapping topics", 1, count[0]); //$NON-NLS-1$
+		handlerRegistration.unregister();
+	}
+
+	/*
+	 * Ensures EventAdmin delivers events according to the current topics of an
+	 * EventHandler after its service properties have been modified.
+	 */
+	public void testEventDeliveryAfterTopicModification() {
+		Dictionary properties = new Hashtable();
+		properties.put(EventConstants.EVENT_TOPIC, "a/b/c"); //$NON-NLS-1$
+		BundleContext bundleContext = Activator.getBundleContext();
+		EventHandlerHelper handler = new EventHandlerHelper();
+		ServiceRegistration handlerRegistration = bundleContext.registerService(EventHandler.class, handler, properties);
+		eventAdmin.sendEvent(new Event("a/b/c", (Dictionary) null)); //$NON-NLS-1$
+		assertNotNull("Did not receive event published to topic 'a/b/c' while listening to 'a/b/c'", handler.clearLastEvent()); //$NON-NLS-1$
+		properties.put(EventConstants.EVENT_TOPIC, "x/y/z"); //$NON-NLS-1$
+		handlerRegistration.setProperties(properties);
+		eventAdmin.sendEvent(new Event("a/b/c", (Dictionary) null)); //$NON-NLS-1$
+		assertNull("Received event published to topic 'a/b/c' while listening to 'x/y/z'", handler.clearLastEvent()); //$NON-NLS-1$
+		eventAdmin.sendEvent(new Event("x/y/z", (Dictionary) null)); //$NON-NLS-1$
+		assertNotNull("Did not receive event published to topic 'x/y/z' while listening to 'x/y/z'", handler.lastEvent()); //$NON-NLS-1$
+		handlerRegistration.unregister();
+	}
+
+	/*
+	 * Ensures EventAdmin applies an equality event filter of an EventHandler
+	 * to String and non-String event properties.
+	 */
+	public void testEventDeliveryForEqualityFilter() {
+		Dictionary properties = new Hashtable();
+		properties.put(EventConstants.EVENT_TOPIC, "a/b/c"); //$NON-NLS-1$
+		properties.put(EventConstants.EVENT_FILTER, "(&(name=value)(count=1))"); //$NON-NLS-1$
+		BundleContext bundleContext = Activator.getBundleContext();
+		EventHandlerHelper handler = new EventHandlerHelper();
+		ServiceRegistration handlerRegistration = bundleContext.registerService(EventHandler.class, handler, properties);
+		Map eventProperties = new HashMap();
+		eventProperties.put("name", "value"); //$NON-NLS-1$ //$NON-NLS-2$
+		eventProperties.put("count", new Integer(1)); //$NON-NLS-1$
+		eventAdmin.sendEvent(new Event("a/b/c", eventProperties)); //$NON-NLS-1$
+		assertNotNull("Did not receive event matching the filter", handler.clearLastEvent()); //$NON-NLS-1$
+		eventProperties.put("name", "other"); //$NON-NLS-1$ //$NON-NLS-2$
+		eventAdmin.sendEvent(new Event("a/b/c", eventProperties)); //$NON-NLS-1$
+		assertNull("Received event not matching the filter", handler.clearLastEvent()); //$NON-NLS-1$
+		eventProperties.remove("name"); //$NON-NLS-1$
+		eventAdmin.sendEvent(new Event("a/b/c", eventProperties)); //$NON-NLS-1$
+		assertNull("Received event without the filtered property", handler.lastEvent()); //$NON-NLS-1$
+		handlerRegistration.unregister();
+	}
+
+	/*
+	 * Ensures the EventAdminMetrics service counts the invocations and filter
+	 * rejections of an EventHandler and the events published per topic.
+	 */
+	public void testEventAdminMetrics() {
+		Dictionary properties = new Hashtable();
+		properties.put(EventConstants.EVENT_TOPIC, "a/b/c"); //$NON-NLS-1$
+		properties.put(EventConstants.EVENT_FILTER, "(name=value)"); //$NON-NLS-1$
+		BundleContext bundleContext = Activator.getBundleContext();
+		EventHandlerHelper handler = new EventHandlerHelper();
+		ServiceRegistration handlerRegistration = bundleContext.registerService(EventHandler.class, handler, properties);
+		ServiceReference metricsReference = bundleContext.getServiceReference(EventAdminMetrics.class.getName());
+		EventAdminMetrics metrics = (EventAdminMetrics) bundleContext.getService(metricsReference);
+		metrics.reset();
+		Map eventProperties = new HashMap();
+		eventProperties.put("name", "value"); //$NON-NLS-1$ //$NON-NLS-2$
+		eventAdmin.sendEvent(new Event("a/b/c", eventProperties)); //$NON-NLS-1$
+		eventProperties.put("name", "other"); //$NON-NLS-1$ //$NON-NLS-2$
+		eventAdmin.sendEvent(new Event("a/b/c", eventProperties)); //$NON-NLS-1$
+		HandlerMetrics handlerMetrics = null;
+		HandlerMetrics[] allMetrics = metrics.getHandlerMetrics();
+		for (int i = 0; i < allMetrics.length; i++)
+			if (handlerRegistration.getReference().equals(allMetrics[i].getServiceReference()))
+				handlerMetrics = allMetrics[i];
+		assertNotNull("No metrics for the handler", handlerMetrics); //$NON-NLS-1$
+		assertEquals("Wrong number of invocations", 1, handlerMetrics.getInvocations()); //$NON-NLS-1$
+		assertEquals("Wrong number of filter rejections", 1, handlerMetrics.getFilterRejections()); //$NON-NLS-1$
+		assertEquals("Wrong number of published events", new Long(2), metrics.getTopicPublishCounts().get("a/b/c")); //$NON-NLS-1$ //$NON-NLS-2$
+		bundleContext.ungetService(metricsReference);
+		handlerRegistration.unregister();
+	}
+
+	/*
+	 * Ensures BatchEventAdmin delivers a batch of events in order with a single
+	 * call to a BatchEventHandler which opted in to batches, skipping the events
+	 * of topics the handler does not subscribe to.
+	 */
+	public void testBatchEventDelivery() throws InterruptedException {
+		Dictionary properties = new Hashtable();
+		properties.put(EventConstants.EVENT_TOPIC, "a/b/*"); //$NON-NLS-1$
+		properties.put(BatchEventHandler.EVENT_BATCH, Boolean.TRUE);
+		BundleContext bundleContext = Activator.getBundleContext();
+		final List batches = new ArrayList();
+		BatchEventHandler handler = new BatchEventHandler() {
+			public synchronized void handleEvents(List events) {
+				batches.add(new ArrayList(events));
+				notifyAll();
+			}
+
+			public synchronized void handleEvent(Event event) {
+				batches.add(Collections.singletonList(event));
+				notifyAll();
+			}
+		};
+		ServiceRegistration handlerRegistration = bundleContext.registerService(EventHandler.class, handler, properties);
+		ServiceReference batchReference = bundleContext.getServiceReference(BatchEventAdmin.class.getName());
+		BatchEventAdmin batchEventAdmin = (BatchEventAdmin) bundleContext.getService(batchReference);
+		List events = new ArrayList();
+		events.add(new Event("a/b/c", (Dictionary) null)); //$NON-NLS-1$
+		events.add(new Event("x/y/z", (Dictionary) null)); //$NON-NLS-1$
+		events.add(new Event("a/b/d", (Dictionary) null)); //$NON-NLS-1$
+		batchEventAdmin.postEvents(events);
+		synchronized (handler) {
+			long end = System.currentTimeMillis() + 5000;
+			while (batches.isEmpty() && System.currentTimeMillis() < end)
+				handler.wait(end - System.currentTimeMillis());
+		}
+		bundleContext.ungetService(batchReference);
+		handlerRegistration.unregister();
+		assertEquals("Wrong number of batches", 1, batches.size()); //$NON-NLS-1$
+		List batch = (List) batches.get(0);
+		assertEquals("Wrong number of events in the batch", 2, batch.size()); //$NON-NLS-1$
+		assertEquals("Wrong first event", "a/b/c", ((Event) batch.get(0)).getTopic()); //$NON-NLS-1$ //$NON-NLS-2$
+		assertEquals("Wrong second event", "a/b/d", ((Event) batch.get(1)).getTopic()); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	/*
+	 * Ensures the parallel asynchronous delivery delivers posted events to an
+	 * async.ordered handler in the order they were posted, and all posted events
+	 * to an async.unordered handler.
+	 */
+	public void testParallelAsyncDelivery() throws InterruptedException, BundleException {
+		System.setProperty(PROP_ASYNC_THREADS, "4"); //$NON-NLS-1$
+		try {
+			restartEventAdmin();
+			BundleContext bundleContext = Activator.getBundleContext();
+			Dictionary properties = new Hashtable();
+			properties.put(EventConstants.EVENT_TOPIC, "a/b/c"); //$NON-NLS-1$
+			properties.put("event.delivery", "async.ordered"); //$NON-NLS-1$ //$NON-NLS-2$
+			IndexCollector ordered = new IndexCollector();
+			ServiceRegistration orderedRegistration = bundleContext.registerService(EventHandler.class, ordered, properties);
+			properties.put("event.delivery", "async.unordered"); //$NON-NLS-1$ //$NON-NLS-2$
+			IndexCollector unordered = new IndexCollector();
+			ServiceRegistration unorderedRegistration = bundleContext.registerService(EventHandler.class, unordered, properties);
+			for (int i = 0; i < ASYNC_EVENT_COUNT; i++) {
+				Map eventProperties = new HashMap();
+				eventProperties.put("index", new Integer(i)); //$NON-NLS-1$
+				eventAdmin.postEvent(new Event("a/b/c", eventProperties)); //$NON-NLS-1$
+			}
+			List orderedIndexes = ordered.await(ASYNC_EVENT_COUNT);
+			List unorderedIndexes = unordered.await(ASYNC_EVENT_COUNT);
+			orderedRegistration.unregister();
+			unorderedRegistration.unregister();
+			assertEquals("Wrong number of ordered deliveries", ASYNC_EVENT_COUNT, orderedIndexes.size()); //$NON-NLS-1$
+			for (int i = 0; i < ASYNC_EVENT_COUNT; i++)
+				assertEquals("Wrong order of delivery", new Integer(i), orderedIndexes.get(i)); //$NON-NLS-1$
+			assertEquals("Wrong number of unordered deliveries", ASYNC_EVENT_COUNT, unorderedIndexes.size()); //$NON-NLS-1$
+			assertEquals("Duplicate or missing unordered deliveries", ASYNC_EVENT_COUNT, new HashSet(unorderedIndexes).size()); //$NON-NLS-1$
+		} finally {
+			System.getProperties().remove(PROP_ASYNC_THREADS);
+			// the following tests expect the default delivery
+			restartEventAdmin();
+		}
+	}
+
+	/*
+	 * Ensures sendEvent delivers an event synchronously on the calling thread,
+	 * in the same handler order as postEvent, and that a handler throwing an
+	 * exception does not prevent the delivery to the other handlers. Without a
+	 * SecurityManager sendEvent takes the direct delivery path while postEvent
+	 * always goes through the event manager.
+	 */
+	public void testSendEventDeliveryOrder() throws InterruptedException {
+		BundleContext bundleContext = Activator.getBundleContext();
+		final List deliveries = new ArrayList();
+		ServiceRegistration[] registrations = new ServiceRegistration[3];
+		for (int i = 0; i < registrations.length; i++) {
+			final Integer id = new Integer(i);
+			Dictionary properties = new Hashtable();
+			properties.put(EventConstants.EVENT_TOPIC, "a/b/c"); //$NON-NLS-1$
+			properties.put(Constants.SERVICE_RANKING, new Integer(i % 2 == 0 ? i : -i));
+			registrations[i] = bundleContext.registerService(EventHandler.class, new EventHandler() {
+				public void handleEvent(Event event) {
+					synchronized (deliveries) {
+						deliveries.add(new Object[] {id, Thread.currentThread()});
+						deliveries.notifyAll();
+					}
+					if (id.intValue() == 1)
+						throw new RuntimeException("Expected exception from the handler"); //$NON-NLS-1$
+				}
+			}, properties);
+		}
+		eventAdmin.sendEvent(new Event("a/b/c", (Dictionary) null)); //$NON-NLS-1$
+		List sendOrder = new ArrayList();
+		synchronized (deliveries) {
+			assertEquals("Wrong number of synchronous deliveries", registrations.length, deliveries.size()); //$NON-NLS-1$
+			for (Iterator iter = deliveries.iterator(); iter.hasNext();) {
+				Object[] delivery = (Object[]) iter.next();
+				assertSame("Event not delivered on the sending thread", Thread.currentThread(), delivery[1]); //$NON-NLS-1$
+				sendOrder.add(delivery[0]);
+			}
+			deliveries.clear();
+		}
+		eventAdmin.postEvent(new Event("a/b/c", (Dictionary) null)); //$NON-NLS-1$
+		List postOrder = new ArrayList();
+		synchronized (deliveries) {
+			long end = System.currentTimeMillis() + 5000;
+			while (deliveries.size() < registrations.length && System.currentTimeMillis() < end)
+				deliveries.wait(end - System.currentTimeMillis());
+			for (Iterator iter = deliveries.iterator(); iter.hasNext();)
+				postOrder.add(((Object[]) iter.next())[0]);
+		}
+		for (int i = 0; i < registrations.length; i++)
+			registrations[i].unregister();
+		assertEquals("Different handler order for sendEvent and postEvent", postOrder, sendOrder); //$NON-NLS-1$
+	}
+
+	private void restartEventAdmin() throws BundleException {
+		Activator.getBundleContext().ungetService(eventAdminReference);
+		Activator.getBundle(Activator.BUNDLE_EVENT).stop();
+		Activator.getBundle(Activator.BUNDLE_EVENT).start();
+		eventAdminReference = Activator.getBundleContext().getServiceReference(EventAdmin.class.getName());
+		eventAdmin = (EventAdmin) Activator.getBundleContext().getService(eventAdminReference);
+	}
+
+	/*
+	 * Collects the "index" property of the events it receives.
+	 */
+	static class IndexCollector implements EventHandler {
+		private final List indexes = new ArrayList();
+
+		public synchronized void handleEvent(Event event) {
+			indexes.add(event.getProperty("index")); //$NON-NLS-1$
+			notifyAll();
+		}
+
+		synchronized List await(int count) throws InterruptedException {
+			long end = System.currentTimeMillis() + 10000;
+			while (indexes.size() < count && System.currentTimeMillis() < end)
+				wait(end - System.currentTimeMillis());
+			return new ArrayList(indexes);
+		}
+	}
 }
@@ -0,0 +1,36 @@
+/*******************************************************************************
+ * Copyright (c) 2015 IBM Corporation and others
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ ******************************************************************************/
+package org.eclipse.equinox.event;
+
+import java.util.Collection;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventAdmin;
+
+/**
+ * Extends the OSGi Event Admin service to allow high-rate publishers to post many events at once.
+ * @ThreadSafe
+ * @see BatchEventHandler
+ */
+public interface BatchEventAdmin extends EventAdmin {
+	/**
+	 * Initiate asynchronous, ordered delivery of a batch of events.
+	 * 
+	 * <p>
+	 * The handlers for each distinct topic of the batch are resolved once and the whole batch
+	 * is delivered as a single unit of work. Each handler receives the events of the batch it
+	 * is subscribed to in the iteration order of the collection. A handler registered with
+	 * {@link BatchEventHandler#EVENT_BATCH} receives them with a single call to
+	 * {@link BatchEventHandler#handleEvents(java.util.List)}.
+	 * 
+	 * @param events The events to send to all handlers which subscribe to the topics of the events.
+	 * @throws SecurityException If the caller does not have <code>TopicPermission[topic,PUBLISH]</code>
+	 *         for the topic of any of the events. No event of the batch is delivered in this case.
+	 * @see EventAdmin#postEvent(Event)
+	 */
+	public void postEvents(Collection<Event> events);
+}
@@ -0,0 +1,36 @@
+/*******************************************************************************
+ * Copyright (c) 2015 IBM Corporation and others
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ ******************************************************************************/
+package org.eclipse.equinox.event;
+
+import java.util.List;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventHandler;
+
+/**
+ * An <code>EventHandler</code> which is able to receive a batch of events with a single call.
+ * The handler must be registered as an <code>EventHandler</code> service with the
+ * {@link #EVENT_BATCH} service property set to <code>true</code> to receive batches.
+ * Otherwise the events of a batch are delivered one at a time.
+ * @ThreadSafe
+ * @see BatchEventAdmin#postEvents(java.util.Collection)
+ */
+public interface BatchEventHandler extends EventHandler {
+	/**
+	 * Service property of an <code>EventHandler</code> to opt in to receiving batches of events.
+	 * The value must be a <code>Boolean</code> or <code>String</code> and is <code>false</code> by default.
+	 */
+	public static final String EVENT_BATCH = "org.eclipse.equinox.event.batch"; //$NON-NLS-1$
+
+	/**
+	 * Called by the Event Admin service to notify the handler of a batch of events.
+	 * The events have passed the topic, filter and permission checks of the handler.
+	 * 
+	 * @param events The events that occurred, in the order they were posted. The list must not be modified.
+	 */
+	public void handleEvents(List<Event> events);
+}
@@ -0,0 +1,47 @@
+/*******************************************************************************
+ * Copyright (c) 2015 IBM Corporation and others
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ ******************************************************************************/
+package org.eclipse.equinox.event;
+
+import java.util.Map;
+
+/**
+ * Provides dispatch metrics of the Equinox Event Admin service.
+ * The metrics are collected while the Event Admin service is active and
+ * are registered as a service with this interface.
+ * @ThreadSafe
+ * @see HandlerMetrics
+ */
+public interface EventAdminMetrics {
+	/**
+	 * Returns the metrics of the event handlers currently tracked by Event Admin.
+	 * 
+	 * @return The metrics of each event handler.
+	 */
+	public HandlerMetrics[] getHandlerMetrics();
+
+	/**
+	 * Returns the number of events published per topic since the last reset.
+	 * To bound the memory used, only a limited number of distinct topics is counted.
+	 * 
+	 * @return An unmodifiable snapshot of the count of events per topic.
+	 */
+	public Map<String, Long> getTopicPublishCounts();
+
+	/**
+	 * Returns the number of asynchronous deliveries to handlers which are queued
+	 * and not yet completed.
+	 * 
+	 * @return The depth of the asynchronous delivery queue.
+	 */
+	public int getAsyncQueueDepth();
+
+	/**
+	 * Resets all counters. Blacklisted handlers remain blacklisted.
+	 */
+	public void reset();
+}
@@ -0,0 +1,54 @@
+/*******************************************************************************
+ * Copyright (c) 2015 IBM Corporation and others
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ ******************************************************************************/
+package org.eclipse.equinox.event;
+
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.event.EventHandler;
+
+/**
+ * The dispatch metrics of a single event handler.
+ * The values are live counters which may change while they are read.
+ * @ThreadSafe
+ * @see EventAdminMetrics#getHandlerMetrics()
+ */
+public interface HandlerMetrics {
+	/**
+	 * @return The service reference of the event handler.
+	 */
+	public ServiceReference<EventHandler> getServiceReference();
+
+	/**
+	 * @return The number of calls to the handler.
+	 */
+	public long getInvocations();
+
+	/**
+	 * @return The cumulative time spent in calls to the handler in nanoseconds.
+	 */
+	public long getTotalTime();
+
+	/**
+	 * @return The longest time spent in a single call to the handler in nanoseconds.
+	 */
+	public long getMaxTime();
+
+	/**
+	 * @return The number of calls to the handler which threw an exception.
+	 */
+	public long getExceptions();
+
+	/**
+	 * @return The number of events not delivered to the handler because of its event filter.
+	 */
+	public long getFilterRejections();
+
+	/**
+	 * @return true if the handler does not receive events any more because it was too slow.
+	 */
+	public boolean isBlacklisted();
+}
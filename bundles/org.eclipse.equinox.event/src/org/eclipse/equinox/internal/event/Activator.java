@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2005, 2010 IBM Corporation and others.
+ * Copyright (c) 2005, 2015 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -11,12 +11,13 @@
 
 package org.eclipse.equinox.internal.event;
 
+import org.eclipse.equinox.event.BatchEventAdmin;
 import org.osgi.framework.*;
 import org.osgi.service.event.EventAdmin;
 
 public class Activator implements BundleActivator {
 	private static final String PROP_USE_DS = "equinox.use.ds"; //$NON-NLS-1$
-	private ServiceRegistration<EventAdmin> eventAdminService;
+	private ServiceRegistration<?> eventAdminService;
 	private EventComponent eventAdmin;
 
 	public void start(BundleContext bundleContext) throws InvalidSyntaxException {
@@ -34,7 +35,7 @@ public class Activator implements BundleActivator {
 
 		eventAdmin = new EventComponent();
 		eventAdmin.activate(bundleContext);
-		eventAdminService = bundleContext.registerService(EventAdmin.class, eventAdmin, null);
+		eventAdminService = bundleContext.registerService(new String[] {EventAdmin.class.getName(), BatchEventAdmin.class.getName()}, eventAdmin, null);
 	}
 
 	public void stop(BundleContext bundleContext) {
@@ -0,0 +1,311 @@
+/*******************************************************************************
+ * Copyright (c) 2015 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.equinox.internal.event;
+
+import java.security.Permission;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.eclipse.osgi.util.NLS;
+import org.osgi.service.event.Event;
+
+/**
+ * Delivers asynchronous events with a bounded pool of threads.
+ * <p>
+ * Events for an ordered handler are queued in a serial lane for the handler.
+ * A lane is scheduled on the pool while it has pending events, so events are
+ * delivered to each handler in the order they were posted while different
+ * handlers receive events concurrently. Events for handlers which have opted
+ * out of ordered delivery are scheduled on the pool directly.
+ * <p>
+ * The number of pending deliveries is bounded. A publisher blocks once the
+ * bound is reached until deliveries complete. Threads of the pool itself
+ * never block, to avoid a deadlock when handlers post events.
+ * <p>
+ * When the pool is closed, the pending deliveries are given a bounded time to
+ * complete. The deliveries still pending after that are discarded.
+ */
+class AsyncDeliveryPool {
+	// maximum number of events a lane delivers before yielding its thread to other lanes
+	private static final int MAX_LANE_BATCH = 64;
+	// maximum time in milliseconds to wait for the pending deliveries when the pool is closed
+	private static final long CLOSE_TIMEOUT = 1000;
+	// results of reserving a pending delivery
+	private static final int CLOSED = 0;
+	private static final int RESERVED = 1;
+	private static final int UNRESERVED = 2;
+
+	private final ThreadPoolExecutor executor;
+	private final Semaphore capacity;
+	private final int queueSize;
+	private final EventAdminMetricsImpl metrics;
+	private final ConcurrentHashMap<EventHandlerWrapper, Lane> lanes = new ConcurrentHashMap<EventHandlerWrapper, Lane>();
+	// number of scheduled deliveries which have not completed
+	private final AtomicInteger pending = new AtomicInteger();
+	private volatile boolean closed;
+
+	/**
+	 * Create a delivery pool.
+	 *
+	 * @param threads The number of delivery threads.
+	 * @param queueSize The maximum number of pending deliveries.
+	 * @param eventGroup The thread group of the delivery threads.
+	 * @param metrics The metrics counting the pending deliveries.
+	 */
+	AsyncDeliveryPool(int threads, int queueSize, final ThreadGroup eventGroup, EventAdminMetricsImpl metrics) {
+		this.queueSize = queueSize;
+		this.metrics = metrics;
+		this.capacity = new Semaphore(queueSize);
+		// the work queue holds at most one task per pending delivery
+		this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+			private int count;
+
+			public synchronized Thread newThread(Runnable r) {
+				Thread t = new DeliveryThread(eventGroup, r, NLS.bind(EventAdminMsg.EVENT_ASYNC_POOL_THREAD_NAME, Integer.valueOf(++count)));
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Queue an event for asynchronous delivery to the specified handlers.
+	 *
+	 * @param handlers The handlers to receive the event.
+	 * @param event The event to deliver.
+	 * @param perm The permission to be checked by the handlers or <code>null</code>.
+	 */
+	void deliver(EventHandlerWrapper[] handlers, Event event, Permission perm) {
+		boolean deliveryThread = Thread.currentThread() instanceof DeliveryThread;
+		for (int i = 0; i < handlers.length; i++) {
+			int reservation = reserve(deliveryThread);
+			if (reservation == CLOSED) {
+				return;
+			}
+			schedule(new EventDelivery(handlers[i], event, perm, reservation == RESERVED));
+		}
+	}
+
+	/**
+	 * Queue a batch of events for asynchronous delivery to a handler.
+	 * The batch counts as a single pending delivery.
+	 *
+	 * @param wrapper The handler to receive the events.
+	 * @param events The events to deliver.
+	 * @param checkPermission true if the handler must be checked for the subscribe permission of each event.
+	 */
+	void deliver(EventHandlerWrapper wrapper, List<Event> events, boolean checkPermission) {
+		int reservation = reserve(Thread.currentThread() instanceof DeliveryThread);
+		if (reservation == CLOSED) {
+			return;
+		}
+		schedule(new BatchDelivery(wrapper, events, checkPermission, reservation == RESERVED));
+	}
+
+	private int reserve(boolean deliveryThread) {
+		if (deliveryThread) {
+			// never block a delivery thread; this could starve the pool
+			return closed ? CLOSED : (capacity.tryAcquire() ? RESERVED : UNRESERVED);
+		}
+		try {
+			capacity.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return CLOSED;
+		}
+		return closed ? CLOSED : RESERVED;
+	}
+
+	private void schedule(Delivery delivery) {
+		metrics.queued(1);
+		pending.incrementAndGet();
+		if (delivery.wrapper.isOrdered()) {
+			queue(delivery);
+		} else {
+			execute(delivery);
+		}
+	}
+
+	/**
+	 * Shut down the pool. No more deliveries are accepted and the pending
+	 * deliveries are given a bounded time to complete before they are discarded.
+	 *
+	 * @return The number of deliveries which did not complete.
+	 */
+	int close() {
+		closed = true;
+		// release any blocked publishers
+		capacity.release(queueSize);
+		executor.shutdown();
+		try {
+			executor.awaitTermination(CLOSE_TIMEOUT, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		executor.shutdownNow();
+		return pending.get();
+	}
+
+	private void execute(Runnable task) {
+		try {
+			executor.execute(task);
+		} catch (RejectedExecutionException e) {
+			// the pool is closed
+		}
+	}
+
+	private void queue(Delivery delivery) {
+		EventHandlerWrapper wrapper = delivery.wrapper;
+		while (true) {
+			Lane lane = lanes.get(wrapper);
+			if (lane == null) {
+				Lane newLane = new Lane(wrapper);
+				lane = lanes.putIfAbsent(wrapper, newLane);
+				if (lane == null) {
+					lane = newLane;
+				}
+			}
+			if (lane.add(delivery)) {
+				return;
+			}
+			// the lane was retired after draining; try again with a new lane
+		}
+	}
+
+	/**
+	 * A pending delivery to a handler.
+	 */
+	private abstract class Delivery implements Runnable {
+		final EventHandlerWrapper wrapper;
+		// true if the delivery counts against the bound of pending deliveries
+		private final boolean reserved;
+
+		Delivery(EventHandlerWrapper wrapper, boolean reserved) {
+			this.wrapper = wrapper;
+			this.reserved = reserved;
+		}
+
+		public void run() {
+			try {
+				deliver();
+			} finally {
+				pending.decrementAndGet();
+				metrics.dequeued();
+				if (reserved) {
+					capacity.release();
+				}
+			}
+		}
+
+		abstract void deliver();
+	}
+
+	/**
+	 * A delivery of an event to a handler.
+	 */
+	private class EventDelivery extends Delivery {
+		private final Event event;
+		private final Permission perm;
+
+		EventDelivery(EventHandlerWrapper wrapper, Event event, Permission perm, boolean reserved) {
+			super(wrapper, reserved);
+			this.event = event;
+			this.perm = perm;
+		}
+
+		void deliver() {
+			wrapper.handleEvent(event, perm);
+		}
+	}
+
+	/**
+	 * A delivery of a batch of events to a handler.
+	 */
+	private class BatchDelivery extends Delivery {
+		private final List<Event> events;
+		private final boolean checkPermission;
+
+		BatchDelivery(EventHandlerWrapper wrapper, List<Event> events, boolean checkPermission, boolean reserved) {
+			super(wrapper, reserved);
+			this.events = events;
+			this.checkPermission = checkPermission;
+		}
+
+		void deliver() {
+			wrapper.handleEvents(events, checkPermission);
+		}
+	}
+
+	/**
+	 * A serial lane of pending deliveries for a handler. At most one thread
+	 * delivers events from a lane at a time.
+	 */
+	private class Lane implements Runnable {
+		private final EventHandlerWrapper wrapper;
+		private final LinkedList<Delivery> pending = new LinkedList<Delivery>();
+		private boolean scheduled;
+		private boolean retired;
+
+		Lane(EventHandlerWrapper wrapper) {
+			this.wrapper = wrapper;
+		}
+
+		/**
+		 * Add a delivery to the lane and schedule the lane if needed.
+		 *
+		 * @return false if the lane has been retired and must not be used any more
+		 */
+		boolean add(Delivery delivery) {
+			synchronized (this) {
+				if (retired) {
+					return false;
+				}
+				pending.add(delivery);
+				if (scheduled) {
+					return true;
+				}
+				scheduled = true;
+			}
+			execute(this);
+			return true;
+		}
+
+		public void run() {
+			// a closed pool accepts no more tasks, so drain the lane without yielding
+			for (int i = 0; i < MAX_LANE_BATCH || closed; i++) {
+				Delivery delivery;
+				synchronized (this) {
+					delivery = pending.poll();
+					if (delivery == null) {
+						// retire the lane once it is drained so lanes of removed handlers do not leak
+						retired = true;
+						lanes.remove(wrapper, this);
+						return;
+					}
+				}
+				delivery.run();
+			}
+			// yield to other lanes; the lane stays scheduled
+			execute(this);
+		}
+	}
+
+	/**
+	 * Marker class for the threads of the pool.
+	 */
+	private static class DeliveryThread extends Thread {
+		DeliveryThread(ThreadGroup group, Runnable target, String name) {
+			super(group, target, name);
+		}
+	}
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2005, 2010 IBM Corporation and others.
+ * Copyright (c) 2005, 2015 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -12,11 +12,14 @@
 package org.eclipse.equinox.internal.event;
 
 import java.security.Permission;
-import java.util.Map;
-import java.util.Set;
+import java.util.*;
+import org.eclipse.equinox.event.BatchEventAdmin;
+import org.eclipse.equinox.event.EventAdminMetrics;
 import org.eclipse.osgi.framework.eventmgr.*;
 import org.eclipse.osgi.util.NLS;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
 import org.osgi.service.event.*;
 import org.osgi.service.log.LogService;
 
@@ -24,11 +27,43 @@ import org.osgi.service.log.LogService;
  * Implementation of org.osgi.service.event.EventAdmin. EventAdminImpl uses
  * org.eclipse.osgi.framework.eventmgr.EventManager. It is assumed
  * org.eclipse.osgi.framework.eventmgr package is exported by some other bundle.
+ * If configured with {@link #PROP_ASYNC_THREADS}, asynchronous events are delivered
+ * by an {@link AsyncDeliveryPool} instead of the single EventManager thread.
  */
-public class EventAdminImpl implements EventAdmin {
+public class EventAdminImpl implements BatchEventAdmin {
+	/**
+	 * Framework property specifying the number of threads delivering asynchronous events.
+	 * If not greater than 1, asynchronous events are delivered by a single thread.
+	 */
+	static final String PROP_ASYNC_THREADS = "org.eclipse.equinox.event.async.threads"; //$NON-NLS-1$
+	/**
+	 * Framework property specifying the maximum number of pending asynchronous deliveries
+	 * when several threads deliver asynchronous events. Publishers block when the bound is reached.
+	 */
+	static final String PROP_ASYNC_QUEUE_SIZE = "org.eclipse.equinox.event.async.queueSize"; //$NON-NLS-1$
+	/**
+	 * Framework property specifying the time in milliseconds a handler may take to handle
+	 * an event before it is reported as slow. Slow handlers are not detected if not set.
+	 */
+	static final String PROP_SLOW_HANDLER_THRESHOLD = "org.eclipse.equinox.event.slowHandler.threshold"; //$NON-NLS-1$
+	/**
+	 * Framework property specifying whether slow handlers are blacklisted and do not
+	 * receive any more events. The default is false.
+	 */
+	static final String PROP_SLOW_HANDLER_BLACKLIST = "org.eclipse.equinox.event.slowHandler.blacklist"; //$NON-NLS-1$
+	private static final int DEFAULT_ASYNC_THREADS = 1;
+	private static final int DEFAULT_ASYNC_QUEUE_SIZE = 10000;
+
 	private final LogTracker log;
 	private final EventHandlerTracker handlers;
+	private final EventAdminMetricsImpl metrics;
+	private final BundleContext context;
 	private volatile EventManager eventManager;
+	private volatile AsyncDeliveryPool asyncPool;
+	private ServiceRegistration<EventAdminMetrics> metricsRegistration;
+	private ServiceRegistration<?> commandRegistration;
+	// EventAdminMetricsManagement; not typed to avoid a dependency on JMX
+	private Object metricsManagement;
 
 	/**
 	 * Constructor for EventAdminImpl.
@@ -37,8 +72,10 @@ public class EventAdminImpl implements EventAdmin {
 	 */
 	EventAdminImpl(BundleContext context) {
 		super();
+		this.context = context;
 		log = new LogTracker(context, System.out);
 		handlers = new EventHandlerTracker(context, log);
+		metrics = handlers.getMetrics();
 	}
 
 	/**
@@ -49,16 +86,30 @@ public class EventAdminImpl implements EventAdmin {
 		ThreadGroup eventGroup = new ThreadGroup("Equinox Event Admin"); //$NON-NLS-1$
 		eventGroup.setDaemon(true);
 		eventManager = new EventManager(EventAdminMsg.EVENT_ASYNC_THREAD_NAME, eventGroup);
+		int asyncThreads = getIntProperty(PROP_ASYNC_THREADS, DEFAULT_ASYNC_THREADS);
+		if (asyncThreads > 1) {
+			asyncPool = new AsyncDeliveryPool(asyncThreads, getIntProperty(PROP_ASYNC_QUEUE_SIZE, DEFAULT_ASYNC_QUEUE_SIZE), eventGroup, metrics);
+		}
+		metrics.setSlowHandlerThreshold(getIntProperty(PROP_SLOW_HANDLER_THRESHOLD, 0), Boolean.valueOf(context.getProperty(PROP_SLOW_HANDLER_BLACKLIST)).booleanValue());
 		handlers.open();
+		registerMetrics();
 	}
 
 	/**
 	 * This method should be called after unregistering EventAdmin service
 	 */
 	void stop() {
+		unregisterMetrics();
 		handlers.close();
 		eventManager.close();
 		eventManager = null; // signify we have stopped
+		if (asyncPool != null) {
+			int discarded = asyncPool.close();
+			asyncPool = null;
+			if (discarded > 0) {
+				log.log(LogService.LOG_WARNING, NLS.bind(EventAdminMsg.EVENT_ASYNC_DELIVERIES_DISCARDED, Integer.valueOf(discarded)));
+			}
+		}
 		log.close();
 	}
 
@@ -78,6 +129,74 @@ public class EventAdminImpl implements EventAdmin {
 		dispatchEvent(event, false);
 	}
 
+	/**
+	 * @param events
+	 * @see org.eclipse.equinox.event.BatchEventAdmin#postEvents(java.util.Collection)
+	 */
+	public void postEvents(Collection<Event> events) {
+		// keep a local copy in case we are stopped in the middle of dispatching
+		EventManager currentManager = eventManager;
+		if (currentManager == null) {
+			// EventAdmin is stopped
+			return;
+		}
+		SecurityManager sm = System.getSecurityManager();
+
+		// resolve the handlers once per distinct topic and collect the events of each handler in order
+		Map<String, EventHandlerWrapper[]> topicHandlers = new HashMap<String, EventHandlerWrapper[]>();
+		Map<EventHandlerWrapper, List<Event>> batches = new LinkedHashMap<EventHandlerWrapper, List<Event>>();
+		for (Event event : events) {
+			if (event == null) {
+				log.log(LogService.LOG_ERROR, EventAdminMsg.EVENT_NULL_EVENT);
+				continue;
+			}
+			String topic = event.getTopic();
+			EventHandlerWrapper[] eventHandlers = topicHandlers.get(topic);
+			if (eventHandlers == null) {
+				try {
+					checkTopicPermissionPublish(sm, topic);
+				} catch (SecurityException e) {
+					String msg = NLS.bind(EventAdminMsg.EVENT_NO_TOPICPERMISSION_PUBLISH, topic);
+					log.log(LogService.LOG_ERROR, msg);
+					// must throw a security exception here according to the EventAdmin spec
+					throw e;
+				}
+				eventHandlers = handlers.getHandlers(topic);
+				topicHandlers.put(topic, eventHandlers);
+			}
+			metrics.published(topic);
+			for (int i = 0; i < eventHandlers.length; i++) {
+				List<Event> batch = batches.get(eventHandlers[i]);
+				if (batch == null) {
+					batch = new ArrayList<Event>();
+					batches.put(eventHandlers[i], batch);
+				}
+				batch.add(event);
+			}
+		}
+		// If there are no handlers, then we are done
+		if (batches.isEmpty()) {
+			return;
+		}
+
+		boolean checkPermission = sm != null;
+		AsyncDeliveryPool currentPool = asyncPool;
+		if (currentPool != null) {
+			for (Map.Entry<EventHandlerWrapper, List<Event>> batch : batches.entrySet()) {
+				currentPool.deliver(batch.getKey(), batch.getValue(), checkPermission);
+			}
+			return;
+		}
+
+		// queue the whole batch as a single unit of work for the async thread
+		Map<EventBatch, Object> listeners = new CopyOnWriteIdentityMap<EventBatch, Object>();
+		metrics.queued(batches.size());
+		listeners.put(new EventBatch(batches, checkPermission, metrics, log), null);
+		ListenerQueue<EventBatch, Object, Object> listenerQueue = new ListenerQueue<EventBatch, Object, Object>(currentManager);
+		listenerQueue.queueListeners(listeners.entrySet(), EventBatch.DISPATCHER);
+		listenerQueue.dispatchEventAsynchronous(0, null);
+	}
+
 	/**
 	 * Internal main method for sendEvent() and postEvent(). Dispatching an
 	 * event to EventHandler. All exceptions are logged except when dealing with
@@ -100,28 +219,49 @@ public class EventAdminImpl implements EventAdmin {
 		}
 
 		String topic = event.getTopic();
+		SecurityManager sm = System.getSecurityManager();
 
 		try {
-			checkTopicPermissionPublish(topic);
+			checkTopicPermissionPublish(sm, topic);
 		} catch (SecurityException e) {
 			String msg = NLS.bind(EventAdminMsg.EVENT_NO_TOPICPERMISSION_PUBLISH, event.getTopic());
 			log.log(LogService.LOG_ERROR, msg);
 			// must throw a security exception here according to the EventAdmin spec
 			throw e;
 		}
+		metrics.published(topic);
 
-		Set<EventHandlerWrapper> eventHandlers = handlers.getHandlers(topic);
+		EventHandlerWrapper[] eventHandlers = handlers.getHandlers(topic);
 		// If there are no handlers, then we are done
-		if (eventHandlers.isEmpty()) {
+		if (eventHandlers.length == 0) {
+			return;
+		}
+
+		if (!isAsync && sm == null) {
+			// fast path: no permissions to check, so deliver directly without creating a listener queue
+			for (int i = 0; i < eventHandlers.length; i++) {
+				try {
+					eventHandlers[i].handleEvent(event, null);
+				} catch (Throwable t) {
+					// the wrapper logs the exceptions of the handler itself; log anything else, and like the
+					// EventManager, do not let it stop the delivery to the other handlers
+					log.log(eventHandlers[i].getReference(), LogService.LOG_ERROR, NLS.bind(EventAdminMsg.EVENT_DISPATCH_HANDLER_EXCEPTION, event, eventHandlers[i].getReference()), t);
+				}
+			}
 			return;
 		}
 
-		SecurityManager sm = System.getSecurityManager();
 		Permission perm = (sm == null) ? null : new TopicPermission(topic, TopicPermission.SUBSCRIBE);
 
+		AsyncDeliveryPool currentPool = asyncPool;
+		if (isAsync && currentPool != null) {
+			currentPool.deliver(eventHandlers, event, perm);
+			return;
+		}
+
 		Map<EventHandlerWrapper, Permission> listeners = new CopyOnWriteIdentityMap<EventHandlerWrapper, Permission>();
-		for (EventHandlerWrapper wrapper : eventHandlers)
-			listeners.put(wrapper, perm);
+		for (int i = 0; i < eventHandlers.length; i++)
+			listeners.put(eventHandlers[i], perm);
 
 		// Create the listener queue for this event delivery
 		ListenerQueue<EventHandlerWrapper, Permission, Event> listenerQueue = new ListenerQueue<EventHandlerWrapper, Permission, Event>(currentManager);
@@ -130,20 +270,116 @@ public class EventAdminImpl implements EventAdmin {
 		listenerQueue.queueListeners(listeners.entrySet(), handlers);
 		// Deliver the event to the listeners.
 		if (isAsync) {
-			listenerQueue.dispatchEventAsynchronous(0, event);
+			metrics.queued(eventHandlers.length);
+			listenerQueue.dispatchEventAsynchronous(EventHandlerTracker.DELIVER_ASYNC, event);
 		} else {
-			listenerQueue.dispatchEventSynchronous(0, event);
+			listenerQueue.dispatchEventSynchronous(EventHandlerTracker.DELIVER_SYNC, event);
+		}
+	}
+
+	/**
+	 * The handlers and their events of a batch posted with {@link #postEvents(Collection)}.
+	 */
+	private static class EventBatch {
+		static final EventDispatcher<EventBatch, Object, Object> DISPATCHER = new EventDispatcher<EventBatch, Object, Object>() {
+			public void dispatchEvent(EventBatch eventListener, Object listenerObject, int eventAction, Object eventObject) {
+				eventListener.deliver();
+			}
+		};
+
+		private final Map<EventHandlerWrapper, List<Event>> batches;
+		private final boolean checkPermission;
+		private final EventAdminMetricsImpl metrics;
+		private final LogTracker log;
+
+		EventBatch(Map<EventHandlerWrapper, List<Event>> batches, boolean checkPermission, EventAdminMetricsImpl metrics, LogTracker log) {
+			this.batches = batches;
+			this.checkPermission = checkPermission;
+			this.metrics = metrics;
+			this.log = log;
+		}
+
+		void deliver() {
+			for (Map.Entry<EventHandlerWrapper, List<Event>> batch : batches.entrySet()) {
+				try {
+					batch.getKey().handleEvents(batch.getValue(), checkPermission);
+				} catch (Throwable t) {
+					// the wrapper logs the exceptions of the handler itself; log anything else, and do not
+					// let it stop the delivery to the other handlers
+					ServiceReference<EventHandler> reference = batch.getKey().getReference();
+					log.log(reference, LogService.LOG_ERROR, NLS.bind(EventAdminMsg.EVENT_DISPATCH_HANDLER_EXCEPTION, batch.getValue(), reference), t);
+				} finally {
+					metrics.dequeued();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Register the metrics as a service, as an MBean and as a console command if available.
+	 */
+	private void registerMetrics() {
+		metricsRegistration = context.registerService(EventAdminMetrics.class, metrics, null);
+		try {
+			// refer to the CommandProvider by name here so that even if VM
+			// decides to pre-fetch all referred classes the exception will occur
+			// inside the exception holder
+			commandRegistration = context.registerService("org.eclipse.osgi.framework.console.CommandProvider", new EventCommandProvider(metrics), null); //$NON-NLS-1$
+		} catch (NoClassDefFoundError noClass) {
+			// expected if CommandProvider is not available
+		}
+		try {
+			metricsManagement = EventAdminMetricsManagement.register(metrics, context);
+		} catch (NoClassDefFoundError noClass) {
+			// expected if JMX is not available
 		}
 	}
 
+	private void unregisterMetrics() {
+		if (metricsManagement != null) {
+			((EventAdminMetricsManagement) metricsManagement).unregister();
+			metricsManagement = null;
+		}
+		if (commandRegistration != null) {
+			commandRegistration.unregister();
+			commandRegistration = null;
+		}
+		metricsRegistration.unregister();
+		metricsRegistration = null;
+	}
+
+	/**
+	 * Gets a positive integer framework property.
+	 * 
+	 * @param key The name of the property
+	 * @param defaultValue The value to use if the property is not set or invalid
+	 * @return The value of the property
+	 */
+	private int getIntProperty(String key, int defaultValue) {
+		String value = context.getProperty(key);
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			int result = Integer.parseInt(value.trim());
+			if (result > 0) {
+				return result;
+			}
+		} catch (NumberFormatException e) {
+			// fall through to log the invalid value
+		}
+		log.log(LogService.LOG_WARNING, NLS.bind(EventAdminMsg.EVENT_INVALID_PROPERTY, new Object[] {key, value, Integer.valueOf(defaultValue)}));
+		return defaultValue;
+	}
+
 	/**
 	 * Checks if the caller bundle has right PUBLISH TopicPermision.
 	 * 
+	 * @param sm The current security manager or <code>null</code>
 	 * @param topic
 	 * @throws SecurityException if the caller does not have the right to PUBLISH TopicPermission
 	 */
-	private void checkTopicPermissionPublish(String topic) throws SecurityException {
-		SecurityManager sm = System.getSecurityManager();
+	private void checkTopicPermissionPublish(SecurityManager sm, String topic) throws SecurityException {
 		if (sm == null)
 			return;
 		sm.checkPermission(new TopicPermission(topic, TopicPermission.PUBLISH));
@@ -0,0 +1,159 @@
+/*******************************************************************************
+ * Copyright (c) 2015 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.equinox.internal.event;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.eclipse.equinox.event.EventAdminMetrics;
+import org.eclipse.equinox.event.HandlerMetrics;
+import org.eclipse.osgi.util.NLS;
+import org.osgi.framework.Constants;
+import org.osgi.service.log.LogService;
+
+/**
+ * Collects the dispatch metrics of Event Admin and detects slow handlers.
+ * Counters are updated without locking on the event delivery paths.
+ */
+class EventAdminMetricsImpl implements EventAdminMetrics {
+	// upper bound of counted topics to avoid unbounded growth with generated topic names
+	private static final int MAX_COUNTED_TOPICS = 1024;
+
+	private final EventHandlerTracker handlers;
+	private final LogService log;
+	private final ConcurrentHashMap<String, AtomicLong> topicCounts = new ConcurrentHashMap<String, AtomicLong>();
+	private final AtomicInteger asyncQueueDepth = new AtomicInteger();
+	// threshold in nanoseconds; 0 if slow handler detection is disabled
+	private volatile long slowHandlerThreshold;
+	private volatile boolean blacklistSlowHandlers;
+
+	EventAdminMetricsImpl(EventHandlerTracker handlers, LogService log) {
+		this.handlers = handlers;
+		this.log = log;
+	}
+
+	/**
+	 * Configure the slow handler detection.
+	 * 
+	 * @param thresholdMillis The time in milliseconds a handler may take to handle an event;
+	 * 0 to disable the detection
+	 * @param blacklist true if slow handlers must not receive any more events
+	 */
+	void setSlowHandlerThreshold(long thresholdMillis, boolean blacklist) {
+		blacklistSlowHandlers = blacklist;
+		slowHandlerThreshold = thresholdMillis * 1000000L;
+	}
+
+	/**
+	 * Count an event published to a topic.
+	 */
+	void published(String topic) {
+		AtomicLong count = topicCounts.get(topic);
+		if (count == null) {
+			if (topicCounts.size() >= MAX_COUNTED_TOPICS) {
+				return;
+			}
+			AtomicLong newCount = new AtomicLong();
+			count = topicCounts.putIfAbsent(topic, newCount);
+			if (count == null) {
+				count = newCount;
+			}
+		}
+		count.incrementAndGet();
+	}
+
+	/**
+	 * Count asynchronous deliveries added to the queue.
+	 */
+	void queued(int deliveries) {
+		asyncQueueDepth.addAndGet(deliveries);
+	}
+
+	/**
+	 * Count an asynchronous delivery removed from the queue.
+	 */
+	void dequeued() {
+		asyncQueueDepth.decrementAndGet();
+	}
+
+	/**
+	 * Record a call to a handler and check it against the slow handler threshold.
+	 * 
+	 * @param metrics The metrics of the handler
+	 * @param handler The handler service
+	 * @param event The event or events passed to the handler
+	 * @param time The time spent in the call in nanoseconds
+	 * @param failed true if the call threw an exception
+	 */
+	void handled(HandlerMetricsImpl metrics, Object handler, Object event, long time, boolean failed) {
+		metrics.recordInvocation(time, failed);
+		long threshold = slowHandlerThreshold;
+		if (threshold <= 0 || time <= threshold) {
+			return;
+		}
+		boolean blacklist = blacklistSlowHandlers;
+		if (blacklist) {
+			metrics.blacklist();
+		}
+		if (metrics.markSlow() || blacklist) {
+			Object[] args = new Object[] {handler, Long.valueOf(time / 1000000L), event, Long.valueOf(threshold / 1000000L)};
+			log.log(LogService.LOG_WARNING, NLS.bind(blacklist ? EventAdminMsg.EVENT_SLOW_HANDLER_BLACKLISTED : EventAdminMsg.EVENT_SLOW_HANDLER, args));
+		}
+	}
+
+	/**
+	 * Describe the metrics of a handler in a single line.
+	 */
+	static String describe(HandlerMetrics metrics) {
+		StringBuffer sb = new StringBuffer();
+		sb.append(metrics.getServiceReference().getProperty(Constants.SERVICE_ID));
+		sb.append(" invocations=").append(metrics.getInvocations()); //$NON-NLS-1$
+		sb.append(" totalMs=").append(metrics.getTotalTime() / 1000000L); //$NON-NLS-1$
+		sb.append(" maxMs=").append(metrics.getMaxTime() / 1000000L); //$NON-NLS-1$
+		sb.append(" exceptions=").append(metrics.getExceptions()); //$NON-NLS-1$
+		sb.append(" filtered=").append(metrics.getFilterRejections()); //$NON-NLS-1$
+		if (metrics.isBlacklisted()) {
+			sb.append(" blacklisted"); //$NON-NLS-1$
+		}
+		sb.append(' ').append(metrics.getServiceReference());
+		return sb.toString();
+	}
+
+	public HandlerMetrics[] getHandlerMetrics() {
+		Collection<EventHandlerWrapper> wrappers = handlers.getTracked().values();
+		List<HandlerMetrics> result = new ArrayList<HandlerMetrics>(wrappers.size());
+		for (EventHandlerWrapper wrapper : wrappers) {
+			result.add(wrapper.getMetrics());
+		}
+		return result.toArray(new HandlerMetrics[result.size()]);
+	}
+
+	public Map<String, Long> getTopicPublishCounts() {
+		Map<String, Long> result = new TreeMap<String, Long>();
+		for (Map.Entry<String, AtomicLong> entry : topicCounts.entrySet()) {
+			result.put(entry.getKey(), Long.valueOf(entry.getValue().get()));
+		}
+		return Collections.unmodifiableMap(result);
+	}
+
+	public int getAsyncQueueDepth() {
+		return asyncQueueDepth.get();
+	}
+
+	public void reset() {
+		topicCounts.clear();
+		for (EventHandlerWrapper wrapper : handlers.getTracked().values()) {
+			wrapper.getMetrics().reset();
+		}
+	}
+}
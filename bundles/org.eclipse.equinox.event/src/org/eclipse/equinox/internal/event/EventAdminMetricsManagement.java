@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Copyright (c) 2015 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.equinox.internal.event;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import javax.management.*;
+import org.eclipse.equinox.event.EventAdminMetrics;
+import org.eclipse.equinox.event.HandlerMetrics;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+
+/**
+ * Exposes the Event Admin dispatch metrics as an MBean in the platform MBean server.
+ */
+public class EventAdminMetricsManagement implements EventAdminMetricsManagementMBean {
+	private static final String DOMAIN = "org.eclipse.equinox.event"; //$NON-NLS-1$
+
+	private final EventAdminMetrics metrics;
+	private final MBeanServer mbeanServer;
+	private final ObjectName mbeanName;
+
+	private EventAdminMetricsManagement(EventAdminMetrics metrics, MBeanServer mbeanServer, ObjectName mbeanName) {
+		this.metrics = metrics;
+		this.mbeanServer = mbeanServer;
+		this.mbeanName = mbeanName;
+	}
+
+	/**
+	 * Register an MBean for the metrics.
+	 * 
+	 * @return the registered MBean or null if the registration failed
+	 */
+	static EventAdminMetricsManagement register(EventAdminMetrics metrics, BundleContext context) {
+		String name = DOMAIN + ":type=EventAdminMetrics"; //$NON-NLS-1$
+		String frameworkUUID = context.getProperty(Constants.FRAMEWORK_UUID);
+		if (frameworkUUID != null)
+			name += ",frameworkUUID=" + frameworkUUID; //$NON-NLS-1$
+		try {
+			MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+			EventAdminMetricsManagement management = new EventAdminMetricsManagement(metrics, mbeanServer, new ObjectName(name));
+			try {
+				mbeanServer.registerMBean(management, management.mbeanName);
+			} catch (InstanceAlreadyExistsException e) {
+				// Recover as this happens when a JVM is reused.
+				mbeanServer.unregisterMBean(management.mbeanName);
+				mbeanServer.registerMBean(management, management.mbeanName);
+			}
+			return management;
+		} catch (JMException e) {
+			return null;
+		} catch (SecurityException e) {
+			return null;
+		}
+	}
+
+	void unregister() {
+		try {
+			mbeanServer.unregisterMBean(mbeanName);
+		} catch (JMException e) {
+			// Something else unregistered the bean
+		}
+	}
+
+	public int getAsyncQueueDepth() {
+		return metrics.getAsyncQueueDepth();
+	}
+
+	public String[] getHandlerMetrics() {
+		HandlerMetrics[] handlers = metrics.getHandlerMetrics();
+		String[] result = new String[handlers.length];
+		for (int i = 0; i < handlers.length; i++)
+			result[i] = EventAdminMetricsImpl.describe(handlers[i]);
+		return result;
+	}
+
+	public String[] getTopicPublishCounts() {
+		List<String> result = new ArrayList<String>();
+		for (Map.Entry<String, Long> entry : metrics.getTopicPublishCounts().entrySet())
+			result.add(entry.getKey() + '=' + entry.getValue());
+		return result.toArray(new String[result.size()]);
+	}
+
+	public void reset() {
+		metrics.reset();
+	}
+}
@@ -0,0 +1,37 @@
+/*******************************************************************************
+ * Copyright (c) 2015 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.equinox.internal.event;
+
+/**
+ * Management interface of the Event Admin dispatch metrics.
+ */
+public interface EventAdminMetricsManagementMBean {
+	/**
+	 * @return The number of pending asynchronous deliveries.
+	 */
+	int getAsyncQueueDepth();
+
+	/**
+	 * @return A description of the metrics of each event handler.
+	 */
+	String[] getHandlerMetrics();
+
+	/**
+	 * @return The number of events published to each topic.
+	 */
+	String[] getTopicPublishCounts();
+
+	/**
+	 * Reset the counters.
+	 */
+	void reset();
+}
@@ -0,0 +1,60 @@
+/*******************************************************************************
+ * Copyright (c) 2015 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.equinox.internal.event;
+
+import java.util.Map;
+import org.eclipse.equinox.event.EventAdminMetrics;
+import org.eclipse.equinox.event.HandlerMetrics;
+import org.eclipse.osgi.framework.console.CommandInterpreter;
+import org.eclipse.osgi.framework.console.CommandProvider;
+
+/**
+ * Console command displaying the dispatch metrics of Event Admin.
+ */
+public class EventCommandProvider implements CommandProvider {
+	private final static String NEW_LINE = "\r\n"; //$NON-NLS-1$
+
+	private final EventAdminMetrics metrics;
+
+	EventCommandProvider(EventAdminMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	public String getHelp() {
+		StringBuffer sb = new StringBuffer();
+		sb.append("---Event Admin Commands---"); //$NON-NLS-1$
+		sb.append(NEW_LINE);
+		sb.append("\teventmetrics [reset] - display the dispatch metrics of the event handlers and topics; add reset to reset the counters"); //$NON-NLS-1$
+		sb.append(NEW_LINE);
+		return sb.toString();
+	}
+
+	public void _eventmetrics(CommandInterpreter ci) {
+		if ("reset".equals(ci.nextArgument())) { //$NON-NLS-1$
+			metrics.reset();
+			ci.println("Event Admin metrics reset."); //$NON-NLS-1$
+			return;
+		}
+		ci.println("Async queue depth: " + metrics.getAsyncQueueDepth()); //$NON-NLS-1$
+		ci.println();
+		ci.println("Handler(s):"); //$NON-NLS-1$
+		ci.println("-------------------"); //$NON-NLS-1$
+		HandlerMetrics[] handlers = metrics.getHandlerMetrics();
+		for (int i = 0; i < handlers.length; i++)
+			ci.println(EventAdminMetricsImpl.describe(handlers[i]));
+		ci.println();
+		ci.println("Topic(s):"); //$NON-NLS-1$
+		ci.println("-------------------"); //$NON-NLS-1$
+		for (Map.Entry<String, Long> entry : metrics.getTopicPublishCounts().entrySet())
+			ci.println(entry.getKey() + ' ' + entry.getValue());
+	}
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2009, 2014 IBM Corporation and others.
+ * Copyright (c) 2009, 2015 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -10,12 +10,13 @@
  *******************************************************************************/
 package org.eclipse.equinox.internal.event;
 
+import java.util.Collection;
+import org.eclipse.equinox.event.BatchEventAdmin;
 import org.eclipse.equinox.internal.event.mapper.EventRedeliverer;
 import org.osgi.framework.BundleContext;
 import org.osgi.service.event.Event;
-import org.osgi.service.event.EventAdmin;
 
-public class EventComponent implements EventAdmin {
+public class EventComponent implements BatchEventAdmin {
 	private EventRedeliverer eventRedeliverer;
 	private EventAdminImpl eventAdmin;
 
@@ -38,4 +39,8 @@ public class EventComponent implements EventAdmin {
 	public void sendEvent(Event event) {
 		eventAdmin.sendEvent(event);
 	}
+
+	public void postEvents(Collection<Event> events) {
+		eventAdmin.postEvents(events);
+	}
 }
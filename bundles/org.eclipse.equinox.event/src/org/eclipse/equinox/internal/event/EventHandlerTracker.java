@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2007, 2010 IBM Corporation and others.
+ * Copyright (c) 2007, 2015 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -23,24 +23,32 @@ import org.osgi.util.tracker.ServiceTracker;
 
 public class EventHandlerTracker extends ServiceTracker<EventHandler, EventHandlerWrapper> implements EventDispatcher<EventHandlerWrapper, Permission, Event> {
 
+	/**
+	 * Event action of events delivered synchronously.
+	 */
+	static final int DELIVER_SYNC = 0;
+	/**
+	 * Event action of events delivered asynchronously; these are counted in the async queue depth.
+	 */
+	static final int DELIVER_ASYNC = 1;
+
 	private final LogService log;
-	//* List<EventHandlerWrapper> of all handlers with topic of "*"
-	private final List<EventHandlerWrapper> globalWildcard;
-	// Map<String,List<EventHandlerWrapper>> key is topic prefix of partial wildcard
-	private final Map<String, List<EventHandlerWrapper>> partialWildcard;
-	// Map<String,List<EventHandlerWrapper>> key is topic name
-	private final Map<String, List<EventHandlerWrapper>> topicName;
+	private final EventAdminMetricsImpl metrics;
+	// Set<EventHandlerWrapper> of all bucketed handlers
+	private final Set<EventHandlerWrapper> wrappers;
+	// immutable topic index of the bucketed handlers; rebuilt whenever the handlers change
+	private volatile TopicIndex index;
 
 	public EventHandlerTracker(BundleContext context, LogService log) {
 		super(context, EventHandler.class.getName(), null);
 		this.log = log;
-		globalWildcard = new ArrayList<EventHandlerWrapper>();
-		partialWildcard = new HashMap<String, List<EventHandlerWrapper>>();
-		topicName = new HashMap<String, List<EventHandlerWrapper>>();
+		this.metrics = new EventAdminMetricsImpl(this, log);
+		wrappers = new LinkedHashSet<EventHandlerWrapper>();
+		index = TopicIndex.EMPTY;
 	}
 
 	public EventHandlerWrapper addingService(ServiceReference<EventHandler> reference) {
-		EventHandlerWrapper wrapper = new EventHandlerWrapper(reference, context, log);
+		EventHandlerWrapper wrapper = new EventHandlerWrapper(reference, context, log, metrics);
 		synchronized (this) {
 			if (wrapper.init()) {
 				bucket(wrapper);
@@ -71,38 +79,14 @@ public class EventHandlerTracker extends ServiceTracker<EventHandler, EventHandl
 	/**
 	 * Place the wrapper into the appropriate buckets.
 	 * This is a performance optimization for event delivery.
+	 * A new topic index is published so that readers never need to lock.
 	 * 
 	 * @param wrapper The wrapper to place in buckets.
 	 * @GuardedBy this
 	 */
 	private void bucket(EventHandlerWrapper wrapper) {
-		final String[] topics = wrapper.getTopics();
-		final int length = (topics == null) ? 0 : topics.length;
-		for (int i = 0; i < length; i++) {
-			String topic = topics[i];
-			// global wildcard
-			if (topic.equals("*")) { //$NON-NLS-1$
-				globalWildcard.add(wrapper);
-			}
-			// partial wildcard
-			else if (topic.endsWith("/*")) { //$NON-NLS-1$
-				String key = topic.substring(0, topic.length() - 2); // Strip off "/*" from the end
-				List<EventHandlerWrapper> wrappers = partialWildcard.get(key);
-				if (wrappers == null) {
-					wrappers = new ArrayList<EventHandlerWrapper>();
-					partialWildcard.put(key, wrappers);
-				}
-				wrappers.add(wrapper);
-			}
-			// simple topic name
-			else {
-				List<EventHandlerWrapper> wrappers = topicName.get(topic);
-				if (wrappers == null) {
-					wrappers = new ArrayList<EventHandlerWrapper>();
-					topicName.put(topic, wrappers);
-				}
-				wrappers.add(wrapper);
-			}
+		if (wrappers.add(wrapper)) {
+			index = new TopicIndex(wrappers);
 		}
 	}
 
@@ -113,74 +97,30 @@ public class EventHandlerTracker extends ServiceTracker<EventHandler, EventHandl
 	 * @GuardedBy this
 	 */
 	private void unbucket(EventHandlerWrapper wrapper) {
-		final String[] topics = wrapper.getTopics();
-		final int length = (topics == null) ? 0 : topics.length;
-		for (int i = 0; i < length; i++) {
-			String topic = topics[i];
-			// global wilcard
-			if (topic.equals("*")) { //$NON-NLS-1$
-				globalWildcard.remove(wrapper);
-			}
-			// partial wildcard
-			else if (topic.endsWith("/*")) { //$NON-NLS-1$
-				String key = topic.substring(0, topic.length() - 2); // Strip off "/*" from the end
-				List<EventHandlerWrapper> wrappers = partialWildcard.get(key);
-				if (wrappers != null) {
-					wrappers.remove(wrapper);
-					if (wrappers.isEmpty()) {
-						partialWildcard.remove(key);
-					}
-				}
-			}
-			// simple topic name
-			else {
-				List<EventHandlerWrapper> wrappers = topicName.get(topic);
-				if (wrappers != null) {
-					wrappers.remove(wrapper);
-					if (wrappers.isEmpty()) {
-						topicName.remove(topic);
-					}
-				}
-			}
+		if (wrappers.remove(wrapper)) {
+			index = new TopicIndex(wrappers);
 		}
 	}
 
 	/**
-	 * Return the set of handlers which subscribe to the event topic.
-	 * A set is used to ensure a handler is not called for an event more than once.
+	 * Return the handlers which subscribe to the event topic.
+	 * A handler is contained at most once to ensure it is not called for an event more than once.
+	 * This method does not lock; the returned array is shared and must not be modified.
 	 * 
 	 * @param topic
-	 * @return a set of handlers
+	 * @return an array of handlers
 	 */
-	public synchronized Set<EventHandlerWrapper> getHandlers(final String topic) {
-		// Use a set to remove duplicates
-		Set<EventHandlerWrapper> handlers = new HashSet<EventHandlerWrapper>();
-
-		// Add the "*" handlers
-		handlers.addAll(globalWildcard);
-
-		// Add the handlers with partial matches
-		if (partialWildcard.size() > 0) {
-			int index = topic.lastIndexOf('/');
-			while (index >= 0) {
-				String subTopic = topic.substring(0, index);
-				List<EventHandlerWrapper> wrappers = partialWildcard.get(subTopic);
-				if (wrappers != null) {
-					handlers.addAll(wrappers);
-				}
-				// Strip the last level from the topic. For example, org/osgi/framework becomes org/osgi.
-				// Wildcard topics are inserted into the map with the "/*" stripped off.
-				index = subTopic.lastIndexOf('/');
-			}
-		}
-
-		// Add the handlers for matching topic names
-		List<EventHandlerWrapper> wrappers = topicName.get(topic);
-		if (wrappers != null) {
-			handlers.addAll(wrappers);
-		}
+	public EventHandlerWrapper[] getHandlers(final String topic) {
+		return index.getHandlers(topic);
+	}
 
-		return handlers;
+	/**
+	 * Return the dispatch metrics of the Event Admin.
+	 * 
+	 * @return the metrics
+	 */
+	EventAdminMetricsImpl getMetrics() {
+		return metrics;
 	}
 
 	/**
@@ -194,6 +134,12 @@ public class EventHandlerTracker extends ServiceTracker<EventHandler, EventHandl
 	 *      java.lang.Object, int, java.lang.Object)
 	 */
 	public void dispatchEvent(EventHandlerWrapper eventListener, Permission listenerObject, int eventAction, Event eventObject) {
-		eventListener.handleEvent(eventObject, listenerObject);
+		try {
+			eventListener.handleEvent(eventObject, listenerObject);
+		} finally {
+			if (eventAction == DELIVER_ASYNC) {
+				metrics.dequeued();
+			}
+		}
 	}
 }
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2007, 2011 IBM Corporation and others.
+ * Copyright (c) 2007, 2015 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -12,7 +12,8 @@
 package org.eclipse.equinox.internal.event;
 
 import java.security.Permission;
-import java.util.Collection;
+import java.util.*;
+import org.eclipse.equinox.event.BatchEventHandler;
 import org.eclipse.osgi.util.NLS;
 import org.osgi.framework.*;
 import org.osgi.service.event.*;
@@ -27,9 +28,13 @@ public class EventHandlerWrapper {
 	private final ServiceReference<EventHandler> reference;
 	private final LogService log;
 	private final BundleContext context;
+	private final EventAdminMetricsImpl adminMetrics;
+	private final HandlerMetricsImpl metrics;
 	private EventHandler handler;
 	private String[] topics;
-	private Filter filter;
+	private volatile FilterPredicate filter;
+	private volatile boolean ordered = true;
+	private volatile boolean batch;
 
 	/**
 	 * Create an EventHandlerWrapper. 
@@ -37,11 +42,14 @@ public class EventHandlerWrapper {
 	 * @param reference Reference to the EventHandler
 	 * @param context Bundle Context of the Event Admin bundle
 	 * @param log LogService object for logging
+	 * @param adminMetrics The metrics of the Event Admin
 	 */
-	public EventHandlerWrapper(ServiceReference<EventHandler> reference, BundleContext context, LogService log) {
+	public EventHandlerWrapper(ServiceReference<EventHandler> reference, BundleContext context, LogService log, EventAdminMetricsImpl adminMetrics) {
 		this.reference = reference;
 		this.context = context;
 		this.log = log;
+		this.adminMetrics = adminMetrics;
+		this.metrics = new HandlerMetricsImpl(reference);
 	}
 
 	/**
@@ -50,26 +58,31 @@ public class EventHandlerWrapper {
 	 * @return true if the handler should be called; false if the handler should not be called
 	 */
 	public synchronized boolean init() {
-		topics = null;
-		filter = null;
+		// the values are computed into locals and assigned once, as the event
+		// delivery reads them without locking
+		String[] newTopics = null;
+		FilterPredicate newFilter = null;
+		boolean newOrdered = true;
+		boolean newBatch = false;
 
 		// Get topic names
 		Object o = reference.getProperty(EventConstants.EVENT_TOPIC);
 		if (o instanceof String) {
-			topics = new String[] {(String) o};
+			newTopics = new String[] {(String) o};
 		} else if (o instanceof String[]) {
-			topics = (String[]) o;
+			newTopics = (String[]) o;
 		} else if (o instanceof Collection) {
 			try {
 				@SuppressWarnings("unchecked")
 				Collection<String> c = (Collection<String>) o;
-				topics = c.toArray(new String[c.size()]);
+				newTopics = c.toArray(new String[c.size()]);
 			} catch (ArrayStoreException e) {
 				log.log(LogService.LOG_ERROR, NLS.bind(EventAdminMsg.EVENT_INVALID_HANDLER_TOPICS, o), e);
 			}
 		}
 
-		if (topics == null) {
+		if (newTopics == null) {
+			set(null, null, newOrdered, newBatch);
 			return false;
 		}
 
@@ -77,16 +90,39 @@ public class EventHandlerWrapper {
 		o = reference.getProperty(EventConstants.EVENT_FILTER);
 		if (o instanceof String) {
 			try {
-				filter = context.createFilter((String) o);
+				newFilter = FilterPredicate.compile((String) o, context.createFilter((String) o));
 			} catch (InvalidSyntaxException e) {
 				log.log(LogService.LOG_ERROR, NLS.bind(EventAdminMsg.EVENT_INVALID_HANDLER_FILTER, o), e);
+				set(null, null, newOrdered, newBatch);
 				return false;
 			}
 		}
 
+		// get delivery; only an explicit request for unordered delivery relaxes the ordering
+		o = reference.getProperty(EventConstants.EVENT_DELIVERY);
+		if (o instanceof String) {
+			newOrdered = !EventConstants.DELIVERY_ASYNC_UNORDERED.equals(o);
+		} else if (o instanceof String[]) {
+			newOrdered = !Arrays.asList((String[]) o).contains(EventConstants.DELIVERY_ASYNC_UNORDERED);
+		} else if (o instanceof Collection) {
+			newOrdered = !((Collection<?>) o).contains(EventConstants.DELIVERY_ASYNC_UNORDERED);
+		}
+
+		// get batch opt in
+		o = reference.getProperty(BatchEventHandler.EVENT_BATCH);
+		newBatch = (o instanceof Boolean) ? ((Boolean) o).booleanValue() : Boolean.valueOf(String.valueOf(o)).booleanValue();
+
+		set(newTopics, newFilter, newOrdered, newBatch);
 		return true;
 	}
 
+	private void set(String[] newTopics, FilterPredicate newFilter, boolean newOrdered, boolean newBatch) {
+		topics = newTopics;
+		filter = newFilter;
+		ordered = newOrdered;
+		batch = newBatch;
+	}
+
 	/**
 	 * Flush the handler service if it has been obtained.
 	 */
@@ -113,6 +149,33 @@ public class EventHandlerWrapper {
 		return topics;
 	}
 
+	/**
+	 * Get the service reference of the wrapped handler.
+	 * 
+	 * @return The handler's service reference
+	 */
+	ServiceReference<EventHandler> getReference() {
+		return reference;
+	}
+
+	/**
+	 * Get the dispatch metrics of the wrapped handler.
+	 * 
+	 * @return The metrics of the handler
+	 */
+	HandlerMetricsImpl getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Indicates whether asynchronous events must be delivered to the wrapped handler in order.
+	 * 
+	 * @return false if the handler opted in to unordered asynchronous delivery
+	 */
+	public boolean isOrdered() {
+		return ordered;
+	}
+
 	/**
 	 * Return the wrapped handler. 
 	 * @return The wrapped handler.
@@ -154,15 +217,6 @@ public class EventHandlerWrapper {
 		return tempHandler;
 	}
 
-	/**
-	 * Get the filter object
-	 * 
-	 * @return The handler's filter
-	 */
-	private synchronized Filter getFilter() {
-		return filter;
-	}
-
 	/**
 	 * Dispatch event to handler. Perform final tests before actually calling the handler.
 	 * 
@@ -171,19 +225,46 @@ public class EventHandlerWrapper {
 	 */
 	public void handleEvent(Event event, Permission perm) {
 		Bundle bundle = reference.getBundle();
-		// is service unregistered?
-		if (bundle == null) {
+		// is service unregistered or blacklisted?
+		if (bundle == null || metrics.isBlacklisted()) {
 			return;
 		}
 
-		// filter match
-		Filter eventFilter = getFilter();
-		if ((eventFilter != null) && !event.matches(eventFilter)) {
+		if (!accepts(bundle, event, perm)) {
 			return;
 		}
 
-		// permission check
-		if ((perm != null) && (!bundle.hasPermission(perm))) {
+		// get handler service
+		EventHandler handlerService = getHandler();
+		if (handlerService == null) {
+			return;
+		}
+
+		deliver(handlerService, event);
+	}
+
+	/**
+	 * Dispatch a batch of events to handler. Perform final tests before actually calling the handler.
+	 * The events are passed to the handler with a single call if the handler opted in to batches.
+	 * 
+	 * @param events The events to dispatch
+	 * @param checkPermission true if the subscribe permission must be checked for each event
+	 */
+	public void handleEvents(List<Event> events, boolean checkPermission) {
+		Bundle bundle = reference.getBundle();
+		// is service unregistered or blacklisted?
+		if (bundle == null || metrics.isBlacklisted()) {
+			return;
+		}
+
+		List<Event> accepted = new ArrayList<Event>(events.size());
+		for (Event event : events) {
+			Permission perm = checkPermission ? new TopicPermission(event.getTopic(), TopicPermission.SUBSCRIBE) : null;
+			if (accepts(bundle, event, perm)) {
+				accepted.add(event);
+			}
+		}
+		if (accepted.isEmpty()) {
 			return;
 		}
 
@@ -193,9 +274,52 @@ public class EventHandlerWrapper {
 			return;
 		}
 
+		if (batch && (handlerService instanceof BatchEventHandler)) {
+			List<Event> unmodifiable = Collections.unmodifiableList(accepted);
+			boolean failed = false;
+			long start = System.nanoTime();
+			try {
+				((BatchEventHandler) handlerService).handleEvents(unmodifiable);
+			} catch (Throwable t) {
+				failed = true;
+				// log/handle any Throwable thrown by the listener
+				log.log(LogService.LOG_ERROR, NLS.bind(EventAdminMsg.EVENT_DISPATCH_HANDLER_EXCEPTION, unmodifiable, handlerService), t);
+			} finally {
+				adminMetrics.handled(metrics, handlerService, unmodifiable, System.nanoTime() - start, failed);
+			}
+			return;
+		}
+
+		for (Event event : accepted) {
+			deliver(handlerService, event);
+		}
+	}
+
+	/**
+	 * Test the event against the filter and the permission of the handler.
+	 */
+	private boolean accepts(Bundle bundle, Event event, Permission perm) {
+		// filter match; the filter is precompiled and read without locking
+		FilterPredicate eventFilter = filter;
+		if ((eventFilter != null) && !eventFilter.matches(event)) {
+			metrics.recordFilterRejection();
+			return false;
+		}
+
+		// permission check
+		if ((perm != null) && (!bundle.hasPermission(perm))) {
+			return false;
+		}
+		return true;
+	}
+
+	private void deliver(EventHandler handlerService, Event event) {
+		boolean failed = false;
+		long start = System.nanoTime();
 		try {
 			handlerService.handleEvent(event);
 		} catch (Throwable t) {
+			failed = true;
 			if (event.getTopic().startsWith("org/osgi/service/log/LogEntry")) { //$NON-NLS-1$
 				Object exception = event.getProperty("exception"); //$NON-NLS-1$
 				if (exception instanceof LogTopicException)
@@ -205,6 +329,8 @@ public class EventHandlerWrapper {
 			}
 			// log/handle any Throwable thrown by the listener
 			log.log(LogService.LOG_ERROR, NLS.bind(EventAdminMsg.EVENT_DISPATCH_HANDLER_EXCEPTION, event, handlerService), t);
+		} finally {
+			adminMetrics.handled(metrics, handlerService, event, System.nanoTime() - start, failed);
 		}
 	}
 
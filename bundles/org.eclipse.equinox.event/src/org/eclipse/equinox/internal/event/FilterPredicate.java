@@ -0,0 +1,226 @@
+/*******************************************************************************
+ * Copyright (c) 2015 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.equinox.internal.event;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.osgi.framework.Filter;
+import org.osgi.service.event.Event;
+
+/**
+ * A precompiled form of an event handler's filter.
+ * <p>
+ * Common filter shapes are compiled into specialized predicates which test
+ * the event properties directly: an equality <code>(key=value)</code>, a
+ * presence test <code>(key=*)</code> and an AND of those. Equality is only
+ * decided directly for <code>String</code> property values; for any other
+ * value type the original filter is evaluated, so the result is always the
+ * same as <code>event.matches(filter)</code>. All other filters are evaluated
+ * with the original filter.
+ *
+ * @Immutable
+ */
+abstract class FilterPredicate {
+	// results of testing a single clause
+	static final int FALSE = 0;
+	static final int TRUE = 1;
+	static final int UNKNOWN = 2;
+
+	/**
+	 * The original filter which defines the result of the predicate.
+	 */
+	final Filter filter;
+
+	FilterPredicate(Filter filter) {
+		this.filter = filter;
+	}
+
+	/**
+	 * Test the event against the filter.
+	 *
+	 * @param event The event to test
+	 * @return true if the event matches the filter
+	 */
+	abstract boolean matches(Event event);
+
+	/**
+	 * Compile a filter.
+	 *
+	 * @param filterString The string form of the filter
+	 * @param filter The filter created from the string
+	 * @return The predicate for the filter
+	 */
+	static FilterPredicate compile(String filterString, Filter filter) {
+		String s = filterString.trim();
+		if (s.startsWith("(&") && s.endsWith(")")) { //$NON-NLS-1$ //$NON-NLS-2$
+			List<Clause> clauses = new ArrayList<Clause>();
+			int index = 2;
+			int end = s.length() - 1;
+			while (index < end) {
+				char c = s.charAt(index);
+				if (Character.isWhitespace(c)) {
+					index++;
+					continue;
+				}
+				int close = s.indexOf(')', index);
+				if (c != '(' || close < 0 || close >= end) {
+					return new Generic(filter);
+				}
+				Clause clause = Clause.parse(s.substring(index, close + 1));
+				if (clause == null) {
+					return new Generic(filter);
+				}
+				clauses.add(clause);
+				index = close + 1;
+			}
+			if (clauses.isEmpty()) {
+				return new Generic(filter);
+			}
+			if (clauses.size() == 1) {
+				return new Single(clauses.get(0), filter);
+			}
+			return new And(clauses.toArray(new Clause[clauses.size()]), filter);
+		}
+		Clause clause = Clause.parse(s);
+		return (clause == null) ? new Generic(filter) : new Single(clause, filter);
+	}
+
+	/**
+	 * A filter which is evaluated by the framework.
+	 */
+	private static class Generic extends FilterPredicate {
+		Generic(Filter filter) {
+			super(filter);
+		}
+
+		boolean matches(Event event) {
+			return event.matches(filter);
+		}
+	}
+
+	/**
+	 * A filter of a single equality or presence clause.
+	 */
+	private static class Single extends FilterPredicate {
+		private final Clause clause;
+
+		Single(Clause clause, Filter filter) {
+			super(filter);
+			this.clause = clause;
+		}
+
+		boolean matches(Event event) {
+			switch (clause.test(event)) {
+				case TRUE :
+					return true;
+				case FALSE :
+					return false;
+				default :
+					return event.matches(filter);
+			}
+		}
+	}
+
+	/**
+	 * An AND of equality and presence clauses.
+	 */
+	private static class And extends FilterPredicate {
+		private final Clause[] clauses;
+
+		And(Clause[] clauses, Filter filter) {
+			super(filter);
+			this.clauses = clauses;
+		}
+
+		boolean matches(Event event) {
+			boolean unknown = false;
+			for (int i = 0; i < clauses.length; i++) {
+				switch (clauses[i].test(event)) {
+					case FALSE :
+						return false;
+					case UNKNOWN :
+						unknown = true;
+						break;
+					default :
+						break;
+				}
+			}
+			return unknown ? event.matches(filter) : true;
+		}
+	}
+
+	/**
+	 * A clause <code>(key=value)</code> or <code>(key=*)</code>.
+	 */
+	private static class Clause {
+		private final String key;
+		// null for a presence test
+		private final String value;
+
+		private Clause(String key, String value) {
+			this.key = key;
+			this.value = value;
+		}
+
+		/**
+		 * Parse a simple clause. Anything which may need the full filter semantics,
+		 * like escapes, substrings, whitespace or other operators, is rejected.
+		 *
+		 * @return the clause or null if the string is not a simple clause
+		 */
+		static Clause parse(String s) {
+			int length = s.length();
+			if (length < 5 || s.charAt(0) != '(' || s.charAt(length - 1) != ')') {
+				return null;
+			}
+			int equals = s.indexOf('=');
+			if (equals < 2 || equals > length - 3) {
+				return null;
+			}
+			String key = s.substring(1, equals);
+			String value = s.substring(equals + 1, length - 1);
+			for (int i = 0; i < key.length(); i++) {
+				char c = key.charAt(i);
+				if (Character.isWhitespace(c) || "()<>~*\\".indexOf(c) >= 0) { //$NON-NLS-1$
+					return null;
+				}
+			}
+			if (value.equals("*")) { //$NON-NLS-1$
+				return new Clause(key, null);
+			}
+			if (Character.isWhitespace(value.charAt(0)) || Character.isWhitespace(value.charAt(value.length() - 1))) {
+				return null;
+			}
+			for (int i = 0; i < value.length(); i++) {
+				if ("()*\\".indexOf(value.charAt(i)) >= 0) { //$NON-NLS-1$
+					return null;
+				}
+			}
+			return new Clause(key, value);
+		}
+
+		int test(Event event) {
+			Object property = event.getProperty(key);
+			if (property == null) {
+				return FALSE;
+			}
+			if (value == null) {
+				return TRUE;
+			}
+			if (property instanceof String) {
+				return value.equals(property) ? TRUE : FALSE;
+			}
+			// other types need the conversions of the framework filter
+			return UNKNOWN;
+		}
+	}
+}
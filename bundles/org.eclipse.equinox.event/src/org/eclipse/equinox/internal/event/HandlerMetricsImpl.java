@@ -0,0 +1,112 @@
+/*******************************************************************************
+ * Copyright (c) 2015 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.equinox.internal.event;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import org.eclipse.equinox.event.HandlerMetrics;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.event.EventHandler;
+
+/**
+ * The dispatch counters of an event handler. The counters are updated
+ * without locking by the threads delivering events to the handler.
+ */
+class HandlerMetricsImpl implements HandlerMetrics {
+	private final ServiceReference<EventHandler> reference;
+	private final AtomicLong invocations = new AtomicLong();
+	private final AtomicLong totalTime = new AtomicLong();
+	private final AtomicLong maxTime = new AtomicLong();
+	private final AtomicLong exceptions = new AtomicLong();
+	private final AtomicLong filterRejections = new AtomicLong();
+	private final AtomicBoolean slow = new AtomicBoolean();
+	private volatile boolean blacklisted;
+
+	HandlerMetricsImpl(ServiceReference<EventHandler> reference) {
+		this.reference = reference;
+	}
+
+	/**
+	 * Record a call to the handler.
+	 * 
+	 * @param time The time spent in the call in nanoseconds
+	 * @param failed true if the call threw an exception
+	 */
+	void recordInvocation(long time, boolean failed) {
+		invocations.incrementAndGet();
+		totalTime.addAndGet(time);
+		long max = maxTime.get();
+		while (time > max && !maxTime.compareAndSet(max, time)) {
+			max = maxTime.get();
+		}
+		if (failed) {
+			exceptions.incrementAndGet();
+		}
+	}
+
+	void recordFilterRejection() {
+		filterRejections.incrementAndGet();
+	}
+
+	/**
+	 * Mark the handler as slow.
+	 * 
+	 * @return true if the handler was not marked as slow before
+	 */
+	boolean markSlow() {
+		return slow.compareAndSet(false, true);
+	}
+
+	void blacklist() {
+		blacklisted = true;
+	}
+
+	void reset() {
+		invocations.set(0);
+		totalTime.set(0);
+		maxTime.set(0);
+		exceptions.set(0);
+		filterRejections.set(0);
+	}
+
+	public ServiceReference<EventHandler> getServiceReference() {
+		return reference;
+	}
+
+	public long getInvocations() {
+		return invocations.get();
+	}
+
+	public long getTotalTime() {
+		return totalTime.get();
+	}
+
+	public long getMaxTime() {
+		return maxTime.get();
+	}
+
+	public long getExceptions() {
+		return exceptions.get();
+	}
+
+	public long getFilterRejections() {
+		return filterRejections.get();
+	}
+
+	public boolean isBlacklisted() {
+		return blacklisted;
+	}
+
+	public String toString() {
+		return reference.toString();
+	}
+}
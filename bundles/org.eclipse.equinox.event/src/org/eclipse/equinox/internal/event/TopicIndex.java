@@ -0,0 +1,186 @@
+/*******************************************************************************
+ * Copyright (c) 2015 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.equinox.internal.event;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An immutable index of event handlers by topic. The index is a trie of topic
+ * segments where each node holds the handlers subscribed to the exact topic
+ * of the node and the handlers subscribed to the partial wildcard
+ * <code>topic/*</code> of the node. The root node holds the handlers subscribed
+ * to the global wildcard <code>*</code>.
+ * <p>
+ * A new index is built every time the set of handlers changes, so lookups
+ * can be performed without any locking. The handlers matching a topic are
+ * cached per topic for the lifetime of the index.
+ */
+class TopicIndex {
+	static final EventHandlerWrapper[] NO_HANDLERS = new EventHandlerWrapper[0];
+	static final TopicIndex EMPTY = new TopicIndex(Collections.<EventHandlerWrapper> emptySet());
+	// upper bound of cached topics to avoid unbounded growth with generated topic names
+	private static final int MAX_CACHED_TOPICS = 1024;
+
+	private final Node root = new Node();
+	private final ConcurrentHashMap<String, EventHandlerWrapper[]> cache = new ConcurrentHashMap<String, EventHandlerWrapper[]>();
+
+	/**
+	 * Build an index for the specified handlers.
+	 *
+	 * @param wrappers The handlers to index. The topics of the handlers must not
+	 * change while the index is being built.
+	 */
+	TopicIndex(Collection<EventHandlerWrapper> wrappers) {
+		Map<Node, Set<EventHandlerWrapper>> exact = new HashMap<Node, Set<EventHandlerWrapper>>();
+		Map<Node, Set<EventHandlerWrapper>> wildcard = new HashMap<Node, Set<EventHandlerWrapper>>();
+		for (EventHandlerWrapper wrapper : wrappers) {
+			final String[] topics = wrapper.getTopics();
+			final int length = (topics == null) ? 0 : topics.length;
+			for (int i = 0; i < length; i++) {
+				String topic = topics[i];
+				// global wildcard
+				if (topic.equals("*")) { //$NON-NLS-1$
+					add(wildcard, root, wrapper);
+				}
+				// partial wildcard
+				else if (topic.endsWith("/*")) { //$NON-NLS-1$
+					add(wildcard, root.descend(topic.substring(0, topic.length() - 2)), wrapper); // Strip off "/*" from the end
+				}
+				// simple topic name
+				else {
+					add(exact, root.descend(topic), wrapper);
+				}
+			}
+		}
+		for (Map.Entry<Node, Set<EventHandlerWrapper>> entry : exact.entrySet()) {
+			Set<EventHandlerWrapper> handlers = entry.getValue();
+			entry.getKey().exact = handlers.toArray(new EventHandlerWrapper[handlers.size()]);
+		}
+		for (Map.Entry<Node, Set<EventHandlerWrapper>> entry : wildcard.entrySet()) {
+			Set<EventHandlerWrapper> handlers = entry.getValue();
+			entry.getKey().wildcard = handlers.toArray(new EventHandlerWrapper[handlers.size()]);
+		}
+	}
+
+	private static void add(Map<Node, Set<EventHandlerWrapper>> buckets, Node node, EventHandlerWrapper wrapper) {
+		Set<EventHandlerWrapper> handlers = buckets.get(node);
+		if (handlers == null) {
+			handlers = new LinkedHashSet<EventHandlerWrapper>();
+			buckets.put(node, handlers);
+		}
+		handlers.add(wrapper);
+	}
+
+	/**
+	 * Return the handlers which subscribe to the event topic.
+	 * Each handler is contained at most once so that it is not called for an
+	 * event more than once. The returned array is shared and must not be modified.
+	 *
+	 * @param topic The event topic.
+	 * @return The handlers subscribed to the topic.
+	 */
+	EventHandlerWrapper[] getHandlers(String topic) {
+		EventHandlerWrapper[] handlers = cache.get(topic);
+		if (handlers != null) {
+			return handlers;
+		}
+		handlers = match(topic);
+		if (cache.size() < MAX_CACHED_TOPICS) {
+			EventHandlerWrapper[] existing = cache.putIfAbsent(topic, handlers);
+			if (existing != null) {
+				handlers = existing;
+			}
+		}
+		return handlers;
+	}
+
+	private EventHandlerWrapper[] match(String topic) {
+		// Add the "*" handlers; a set is used to remove duplicates
+		Set<EventHandlerWrapper> handlers = addAll(null, root.wildcard);
+		Node node = root;
+		int start = 0;
+		while (node != null) {
+			int index = topic.indexOf('/', start);
+			if (index < 0) {
+				// last level; add the handlers for the matching topic name
+				node = node.child(topic.substring(start));
+				if (node != null) {
+					handlers = addAll(handlers, node.exact);
+				}
+				break;
+			}
+			// more levels follow; add the handlers with partial matches
+			node = node.child(topic.substring(start, index));
+			if (node != null) {
+				handlers = addAll(handlers, node.wildcard);
+			}
+			start = index + 1;
+		}
+		if (handlers == null) {
+			return NO_HANDLERS;
+		}
+		return handlers.toArray(new EventHandlerWrapper[handlers.size()]);
+	}
+
+	private static Set<EventHandlerWrapper> addAll(Set<EventHandlerWrapper> handlers, EventHandlerWrapper[] wrappers) {
+		if (wrappers.length == 0) {
+			return handlers;
+		}
+		if (handlers == null) {
+			handlers = new LinkedHashSet<EventHandlerWrapper>();
+		}
+		for (int i = 0; i < wrappers.length; i++) {
+			handlers.add(wrappers[i]);
+		}
+		return handlers;
+	}
+
+	/**
+	 * A node of the topic trie. Nodes are only modified while the index is built.
+	 */
+	private static class Node {
+		private Map<String, Node> children;
+		EventHandlerWrapper[] exact = NO_HANDLERS;
+		EventHandlerWrapper[] wildcard = NO_HANDLERS;
+
+		Node child(String segment) {
+			return (children == null) ? null : children.get(segment);
+		}
+
+		/**
+		 * Return the node for the topic relative to this node, creating the
+		 * intermediate nodes as needed.
+		 */
+		Node descend(String topic) {
+			Node node = this;
+			int start = 0;
+			while (true) {
+				int index = topic.indexOf('/', start);
+				String segment = (index < 0) ? topic.substring(start) : topic.substring(start, index);
+				Node next = node.child(segment);
+				if (next == null) {
+					next = new Node();
+					if (node.children == null) {
+						node.children = new HashMap<String, Node>();
+					}
+					node.children.put(segment, next);
+				}
+				node = next;
+				if (index < 0) {
+					return node;
+				}
+				start = index + 1;
+			}
+		}
+	}
+}
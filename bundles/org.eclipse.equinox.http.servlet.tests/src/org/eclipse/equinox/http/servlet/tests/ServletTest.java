@@ -21,10 +21,16 @@ import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
+import javax.servlet.DispatcherType;
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
 import javax.servlet.FilterConfig;
+import javax.servlet.RequestDispatcher;
 import javax.servlet.Servlet;
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletContextAttributeListener;
@@ -35,6 +41,8 @@ import javax.servlet.ServletRequestAttributeListener;
 import javax.servlet.ServletRequestListener;
 import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSessionAttributeListener;
 
 import junit.framework.TestCase;
@@ -1040,6 +1048,522 @@ public class ServletTest extends TestCase {
 		}
 	}
 
+	public void test_Routing1() throws Exception {
+		Collection<ServiceRegistration<?>> registrations = new ArrayList<ServiceRegistration<?>>();
+		try {
+			registerRoutingServlet(registrations, "exact", null, "/a");
+			registerRoutingServlet(registrations, "wildcard", null, "/a/*");
+			registerRoutingServlet(registrations, "nested", null, "/a/b/*");
+			registerRoutingServlet(registrations, "root", null, "/*");
+
+			Assert.assertEquals("exact:/a:null", requestAdvisor.request("a"));
+			Assert.assertEquals("wildcard:/a:/", requestAdvisor.request("a/"));
+			Assert.assertEquals("wildcard:/a:/c", requestAdvisor.request("a/c"));
+			Assert.assertEquals("wildcard:/a:/bc/d", requestAdvisor.request("a/bc/d"));
+			Assert.assertEquals("nested:/a/b:null", requestAdvisor.request("a/b"));
+			Assert.assertEquals("nested:/a/b:/", requestAdvisor.request("a/b/"));
+			Assert.assertEquals("nested:/a/b:/c/d", requestAdvisor.request("a/b/c/d"));
+			Assert.assertEquals("root::/ab", requestAdvisor.request("ab"));
+			Assert.assertEquals("root::/b/a", requestAdvisor.request("b/a"));
+		}
+		finally {
+			for (ServiceRegistration<?> registration : registrations) {
+				registration.unregister();
+			}
+		}
+	}
+
+	public void test_Routing2() throws Exception {
+		Collection<ServiceRegistration<?>> registrations = new ArrayList<ServiceRegistration<?>>();
+		try {
+			registerRoutingServlet(registrations, "exact", null, "/a");
+
+			// an exact pattern does not match the path with a trailing slash
+			Map<String, List<String>> response = requestAdvisor.request("a/", null);
+
+			Assert.assertEquals("404", response.get("responseCode").get(0));
+
+			registerRoutingServlet(registrations, "default", null, "/");
+
+			Assert.assertEquals("exact:/a:null", requestAdvisor.request("a"));
+			Assert.assertEquals("default::/a/", requestAdvisor.request("a/"));
+			Assert.assertEquals("default::/b/c", requestAdvisor.request("b/c"));
+		}
+		finally {
+			for (ServiceRegistration<?> registration : registrations) {
+				registration.unregister();
+			}
+		}
+	}
+
+	public void test_Routing3() throws Exception {
+		Collection<ServiceRegistration<?>> registrations = new ArrayList<ServiceRegistration<?>>();
+		try {
+			registerRoutingServlet(registrations, "jsp", null, "*.jsp");
+			registerRoutingServlet(registrations, "txt", null, "/*.txt");
+			registerRoutingServlet(registrations, "wildcard", null, "/a/*");
+			registerRoutingServlet(registrations, "exact", null, "/a/b.jsp");
+
+			Assert.assertEquals("jsp:/b/c.jsp:null", requestAdvisor.request("b/c.jsp"));
+			Assert.assertEquals("txt:/c.txt:null", requestAdvisor.request("c.txt"));
+			Assert.assertEquals("exact:/a/b.jsp:null", requestAdvisor.request("a/b.jsp"));
+			// extension patterns are tried before the path prefixes
+			Assert.assertEquals("jsp:/a/c.jsp:null", requestAdvisor.request("a/c.jsp"));
+			// only the last segment has an extension
+			Assert.assertEquals("wildcard:/a:/b.jsp/c", requestAdvisor.request("a/b.jsp/c"));
+			Assert.assertEquals("wildcard:/a:/c.html", requestAdvisor.request("a/c.html"));
+		}
+		finally {
+			for (ServiceRegistration<?> registration : registrations) {
+				registration.unregister();
+			}
+		}
+	}
+
+	public void test_Routing4() throws Exception {
+		ExtendedHttpService extendedHttpService = (ExtendedHttpService)getHttpService();
+		try {
+			extendedHttpService.registerServlet(
+				"/", new RoutingServlet("slash"), null, null);
+			extendedHttpService.registerServlet(
+				"/a", new RoutingServlet("alias"), null, null);
+
+			// aliases match their own path and every path below it
+			Assert.assertEquals("alias:/a:null", requestAdvisor.request("a"));
+			Assert.assertEquals("alias:/a:/", requestAdvisor.request("a/"));
+			Assert.assertEquals("alias:/a:/b/c", requestAdvisor.request("a/b/c"));
+			Assert.assertEquals("slash::/ab", requestAdvisor.request("ab"));
+			Assert.assertEquals("slash::/b/c", requestAdvisor.request("b/c"));
+		}
+		finally {
+			try {
+				extendedHttpService.unregister("/");
+				extendedHttpService.unregister("/a");
+			} catch (IllegalArgumentException e) {
+				// ignore
+			}
+		}
+	}
+
+	public void test_Routing5() throws Exception {
+		Collection<ServiceRegistration<?>> registrations = new ArrayList<ServiceRegistration<?>>();
+		try {
+			Servlet dispatcher = new HttpServlet() {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected void service(
+						HttpServletRequest request, HttpServletResponse response)
+					throws ServletException, IOException {
+
+					RequestDispatcher requestDispatcher =
+						request.getServletContext().getNamedDispatcher(
+							request.getParameter("name"));
+
+					if (requestDispatcher == null) {
+						response.getWriter().print("none");
+
+						return;
+					}
+
+					requestDispatcher.include(request, response);
+				}
+
+			};
+
+			Dictionary<String, String> servletProps = new Hashtable<String, String>();
+			servletProps.put(HttpWhiteboardConstants.HTTP_WHITEBOARD_SERVLET_NAME, "dispatcher");
+			servletProps.put(HttpWhiteboardConstants.HTTP_WHITEBOARD_SERVLET_PATTERN, "/dispatcher");
+			registrations.add(getBundleContext().registerService(Servlet.class, dispatcher, servletProps));
+
+			Dictionary<String, String> targetProps = new Hashtable<String, String>();
+			targetProps.put(HttpWhiteboardConstants.HTTP_WHITEBOARD_SERVLET_NAME, "target");
+			targetProps.put(HttpWhiteboardConstants.HTTP_WHITEBOARD_SERVLET_PATTERN, "/target");
+			registrations.add(getBundleContext().registerService(Servlet.class, new BaseServlet("target"), targetProps));
+
+			Assert.assertEquals("target", requestAdvisor.request("dispatcher?name=target"));
+			Assert.assertEquals("none", requestAdvisor.request("dispatcher?name=missing"));
+		}
+		finally {
+			for (ServiceRegistration<?> registration : registrations) {
+				registration.unregister();
+			}
+		}
+	}
+
+	public void test_Routing6() throws Exception {
+		Collection<ServiceRegistration<?>> registrations = new ArrayList<ServiceRegistration<?>>();
+		try {
+			Servlet failing = new HttpServlet() {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected void service(
+						HttpServletRequest request, HttpServletResponse response)
+					throws ServletException, IOException {
+
+					if (request.getParameter("status") != null) {
+						response.sendError(403);
+
+						return;
+					}
+
+					throw new RoutingException();
+				}
+
+			};
+
+			Dictionary<String, String> servletProps = new Hashtable<String, String>();
+			servletProps.put(HttpWhiteboardConstants.HTTP_WHITEBOARD_SERVLET_PATTERN, "/failing");
+			registrations.add(getBundleContext().registerService(Servlet.class, failing, servletProps));
+
+			// an error page is found under each of its error codes and exceptions
+			Dictionary<String, Object> errorProps = new Hashtable<String, Object>();
+			errorProps.put(HttpWhiteboardConstants.HTTP_WHITEBOARD_SERVLET_NAME, "error");
+			errorProps.put(HttpWhiteboardConstants.HTTP_WHITEBOARD_SERVLET_ERROR_PAGE, new String[] {"403", RoutingException.class.getName()});
+			registrations.add(getBundleContext().registerService(Servlet.class, new BaseServlet("error"), errorProps));
+
+			Map<String, List<String>> response = requestAdvisor.request("failing?status=403", null);
+
+			Assert.assertEquals("403", response.get("responseCode").get(0));
+			Assert.assertEquals("error", response.get("responseBody").get(0));
+
+			response = requestAdvisor.request("failing", null);
+
+			Assert.assertEquals("500", response.get("responseCode").get(0));
+			Assert.assertEquals("error", response.get("responseBody").get(0));
+		}
+		finally {
+			for (ServiceRegistration<?> registration : registrations) {
+				registration.unregister();
+			}
+		}
+	}
+
+	public void test_Routing7() throws Exception {
+		BundleContext bundleContext = getBundleContext();
+		Bundle bundle = bundleContext.getBundle();
+
+		Collection<ServiceRegistration<?>> registrations = new ArrayList<ServiceRegistration<?>>();
+		try {
+			Dictionary<String, Object> contextProps1 = new Hashtable<String, Object>();
+			contextProps1.put(HttpWhiteboardConstants.HTTP_WHITEBOARD_CONTEXT_NAME, "r1");
+			contextProps1.put(HttpWhiteboardConstants.HTTP_WHITEBOARD_CONTEXT_PATH, "/r");
+			registrations.add(bundleContext.registerService(ServletContextHelper.class, new ServletContextHelper(bundle){}, contextProps1));
+
+			Dictionary<String, Object> contextProps2 = new Hashtable<String, Object>();
+			contextProps2.put(HttpWhiteboardConstants.HTTP_WHITEBOARD_CONTEXT_NAME, "r2");
+			contextProps2.put(HttpWhiteboardConstants.HTTP_WHITEBOARD_CONTEXT_PATH, "/r");
+			registrations.add(bundleContext.registerService(ServletContextHelper.class, new ServletContextHelper(bundle){}, contextProps2));
+
+			registerRoutingServlet(registrations, "short", "r1", "/a/*");
+			registerRoutingServlet(registrations, "long", "r2", "/a/b/*");
+
+			// the longest servlet path wins, whatever the context
+			Assert.assertEquals("long:/a/b:/c", requestAdvisor.request("r/a/b/c"));
+			Assert.assertEquals("short:/a:/c", requestAdvisor.request("r/a/c"));
+		}
+		finally {
+			for (ServiceRegistration<?> registration : registrations) {
+				registration.unregister();
+			}
+		}
+	}
+
+	public void test_Routing8() throws Exception {
+		Collection<ServiceRegistration<?>> registrations = new ArrayList<ServiceRegistration<?>>();
+		try {
+			registerRoutingServlet(registrations, "wildcard", null, "/a/*");
+			registerRoutingServlet(registrations, "jsp", null, "*.jsp");
+			registerRoutingServlet(registrations, "exact", null, "/a/b");
+
+			ServiceRegistration<?> nested = registerRoutingServlet(registrations, "nested", null, "/a/b/*");
+
+			Assert.assertEquals("exact:/a/b:null", requestAdvisor.request("a/b"));
+			Assert.assertEquals("nested:/a/b:/c", requestAdvisor.request("a/b/c"));
+			Assert.assertEquals("jsp:/c.jsp:null", requestAdvisor.request("c.jsp"));
+
+			nested.unregister();
+			registrations.remove(nested);
+
+			Assert.assertEquals("wildcard:/a:/b/c", requestAdvisor.request("a/b/c"));
+
+			for (ServiceRegistration<?> registration : registrations) {
+				registration.unregister();
+			}
+
+			registrations.clear();
+
+			Map<String, List<String>> response = requestAdvisor.request("a/b", null);
+
+			Assert.assertEquals("404", response.get("responseCode").get(0));
+
+			response = requestAdvisor.request("c.jsp", null);
+
+			Assert.assertEquals("404", response.get("responseCode").get(0));
+		}
+		finally {
+			for (ServiceRegistration<?> registration : registrations) {
+				registration.unregister();
+			}
+		}
+	}
+
+	public void test_DispatchTargetsCache1() throws Exception {
+		Collection<ServiceRegistration<?>> registrations = new ArrayList<ServiceRegistration<?>>();
+		try {
+			registerRoutingServlet(registrations, "exact", null, "/cached");
+			registerRoutingServlet(registrations, "jsp", null, "*.jsp");
+			registerRoutingServlet(registrations, "wildcard", null, "/wildcard/*");
+
+			Assert.assertEquals("exact:/cached:null", requestAdvisor.request("cached"));
+			Assert.assertEquals("jsp:/a.jsp:null", requestAdvisor.request("a.jsp"));
+
+			long hits = getDispatchCacheStatistic("hits");
+			long size = getDispatchCacheStatistic("size");
+
+			Assert.assertEquals("exact:/cached:null", requestAdvisor.request("cached"));
+			Assert.assertEquals("jsp:/a.jsp:null", requestAdvisor.request("a.jsp"));
+			Assert.assertEquals(hits + 2, getDispatchCacheStatistic("hits"));
+
+			// the paths matched by wildcards are resolved on every request
+			Assert.assertEquals("wildcard:/wildcard:/a", requestAdvisor.request("wildcard/a"));
+			Assert.assertEquals("wildcard:/wildcard:/a", requestAdvisor.request("wildcard/a"));
+			Assert.assertEquals("wildcard:/wildcard:/b", requestAdvisor.request("wildcard/b"));
+			Assert.assertEquals(hits + 2, getDispatchCacheStatistic("hits"));
+			Assert.assertEquals(size, getDispatchCacheStatistic("size"));
+		}
+		finally {
+			for (ServiceRegistration<?> registration : registrations) {
+				registration.unregister();
+			}
+		}
+	}
+
+	public void test_DispatchTargetsCache2() throws Exception {
+		BundleContext bundleContext = getBundleContext();
+		Bundle bundle = bundleContext.getBundle();
+
+		Collection<ServiceRegistration<?>> registrations = new ArrayList<ServiceRegistration<?>>();
+		try {
+			registerRoutingServlet(registrations, "exact", null, "/cached");
+			registerRoutingServlet(registrations, "res", null, "*.res");
+
+			Assert.assertEquals("exact:/cached:null", requestAdvisor.request("cached"));
+			Assert.assertEquals("exact:/cached:null", requestAdvisor.request("cached"));
+
+			// servlets
+			long invalidations = getDispatchCacheStatistic("invalidations");
+
+			ServiceRegistration<?> servletRegistration = registerRoutingServlet(registrations, "other", null, "/other");
+
+			Assert.assertTrue(getDispatchCacheStatistic("invalidations") > invalidations);
+
+			invalidations = getDispatchCacheStatistic("invalidations");
+
+			servletRegistration.unregister();
+			registrations.remove(servletRegistration);
+
+			Assert.assertTrue(getDispatchCacheStatistic("invalidations") > invalidations);
+
+			// filters
+			Dictionary<String, String> filterProps = new Hashtable<String, String>();
+			filterProps.put(HttpWhiteboardConstants.HTTP_WHITEBOARD_FILTER_PATTERN, "/cached");
+			ServiceRegistration<?> filterRegistration = bundleContext.registerService(Filter.class, new PrefixFilter("f"), filterProps);
+			registrations.add(filterRegistration);
+
+			Assert.assertEquals("fexact:/cached:null", requestAdvisor.request("cached"));
+
+			filterRegistration.unregister();
+			registrations.remove(filterRegistration);
+
+			Assert.assertEquals("exact:/cached:null", requestAdvisor.request("cached"));
+
+			// resources; the exact alias is tried before the extension
+			Assert.assertEquals("res:/resource.res:null", requestAdvisor.request("resource.res"));
+			Assert.assertEquals("res:/resource.res:null", requestAdvisor.request("resource.res"));
+
+			getHttpService().registerResources("/resource.res", "/org/eclipse/equinox/http/servlet/tests/resource1.txt", null);
+			try {
+				Assert.assertEquals("a", requestAdvisor.request("resource.res"));
+			}
+			finally {
+				getHttpService().unregister("/resource.res");
+			}
+
+			Assert.assertEquals("res:/resource.res:null", requestAdvisor.request("resource.res"));
+
+			// contexts
+			Assert.assertEquals("res:/context/a.res:null", requestAdvisor.request("context/a.res"));
+			Assert.assertEquals("res:/context/a.res:null", requestAdvisor.request("context/a.res"));
+
+			Dictionary<String, String> contextProps = new Hashtable<String, String>();
+			contextProps.put(HttpWhiteboardConstants.HTTP_WHITEBOARD_CONTEXT_NAME, "context");
+			contextProps.put(HttpWhiteboardConstants.HTTP_WHITEBOARD_CONTEXT_PATH, "/context");
+			ServiceRegistration<?> contextRegistration = bundleContext.registerService(ServletContextHelper.class, new ServletContextHelper(bundle){}, contextProps);
+			registrations.add(contextRegistration);
+
+			registerRoutingServlet(registrations, "context", "context", "/a.res");
+
+			Assert.assertEquals("context:/a.res:null", requestAdvisor.request("context/a.res"));
+
+			invalidations = getDispatchCacheStatistic("invalidations");
+
+			contextRegistration.unregister();
+			registrations.remove(contextRegistration);
+
+			Assert.assertTrue(getDispatchCacheStatistic("invalidations") > invalidations);
+			Assert.assertEquals("res:/context/a.res:null", requestAdvisor.request("context/a.res"));
+		}
+		finally {
+			for (ServiceRegistration<?> registration : registrations) {
+				registration.unregister();
+			}
+		}
+	}
+
+	public void test_DispatchTargetsCache3() throws Exception {
+		// the cache is internal to the runtime
+		BundleContext bundleContext = getBundleContext();
+		ServiceReference<HttpServiceRuntime> serviceReference =
+			bundleContext.getServiceReference(HttpServiceRuntime.class);
+		HttpServiceRuntime runtime = bundleContext.getService(serviceReference);
+
+		Object cache = invoke(runtime, "getDispatchTargetsCache");
+		try {
+			Class<?> dispatchTargetsClass = cache.getClass().getClassLoader().loadClass(
+				"org.eclipse.equinox.http.servlet.internal.context.DispatchTargets");
+			Object template = null;
+			for (java.lang.reflect.Constructor<?> constructor : dispatchTargetsClass.getConstructors()) {
+				if (constructor.getParameterTypes().length == 5) {
+					template = constructor.newInstance(null, null, "/guard", null, "/guard");
+				}
+			}
+
+			// the registrations changed while the targets were resolved
+			Object generation = invoke(cache, "getGeneration");
+			invoke(cache, "invalidate");
+			invoke(cache, "put", "/guard", DispatcherType.REQUEST, template, generation);
+
+			Assert.assertNull(invoke(cache, "get", "/guard", DispatcherType.REQUEST));
+
+			generation = invoke(cache, "getGeneration");
+			invoke(cache, "put", "/guard", DispatcherType.REQUEST, template, generation);
+
+			Assert.assertSame(template, invoke(cache, "get", "/guard", DispatcherType.REQUEST));
+			Assert.assertNull(invoke(cache, "get", "/guard", DispatcherType.INCLUDE));
+		}
+		finally {
+			invoke(cache, "invalidate");
+			bundleContext.ungetService(serviceReference);
+		}
+	}
+
+	public void test_DispatchTargetsCache4() throws Exception {
+		final CountDownLatch entered = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicBoolean destroyed = new AtomicBoolean();
+
+		Servlet blocking = new HttpServlet() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public void destroy() {
+				destroyed.set(true);
+			}
+
+			@Override
+			protected void service(
+					HttpServletRequest request, HttpServletResponse response)
+				throws ServletException, IOException {
+
+				if (request.getParameter("block") != null) {
+					entered.countDown();
+
+					try {
+						release.await(10, TimeUnit.SECONDS);
+					}
+					catch (InterruptedException ie) {
+						Thread.currentThread().interrupt();
+					}
+				}
+
+				response.getWriter().print("done");
+			}
+
+		};
+
+		Collection<ServiceRegistration<?>> registrations = new ArrayList<ServiceRegistration<?>>();
+		try {
+			Dictionary<String, Object> filterProps1 = new Hashtable<String, Object>();
+			filterProps1.put(HttpWhiteboardConstants.HTTP_WHITEBOARD_FILTER_PATTERN, "/blocking");
+			filterProps1.put(Constants.SERVICE_RANKING, Integer.valueOf(2));
+			registrations.add(getBundleContext().registerService(Filter.class, new PrefixFilter("b"), filterProps1));
+
+			Dictionary<String, Object> filterProps2 = new Hashtable<String, Object>();
+			filterProps2.put(HttpWhiteboardConstants.HTTP_WHITEBOARD_FILTER_PATTERN, "/blocking");
+			filterProps2.put(Constants.SERVICE_RANKING, Integer.valueOf(1));
+			registrations.add(getBundleContext().registerService(Filter.class, new PrefixFilter("c"), filterProps2));
+
+			Dictionary<String, String> servletProps = new Hashtable<String, String>();
+			servletProps.put(HttpWhiteboardConstants.HTTP_WHITEBOARD_SERVLET_PATTERN, "/blocking");
+			final ServiceRegistration<?> servletRegistration = getBundleContext().registerService(Servlet.class, blocking, servletProps);
+			registrations.add(servletRegistration);
+
+			// every hit runs the filters of its own list
+			Assert.assertEquals("bcdone", requestAdvisor.request("blocking"));
+
+			long hits = getDispatchCacheStatistic("hits");
+
+			Assert.assertEquals("bcdone", requestAdvisor.request("blocking"));
+			Assert.assertEquals("bcdone", requestAdvisor.request("blocking"));
+			Assert.assertEquals(hits + 2, getDispatchCacheStatistic("hits"));
+
+			// a hit holds the servlet until the request completes
+			final AtomicReference<String> response = new AtomicReference<String>();
+			Thread requestThread = new Thread() {
+				@Override
+				public void run() {
+					try {
+						response.set(requestAdvisor.request("blocking?block=true"));
+					}
+					catch (IOException ioe) {
+						response.set(ioe.toString());
+					}
+				}
+			};
+			requestThread.start();
+
+			Assert.assertTrue(entered.await(10, TimeUnit.SECONDS));
+			Assert.assertEquals(hits + 3, getDispatchCacheStatistic("hits"));
+
+			Thread unregisterThread = new Thread() {
+				@Override
+				public void run() {
+					servletRegistration.unregister();
+				}
+			};
+			registrations.remove(servletRegistration);
+			unregisterThread.start();
+			unregisterThread.join(500);
+
+			Assert.assertFalse(destroyed.get());
+
+			release.countDown();
+			requestThread.join(10000);
+			unregisterThread.join(10000);
+
+			Assert.assertEquals("bcdone", response.get());
+			Assert.assertTrue(destroyed.get());
+		}
+		finally {
+			release.countDown();
+			for (ServiceRegistration<?> registration : registrations) {
+				registration.unregister();
+			}
+		}
+	}
+
 	public void test_Listener1() throws Exception {
 		BaseServletContextListener scl1 =
 			new BaseServletContextListener();
@@ -1501,6 +2025,45 @@ public class ServletTest extends TestCase {
 		return Activator.getBundleContext();
 	}
 
+	private ServiceRegistration<?> registerRoutingServlet(
+		Collection<ServiceRegistration<?>> registrations, String name,
+		String contextName, String pattern) {
+
+		Dictionary<String, String> servletProps = new Hashtable<String, String>();
+		servletProps.put(HttpWhiteboardConstants.HTTP_WHITEBOARD_SERVLET_NAME, name);
+		servletProps.put(HttpWhiteboardConstants.HTTP_WHITEBOARD_SERVLET_PATTERN, pattern);
+		if (contextName != null) {
+			servletProps.put(HttpWhiteboardConstants.HTTP_WHITEBOARD_CONTEXT_SELECT, "(" + HttpWhiteboardConstants.HTTP_WHITEBOARD_CONTEXT_NAME + "=" + contextName + ")");
+		}
+		ServiceRegistration<?> registration = getBundleContext().registerService(Servlet.class, new RoutingServlet(name), servletProps);
+		registrations.add(registration);
+		return registration;
+	}
+
+	private long getDispatchCacheStatistic(String name) {
+		BundleContext bundleContext = getBundleContext();
+		ServiceReference<HttpServiceRuntime> serviceReference =
+			bundleContext.getServiceReference(HttpServiceRuntime.class);
+		try {
+			HttpServiceRuntime runtime = bundleContext.getService(serviceReference);
+			String value = runtime.getRuntimeDTO().attributes.get("equinox.http.dispatch.cache." + name);
+			Assert.assertNotNull(name, value);
+			return Long.parseLong(value);
+		}
+		finally {
+			bundleContext.ungetService(serviceReference);
+		}
+	}
+
+	private Object invoke(Object target, String name, Object... args) throws Exception {
+		for (java.lang.reflect.Method method : target.getClass().getMethods()) {
+			if (method.getName().equals(name) && (method.getParameterTypes().length == args.length)) {
+				return method.invoke(target, args);
+			}
+		}
+		throw new NoSuchMethodException(name);
+	}
+
 	private String getContextPath() {
 		return getJettyProperty("context.path", "");
 	}
@@ -1587,6 +2150,51 @@ public class ServletTest extends TestCase {
 		public void init(FilterConfig arg0) throws ServletException {/**/}
 	}
 
+	/**
+	 * Prints its name, with the servlet path and the path info of the request.
+	 */
+	static class RoutingServlet extends HttpServlet {
+		private static final long serialVersionUID = 1L;
+
+		public RoutingServlet(String name) {
+			this.name = name;
+		}
+
+		@Override
+		protected void service(
+				HttpServletRequest request, HttpServletResponse response)
+			throws ServletException, IOException {
+
+			response.getWriter().print(
+				name + ":" + request.getServletPath() + ":" + request.getPathInfo());
+		}
+
+		private final String name;
+	}
+
+	/**
+	 * Prints its prefix before the rest of the chain.
+	 */
+	static class PrefixFilter implements Filter {
+		public PrefixFilter(String prefix) {
+			this.prefix = prefix;
+		}
+		@Override
+		public void destroy() {/**/}
+		@Override
+		public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+			response.getWriter().print(prefix);
+			chain.doFilter(request, response);
+		}
+		@Override
+		public void init(FilterConfig filterConfig) throws ServletException {/**/}
+		private final String prefix;
+	}
+
+	static class RoutingException extends ServletException {
+		private static final long serialVersionUID = 1L;
+	}
+
 	static class TestServletContextHelperFactory implements ServiceFactory<ServletContextHelper> {
 		static class TestServletContextHelper extends ServletContextHelper {
 			public TestServletContextHelper(Bundle bundle) {
@@ -22,7 +22,9 @@ import javax.servlet.Filter;
 import javax.servlet.http.*;
 import org.eclipse.equinox.http.servlet.context.ContextPathCustomizer;
 import org.eclipse.equinox.http.servlet.internal.context.*;
+import org.eclipse.equinox.http.servlet.internal.context.RoutingTable.Route;
 import org.eclipse.equinox.http.servlet.internal.error.*;
+import org.eclipse.equinox.http.servlet.internal.registration.FilterRegistration;
 import org.eclipse.equinox.http.servlet.internal.servlet.*;
 import org.eclipse.equinox.http.servlet.internal.util.Const;
 import org.eclipse.equinox.http.servlet.internal.util.StringPlus;
@@ -208,6 +210,7 @@ public class HttpServiceRuntimeImpl
 		controllerMap.clear();
 		contextPathMap.clear();
 		registeredObjects.clear();
+		dispatchTargetsCache.invalidate();
 
 		attributes = null;
 		trackingContext = null;
@@ -228,6 +231,15 @@ public class HttpServiceRuntimeImpl
 		return doDispatch(request, response, path, null);
 	}
 
+	/**
+	 * Returns the cache of the dispatch targets resolved for the request
+	 * paths. Its statistics are published in the attributes of the runtime
+	 * DTO.
+	 */
+	public DispatchTargetsCache getDispatchTargetsCache() {
+		return dispatchTargetsCache;
+	}
+
 	public Map<String, Object> getAttributes() {
 		return attributes;
 	}
@@ -258,6 +270,7 @@ public class HttpServiceRuntimeImpl
 		RuntimeDTO runtimeDTO = new RuntimeDTO();
 
 		runtimeDTO.attributes = serializeAttributes();
+		runtimeDTO.attributes.putAll(dispatchTargetsCache.getStatistics());
 
 		// TODO
 
@@ -335,6 +348,8 @@ public class HttpServiceRuntimeImpl
 		controllerMap.remove(contextController);
 
 		contextController.destroy();
+
+		dispatchTargetsCache.invalidate();
 	}
 
 	Set<ContextController> getContextControllerPathSet(
@@ -406,6 +421,8 @@ public class HttpServiceRuntimeImpl
 
 		contextPathMap.put(contextPath, contextControllers);
 
+		dispatchTargetsCache.invalidate();
+
 		return contextController;
 	}
 
@@ -414,9 +431,49 @@ public class HttpServiceRuntimeImpl
 			String path, RequestInfoDTO requestInfoDTO)
 		throws ServletException, IOException {
 
+		DispatcherType dispatcherType = DispatcherType.REQUEST;
+
+		if ((request != null) &&
+			(request.getAttribute(RequestDispatcher.INCLUDE_REQUEST_URI) != null)) {
+
+			dispatcherType = DispatcherType.INCLUDE;
+		}
+
+		if (requestInfoDTO == null) {
+			DispatchTargets template = dispatchTargetsCache.get(
+				path, dispatcherType);
+
+			if (template != null) {
+				DispatchTargets dispatchTargets = null;
+
+				try {
+					dispatchTargets =
+						template.getContextController().getDispatchTargets(
+							request, template);
+				}
+				catch (IllegalStateException ise) {
+					// the context was destroyed after the template was cached,
+					// fall through and resolve the path again
+				}
+
+				if (dispatchTargets != null) {
+					doDispatch(
+						request, response, path, dispatchTargets,
+						dispatcherType);
+
+					return true;
+				}
+			}
+		}
+
+		// read before the lookups, so that targets resolved while the
+		// registrations change are not cached
+		long generation = dispatchTargetsCache.getGeneration();
+
 		// perfect match
 		if (doDispatch(
-				request, response, path, null, Match.EXACT, requestInfoDTO)) {
+				request, response, path, null, Match.EXACT, dispatcherType,
+				generation, requestInfoDTO)) {
 
 			return true;
 		}
@@ -426,14 +483,15 @@ public class HttpServiceRuntimeImpl
 		// extension match
 		if (doDispatch(
 				request, response, path, extensionAlias, Match.EXTENSION,
-				requestInfoDTO)) {
+				dispatcherType, generation, requestInfoDTO)) {
 
 			return true;
 		}
 
 		// regex match
 		if (doDispatch(
-				request, response, path, null, Match.REGEX, requestInfoDTO)) {
+				request, response, path, null, Match.REGEX, dispatcherType,
+				generation, requestInfoDTO)) {
 
 			return true;
 		}
@@ -441,7 +499,7 @@ public class HttpServiceRuntimeImpl
 		// handle '/' aliases
 		if (doDispatch(
 				request, response, path, null, Match.DEFAULT_SERVLET,
-				requestInfoDTO)) {
+				dispatcherType, generation, requestInfoDTO)) {
 
 			return true;
 		}
@@ -452,6 +510,7 @@ public class HttpServiceRuntimeImpl
 	private boolean doDispatch(
 			HttpServletRequest request, HttpServletResponse response,
 			String requestURI, String extension, Match match,
+			DispatcherType dispatcherType, long generation,
 			RequestInfoDTO requestInfoDTO)
 		throws ServletException, IOException {
 
@@ -462,18 +521,35 @@ public class HttpServiceRuntimeImpl
 			return false;
 		}
 
+		// the paths matched by wildcards are not cached, as they are as many
+		// as the requests
+		if ((match == Match.EXACT) || (match == Match.EXTENSION)) {
+			dispatchTargetsCache.put(
+				requestURI, dispatcherType, createTemplate(dispatchTargets),
+				generation);
+		}
+
+		doDispatch(
+			request, response, requestURI, dispatchTargets, dispatcherType);
+
+		return true;
+	}
+
+	private void doDispatch(
+			HttpServletRequest request, HttpServletResponse response,
+			String requestURI, DispatchTargets dispatchTargets,
+			DispatcherType dispatcherType)
+		throws ServletException, IOException {
+
 		ContextController contextController =
 			dispatchTargets.getContextController();
-		DispatcherType dispatcherType = DispatcherType.REQUEST;
 
-		if (request.getAttribute(RequestDispatcher.INCLUDE_REQUEST_URI) != null) {
+		if (dispatcherType == DispatcherType.INCLUDE) {
 			request.setAttribute(RequestDispatcher.INCLUDE_CONTEXT_PATH, contextController.getContextPath());
 			request.setAttribute(RequestDispatcher.INCLUDE_PATH_INFO, dispatchTargets.getPathInfo());
 			request.setAttribute(RequestDispatcher.INCLUDE_QUERY_STRING, request.getQueryString());
 			request.setAttribute(RequestDispatcher.INCLUDE_REQUEST_URI, requestURI);
 			request.setAttribute(RequestDispatcher.INCLUDE_SERVLET_PATH, dispatchTargets.getServletPath());
-
-			dispatcherType = DispatcherType.INCLUDE;
 		}
 
 		HttpServletRequest wrappedRequest = new HttpServletRequestBuilder(
@@ -485,8 +561,24 @@ public class HttpServiceRuntimeImpl
 			wrappedRequest, wrapperResponse, dispatchTargets, dispatcherType);
 
 		responseStateHandler.processRequest();
+	}
 
-		return true;
+	/**
+	 * Returns a copy of the dispatch targets holding no references, to cache.
+	 */
+	private DispatchTargets createTemplate(DispatchTargets dispatchTargets) {
+		List<FilterRegistration> matchingFilterRegistrations =
+			new ArrayList<FilterRegistration>(
+				dispatchTargets.getMatchingFilterRegistrations());
+
+		Collections.sort(matchingFilterRegistrations);
+
+		return new DispatchTargets(
+			dispatchTargets.getContextController(),
+			dispatchTargets.getServletRegistration(),
+			Collections.unmodifiableList(matchingFilterRegistrations),
+			dispatchTargets.getServletPath(), dispatchTargets.getPathInfo(),
+			dispatchTargets.getPattern());
 	}
 
 	private String findExtensionAlias(String alias) {
@@ -517,46 +609,29 @@ public class HttpServiceRuntimeImpl
 
 		requestURI = requestURI.substring(contextPath.length());
 
-		int pos = requestURI.lastIndexOf('/');
-
-		String servletPath = requestURI;
-		String pathInfo = null;
-
-		if (match == Match.DEFAULT_SERVLET) {
-			pathInfo = servletPath;
-			servletPath = Const.SLASH;
-		}
-
-		do {
-			for (ContextController contextController : contextControllers) {
-				DispatchTargets dispatchTargets =
-					contextController.getDispatchTargets(
-						request, null, requestURI, servletPath, pathInfo,
-						extension, match, requestInfoDTO);
+		// the longest servlet path wins, then the first context
+		ContextController routeContextController = null;
+		Route route = null;
 
-				if (dispatchTargets != null) {
-					return dispatchTargets;
-				}
-			}
+		for (ContextController contextController : contextControllers) {
+			Route curRoute = contextController.findRoute(
+				request, requestURI, extension, match);
 
-			if ((match == Match.EXACT) || (extension != null)) {
-				break;
-			}
-
-			if (pos > -1) {
-				String newServletPath = requestURI.substring(0, pos);
-				pathInfo = requestURI.substring(pos);
-				servletPath = newServletPath;
-				pos = servletPath.lastIndexOf('/');
+			if ((curRoute != null) && ((route == null) ||
+					(curRoute.getServletPath().length() >
+						route.getServletPath().length()))) {
 
-				continue;
+				routeContextController = contextController;
+				route = curRoute;
 			}
+		}
 
-			break;
+		if (route == null) {
+			return null;
 		}
-		while (true);
 
-		return null;
+		return routeContextController.getDispatchTargets(
+			null, requestURI, route, requestInfoDTO);
 	}
 
 	private ServletContextDTO[] getServletContextDTOs() {
@@ -1056,6 +1131,10 @@ public class HttpServiceRuntimeImpl
 	private ConcurrentMap<ContextController, ServiceReference<ServletContextHelper>> controllerMap =
 		new ConcurrentHashMap<ContextController, ServiceReference<ServletContextHelper>>();
 
+	// the targets of the most requested paths
+	private final DispatchTargetsCache dispatchTargetsCache =
+		new DispatchTargetsCache(512);
+
 	private AtomicLong legacyIdGenerator = new AtomicLong(0);
 
 	private Set<Object> registeredObjects = Collections.newSetFromMap(new ConcurrentHashMap<Object, Boolean>());
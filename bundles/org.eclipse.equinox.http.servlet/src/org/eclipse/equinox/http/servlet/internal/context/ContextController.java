@@ -19,6 +19,7 @@ import javax.servlet.*;
 import javax.servlet.Filter;
 import javax.servlet.http.*;
 import org.eclipse.equinox.http.servlet.internal.HttpServiceRuntimeImpl;
+import org.eclipse.equinox.http.servlet.internal.context.RoutingTable.Route;
 import org.eclipse.equinox.http.servlet.internal.customizer.*;
 import org.eclipse.equinox.http.servlet.internal.error.RegisteredFilterException;
 import org.eclipse.equinox.http.servlet.internal.registration.*;
@@ -282,7 +283,10 @@ public class ContextController {
 
 		newRegistration.init(filterConfig);
 
-		filterRegistrations.add(newRegistration);
+		synchronized (this) {
+			filterRegistrations.add(newRegistration);
+			updateRoutingTable();
+		}
 		return newRegistration;
 	}
 
@@ -417,6 +421,7 @@ public class ContextController {
 		}
 
 		endpointRegistrations.add(resourceRegistration);
+		updateRoutingTable();
 
 		return resourceRegistration;
 	}
@@ -536,18 +541,28 @@ public class ContextController {
 		servletRegistration.init(servletConfig);
 
 		endpointRegistrations.add(servletRegistration);
+		updateRoutingTable();
 
 		return servletRegistration;
 	}
 
 	public void destroy() {
+		// first, so that no request is dispatched from a cached template while
+		// the registrations are removed
+		httpServiceRuntime.getDispatchTargetsCache().invalidate();
+
 		resourceServiceTracker.close();
 		servletServiceTracker.close();
 		filterServiceTracker.close();
 		listenerServiceTracker.close();
 
-		endpointRegistrations.clear();
-		filterRegistrations.clear();
+		synchronized (this) {
+			endpointRegistrations.clear();
+			filterRegistrations.clear();
+			routingTable = RoutingTable.EMPTY;
+
+			httpServiceRuntime.getDispatchTargetsCache().invalidate();
+		}
 		listenerRegistrations.clear();
 		eventListeners.clear();
 		proxyContext.destroy();
@@ -576,42 +591,65 @@ public class ContextController {
 
 		getProxyContext().initializeServletPath(request);
 
-		EndpointRegistration<?> endpointRegistration = null;
-		String pattern = null;
+		Route route = routingTable.findEndpoint(
+			servletName, servletPath, pathInfo, extension, match);
 
-		for (EndpointRegistration<?> curEndpointRegistration : endpointRegistrations) {
-			if ((pattern = curEndpointRegistration.match(
-					servletName, servletPath, pathInfo, extension, match)) != null) {
+		return getDispatchTargets(
+			servletName, requestURI, route, requestInfoDTO);
+	}
 
-				endpointRegistration = curEndpointRegistration;
+	/**
+	 * Finds the endpoint of a request URI in this context.
+	 *
+	 * @param requestURI the request URI, relative to the context path
+	 * @see RoutingTable#findEndpoint(String, String, Match)
+	 */
+	public Route findRoute(
+		HttpServletRequest request, String requestURI, String extension,
+		Match match) {
 
-				break;
-			}
-		}
+		checkShutdown();
+
+		getProxyContext().initializeServletPath(request);
+
+		return routingTable.findEndpoint(requestURI, extension, match);
+	}
+
+	/**
+	 * Returns the targets of a route found in this context.
+	 */
+	public DispatchTargets getDispatchTargets(
+		String servletName, String requestURI, Route route,
+		RequestInfoDTO requestInfoDTO) {
 
-		if (endpointRegistration == null) {
+		if (route == null) {
 			return null;
 		}
 
+		EndpointRegistration<?> endpointRegistration =
+			route.getEndpointRegistration();
+
 		endpointRegistration.addReference();
 
 		addEnpointRegistrationsToRequestInfo(
 			endpointRegistration, requestInfoDTO);
 
-		if (filterRegistrations.isEmpty()) {
+		RoutingTable currentRoutingTable = routingTable;
+
+		if (!currentRoutingTable.hasFilters()) {
 			return new DispatchTargets(
-				this, endpointRegistration, servletPath, pathInfo, pattern);
+				this, endpointRegistration, route.getServletPath(),
+				route.getPathInfo(), route.getPattern());
 		}
 
-		String originalServletPath = servletPath;
-		String originalPathInfo = pathInfo;
-
 		List<FilterRegistration> matchingFilterRegistrations =
 			new ArrayList<FilterRegistration>();
 
-		for (Match curMatch : Match.values()) {
-			collectFilters(
-				matchingFilterRegistrations, servletName, requestURI, curMatch);
+		currentRoutingTable.collectFilters(
+			servletName, requestURI, matchingFilterRegistrations);
+
+		for (FilterRegistration filterRegistration : matchingFilterRegistrations) {
+			filterRegistration.addReference();
 		}
 
 		addFilterRegistrationsToRequestInfo(
@@ -619,59 +657,44 @@ public class ContextController {
 
 		return new DispatchTargets(
 			this, endpointRegistration, matchingFilterRegistrations,
-			originalServletPath, originalPathInfo, pattern);
+			route.getServletPath(), route.getPathInfo(), route.getPattern());
 	}
 
-	private void collectFilters(
-		List<FilterRegistration> matchingFilterRegistrations,
-		String servletName, String requestURI, Match match) {
-
-		String servletPath = requestURI;
-		String pathInfo = "";
-		String extension = null;
+	/**
+	 * Returns the targets of a request from a template cached by the runtime.
+	 *
+	 * @see DispatchTargetsCache
+	 */
+	public DispatchTargets getDispatchTargets(
+		HttpServletRequest request, DispatchTargets template) {
 
-		int pos = -1;
+		checkShutdown();
 
-		if (requestURI != null) {
-			pos = requestURI.lastIndexOf('/');
+		getProxyContext().initializeServletPath(request);
 
-			if (match == Match.EXTENSION) {
-				int x = requestURI.lastIndexOf('.');
+		EndpointRegistration<?> endpointRegistration =
+			template.getServletRegistration();
 
-				if (x != -1) {
-					extension = requestURI.substring(x + 1);
-				}
+		endpointRegistration.addReference();
 
-				if (extension == null) {
-					return;
-				}
-			}
+		if (template.getMatchingFilterRegistrations().isEmpty()) {
+			return new DispatchTargets(
+				this, endpointRegistration, template.getServletPath(),
+				template.getPathInfo(), template.getPattern());
 		}
 
-		do {
-			for (FilterRegistration filterRegistration : filterRegistrations) {
-				if ((filterRegistration.match(
-						servletName, servletPath, pathInfo, extension, match) != null) &&
-					!matchingFilterRegistrations.contains(filterRegistration)) {
-
-					matchingFilterRegistrations.add(filterRegistration);
-
-					filterRegistration.addReference();
-				}
-			}
-
-			if (pos > -1) {
-				String newServletPath = requestURI.substring(0, pos);
-				pathInfo = requestURI.substring(pos);
-				servletPath = newServletPath;
-				pos = servletPath.lastIndexOf('/');
-
-				continue;
-			}
+		List<FilterRegistration> matchingFilterRegistrations =
+			new ArrayList<FilterRegistration>(
+				template.getMatchingFilterRegistrations());
 
-			break;
+		for (FilterRegistration filterRegistration : matchingFilterRegistrations) {
+			filterRegistration.addReference();
 		}
-		while (true);
+
+		return new DispatchTargets(
+			this, endpointRegistration, matchingFilterRegistrations,
+			template.getServletPath(), template.getPathInfo(),
+			template.getPattern());
 	}
 
 	public Set<EndpointRegistration<?>> getEndpointRegistrations() {
@@ -692,6 +715,24 @@ public class ContextController {
 		return filterRegistrations;
 	}
 
+	public void removeEndpointRegistration(
+		EndpointRegistration<?> endpointRegistration) {
+
+		checkShutdown();
+
+		endpointRegistrations.remove(endpointRegistration);
+		updateRoutingTable();
+	}
+
+	public synchronized void removeFilterRegistration(
+		FilterRegistration filterRegistration) {
+
+		checkShutdown();
+
+		filterRegistrations.remove(filterRegistration);
+		updateRoutingTable();
+	}
+
 	public String getFullContextPath() {
 		List<String> endpoints = httpServiceRuntime.getHttpServiceEndpoints();
 
@@ -902,6 +943,15 @@ public class ContextController {
 		}
 	}
 
+	// copy on write; requests are routed without locking
+	private synchronized void updateRoutingTable() {
+		routingTable = new RoutingTable(
+			new ArrayList<EndpointRegistration<?>>(endpointRegistrations),
+			new ArrayList<FilterRegistration>(filterRegistrations));
+
+		httpServiceRuntime.getDispatchTargetsCache().invalidate();
+	}
+
 	private void checkShutdown() {
 		if (shutdown) {
 			throw new IllegalStateException(
@@ -1047,6 +1097,7 @@ public class ContextController {
 	private final Set<EndpointRegistration<?>> endpointRegistrations = new ConcurrentSkipListSet<EndpointRegistration<?>>();
 	private final EventListeners eventListeners = new EventListeners();
 	private final Set<FilterRegistration> filterRegistrations = new HashSet<FilterRegistration>();
+	private volatile RoutingTable routingTable = RoutingTable.EMPTY;
 
 	private final HttpServiceRuntimeImpl httpServiceRuntime;
 	private final Set<ListenerRegistration> listenerRegistrations = new HashSet<ListenerRegistration>();
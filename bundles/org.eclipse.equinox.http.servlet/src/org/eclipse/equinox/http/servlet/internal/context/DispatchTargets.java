@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2014 Raymond Augé and others.
+ * Copyright (c) 2014, 2015 Raymond Augé and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -43,6 +43,7 @@ public class DispatchTargets {
 		this.matchingFilterRegistrations = matchingFilterRegistrations;
 		this.servletPath = servletPath;
 		this.pathInfo = pathInfo;
+		this.pattern = pattern;
 	}
 
 	public ContextController getContextController() {
@@ -57,6 +58,10 @@ public class DispatchTargets {
 		return pathInfo;
 	}
 
+	public String getPattern() {
+		return pattern;
+	}
+
 	public String getServletPath() {
 		return servletPath;
 	}
@@ -69,6 +74,7 @@ public class DispatchTargets {
 	private final EndpointRegistration<?> endpointRegistration;
 	private final List<FilterRegistration> matchingFilterRegistrations;
 	private final String pathInfo;
+	private final String pattern;
 	private final String servletPath;
 
 }
\ No newline at end of file
@@ -0,0 +1,263 @@
+/*******************************************************************************
+ * Copyright (c) 2015 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ ******************************************************************************/
+
+package org.eclipse.equinox.http.servlet.internal.context;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.servlet.DispatcherType;
+
+/**
+ * A bounded cache of the dispatch targets resolved for request paths. Only the
+ * exact and extension matches are cached; a path matched by a wildcard pattern
+ * is resolved on every request, so that the paths below a wildcard do not fill
+ * the cache.
+ * <p>
+ * The cached dispatch targets are templates: they hold an unmodifiable list of
+ * filters and no references on the registrations. A context controller turns a
+ * template into the dispatch targets of a request with
+ * {@link ContextController#getDispatchTargets(javax.servlet.http.HttpServletRequest, DispatchTargets)}.
+ * </p><p>
+ * The cache must be invalidated whenever a context or the registrations of a
+ * context change. A template resolved before an invalidation is not cached, as
+ * {@link #put(String, DispatcherType, DispatchTargets, long)} is given the
+ * generation read before the resolution.
+ * </p><p>
+ * Lookups do not lock. Each entry records when it was last used; once the
+ * cache grows past its maximum size, a single thread evicts the least recently
+ * used quarter of the entries, so that the last uses are sorted once every
+ * <code>maxSize / 4</code> additions at most.
+ * </p><p>
+ * This class is thread safe.
+ * </p>
+ */
+public class DispatchTargetsCache {
+
+	/**
+	 * The attributes of the runtime DTO holding the statistics of the cache.
+	 */
+	public static final String STATISTICS_PREFIX =
+		"equinox.http.dispatch.cache."; //$NON-NLS-1$
+
+	public DispatchTargetsCache(int maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Returns the template cached for the request path, or <code>null</code>.
+	 */
+	public DispatchTargets get(String path, DispatcherType dispatcherType) {
+		Entry entry = entries.get(new Key(path, dispatcherType));
+
+		if (entry == null) {
+			misses.incrementAndGet();
+
+			return null;
+		}
+
+		entry.lastAccess = System.nanoTime();
+
+		hits.incrementAndGet();
+
+		return entry.template;
+	}
+
+	/**
+	 * Returns the current generation, to read before resolving the dispatch
+	 * targets of a request path.
+	 */
+	public long getGeneration() {
+		return generation.get();
+	}
+
+	/**
+	 * Returns the statistics of the cache, keyed by the runtime DTO attributes
+	 * starting with {@link #STATISTICS_PREFIX}.
+	 */
+	public Map<String, String> getStatistics() {
+		Map<String, String> statistics = new HashMap<String, String>();
+
+		statistics.put(
+			STATISTICS_PREFIX + "size", String.valueOf(entries.size())); //$NON-NLS-1$
+		statistics.put(
+			STATISTICS_PREFIX + "max.size", String.valueOf(maxSize)); //$NON-NLS-1$
+		statistics.put(
+			STATISTICS_PREFIX + "hits", String.valueOf(hits.get())); //$NON-NLS-1$
+		statistics.put(
+			STATISTICS_PREFIX + "misses", String.valueOf(misses.get())); //$NON-NLS-1$
+		statistics.put(
+			STATISTICS_PREFIX + "evictions", String.valueOf(evictions.get())); //$NON-NLS-1$
+		statistics.put(
+			STATISTICS_PREFIX + "invalidations", //$NON-NLS-1$
+			String.valueOf(invalidations.get()));
+
+		return statistics;
+	}
+
+	/**
+	 * Discards all the cached templates.
+	 */
+	public void invalidate() {
+		// first, so that a put racing with the clear removes its template
+		generation.incrementAndGet();
+
+		entries.clear();
+
+		invalidations.incrementAndGet();
+	}
+
+	/**
+	 * Caches the template of a request path, unless the cache was invalidated
+	 * since the given generation.
+	 */
+	public void put(
+		String path, DispatcherType dispatcherType, DispatchTargets template,
+		long generation) {
+
+		if (generation != this.generation.get()) {
+			return;
+		}
+
+		Key key = new Key(path, dispatcherType);
+		Entry entry = new Entry(template);
+
+		entries.put(key, entry);
+
+		// an invalidation may have cleared the cache before the template was
+		// added
+		if (generation != this.generation.get()) {
+			entries.remove(key, entry);
+
+			return;
+		}
+
+		if (entries.size() > maxSize) {
+			evict();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "Dispatch targets cache: " + getStatistics(); //$NON-NLS-1$
+	}
+
+	private void evict() {
+		if (!evictionLock.tryLock()) {
+			// another thread is evicting
+			return;
+		}
+
+		try {
+			int size = entries.size();
+			int keep = maxSize - (maxSize / 4);
+
+			if (size <= maxSize) {
+				return;
+			}
+
+			// the entries are used while they are evicted, so the eldest are
+			// found from a copy of their last accesses
+			List<Entry> values = new ArrayList<Entry>(entries.values());
+
+			int count = values.size() - keep;
+
+			if (count <= 0) {
+				return;
+			}
+
+			long[] lastAccesses = new long[values.size()];
+
+			for (int i = 0; i < lastAccesses.length; i++) {
+				lastAccesses[i] = values.get(i).lastAccess;
+			}
+
+			Arrays.sort(lastAccesses);
+
+			long eldestAccess = lastAccesses[count - 1];
+
+			Iterator<Map.Entry<Key, Entry>> iterator =
+				entries.entrySet().iterator();
+
+			while (iterator.hasNext() && (count > 0)) {
+				Map.Entry<Key, Entry> entry = iterator.next();
+
+				if ((entry.getValue().lastAccess <= eldestAccess) &&
+					entries.remove(entry.getKey(), entry.getValue())) {
+
+					evictions.incrementAndGet();
+
+					count--;
+				}
+			}
+		}
+		finally {
+			evictionLock.unlock();
+		}
+	}
+
+	private static class Entry {
+
+		Entry(DispatchTargets template) {
+			this.template = template;
+
+			lastAccess = System.nanoTime();
+		}
+
+		volatile long lastAccess;
+		final DispatchTargets template;
+
+	}
+
+	private static class Key {
+
+		Key(String path, DispatcherType dispatcherType) {
+			this.path = path;
+			this.dispatcherType = dispatcherType;
+			this.hashCode = (31 * path.hashCode()) + dispatcherType.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+
+			Key other = (Key)obj;
+
+			return path.equals(other.path) &&
+				(dispatcherType == other.dispatcherType);
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		private final DispatcherType dispatcherType;
+		private final int hashCode;
+		private final String path;
+
+	}
+
+	private final ConcurrentMap<Key, Entry> entries =
+		new ConcurrentHashMap<Key, Entry>();
+	private final ReentrantLock evictionLock = new ReentrantLock();
+	private final AtomicLong evictions = new AtomicLong();
+	private final AtomicLong generation = new AtomicLong();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong invalidations = new AtomicLong();
+	private final int maxSize;
+	private final AtomicLong misses = new AtomicLong();
+
+}
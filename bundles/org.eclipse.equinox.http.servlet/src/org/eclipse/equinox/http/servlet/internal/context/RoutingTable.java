@@ -0,0 +1,563 @@
+/*******************************************************************************
+ * Copyright (c) 2015 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ ******************************************************************************/
+
+package org.eclipse.equinox.http.servlet.internal.context;
+
+import java.util.*;
+import org.eclipse.equinox.http.servlet.internal.registration.*;
+import org.eclipse.equinox.http.servlet.internal.servlet.Match;
+import org.eclipse.equinox.http.servlet.internal.util.Const;
+
+/**
+ * The patterns of the servlets, resources and filters of a context, compiled for
+ * lookup. A routing table is immutable; the context controller builds a new one
+ * whenever its registrations change.
+ * <p>
+ * Path patterns are kept in a trie of path segments, so finding the registrations
+ * matching a request URI takes a time proportional to the length of the URI rather
+ * than to the number of registrations. Extension patterns and names are kept in
+ * hash maps. The lookups give the same results as
+ * {@link MatchableRegistration#match(String, String, String, String, Match)}
+ * tried on every registration, prefix by prefix.
+ * </p>
+ */
+public class RoutingTable {
+
+	public static final RoutingTable EMPTY = new RoutingTable(
+		Collections.<EndpointRegistration<?>>emptyList(),
+		Collections.<FilterRegistration>emptyList());
+
+	/**
+	 * An endpoint matched by a request.
+	 */
+	public static class Route {
+
+		Route(
+			EndpointRegistration<?> endpointRegistration, String pattern,
+			String servletPath, String pathInfo) {
+
+			this.endpointRegistration = endpointRegistration;
+			this.pattern = pattern;
+			this.servletPath = servletPath;
+			this.pathInfo = pathInfo;
+		}
+
+		public EndpointRegistration<?> getEndpointRegistration() {
+			return endpointRegistration;
+		}
+
+		public String getPathInfo() {
+			return pathInfo;
+		}
+
+		public String getPattern() {
+			return pattern;
+		}
+
+		public String getServletPath() {
+			return servletPath;
+		}
+
+		private final EndpointRegistration<?> endpointRegistration;
+		private final String pathInfo;
+		private final String pattern;
+		private final String servletPath;
+
+	}
+
+	/**
+	 * @param endpointRegistrations the endpoints, in the order they are matched in
+	 * @param filterRegistrations the filters
+	 */
+	public RoutingTable(
+		Collection<EndpointRegistration<?>> endpointRegistrations,
+		Collection<FilterRegistration> filterRegistrations) {
+
+		for (EndpointRegistration<?> endpointRegistration : endpointRegistrations) {
+			addEndpoint(endpointRegistration);
+		}
+
+		for (FilterRegistration filterRegistration : filterRegistrations) {
+			addFilter(filterRegistration);
+		}
+
+		hasFilters = !filterRegistrations.isEmpty();
+	}
+
+	/**
+	 * Finds the endpoint of a request URI. The prefixes of the URI are tried from
+	 * the longest to the shortest when the match is {@link Match#REGEX}.
+	 *
+	 * @param requestURI the request URI, relative to the context path
+	 * @param extension the extension of the request URI, for {@link Match#EXTENSION}
+	 * @param match the kind of match
+	 * @return the route of the endpoint, or <code>null</code>
+	 */
+	public Route findEndpoint(
+		String requestURI, String extension, Match match) {
+
+		switch (match) {
+			case EXACT :
+				return route(exactEndpoints.get(requestURI), requestURI, null);
+
+			case EXTENSION :
+				if (extension == null) {
+					return null;
+				}
+
+				return route(
+					extensionEndpoints.get(extension), requestURI, null);
+
+			case REGEX :
+				Node node = endpointTrie;
+				Node deepest = null;
+				int deepestEnd = -1;
+				int start = 0;
+
+				while (node != null) {
+					int end = requestURI.indexOf('/', start);
+
+					if (end == -1) {
+						end = requestURI.length();
+					}
+
+					node = node.getChild(requestURI.substring(start, end));
+
+					if ((node != null) && (node.endpoint != null)) {
+						deepest = node;
+						deepestEnd = end;
+					}
+
+					if (end == requestURI.length()) {
+						break;
+					}
+
+					start = end + 1;
+				}
+
+				if (deepest == null) {
+					return null;
+				}
+
+				if (deepestEnd == requestURI.length()) {
+					return route(deepest.endpoint, requestURI, null);
+				}
+
+				return route(
+					deepest.endpoint, requestURI.substring(0, deepestEnd),
+					requestURI.substring(deepestEnd));
+
+			case DEFAULT_SERVLET :
+				return route(defaultEndpoint, Const.SLASH, requestURI);
+
+			default :
+				return null;
+		}
+	}
+
+	/**
+	 * Finds the endpoint of a servlet name, or of a servlet path and path info
+	 * when the name is <code>null</code>.
+	 *
+	 * @return the route of the endpoint, or <code>null</code>
+	 */
+	public Route findEndpoint(
+		String servletName, String servletPath, String pathInfo,
+		String extension, Match match) {
+
+		if (servletName != null) {
+			EndpointRegistration<?> endpointRegistration = namedEndpoints.get(
+				servletName);
+
+			if (endpointRegistration == null) {
+				return null;
+			}
+
+			return new Route(
+				endpointRegistration, servletName, servletPath, pathInfo);
+		}
+
+		PatternEntry entry = null;
+
+		switch (match) {
+			case EXACT :
+				entry = exactEndpoints.get(servletPath);
+				break;
+
+			case EXTENSION :
+				if (extension != null) {
+					entry = extensionEndpoints.get(extension);
+				}
+
+				break;
+
+			case REGEX :
+				Node node = endpointTrie.find(servletPath);
+
+				if (node != null) {
+					entry = node.endpoint;
+				}
+
+				break;
+
+			case DEFAULT_SERVLET :
+				entry = defaultEndpoint;
+				break;
+		}
+
+		return route(entry, servletPath, pathInfo);
+	}
+
+	/**
+	 * Collects the filters matching a servlet name, or a request URI when the
+	 * name is <code>null</code>.
+	 *
+	 * @param servletName the servlet name, or <code>null</code>
+	 * @param requestURI the request URI, relative to the context path
+	 * @param matchingFilterRegistrations collects the filters
+	 */
+	public void collectFilters(
+		String servletName, String requestURI,
+		List<FilterRegistration> matchingFilterRegistrations) {
+
+		if (servletName != null) {
+			addAll(namedFilters.get(servletName), matchingFilterRegistrations);
+
+			return;
+		}
+
+		if (requestURI == null) {
+			return;
+		}
+
+		// exact and wildcard patterns, for every prefix of the request URI
+		Node node = filterTrie;
+		int start = 0;
+
+		while (node != null) {
+			int end = requestURI.indexOf('/', start);
+
+			if (end == -1) {
+				end = requestURI.length();
+			}
+
+			node = node.getChild(requestURI.substring(start, end));
+
+			if (node != null) {
+				addAll(node.filters, matchingFilterRegistrations);
+			}
+
+			if (end == requestURI.length()) {
+				break;
+			}
+
+			start = end + 1;
+		}
+
+		int dot = requestURI.lastIndexOf('.');
+
+		if (dot != -1) {
+			addAll(
+				extensionFilters.get(requestURI.substring(dot + 1)),
+				matchingFilterRegistrations);
+		}
+
+		addAll(defaultFilters, matchingFilterRegistrations);
+	}
+
+	public boolean hasFilters() {
+		return hasFilters;
+	}
+
+	private void addAll(
+		List<FilterRegistration> filterRegistrations,
+		List<FilterRegistration> matchingFilterRegistrations) {
+
+		if (filterRegistrations == null) {
+			return;
+		}
+
+		for (FilterRegistration filterRegistration : filterRegistrations) {
+			if (!matchingFilterRegistrations.contains(filterRegistration)) {
+				matchingFilterRegistrations.add(filterRegistration);
+			}
+		}
+	}
+
+	private void addEndpoint(EndpointRegistration<?> endpointRegistration) {
+		for (String name : endpointRegistration.getNames()) {
+			if ((name != null) && !namedEndpoints.containsKey(name)) {
+				namedEndpoints.put(name, endpointRegistration);
+			}
+		}
+
+		String[] patterns = endpointRegistration.getPatterns();
+
+		if (patterns == null) {
+			return;
+		}
+
+		// the first registration, then its first pattern, wins
+		for (String pattern : patterns) {
+			PatternEntry entry = new PatternEntry(endpointRegistration, pattern);
+
+			if (!exactEndpoints.containsKey(pattern)) {
+				exactEndpoints.put(pattern, entry);
+			}
+
+			String extension = getExtension(pattern);
+
+			if ((extension != null) &&
+				!extensionEndpoints.containsKey(extension)) {
+
+				extensionEndpoints.put(extension, entry);
+			}
+
+			if (isDefault(pattern) && (defaultEndpoint == null)) {
+				defaultEndpoint = entry;
+			}
+
+			String wildcardPattern = pattern;
+
+			if (endpointRegistration.isLegacyMatching() &&
+				!pattern.endsWith(Const.SLASH_STAR)) {
+
+				wildcardPattern = pattern + Const.SLASH_STAR;
+			}
+
+			String prefix = getWildcardPrefix(wildcardPattern);
+
+			if (prefix != null) {
+				Node node = endpointTrie.add(prefix);
+
+				if (node.endpoint == null) {
+					node.endpoint = new PatternEntry(
+						endpointRegistration, wildcardPattern);
+				}
+			}
+		}
+	}
+
+	private void addFilter(FilterRegistration filterRegistration) {
+		String[] servletNames = filterRegistration.getD().servletNames;
+
+		if (servletNames != null) {
+			for (String servletName : servletNames) {
+				add(namedFilters, servletName, filterRegistration);
+			}
+		}
+
+		String[] patterns = filterRegistration.getD().patterns;
+
+		if (patterns == null) {
+			return;
+		}
+
+		for (String pattern : patterns) {
+			add(filterTrie.add(pattern), filterRegistration);
+
+			String extension = getExtension(pattern);
+
+			if (extension != null) {
+				add(extensionFilters, extension, filterRegistration);
+			}
+
+			if (isDefault(pattern)) {
+				if (!defaultFilters.contains(filterRegistration)) {
+					defaultFilters.add(filterRegistration);
+				}
+			}
+
+			String prefix = getWildcardPrefix(pattern);
+
+			if (prefix != null) {
+				add(filterTrie.add(prefix), filterRegistration);
+			}
+		}
+	}
+
+	private void add(
+		Map<String, List<FilterRegistration>> map, String key,
+		FilterRegistration filterRegistration) {
+
+		List<FilterRegistration> filterRegistrations = map.get(key);
+
+		if (filterRegistrations == null) {
+			filterRegistrations = new ArrayList<FilterRegistration>();
+
+			map.put(key, filterRegistrations);
+		}
+
+		if (!filterRegistrations.contains(filterRegistration)) {
+			filterRegistrations.add(filterRegistration);
+		}
+	}
+
+	private void add(Node node, FilterRegistration filterRegistration) {
+		if (node.filters == null) {
+			node.filters = new ArrayList<FilterRegistration>();
+		}
+
+		if (!node.filters.contains(filterRegistration)) {
+			node.filters.add(filterRegistration);
+		}
+	}
+
+	private Route route(
+		PatternEntry entry, String servletPath, String pathInfo) {
+
+		if (entry == null) {
+			return null;
+		}
+
+		return new Route(
+			entry.endpointRegistration, entry.pattern, servletPath, pathInfo);
+	}
+
+	// "*.ext" and "/*.ext" match the extension "ext"
+	private static String getExtension(String pattern) {
+		if (pattern.startsWith("/*.")) { //$NON-NLS-1$
+			pattern = pattern.substring(1);
+		}
+
+		if (pattern.startsWith("*.")) { //$NON-NLS-1$
+			return pattern.substring(2);
+		}
+
+		return null;
+	}
+
+	private static boolean isDefault(String pattern) {
+		return pattern.equals(Const.SLASH);
+	}
+
+	// "/path/*" matches the servlet path "/path"; "/*" matches ""
+	private static String getWildcardPrefix(String pattern) {
+		if (pattern.startsWith("/*.") || !pattern.startsWith(Const.SLASH) || //$NON-NLS-1$
+			!pattern.endsWith(Const.SLASH_STAR)) {
+
+			return null;
+		}
+
+		return pattern.substring(0, pattern.length() - 2);
+	}
+
+	private static class PatternEntry {
+
+		PatternEntry(
+			EndpointRegistration<?> endpointRegistration, String pattern) {
+
+			this.endpointRegistration = endpointRegistration;
+			this.pattern = pattern;
+		}
+
+		final EndpointRegistration<?> endpointRegistration;
+		final String pattern;
+
+	}
+
+	/**
+	 * A node of the trie of path segments. The node of a path is reached by
+	 * following its segments, the text between the slashes, from the root;
+	 * the path "" is the child "" of the root and "/a" is the child "a" of "".
+	 */
+	private static class Node {
+
+		Node add(String path) {
+			Node node = this;
+			int start = 0;
+
+			while (true) {
+				int end = path.indexOf('/', start);
+
+				if (end == -1) {
+					end = path.length();
+				}
+
+				String segment = path.substring(start, end);
+
+				if (node.children == null) {
+					node.children = new HashMap<String, Node>();
+				}
+
+				Node child = node.children.get(segment);
+
+				if (child == null) {
+					child = new Node();
+
+					node.children.put(segment, child);
+				}
+
+				node = child;
+
+				if (end == path.length()) {
+					return node;
+				}
+
+				start = end + 1;
+			}
+		}
+
+		Node find(String path) {
+			Node node = this;
+			int start = 0;
+
+			while (node != null) {
+				int end = path.indexOf('/', start);
+
+				if (end == -1) {
+					end = path.length();
+				}
+
+				node = node.getChild(path.substring(start, end));
+
+				if (end == path.length()) {
+					return node;
+				}
+
+				start = end + 1;
+			}
+
+			return null;
+		}
+
+		Node getChild(String segment) {
+			if (children == null) {
+				return null;
+			}
+
+			return children.get(segment);
+		}
+
+		Map<String, Node> children;
+		PatternEntry endpoint;
+		List<FilterRegistration> filters;
+
+	}
+
+	private PatternEntry defaultEndpoint;
+	private final List<FilterRegistration> defaultFilters =
+		new ArrayList<FilterRegistration>();
+	private final Node endpointTrie = new Node();
+	private final Map<String, PatternEntry> exactEndpoints =
+		new HashMap<String, PatternEntry>();
+	private final Map<String, PatternEntry> extensionEndpoints =
+		new HashMap<String, PatternEntry>();
+	private final Map<String, List<FilterRegistration>> extensionFilters =
+		new HashMap<String, List<FilterRegistration>>();
+	private final Node filterTrie = new Node();
+	private final boolean hasFilters;
+	private final Map<String, EndpointRegistration<?>> namedEndpoints =
+		new HashMap<String, EndpointRegistration<?>>();
+	private final Map<String, List<FilterRegistration>> namedFilters =
+		new HashMap<String, List<FilterRegistration>>();
+
+}
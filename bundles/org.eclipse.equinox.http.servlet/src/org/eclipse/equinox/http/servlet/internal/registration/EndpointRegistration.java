@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2014 Raymond Augé and others.
+ * Copyright (c) 2014, 2015 Raymond Augé and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -12,6 +12,8 @@
 package org.eclipse.equinox.http.servlet.internal.registration;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
 import javax.servlet.*;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -52,7 +54,7 @@ public abstract class EndpointRegistration<D extends DTO>
 		try {
 			Thread.currentThread().setContextClassLoader(classLoader);
 
-			contextController.getEndpointRegistrations().remove(this);
+			contextController.removeEndpointRegistration(this);
 			contextController.getHttpServiceRuntime().getRegisteredObjects().remove(this.getT());
 			contextController.ungetServletContextHelper(servletHolder.getBundle());
 
@@ -103,6 +105,13 @@ public abstract class EndpointRegistration<D extends DTO>
 
 	public abstract String getName();
 
+	/**
+	 * Returns the names this registration is dispatched to by name.
+	 */
+	public List<String> getNames() {
+		return Collections.singletonList(getName());
+	}
+
 	public abstract String[] getPatterns();
 
 	public abstract long getServiceId();
@@ -115,6 +124,10 @@ public abstract class EndpointRegistration<D extends DTO>
 		return servletContextHelper;
 	}
 
+	public boolean isLegacyMatching() {
+		return legacyMatching;
+	}
+
 	@Override
 	public String match(
 		String name, String servletPath, String pathInfo, String extension,
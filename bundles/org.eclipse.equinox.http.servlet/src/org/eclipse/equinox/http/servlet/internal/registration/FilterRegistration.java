@@ -81,7 +81,7 @@ public class FilterRegistration
 		try {
 			Thread.currentThread().setContextClassLoader(classLoader);
 			contextController.getHttpServiceRuntime().getRegisteredObjects().remove(this.getT());
-			contextController.getFilterRegistrations().remove(this);
+			contextController.removeFilterRegistration(this);
 			contextController.ungetServletContextHelper(filterHolder.getBundle());
 			super.destroy();
 			getT().destroy();
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2005, 2014 Cognos Incorporated, IBM Corporation and others
+ * Copyright (c) 2005, 2015 Cognos Incorporated, IBM Corporation and others
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -12,6 +12,8 @@
  *******************************************************************************/
 package org.eclipse.equinox.http.servlet.internal.registration;
 
+import java.util.ArrayList;
+import java.util.List;
 import javax.servlet.Servlet;
 import org.eclipse.equinox.http.servlet.internal.context.ContextController;
 import org.eclipse.equinox.http.servlet.internal.context.ContextController.ServiceHolder;
@@ -42,6 +44,27 @@ public class ServletRegistration extends EndpointRegistration<ServletDTO> {
 		return getD().name;
 	}
 
+	@Override
+	public List<String> getNames() {
+		if (errorPageDTO == null) {
+			return super.getNames();
+		}
+
+		List<String> names = new ArrayList<String>();
+
+		for (long errorCode : errorPageDTO.errorCodes) {
+			names.add(String.valueOf(errorCode));
+		}
+
+		for (String exception : errorPageDTO.exceptions) {
+			names.add(exception);
+		}
+
+		names.add(getName());
+
+		return names;
+	}
+
 	@Override
 	public String[] getPatterns() {
 		return getD().patterns;
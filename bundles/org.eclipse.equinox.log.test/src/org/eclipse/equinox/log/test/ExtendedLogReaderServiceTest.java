@@ -1,5 +1,7 @@
 package org.eclipse.equinox.log.test;
 
+import java.util.ArrayList;
+import java.util.List;
 import junit.framework.TestCase;
 import org.eclipse.equinox.log.*;
 import org.osgi.framework.Bundle;
@@ -8,6 +10,11 @@ import org.osgi.service.log.*;
 
 public class ExtendedLogReaderServiceTest extends TestCase {
 
+	private static final String PROP_LISTENER_THREADS = "org.eclipse.equinox.log.listener.threads";
+	private static final String PROP_LISTENER_QUEUE_SIZE = "org.eclipse.equinox.log.listener.queueSize";
+	private static final String PROP_LISTENER_OVERFLOW = "org.eclipse.equinox.log.listener.overflow";
+	private static final String QUEUE_LOGGER = "queue";
+
 	private ExtendedLogService log;
 	private ServiceReference logReference;
 	private ExtendedLogReaderService reader;
@@ -145,4 +152,153 @@ public class ExtendedLogReaderServiceTest extends TestCase {
 		assertTrue(listener.getEntryX().getContext() == logReference);
 		assertTrue(listener.getEntryX().getSequenceNumber() > sequenceNumberBefore);
 	}
+
+	public void testOverflowBlock() throws Exception {
+		restartWithListenerQueues(1, 3, "block");
+		QueueListener listener = new QueueListener(true);
+		reader.addLogListener(listener, listener);
+		Logger logger = log.getLogger(QUEUE_LOGGER);
+
+		// the first entry holds the delivery thread, the next three fill the queue
+		logger.log(LogService.LOG_INFO, "0");
+		listener.awaitMessages(1);
+		for (int i = 1; i <= 3; i++)
+			logger.log(LogService.LOG_INFO, String.valueOf(i));
+
+		Thread blocked = new Thread(new Runnable() {
+			public void run() {
+				log.getLogger(QUEUE_LOGGER).log(LogService.LOG_INFO, "4");
+			}
+		});
+		blocked.start();
+		blocked.join(500);
+		assertTrue("The logging thread must wait for room in the queue", blocked.isAlive());
+
+		listener.release();
+		blocked.join(10000);
+		assertFalse(blocked.isAlive());
+		assertEquals(new String[] {"0", "1", "2", "3", "4"}, listener.awaitMessages(5));
+	}
+
+	public void testOverflowDropOldest() throws Exception {
+		restartWithListenerQueues(1, 3, "dropOldest");
+		QueueListener listener = new QueueListener(true);
+		reader.addLogListener(listener, listener);
+		Logger logger = log.getLogger(QUEUE_LOGGER);
+
+		logger.log(LogService.LOG_INFO, "0");
+		listener.awaitMessages(1);
+		for (int i = 1; i <= 9; i++)
+			logger.log(LogService.LOG_INFO, String.valueOf(i));
+
+		listener.release();
+		assertEquals(new String[] {"0", "7", "8", "9"}, listener.awaitMessages(4));
+	}
+
+	public void testOverflowDropDebug() throws Exception {
+		restartWithListenerQueues(1, 3, "dropDebug");
+		QueueListener listener = new QueueListener(true);
+		reader.addLogListener(listener, listener);
+		Logger logger = log.getLogger(QUEUE_LOGGER);
+
+		logger.log(LogService.LOG_INFO, "0");
+		listener.awaitMessages(1);
+		logger.log(LogService.LOG_INFO, "1");
+		logger.log(LogService.LOG_DEBUG, "2");
+		logger.log(LogService.LOG_INFO, "3");
+		// the queued debug entry makes room
+		logger.log(LogService.LOG_INFO, "4");
+		// a new debug entry is discarded when no debug entry is queued
+		logger.log(LogService.LOG_DEBUG, "5");
+		// the oldest entry makes room when no debug entry is queued
+		logger.log(LogService.LOG_INFO, "6");
+
+		listener.release();
+		assertEquals(new String[] {"0", "3", "4", "6"}, listener.awaitMessages(4));
+	}
+
+	public void testListenerOrderWithSharedThreads() throws Exception {
+		restartWithListenerQueues(2, 10000, "block");
+		QueueListener[] listeners = new QueueListener[5];
+		for (int i = 0; i < listeners.length; i++) {
+			listeners[i] = new QueueListener(false);
+			reader.addLogListener(listeners[i], listeners[i]);
+		}
+
+		// more entries than a drain task delivers before yielding to the other queues
+		String[] expected = new String[1000];
+		Logger logger = log.getLogger(QUEUE_LOGGER);
+		for (int i = 0; i < expected.length; i++) {
+			expected[i] = String.valueOf(i);
+			logger.log(LogService.LOG_INFO, expected[i]);
+		}
+
+		for (int i = 0; i < listeners.length; i++)
+			assertEquals(expected, listeners[i].awaitMessages(expected.length));
+	}
+
+	private void restartWithListenerQueues(int threads, int queueSize, String overflow) throws Exception {
+		tearDown();
+		System.setProperty(PROP_LISTENER_THREADS, String.valueOf(threads));
+		System.setProperty(PROP_LISTENER_QUEUE_SIZE, String.valueOf(queueSize));
+		System.setProperty(PROP_LISTENER_OVERFLOW, overflow);
+		try {
+			setUp();
+		} finally {
+			System.getProperties().remove(PROP_LISTENER_THREADS);
+			System.getProperties().remove(PROP_LISTENER_QUEUE_SIZE);
+			System.getProperties().remove(PROP_LISTENER_OVERFLOW);
+		}
+	}
+
+	private static void assertEquals(String[] expected, String[] actual) {
+		assertEquals(expected.length, actual.length);
+		for (int i = 0; i < expected.length; i++)
+			assertEquals("Entry " + i, expected[i], actual[i]);
+	}
+
+	/**
+	 * Records the messages of the queue logger, optionally holding the delivery
+	 * thread in the first call until released.
+	 */
+	static class QueueListener implements LogListener, LogFilter {
+		private final List messages = new ArrayList();
+		private boolean hold;
+
+		QueueListener(boolean hold) {
+			this.hold = hold;
+		}
+
+		public boolean isLoggable(Bundle b, String loggerName, int logLevel) {
+			return QUEUE_LOGGER.equals(loggerName);
+		}
+
+		public synchronized void logged(LogEntry entry) {
+			messages.add(entry.getMessage());
+			notifyAll();
+			while (hold) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		}
+
+		synchronized void release() {
+			hold = false;
+			notifyAll();
+		}
+
+		synchronized String[] awaitMessages(int count) throws InterruptedException {
+			long end = System.currentTimeMillis() + 10000;
+			while (messages.size() < count) {
+				long remaining = end - System.currentTimeMillis();
+				if (remaining <= 0)
+					fail("Received " + messages.size() + " of " + count + " entries");
+				wait(remaining);
+			}
+			return (String[]) messages.toArray(new String[messages.size()]);
+		}
+	}
 }
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2007, 2009 IBM Corporation and others All rights reserved. This
+ * Copyright (c) 2007, 2015 IBM Corporation and others All rights reserved. This
  * program and the accompanying materials are made available under the terms of
  * the Eclipse Public License v1.0 which accompanies this distribution, and is
  * available at http://www.eclipse.org/legal/epl-v10.html
@@ -8,17 +8,24 @@
  *******************************************************************************/
 package org.eclipse.equinox.log.test;
 
+import java.util.Enumeration;
 import junit.framework.TestCase;
 
 import org.eclipse.equinox.log.ExtendedLogReaderService;
 import org.eclipse.equinox.log.ExtendedLogService;
 import org.eclipse.equinox.log.LogFilter;
+import org.eclipse.equinox.log.Logger;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.ServiceReference;
+import org.osgi.service.log.LogEntry;
 import org.osgi.service.log.LogService;
 
 public class ExtendedLogServiceTest extends TestCase {
 
+	private static final String PROP_HISTORY_SIZE = "org.eclipse.equinox.log.history.size"; //$NON-NLS-1$
+	private static final String PROP_HISTORY_LEVEL = "org.eclipse.equinox.log.history.level"; //$NON-NLS-1$
+	private static final String PROP_HISTORY_BUNDLES = "org.eclipse.equinox.log.history.bundles"; //$NON-NLS-1$
+
 	private Bundle bundle;
 	private Bundle logBundle;
 	private ExtendedLogService log;
@@ -192,4 +199,101 @@ public class ExtendedLogServiceTest extends TestCase {
 		if (log.getLogger("test").isLoggable(LogService.LOG_INFO))
 			fail();
 	}
+
+	public void testLoggerIsLoggableAfterFilterChange() throws Exception {
+		Logger logger = log.getLogger("test"); //$NON-NLS-1$
+		if (!logger.isLoggable(LogService.LOG_DEBUG))
+			fail();
+
+		reader.addLogListener(listener, new LogFilter() {
+
+			public boolean isLoggable(Bundle b, String loggerName, int logLevel) {
+				return logLevel <= LogService.LOG_WARNING;
+			}
+		});
+		if (logger.isLoggable(LogService.LOG_DEBUG))
+			fail();
+		if (!logger.isLoggable(LogService.LOG_WARNING))
+			fail();
+
+		reader.removeLogListener(listener);
+		if (logger.isLoggable(LogService.LOG_ERROR))
+			fail();
+
+		reader.addLogListener(listener);
+		if (!logger.isLoggable(LogService.LOG_DEBUG))
+			fail();
+	}
+
+	public void testLoggerIsLoggableWithChangingFilter() throws Exception {
+		final boolean[] debug = new boolean[] {false};
+		reader.addLogListener(listener, new LogFilter() {
+
+			public boolean isLoggable(Bundle b, String loggerName, int logLevel) {
+				return logLevel <= LogService.LOG_INFO || debug[0];
+			}
+		});
+		Logger logger = log.getLogger("test"); //$NON-NLS-1$
+		if (logger.isLoggable(LogService.LOG_DEBUG))
+			fail();
+
+		// filters may change their answer without being added again
+		debug[0] = true;
+		if (!logger.isLoggable(LogService.LOG_DEBUG))
+			fail();
+		synchronized (listener) {
+			logger.log(LogService.LOG_DEBUG, "debug"); //$NON-NLS-1$
+			listener.wait();
+		}
+		assertEquals("debug", listener.getEntry().getMessage()); //$NON-NLS-1$
+	}
+
+	public void testLogHistoryOrder() throws Exception {
+		restartWithHistory(10, LogService.LOG_DEBUG);
+		for (int i = 0; i < 5; i++)
+			log.log(LogService.LOG_INFO, String.valueOf(i));
+
+		assertHistory(new String[] {"4", "3", "2", "1", "0"}); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+	}
+
+	public void testLogHistorySize() throws Exception {
+		restartWithHistory(5, LogService.LOG_DEBUG);
+		for (int i = 0; i < 23; i++)
+			log.log(LogService.LOG_INFO, String.valueOf(i));
+
+		assertHistory(new String[] {"22", "21", "20", "19", "18"}); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+	}
+
+	public void testLogHistoryLevel() throws Exception {
+		restartWithHistory(5, LogService.LOG_WARNING);
+		// only one entry out of ten is kept
+		for (int i = 0; i < 100; i++)
+			log.log((i % 10 == 0) ? LogService.LOG_WARNING : LogService.LOG_DEBUG, String.valueOf(i));
+
+		assertHistory(new String[] {"90", "80", "70", "60", "50"}); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+	}
+
+	private void restartWithHistory(int size, int level) throws Exception {
+		tearDown();
+		System.setProperty(PROP_HISTORY_SIZE, String.valueOf(size));
+		System.setProperty(PROP_HISTORY_LEVEL, String.valueOf(level));
+		// keep the entries of the framework and other bundles out of the history
+		System.setProperty(PROP_HISTORY_BUNDLES, bundle.getSymbolicName());
+		try {
+			setUp();
+		} finally {
+			System.getProperties().remove(PROP_HISTORY_SIZE);
+			System.getProperties().remove(PROP_HISTORY_LEVEL);
+			System.getProperties().remove(PROP_HISTORY_BUNDLES);
+		}
+	}
+
+	private void assertHistory(String[] expected) {
+		Enumeration history = reader.getLog();
+		for (int i = 0; i < expected.length; i++) {
+			assertTrue("Missing entry: " + expected[i], history.hasMoreElements()); //$NON-NLS-1$
+			assertEquals(expected[i], ((LogEntry) history.nextElement()).getMessage());
+		}
+		assertFalse(history.hasMoreElements());
+	}
 }
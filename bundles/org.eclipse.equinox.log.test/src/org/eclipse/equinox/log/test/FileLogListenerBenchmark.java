@@ -0,0 +1,137 @@
+/*******************************************************************************
+ * Copyright (c) 2015 IBM Corporation and others All rights reserved. This
+ * program and the accompanying materials are made available under the terms of
+ * the Eclipse Public License v1.0 which accompanies this distribution, and is
+ * available at http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors: IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.log.test;
+
+import java.io.*;
+import junit.framework.TestCase;
+import org.eclipse.equinox.log.*;
+import org.eclipse.equinox.log.internal.FileLogListener;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.log.*;
+
+/**
+ * Compares the throughput of the FileLogListener with a listener writing each entry
+ * to a file as it is delivered by the log reader service. Not part of AllTests;
+ * run it on its own to print the results.
+ */
+public class FileLogListenerBenchmark extends TestCase {
+
+	private static final int ENTRIES = 200000;
+	private static final int THREADS = 4;
+
+	private ExtendedLogService log;
+	private ServiceReference logReference;
+	private ExtendedLogReaderService reader;
+	private ServiceReference readerReference;
+	private File file;
+
+	public FileLogListenerBenchmark(String name) {
+		super(name);
+	}
+
+	protected void setUp() throws Exception {
+		Activator.getBundle("org.eclipse.equinox.log").start(); //$NON-NLS-1$
+		logReference = Activator.getBundleContext().getServiceReference(ExtendedLogService.class.getName());
+		readerReference = Activator.getBundleContext().getServiceReference(ExtendedLogReaderService.class.getName());
+
+		log = (ExtendedLogService) Activator.getBundleContext().getService(logReference);
+		reader = (ExtendedLogReaderService) Activator.getBundleContext().getService(readerReference);
+		file = File.createTempFile("benchmark", ".log"); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	protected void tearDown() throws Exception {
+		Activator.getBundleContext().ungetService(logReference);
+		Activator.getBundleContext().ungetService(readerReference);
+		Activator.getBundle("org.eclipse.equinox.log").stop(); //$NON-NLS-1$
+		file.delete();
+	}
+
+	public void testStreamListener() throws Exception {
+		StreamListener listener = new StreamListener(new FileOutputStream(file));
+		reader.addLogListener(listener, new TestFilter());
+		long time = logEntries();
+		listener.waitFor(ENTRIES);
+		time = System.currentTimeMillis() - time;
+		reader.removeLogListener(listener);
+		listener.close();
+		report("Stream listener", time); //$NON-NLS-1$
+	}
+
+	public void testFileLogListener() throws Exception {
+		FileLogListener listener = new FileLogListener(file, 0, 0, 0, 64 * 1024, 10000);
+		reader.addLogListener(listener, new TestFilter());
+		long time = logEntries();
+		reader.removeLogListener(listener);
+		listener.close();
+		time = System.currentTimeMillis() - time;
+		report("FileLogListener", time); //$NON-NLS-1$
+	}
+
+	private long logEntries() throws InterruptedException {
+		final Logger logger = log.getLogger("benchmark"); //$NON-NLS-1$
+		Thread[] threads = new Thread[THREADS];
+		for (int i = 0; i < THREADS; i++) {
+			threads[i] = new Thread() {
+				public void run() {
+					for (int j = 0; j < ENTRIES / THREADS; j++)
+						logger.log(LogService.LOG_INFO, "benchmark entry"); //$NON-NLS-1$
+				}
+			};
+		}
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < THREADS; i++)
+			threads[i].start();
+		for (int i = 0; i < THREADS; i++)
+			threads[i].join();
+		return start;
+	}
+
+	private void report(String name, long time) {
+		System.out.println(name + ": " + ENTRIES + " entries in " + time + " ms, " + (ENTRIES * 1000L / Math.max(time, 1)) + " entries/s, " + file.length() + " bytes"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+	}
+
+	static class TestFilter implements LogFilter {
+		public boolean isLoggable(Bundle b, String loggerName, int logLevel) {
+			return "benchmark".equals(loggerName); //$NON-NLS-1$
+		}
+	}
+
+	/**
+	 * A listener writing each entry to a stream as it is delivered.
+	 */
+	static class StreamListener implements LogListener {
+		private final Writer writer;
+		private int count;
+
+		StreamListener(OutputStream out) throws IOException {
+			writer = new OutputStreamWriter(out, "UTF-8"); //$NON-NLS-1$
+		}
+
+		public synchronized void logged(LogEntry entry) {
+			try {
+				writer.write(entry.getTime() + " " + entry.getLevel() + " " + entry.getMessage() + "\n"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+				writer.flush();
+			} catch (IOException e) {
+				// count the entry anyway
+			}
+			count++;
+			notifyAll();
+		}
+
+		synchronized void waitFor(int entries) throws InterruptedException {
+			while (count < entries)
+				wait();
+		}
+
+		void close() throws IOException {
+			writer.close();
+		}
+	}
+}
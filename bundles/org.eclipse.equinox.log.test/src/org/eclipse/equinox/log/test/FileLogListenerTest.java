@@ -0,0 +1,82 @@
+/*******************************************************************************
+ * Copyright (c) 2015 IBM Corporation and others All rights reserved. This
+ * program and the accompanying materials are made available under the terms of
+ * the Eclipse Public License v1.0 which accompanies this distribution, and is
+ * available at http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors: IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.log.test;
+
+import java.io.*;
+import junit.framework.TestCase;
+import org.eclipse.equinox.log.internal.ExtendedLogEntryImpl;
+import org.eclipse.equinox.log.internal.FileLogListener;
+import org.osgi.service.log.LogService;
+
+public class FileLogListenerTest extends TestCase {
+
+	private File file;
+
+	public FileLogListenerTest(String name) {
+		super(name);
+	}
+
+	protected void setUp() throws Exception {
+		file = File.createTempFile("filelog", ".log"); //$NON-NLS-1$ //$NON-NLS-2$
+		file.delete();
+	}
+
+	protected void tearDown() throws Exception {
+		for (int i = 0; i < 10; i++)
+			new File(file.getPath() + (i == 0 ? "" : "." + i)).delete(); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	public void testWriteEntries() throws Exception {
+		FileLogListener listener = new FileLogListener(file, 0, 0, 0, 1024, 100);
+		for (int i = 0; i < 1000; i++)
+			listener.logged(new ExtendedLogEntryImpl(null, "test", null, LogService.LOG_INFO, "message " + i, null)); //$NON-NLS-1$ //$NON-NLS-2$
+		listener.close();
+
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8")); //$NON-NLS-1$
+		try {
+			for (int i = 0; i < 1000; i++) {
+				String line = reader.readLine();
+				assertNotNull(line);
+				assertTrue(line, line.indexOf(" INFO test ") > 0); //$NON-NLS-1$
+				assertTrue(line, line.endsWith("message " + i)); //$NON-NLS-1$
+			}
+			assertNull(reader.readLine());
+		} finally {
+			reader.close();
+		}
+	}
+
+	public void testWriteException() throws Exception {
+		FileLogListener listener = new FileLogListener(file, 0, 0, 0, 1024, 100);
+		listener.logged(new ExtendedLogEntryImpl(null, null, null, LogService.LOG_ERROR, "failed", new RuntimeException("expected"))); //$NON-NLS-1$ //$NON-NLS-2$
+		listener.close();
+
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8")); //$NON-NLS-1$
+		try {
+			assertTrue(reader.readLine().endsWith("failed")); //$NON-NLS-1$
+			assertEquals(RuntimeException.class.getName() + ": expected", reader.readLine()); //$NON-NLS-1$
+		} finally {
+			reader.close();
+		}
+	}
+
+	public void testRotationBySize() throws Exception {
+		FileLogListener listener = new FileLogListener(file, 1024, 0, 2, 256, 100);
+		for (int i = 0; i < 1000; i++)
+			listener.logged(new ExtendedLogEntryImpl(null, null, null, LogService.LOG_INFO, "message " + i, null)); //$NON-NLS-1$
+		listener.close();
+
+		assertTrue(file.exists());
+		assertTrue(new File(file.getPath() + ".1").exists()); //$NON-NLS-1$
+		assertTrue(new File(file.getPath() + ".2").exists()); //$NON-NLS-1$
+		assertFalse(new File(file.getPath() + ".3").exists()); //$NON-NLS-1$
+		// a file exceeds the maximum size by at most one entry
+		assertTrue(new File(file.getPath() + ".1").length() < 1024 + 256); //$NON-NLS-1$
+	}
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2006, 2011 Cognos Incorporated, IBM Corporation and others
+ * Copyright (c) 2006, 2015 Cognos Incorporated, IBM Corporation and others
  * All rights reserved. This program and the accompanying materials are made
  * available under the terms of the Eclipse Public License v1.0 which
  * accompanies this distribution, and is available at
@@ -7,6 +7,7 @@
  ******************************************************************************/
 package org.eclipse.equinox.log.internal;
 
+import java.util.*;
 import org.eclipse.equinox.log.ExtendedLogReaderService;
 import org.eclipse.equinox.log.ExtendedLogService;
 import org.osgi.framework.*;
@@ -16,12 +17,32 @@ import org.osgi.service.log.LogService;
 public class Activator implements BundleActivator, BundleListener, FrameworkListener, ServiceListener {
 
 	private static final String EVENT_ADMIN_CLASS = "org.osgi.service.event.EventAdmin"; //$NON-NLS-1$
+	private static final String MANAGED_SERVICE_CLASS = "org.osgi.service.cm.ManagedService"; //$NON-NLS-1$
+	private static final String FILE_CHANNEL_CLASS = "java.nio.channels.FileChannel"; //$NON-NLS-1$
+	// the number of entries kept for LogReaderService.getLog(); 0 keeps no history
+	public static final String PROP_HISTORY_SIZE = "org.eclipse.equinox.log.history.size"; //$NON-NLS-1$
+	// the highest log level kept in the history, defaults to LogService.LOG_DEBUG
+	public static final String PROP_HISTORY_LEVEL = "org.eclipse.equinox.log.history.level"; //$NON-NLS-1$
+	// a comma separated list of the symbolic names of the bundles kept in the history, defaults to all bundles
+	public static final String PROP_HISTORY_BUNDLES = "org.eclipse.equinox.log.history.bundles"; //$NON-NLS-1$
+	// the maximum number of threads delivering entries to asynchronous listeners, defaults to 2
+	public static final String PROP_LISTENER_THREADS = "org.eclipse.equinox.log.listener.threads"; //$NON-NLS-1$
+	// the time in milliseconds after which an idle listener thread ends, defaults to 5000; 0 keeps idle threads.
+	// One thread is always kept until the log bundle stops.
+	public static final String PROP_LISTENER_IDLE_TIMEOUT = "org.eclipse.equinox.log.listener.idleTimeout"; //$NON-NLS-1$
+	// the maximum number of entries queued for an asynchronous listener, defaults to 10000
+	public static final String PROP_LISTENER_QUEUE_SIZE = "org.eclipse.equinox.log.listener.queueSize"; //$NON-NLS-1$
+	// the policy applied when a listener queue is full: block (the default), dropOldest or dropDebug
+	public static final String PROP_LISTENER_OVERFLOW = "org.eclipse.equinox.log.listener.overflow"; //$NON-NLS-1$
+	private static final String OVERFLOW_DROP_OLDEST = "dropOldest"; //$NON-NLS-1$
+	private static final String OVERFLOW_DROP_DEBUG = "dropDebug"; //$NON-NLS-1$
 	private static final String[] LOGSERVICE_CLASSES = {LogService.class.getName(), ExtendedLogService.class.getName()};
 	private static final String[] LOGREADERSERVICE_CLASSES = {LogReaderService.class.getName(), ExtendedLogReaderService.class.getName()};
 
 	private ServiceRegistration logReaderServiceRegistration;
 	private ServiceRegistration logServiceRegistration;
 	private EventAdminAdapter eventAdminAdapter;
+	private FileLogAdapter fileLogAdapter;
 	private volatile ExtendedLogReaderServiceFactory logReaderServiceFactory;
 	private ExtendedLogServiceFactory logServiceFactory;
 
@@ -33,7 +54,10 @@ public class Activator implements BundleActivator, BundleListener, FrameworkList
 				if (provider != null && provider.getBundleId() == 0)
 					return;
 			}
-		logReaderServiceFactory = new ExtendedLogReaderServiceFactory();
+		int threads = getIntProperty(context, PROP_LISTENER_THREADS, 2);
+		int idleTimeout = getIntProperty(context, PROP_LISTENER_IDLE_TIMEOUT, 5000);
+		int queueSize = getIntProperty(context, PROP_LISTENER_QUEUE_SIZE, 10000);
+		logReaderServiceFactory = new ExtendedLogReaderServiceFactory(createLogHistory(context), threads > 0 ? threads : 2, idleTimeout >= 0 ? idleTimeout : 5000, queueSize > 0 ? queueSize : 10000, getOverflowPolicy(context));
 		context.addBundleListener(this);
 		context.addServiceListener(this);
 		context.addFrameworkListener(this);
@@ -42,6 +66,10 @@ public class Activator implements BundleActivator, BundleListener, FrameworkList
 			eventAdminAdapter = new EventAdminAdapter(context, logReaderServiceFactory);
 			eventAdminAdapter.start();
 		}
+		if (checkFileLog()) {
+			fileLogAdapter = new FileLogAdapter(context, logReaderServiceFactory);
+			fileLogAdapter.start();
+		}
 		logServiceFactory = new ExtendedLogServiceFactory(logReaderServiceFactory);
 		context.addBundleListener(logServiceFactory);
 		logReaderServiceRegistration = context.registerService(LOGREADERSERVICE_CLASSES, logReaderServiceFactory, null);
@@ -61,9 +89,58 @@ public class Activator implements BundleActivator, BundleListener, FrameworkList
 			eventAdminAdapter.stop();
 			eventAdminAdapter = null;
 		}
+		if (fileLogAdapter != null) {
+			fileLogAdapter.stop();
+			fileLogAdapter = null;
+		}
 		context.removeFrameworkListener(this);
 		context.removeServiceListener(this);
 		context.removeBundleListener(this);
+		logReaderServiceFactory.shutdown();
+	}
+
+	private static LogHistory createLogHistory(BundleContext context) {
+		int size = getIntProperty(context, PROP_HISTORY_SIZE, 0);
+		if (size <= 0)
+			return null;
+
+		int level = getIntProperty(context, PROP_HISTORY_LEVEL, LogService.LOG_DEBUG);
+		Set bundleNames = null;
+		String bundles = context.getProperty(PROP_HISTORY_BUNDLES);
+		if (bundles != null) {
+			bundleNames = new HashSet();
+			StringTokenizer names = new StringTokenizer(bundles, ","); //$NON-NLS-1$
+			while (names.hasMoreTokens()) {
+				String name = names.nextToken().trim();
+				if (name.length() > 0)
+					bundleNames.add(name);
+			}
+		}
+		return new LogHistory(size, level, bundleNames);
+	}
+
+	private static int getOverflowPolicy(BundleContext context) {
+		String policy = context.getProperty(PROP_LISTENER_OVERFLOW);
+		if (policy != null) {
+			policy = policy.trim();
+			if (OVERFLOW_DROP_OLDEST.equalsIgnoreCase(policy))
+				return ListenerQueue.OVERFLOW_DROP_OLDEST;
+			if (OVERFLOW_DROP_DEBUG.equalsIgnoreCase(policy))
+				return ListenerQueue.OVERFLOW_DROP_DEBUG;
+		}
+		return ListenerQueue.OVERFLOW_BLOCK;
+	}
+
+	private static int getIntProperty(BundleContext context, String key, int defaultValue) {
+		String value = context.getProperty(key);
+		if (value == null)
+			return defaultValue;
+
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
 	}
 
 	private static boolean checkEventAdmin() {
@@ -76,6 +153,17 @@ public class Activator implements BundleActivator, BundleListener, FrameworkList
 		}
 	}
 
+	private static boolean checkFileLog() {
+		// the file log is configured with the optional configuration admin package and needs java.nio
+		try {
+			Class.forName(MANAGED_SERVICE_CLASS);
+			Class.forName(FILE_CHANNEL_CLASS);
+			return true;
+		} catch (ClassNotFoundException e) {
+			return false;
+		}
+	}
+
 	/**
 	 * BundleListener.bundleChanged method.
 	 *
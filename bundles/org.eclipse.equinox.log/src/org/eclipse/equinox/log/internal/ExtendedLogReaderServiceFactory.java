@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2006, 2009 Cognos Incorporated, IBM Corporation and others
+ * Copyright (c) 2006, 2015 Cognos Incorporated, IBM Corporation and others
  * All rights reserved. This program and the accompanying materials are made
  * available under the terms of the Eclipse Public License v1.0 which
  * accompanies this distribution, and is available at
@@ -9,26 +9,25 @@ package org.eclipse.equinox.log.internal;
 
 import java.io.PrintStream;
 import java.util.*;
-import java.util.Map.Entry;
 import org.eclipse.equinox.log.LogFilter;
 import org.eclipse.equinox.log.SynchronousLogListener;
 import org.osgi.framework.*;
 import org.osgi.service.log.LogEntry;
 import org.osgi.service.log.LogListener;
+import org.osgi.service.log.LogService;
 
 public class ExtendedLogReaderServiceFactory implements ServiceFactory {
 
-	static final class LogTask implements Runnable {
-		private final LogEntry logEntry;
-		private final LogListener listener;
+	static final class ListenerEntry {
+		final LogListener listener;
+		final LogFilter filter;
+		// null for a SynchronousLogListener
+		final ListenerQueue queue;
 
-		LogTask(LogEntry logEntry, LogListener listener) {
-			this.logEntry = logEntry;
+		ListenerEntry(LogListener listener, LogFilter filter, ListenerQueue queue) {
 			this.listener = listener;
-		}
-
-		public void run() {
-			safeLogged(listener, logEntry);
+			this.filter = filter;
+			this.queue = queue;
 		}
 	}
 
@@ -49,13 +48,45 @@ public class ExtendedLogReaderServiceFactory implements ServiceFactory {
 	};
 
 	private static final LogFilter[] ALWAYS_LOG = new LogFilter[0];
+	// the loggable levels mask of all the standard levels
+	private static final int ALL_LEVELS = (1 << LogService.LOG_ERROR) | (1 << LogService.LOG_WARNING) | (1 << LogService.LOG_INFO) | (1 << LogService.LOG_DEBUG);
+	/**
+	 * Set in a loggable levels mask when the log filters must be consulted for the levels not in the mask.
+	 */
+	static final int LEVELS_FILTERED = 1 << 31;
+	private static final ListenerEntry[] NO_LISTENERS = new ListenerEntry[0];
+	private static final String LOG_THREAD_NAME = "Equinox Log Thread"; //$NON-NLS-1$
 
 	private static PrintStream errorStream;
 
-	private Map listeners = new HashMap();
-	private LogFilter[] filters = null;
+	// guarded by this; the log path only reads the copy-on-write snapshots below
+	private final Map listeners = new HashMap();
+	private volatile ListenerEntry[] listenerEntries = NO_LISTENERS;
+	private volatile LogFilter[] filters = null;
+	// incremented whenever the filters change to invalidate the loggable levels cached by loggers
+	private volatile int filtersStamp = 0;
+	private final LogHistory history;
+	private final LogTaskExecutor executor;
+	private final int queueSize;
+	private final int overflowPolicy;
+
+	public ExtendedLogReaderServiceFactory() {
+		this(null, 1, 5000, Integer.MAX_VALUE, ListenerQueue.OVERFLOW_BLOCK);
+	}
 
-	private BasicReadWriteLock listenersLock = new BasicReadWriteLock();
+	/**
+	 * @param history the history returned by <code>getLog</code> or <code>null</code> to keep no history
+	 * @param threads the maximum number of threads delivering entries to asynchronous listeners
+	 * @param idleTimeout the time in milliseconds after which an idle delivery thread ends, or 0 to keep idle threads
+	 * @param queueSize the maximum number of entries queued for each asynchronous listener
+	 * @param overflowPolicy the <code>ListenerQueue.OVERFLOW_*</code> policy applied when a listener queue is full
+	 */
+	public ExtendedLogReaderServiceFactory(LogHistory history, int threads, long idleTimeout, int queueSize, int overflowPolicy) {
+		this.history = history;
+		this.executor = new LogTaskExecutor(LOG_THREAD_NAME, threads, idleTimeout);
+		this.queueSize = queueSize;
+		this.overflowPolicy = overflowPolicy;
+	}
 
 	static boolean safeIsLoggable(LogFilter filter, Bundle bundle, String name, int level) {
 		try {
@@ -73,7 +104,7 @@ public class ExtendedLogReaderServiceFactory implements ServiceFactory {
 		return false;
 	}
 
-	private static synchronized PrintStream getErrorStream() {
+	static synchronized PrintStream getErrorStream() {
 		if (errorStream == null)
 			return System.err;
 
@@ -109,75 +140,102 @@ public class ExtendedLogReaderServiceFactory implements ServiceFactory {
 	}
 
 	boolean isLoggable(Bundle bundle, String name, int level) {
-		listenersLock.readLock();
-		try {
-			if (filters == null)
-				return false;
+		if (history != null && history.isLoggable(bundle, level))
+			return true;
+
+		LogFilter[] currentFilters = filters;
+		if (currentFilters == null)
+			return false;
+
+		if (currentFilters == ALWAYS_LOG)
+			return true;
 
-			if (filters == ALWAYS_LOG)
+		int filtersLength = currentFilters.length;
+		for (int i = 0; i < filtersLength; i++) {
+			LogFilter filter = currentFilters[i];
+			if (safeIsLoggable(filter, bundle, name, level))
 				return true;
+		}
+		return false;
+	}
+
+	int getFiltersStamp() {
+		return filtersStamp;
+	}
 
-			int filtersLength = filters.length;
-			for (int i = 0; i < filtersLength; i++) {
-				LogFilter filter = filters[i];
-				if (safeIsLoggable(filter, bundle, name, level))
-					return true;
+	/**
+	 * Returns a bit mask of the standard levels, <code>LOG_ERROR</code> to <code>LOG_DEBUG</code>,
+	 * which are loggable for the bundle without consulting any log filter: the levels kept by the
+	 * history, or all the levels if a listener was added without a filter. {@link #LEVELS_FILTERED}
+	 * is set if the log filters must be consulted for the other levels. Log filters may change their
+	 * answer at any time, so their answers are never part of the mask.
+	 * The mask is cached by loggers until the filters stamp changes.
+	 */
+	int getLoggableLevels(Bundle bundle) {
+		LogFilter[] currentFilters = filters;
+		if (currentFilters == ALWAYS_LOG)
+			return ALL_LEVELS;
+
+		int levels = 0;
+		if (history != null) {
+			for (int level = LogService.LOG_ERROR; level <= LogService.LOG_DEBUG; level++) {
+				if (history.isLoggable(bundle, level))
+					levels |= 1 << level;
 			}
-		} finally {
-			listenersLock.readUnlock();
 		}
-		return false;
+		if (currentFilters != null)
+			levels |= LEVELS_FILTERED;
+		return levels;
 	}
 
 	void log(Bundle bundle, String name, Object context, int level, String message, Throwable exception) {
-		LogEntry logEntry = new ExtendedLogEntryImpl(bundle, name, context, level, message, exception);
-		listenersLock.readLock();
-		try {
-			for (Iterator it = listeners.entrySet().iterator(); it.hasNext();) {
-				Entry entry = (Entry) it.next();
-				Object[] listenerObjects = (Object[]) entry.getValue();
-				LogFilter filter = (LogFilter) listenerObjects[0];
-				if (safeIsLoggable(filter, bundle, name, level)) {
-					LogListener listener = (LogListener) entry.getKey();
-					SerializedTaskQueue taskQueue = (SerializedTaskQueue) listenerObjects[1];
-					if (taskQueue != null) {
-						taskQueue.put(new LogTask(logEntry, listener));
-					} else {
-						// log synchronously
-						safeLogged(listener, logEntry);
-
-					}
+		// the entry is only created once the history or a listener accepts it, so each filter is consulted once
+		ExtendedLogEntryImpl logEntry = null;
+		if (history != null && history.isLoggable(bundle, level)) {
+			logEntry = new ExtendedLogEntryImpl(bundle, name, context, level, message, exception);
+			history.add(logEntry);
+		}
+
+		ListenerEntry[] entries = listenerEntries;
+		for (int i = 0; i < entries.length; i++) {
+			ListenerEntry entry = entries[i];
+			if (safeIsLoggable(entry.filter, bundle, name, level)) {
+				if (logEntry == null)
+					logEntry = new ExtendedLogEntryImpl(bundle, name, context, level, message, exception);
+				if (entry.queue != null) {
+					entry.queue.put(logEntry);
+				} else {
+					// log synchronously
+					safeLogged(entry.listener, logEntry);
 				}
 			}
-		} finally {
-			listenersLock.readUnlock();
 		}
 	}
 
-	void addLogListener(LogListener listener, LogFilter filter) {
-		listenersLock.writeLock();
-		try {
-			Object[] listenerObjects = (Object[]) listeners.get(listener);
-			if (listenerObjects == null) {
-				// Only create a task queue for non-SynchronousLogListeners
-				SerializedTaskQueue taskQueue = (listener instanceof SynchronousLogListener) ? null : new SerializedTaskQueue(listener.toString());
-				listenerObjects = new Object[] {filter, taskQueue};
-			} else if (filter != listenerObjects[0]) {
-				// update the filter
-				listenerObjects[0] = filter;
-			}
-			listeners.put(listener, listenerObjects);
-			recalculateFilters();
-		} finally {
-			listenersLock.writeUnlock();
+	synchronized void addLogListener(LogListener listener, LogFilter filter) {
+		ListenerEntry entry = (ListenerEntry) listeners.get(listener);
+		if (entry == null) {
+			// Only create a queue for non-SynchronousLogListeners
+			ListenerQueue queue = (listener instanceof SynchronousLogListener) ? null : new ListenerQueue(listener, executor, queueSize, overflowPolicy);
+			listeners.put(listener, new ListenerEntry(listener, filter, queue));
+		} else if (filter != entry.filter) {
+			// update the filter
+			listeners.put(listener, new ListenerEntry(listener, filter, entry.queue));
 		}
+		recalculateSnapshots();
+	}
+
+	private void recalculateSnapshots() {
+		recalculateFilters();
+		filtersStamp++;
 	}
 
 	private void recalculateFilters() {
+		listenerEntries = (ListenerEntry[]) listeners.values().toArray(new ListenerEntry[listeners.size()]);
+
 		List filtersList = new ArrayList();
-		for (Iterator it = listeners.values().iterator(); it.hasNext();) {
-			Object[] listenerObjects = (Object[]) it.next();
-			LogFilter filter = (LogFilter) listenerObjects[0];
+		for (int i = 0; i < listenerEntries.length; i++) {
+			LogFilter filter = listenerEntries[i].filter;
 			if (filter == NULL_LOGGER_FILTER) {
 				filters = ALWAYS_LOG;
 				return;
@@ -185,23 +243,30 @@ public class ExtendedLogReaderServiceFactory implements ServiceFactory {
 			filtersList.add(filter);
 		}
 
-		if (filtersList.isEmpty())
+		if (filtersList.isEmpty()) {
 			filters = null;
+			return;
+		}
 
 		filters = (LogFilter[]) filtersList.toArray(new LogFilter[filtersList.size()]);
 	}
 
-	void removeLogListener(LogListener listener) {
-		listenersLock.writeLock();
-		try {
-			listeners.remove(listener);
-			recalculateFilters();
-		} finally {
-			listenersLock.writeUnlock();
-		}
+	synchronized void removeLogListener(LogListener listener) {
+		listeners.remove(listener);
+		recalculateSnapshots();
+	}
+
+	/**
+	 * Ends the delivery threads once the entries queued for asynchronous listeners have been delivered.
+	 */
+	void shutdown() {
+		executor.shutdown();
 	}
 
 	Enumeration getLog() {
-		return EMPTY_ENUMERATION;
+		if (history == null)
+			return EMPTY_ENUMERATION;
+
+		return history.getLog();
 	}
 }
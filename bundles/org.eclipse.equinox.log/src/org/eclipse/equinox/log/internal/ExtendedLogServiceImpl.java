@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2006, 2009 Cognos Incorporated, IBM Corporation and others
+ * Copyright (c) 2006, 2015 Cognos Incorporated, IBM Corporation and others
  * All rights reserved. This program and the accompanying materials are made
  * available under the terms of the Eclipse Public License v1.0 which
  * accompanies this distribution, and is available at
@@ -18,10 +18,13 @@ public class ExtendedLogServiceImpl implements ExtendedLogService {
 	private final ExtendedLogServiceFactory factory;
 	private final Bundle bundle;
 	private HashMap loggerCache = new HashMap();
+	// the logger without a name is used for every call on the log service, avoid the synchronized cache lookup
+	private final Logger defaultLogger;
 
 	public ExtendedLogServiceImpl(ExtendedLogServiceFactory factory, Bundle bundle) {
 		this.factory = factory;
 		this.bundle = bundle;
+		this.defaultLogger = getLogger(null);
 	}
 
 	public void log(int level, String message) {
@@ -37,7 +40,7 @@ public class ExtendedLogServiceImpl implements ExtendedLogService {
 	}
 
 	public void log(ServiceReference sr, int level, String message, Throwable exception) {
-		getLogger(null).log(sr, level, message, exception);
+		defaultLogger.log(sr, level, message, exception);
 	}
 
 	public void log(Object context, int level, String message) {
@@ -45,7 +48,7 @@ public class ExtendedLogServiceImpl implements ExtendedLogService {
 	}
 
 	public void log(Object context, int level, String message, Throwable exception) {
-		getLogger(null).log(context, level, message, exception);
+		defaultLogger.log(context, level, message, exception);
 	}
 
 	public synchronized Logger getLogger(String name) {
@@ -67,11 +70,11 @@ public class ExtendedLogServiceImpl implements ExtendedLogService {
 	}
 
 	public String getName() {
-		return getLogger(null).getName();
+		return defaultLogger.getName();
 	}
 
 	public boolean isLoggable(int level) {
-		return getLogger(null).isLoggable(level);
+		return defaultLogger.isLoggable(level);
 	}
 
 	// package private methods called from Logger
@@ -79,6 +82,16 @@ public class ExtendedLogServiceImpl implements ExtendedLogService {
 		return factory.isLoggable(bundle, name, level);
 	}
 
+	// package private methods called from Logger
+	int getFiltersStamp() {
+		return factory.getFiltersStamp();
+	}
+
+	// package private methods called from Logger
+	int getLoggableLevels() {
+		return factory.getLoggableLevels(bundle);
+	}
+
 	// package private methods called from Logger
 	void log(String name, Object context, int level, String message, Throwable exception) {
 		factory.log(bundle, name, context, level, message, exception);
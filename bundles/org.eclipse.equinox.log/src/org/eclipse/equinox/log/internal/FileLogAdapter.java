@@ -0,0 +1,112 @@
+/*******************************************************************************
+ * Copyright (c) 2015 IBM Corporation and others
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ ******************************************************************************/
+package org.eclipse.equinox.log.internal;
+
+import java.io.File;
+import java.util.Dictionary;
+import java.util.Hashtable;
+import org.eclipse.equinox.log.LogFilter;
+import org.osgi.framework.*;
+import org.osgi.service.cm.ConfigurationException;
+import org.osgi.service.cm.ManagedService;
+import org.osgi.service.log.LogService;
+
+/**
+ * FileLogAdapter manages a {@link FileLogListener} configured with Configuration Admin.
+ * The listener is added while a configuration with a <code>file</code> property exists
+ * for the {@link #PID}.
+ */
+public class FileLogAdapter implements ManagedService {
+
+	public static final String PID = "org.eclipse.equinox.log.file"; //$NON-NLS-1$
+	// the path of the log file; the listener is removed when it is not set
+	public static final String FILE = "file"; //$NON-NLS-1$
+	// the highest level written to the file, defaults to LogService.LOG_INFO
+	public static final String LEVEL = "level"; //$NON-NLS-1$
+	// the size in bytes after which the file is rotated, defaults to 10 MB; 0 does not rotate by size
+	public static final String MAX_SIZE = "maxSize"; //$NON-NLS-1$
+	// the time in milliseconds after which the file is rotated, defaults to 0 which does not rotate by time
+	public static final String ROTATION_INTERVAL = "rotationInterval"; //$NON-NLS-1$
+	// the number of rotated files kept, defaults to 5
+	public static final String MAX_BACKUPS = "maxBackups"; //$NON-NLS-1$
+	// the size in bytes of the write buffer, defaults to 64 KB
+	public static final String BUFFER_SIZE = "bufferSize"; //$NON-NLS-1$
+	// the maximum number of entries waiting to be written, defaults to 10000
+	public static final String QUEUE_SIZE = "queueSize"; //$NON-NLS-1$
+
+	private final BundleContext context;
+	private final ExtendedLogReaderServiceFactory logReaderServiceFactory;
+	private ServiceRegistration registration;
+	private FileLogListener logListener;
+
+	public FileLogAdapter(BundleContext context, ExtendedLogReaderServiceFactory logReaderServiceFactory) {
+		this.context = context;
+		this.logReaderServiceFactory = logReaderServiceFactory;
+	}
+
+	public void start() {
+		Hashtable properties = new Hashtable();
+		properties.put(Constants.SERVICE_PID, PID);
+		registration = context.registerService(ManagedService.class.getName(), this, properties);
+	}
+
+	public void stop() {
+		registration.unregister();
+		registration = null;
+		setLogListener(null, 0);
+	}
+
+	public void updated(Dictionary properties) throws ConfigurationException {
+		if (properties == null || properties.get(FILE) == null) {
+			setLogListener(null, 0);
+			return;
+		}
+
+		File file = new File(properties.get(FILE).toString());
+		int level = (int) getLong(properties, LEVEL, LogService.LOG_INFO);
+		long maxSize = getLong(properties, MAX_SIZE, 10 * 1024 * 1024);
+		long rotationInterval = getLong(properties, ROTATION_INTERVAL, 0);
+		int maxBackups = (int) getLong(properties, MAX_BACKUPS, 5);
+		int bufferSize = (int) getLong(properties, BUFFER_SIZE, 64 * 1024);
+		int queueSize = (int) getLong(properties, QUEUE_SIZE, 10000);
+		if (bufferSize <= 0)
+			throw new ConfigurationException(BUFFER_SIZE, "must be greater than zero"); //$NON-NLS-1$
+		if (queueSize <= 0)
+			throw new ConfigurationException(QUEUE_SIZE, "must be greater than zero"); //$NON-NLS-1$
+
+		setLogListener(new FileLogListener(file, maxSize, rotationInterval, maxBackups, bufferSize, queueSize), level);
+	}
+
+	private synchronized void setLogListener(FileLogListener newListener, final int level) {
+		if (logListener != null) {
+			logReaderServiceFactory.removeLogListener(logListener);
+			logListener.close();
+		}
+		logListener = newListener;
+		if (logListener != null) {
+			logReaderServiceFactory.addLogListener(logListener, new LogFilter() {
+				public boolean isLoggable(Bundle bundle, String loggerName, int logLevel) {
+					return logLevel <= level;
+				}
+			});
+		}
+	}
+
+	private static long getLong(Dictionary properties, String key, long defaultValue) throws ConfigurationException {
+		Object value = properties.get(key);
+		if (value == null)
+			return defaultValue;
+		if (value instanceof Number)
+			return ((Number) value).longValue();
+		try {
+			return Long.parseLong(value.toString().trim());
+		} catch (NumberFormatException e) {
+			throw new ConfigurationException(key, "not a number: " + value); //$NON-NLS-1$
+		}
+	}
+}
@@ -0,0 +1,284 @@
+/*******************************************************************************
+ * Copyright (c) 2015 IBM Corporation and others
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ ******************************************************************************/
+package org.eclipse.equinox.log.internal;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.*;
+import java.text.FieldPosition;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import org.eclipse.equinox.log.ExtendedLogEntry;
+import org.eclipse.equinox.log.SynchronousLogListener;
+import org.osgi.framework.Bundle;
+import org.osgi.service.log.LogEntry;
+import org.osgi.service.log.LogService;
+
+/**
+ * FileLogListener appends log entries to a file.
+ * <p>
+ * The logging thread only queues the entry. A writer thread takes all queued entries
+ * at once, formats them into a reusable buffer and writes the buffer with a
+ * <code>FileChannel</code>, so a burst of entries results in a few large writes.
+ * The file is rotated when it exceeds a maximum size or after a time interval.
+ */
+public class FileLogListener implements SynchronousLogListener {
+
+	private static final String LINE_SEPARATOR = System.getProperty("line.separator", "\n"); //$NON-NLS-1$ //$NON-NLS-2$
+	private static final String WRITER_THREAD_NAME = "Equinox Log File Writer"; //$NON-NLS-1$
+
+	private final File file;
+	private final long maxSize;
+	private final long rotationInterval;
+	private final int maxBackups;
+	private final int queueSize;
+
+	// guarded by this
+	private List pending = new ArrayList();
+	private boolean closed = false;
+
+	// only used by the writer thread
+	private List writing = new ArrayList();
+	private final StringBuffer text = new StringBuffer(256);
+	private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS"); //$NON-NLS-1$
+	private final Date date = new Date();
+	private final FieldPosition datePosition = new FieldPosition(0);
+	private final CharsetEncoder encoder;
+	private final ByteBuffer buffer;
+	private CharBuffer chars = CharBuffer.allocate(256);
+	private FileChannel channel;
+	private long size;
+	private long openTime;
+
+	private final Thread writer;
+
+	/**
+	 * @param file the log file
+	 * @param maxSize the size in bytes after which the file is rotated or 0 to not rotate by size
+	 * @param rotationInterval the time in milliseconds after which the file is rotated or 0 to not rotate by time
+	 * @param maxBackups the number of rotated files kept
+	 * @param bufferSize the size in bytes of the write buffer
+	 * @param queueSize the maximum number of entries waiting to be written; logging threads block when it is reached
+	 */
+	public FileLogListener(File file, long maxSize, long rotationInterval, int maxBackups, int bufferSize, int queueSize) {
+		this.file = file;
+		this.maxSize = maxSize;
+		this.rotationInterval = rotationInterval;
+		this.maxBackups = maxBackups;
+		this.queueSize = queueSize;
+		this.encoder = Charset.forName("UTF-8").newEncoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE); //$NON-NLS-1$
+		this.buffer = ByteBuffer.allocateDirect(bufferSize);
+		this.writer = new Thread(WRITER_THREAD_NAME) {
+			public void run() {
+				writeEntries();
+			}
+		};
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	public void logged(LogEntry entry) {
+		synchronized (this) {
+			while (!closed && pending.size() >= queueSize) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					// reset interrupted state and discard the entry
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+			if (closed)
+				return;
+			pending.add(entry);
+			if (pending.size() == 1)
+				notifyAll();
+		}
+	}
+
+	/**
+	 * Writes the queued entries and closes the file.
+	 */
+	public void close() {
+		synchronized (this) {
+			closed = true;
+			notifyAll();
+		}
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	File getFile() {
+		return file;
+	}
+
+	void writeEntries() {
+		try {
+			while (true) {
+				boolean done;
+				synchronized (this) {
+					while (!closed && pending.isEmpty()) {
+						try {
+							wait();
+						} catch (InterruptedException e) {
+							// ignore -- we control the stack here and do not need to propagate it.
+						}
+					}
+					// swap the lists so logging threads can continue while the batch is written
+					List batch = pending;
+					pending = writing;
+					writing = batch;
+					done = closed;
+					notifyAll();
+				}
+				if (!writing.isEmpty()) {
+					write(writing);
+					writing.clear();
+				}
+				if (done) {
+					synchronized (this) {
+						if (pending.isEmpty())
+							return;
+					}
+				}
+			}
+		} catch (IOException e) {
+			ExtendedLogReaderServiceFactory.getErrorStream().println("Unable to write the log file " + file + ':'); //$NON-NLS-1$
+			e.printStackTrace(ExtendedLogReaderServiceFactory.getErrorStream());
+			synchronized (this) {
+				closed = true;
+				pending.clear();
+				notifyAll();
+			}
+		} finally {
+			closeChannel();
+		}
+	}
+
+	private void write(List entries) throws IOException {
+		if (channel == null)
+			openChannel();
+		else if (rotationInterval > 0 && System.currentTimeMillis() - openTime >= rotationInterval)
+			rotate();
+
+		buffer.clear();
+		for (int i = 0; i < entries.size(); i++) {
+			format((LogEntry) entries.get(i));
+			encode();
+			if (maxSize > 0 && size + buffer.position() >= maxSize) {
+				flush();
+				rotate();
+			}
+		}
+		flush();
+	}
+
+	private void format(LogEntry entry) {
+		text.setLength(0);
+		date.setTime(entry.getTime());
+		dateFormat.format(date, text, datePosition).append(' ');
+		text.append(getLevelName(entry.getLevel())).append(' ');
+		Bundle bundle = entry.getBundle();
+		if (bundle != null) {
+			String name = bundle.getSymbolicName();
+			text.append(name != null ? name : String.valueOf(bundle.getBundleId())).append(' ');
+		}
+		if (entry instanceof ExtendedLogEntry) {
+			ExtendedLogEntry extendedEntry = (ExtendedLogEntry) entry;
+			if (extendedEntry.getLoggerName() != null)
+				text.append(extendedEntry.getLoggerName()).append(' ');
+			text.append('[').append(extendedEntry.getThreadName()).append("] "); //$NON-NLS-1$
+		}
+		text.append(entry.getMessage()).append(LINE_SEPARATOR);
+		Throwable exception = entry.getException();
+		if (exception != null) {
+			StringWriter trace = new StringWriter();
+			PrintWriter printer = new PrintWriter(trace);
+			exception.printStackTrace(printer);
+			printer.flush();
+			text.append(trace.getBuffer());
+		}
+	}
+
+	private static String getLevelName(int level) {
+		switch (level) {
+			case LogService.LOG_ERROR :
+				return "ERROR"; //$NON-NLS-1$
+			case LogService.LOG_WARNING :
+				return "WARNING"; //$NON-NLS-1$
+			case LogService.LOG_INFO :
+				return "INFO"; //$NON-NLS-1$
+			case LogService.LOG_DEBUG :
+				return "DEBUG"; //$NON-NLS-1$
+			default :
+				return "LEVEL" + level; //$NON-NLS-1$
+		}
+	}
+
+	private void encode() throws IOException {
+		int length = text.length();
+		if (chars.capacity() < length)
+			chars = CharBuffer.allocate(Math.max(length, chars.capacity() * 2));
+		text.getChars(0, length, chars.array(), 0);
+		chars.clear();
+		chars.limit(length);
+		encoder.reset();
+		while (encoder.encode(chars, buffer, true).isOverflow())
+			flush();
+		while (encoder.flush(buffer).isOverflow())
+			flush();
+	}
+
+	private void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining())
+			size += channel.write(buffer);
+		buffer.clear();
+	}
+
+	private void openChannel() throws IOException {
+		File parent = file.getParentFile();
+		if (parent != null)
+			parent.mkdirs();
+		channel = new FileOutputStream(file, true).getChannel();
+		size = channel.size();
+		openTime = System.currentTimeMillis();
+	}
+
+	private void closeChannel() {
+		if (channel == null)
+			return;
+		try {
+			channel.close();
+		} catch (IOException e) {
+			// nothing to do
+		}
+		channel = null;
+	}
+
+	private void rotate() throws IOException {
+		closeChannel();
+		if (maxBackups > 0) {
+			new File(file.getPath() + '.' + maxBackups).delete();
+			for (int i = maxBackups - 1; i > 0; i--) {
+				File backup = new File(file.getPath() + '.' + i);
+				if (backup.exists())
+					backup.renameTo(new File(file.getPath() + '.' + (i + 1)));
+			}
+			file.renameTo(new File(file.getPath() + '.' + 1));
+		} else {
+			file.delete();
+		}
+		openChannel();
+	}
+}
@@ -0,0 +1,119 @@
+/*******************************************************************************
+ * Copyright (c) 2015 IBM Corporation and others
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ ******************************************************************************/
+package org.eclipse.equinox.log.internal;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import org.osgi.service.log.*;
+
+/**
+ * ListenerQueue is a bounded queue of log entries for one asynchronous log listener.
+ * The queue is drained by a shared {@link LogTaskExecutor}; at most one task drains
+ * the queue at a time so the listener receives the entries in order.
+ */
+public class ListenerQueue implements Runnable {
+
+	/**
+	 * Block the logging thread until the queue has room.
+	 */
+	public static final int OVERFLOW_BLOCK = 0;
+	/**
+	 * Discard the oldest queued entry.
+	 */
+	public static final int OVERFLOW_DROP_OLDEST = 1;
+	/**
+	 * Discard the oldest queued debug entry, or the new entry if it is a debug entry.
+	 * The oldest entry is discarded if the queue holds no debug entries.
+	 */
+	public static final int OVERFLOW_DROP_DEBUG = 2;
+
+	// the maximum number of entries delivered before the drain task yields to other queues
+	private static final int MAX_BATCH = 100;
+
+	private final LogListener listener;
+	private final LogTaskExecutor executor;
+	private final int maxSize;
+	private final int overflowPolicy;
+	private final LinkedList entries = new LinkedList();
+	private boolean scheduled = false;
+
+	public ListenerQueue(LogListener listener, LogTaskExecutor executor, int maxSize, int overflowPolicy) {
+		this.listener = listener;
+		this.executor = executor;
+		this.maxSize = maxSize;
+		this.overflowPolicy = overflowPolicy;
+	}
+
+	public void put(LogEntry entry) {
+		synchronized (this) {
+			if (entries.size() >= maxSize && !makeRoom(entry))
+				return;
+
+			entries.add(entry);
+			if (scheduled)
+				return;
+			scheduled = true;
+		}
+		executor.execute(this);
+	}
+
+	/**
+	 * Make room for a new entry in a full queue.
+	 * @return false if the new entry must be discarded
+	 */
+	private boolean makeRoom(LogEntry entry) {
+		switch (overflowPolicy) {
+			case OVERFLOW_BLOCK :
+				// a listener logging from a drain task must not wait for the executor
+				if (LogTaskExecutor.isExecutorThread())
+					return true;
+				while (entries.size() >= maxSize) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						// reset interrupted state and discard the entry
+						Thread.currentThread().interrupt();
+						return false;
+					}
+				}
+				return true;
+			case OVERFLOW_DROP_DEBUG :
+				for (Iterator it = entries.iterator(); it.hasNext();) {
+					if (((LogEntry) it.next()).getLevel() >= LogService.LOG_DEBUG) {
+						it.remove();
+						return true;
+					}
+				}
+				if (entry.getLevel() >= LogService.LOG_DEBUG)
+					return false;
+				entries.removeFirst();
+				return true;
+			default :
+				entries.removeFirst();
+				return true;
+		}
+	}
+
+	public void run() {
+		for (int i = 0; i < MAX_BATCH; i++) {
+			LogEntry entry;
+			synchronized (this) {
+				if (entries.isEmpty()) {
+					scheduled = false;
+					return;
+				}
+				entry = (LogEntry) entries.removeFirst();
+				if (overflowPolicy == OVERFLOW_BLOCK)
+					notifyAll();
+			}
+			ExtendedLogReaderServiceFactory.safeLogged(listener, entry);
+		}
+		// yield to the queues of other listeners; the queue stays scheduled
+		executor.execute(this);
+	}
+}
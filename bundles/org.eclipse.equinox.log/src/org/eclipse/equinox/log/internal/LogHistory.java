@@ -0,0 +1,76 @@
+/*******************************************************************************
+ * Copyright (c) 2015 IBM Corporation and others
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ ******************************************************************************/
+package org.eclipse.equinox.log.internal;
+
+import java.util.*;
+import org.osgi.framework.Bundle;
+
+/**
+ * LogHistory is a bounded, preallocated ring of the most recent log entries.
+ * <p>
+ * The entries kept are numbered in the order they are added and each entry is
+ * stored in the slot selected by its number, so the ring always holds the most
+ * recent kept entries. When the ring is full the oldest entry is overwritten.
+ * Entries are immutable, so recording an entry and taking a snapshot only hold
+ * the lock of the history for a few field accesses.
+ */
+public class LogHistory {
+
+	private final ExtendedLogEntryImpl[] entries;
+	private final int maxLevel;
+	private final Set bundleNames;
+	// the number of entries kept so far; guarded by this
+	private long next = 0;
+
+	/**
+	 * @param size the number of entries kept; must be greater than zero
+	 * @param maxLevel the highest log level kept, e.g. <code>LogService.LOG_WARNING</code> to drop info and debug entries
+	 * @param bundleNames the symbolic names of the bundles whose entries are kept, or <code>null</code> to keep the entries of all bundles
+	 */
+	public LogHistory(int size, int maxLevel, Set bundleNames) {
+		if (size <= 0)
+			throw new IllegalArgumentException("History size must be greater than zero: " + size); //$NON-NLS-1$
+		this.entries = new ExtendedLogEntryImpl[size];
+		this.maxLevel = maxLevel;
+		this.bundleNames = bundleNames;
+	}
+
+	boolean isLoggable(Bundle bundle, int level) {
+		if (level > maxLevel)
+			return false;
+		if (bundleNames == null)
+			return true;
+		return bundle != null && bundleNames.contains(bundle.getSymbolicName());
+	}
+
+	void add(ExtendedLogEntryImpl entry) {
+		if (!isLoggable(entry.getBundle(), entry.getLevel()))
+			return;
+
+		// only the entries kept are numbered, so they never collide before the ring wraps
+		synchronized (this) {
+			entries[(int) (next++ % entries.length)] = entry;
+		}
+	}
+
+	Enumeration getLog() {
+		ExtendedLogEntryImpl[] snapshot = new ExtendedLogEntryImpl[entries.length];
+		long end;
+		synchronized (this) {
+			System.arraycopy(entries, 0, snapshot, 0, entries.length);
+			end = next;
+		}
+
+		// most recent first
+		int count = (int) Math.min(end, snapshot.length);
+		List result = new ArrayList(count);
+		for (long i = end - 1; i >= end - count; i--)
+			result.add(snapshot[(int) (i % snapshot.length)]);
+		return Collections.enumeration(result);
+	}
+}
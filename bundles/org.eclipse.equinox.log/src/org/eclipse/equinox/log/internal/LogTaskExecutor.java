@@ -0,0 +1,123 @@
+/*******************************************************************************
+ * Copyright (c) 2015 IBM Corporation and others
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ ******************************************************************************/
+package org.eclipse.equinox.log.internal;
+
+import java.util.LinkedList;
+
+/**
+ * LogTaskExecutor runs tasks on a small pool of threads shared by all asynchronous
+ * log listeners. Threads are started on demand up to the maximum. One thread is
+ * kept until the executor is shut down so that a steady trickle of entries does
+ * not start a new thread each time; the other threads end after being idle for the
+ * idle timeout.
+ */
+public class LogTaskExecutor {
+
+	// the number of threads kept while the executor is running
+	private static final int CORE_THREADS = 1;
+	private final LinkedList tasks = new LinkedList();
+	private final int maxThreads;
+	private final long idleTimeout;
+	private final String threadName;
+	private int threads = 0;
+	private int idleThreads = 0;
+	private int threadCount = 0;
+	private boolean shutdown = false;
+
+	/**
+	 * @param threadName the prefix of the names of the threads
+	 * @param maxThreads the maximum number of threads
+	 * @param idleTimeout the time in milliseconds after which an idle thread ends, or 0 to keep idle threads
+	 */
+	public LogTaskExecutor(String threadName, int maxThreads, long idleTimeout) {
+		if (maxThreads <= 0)
+			throw new IllegalArgumentException("The maximum number of threads must be greater than zero: " + maxThreads); //$NON-NLS-1$
+		if (idleTimeout < 0)
+			throw new IllegalArgumentException("The idle timeout must not be negative: " + idleTimeout); //$NON-NLS-1$
+		this.threadName = threadName;
+		this.maxThreads = maxThreads;
+		this.idleTimeout = idleTimeout;
+	}
+
+	public synchronized void execute(Runnable task) {
+		tasks.add(task);
+		// idle threads which have been notified stay counted until they take their task
+		if (idleThreads >= tasks.size()) {
+			notify();
+			return;
+		}
+		if (threads < maxThreads) {
+			threads++;
+			Thread thread = new ExecutorThread(threadName + " " + (++threadCount)); //$NON-NLS-1$
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	/**
+	 * Lets all the threads end once the queued tasks have been run.
+	 */
+	public synchronized void shutdown() {
+		shutdown = true;
+		notifyAll();
+	}
+
+	/**
+	 * Returns true if the current thread is one of the threads of an executor.
+	 * Tasks must not block these threads waiting for other tasks.
+	 */
+	static boolean isExecutorThread() {
+		return Thread.currentThread() instanceof ExecutorThread;
+	}
+
+	synchronized Runnable nextTask() {
+		long idleEnd = 0;
+		while (tasks.isEmpty()) {
+			if (shutdown) {
+				threads--;
+				return null;
+			}
+
+			long maxWait = 0;
+			if (threads > CORE_THREADS && idleTimeout > 0) {
+				long now = System.currentTimeMillis();
+				if (idleEnd == 0) {
+					idleEnd = now + idleTimeout;
+				} else if (now >= idleEnd) {
+					threads--;
+					return null;
+				}
+				maxWait = idleEnd - now;
+			}
+
+			idleThreads++;
+			try {
+				wait(maxWait);
+			} catch (InterruptedException e) {
+				// ignore -- we control the stack here and do not need to propagate it.
+			} finally {
+				idleThreads--;
+			}
+		}
+		return (Runnable) tasks.removeFirst();
+	}
+
+	private class ExecutorThread extends Thread {
+		ExecutorThread(String name) {
+			super(name);
+		}
+
+		public void run() {
+			Runnable task = nextTask();
+			while (task != null) {
+				task.run();
+				task = nextTask();
+			}
+		}
+	}
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2006, 2009 Cognos Incorporated, IBM Corporation and others
+ * Copyright (c) 2006, 2015 Cognos Incorporated, IBM Corporation and others
  * All rights reserved. This program and the accompanying materials are made
  * available under the terms of the Eclipse Public License v1.0 which
  * accompanies this distribution, and is available at
@@ -9,11 +9,17 @@ package org.eclipse.equinox.log.internal;
 
 import org.eclipse.equinox.log.Logger;
 import org.osgi.framework.ServiceReference;
+import org.osgi.service.log.LogService;
 
 public class LoggerImpl implements Logger {
 
+	// marks the cached levels as computed; bit 0 is not used by any standard level
+	private static final int LEVELS_VALID = 1;
+
 	private final ExtendedLogServiceImpl logServiceImpl;
 	private final String name;
+	// the filters stamp in the high word and the mask of the standard levels loggable without consulting the log filters in the low word
+	private volatile long loggableLevels = 0;
 
 	public LoggerImpl(ExtendedLogServiceImpl logServiceImpl, String name) {
 		this.logServiceImpl = logServiceImpl;
@@ -25,7 +31,37 @@ public class LoggerImpl implements Logger {
 	}
 
 	public boolean isLoggable(int level) {
-		return logServiceImpl.isLoggable(name, level);
+		if (level < LogService.LOG_ERROR || level > LogService.LOG_DEBUG)
+			return logServiceImpl.isLoggable(name, level);
+
+		int levels = getLoggableLevels();
+		if ((levels & (1 << level)) != 0)
+			return true;
+		// log filters are consulted on every call
+		return (levels & ExtendedLogReaderServiceFactory.LEVELS_FILTERED) != 0 && logServiceImpl.isLoggable(name, level);
+	}
+
+	/**
+	 * Returns true if an entry of the level is rejected without consulting any log filter.
+	 * The log filters are consulted once for each listener when the entry is logged.
+	 */
+	private boolean isRejected(int level) {
+		if (level < LogService.LOG_ERROR || level > LogService.LOG_DEBUG)
+			return false;
+
+		return (getLoggableLevels() & ((1 << level) | ExtendedLogReaderServiceFactory.LEVELS_FILTERED)) == 0;
+	}
+
+	private int getLoggableLevels() {
+		long current = loggableLevels;
+		int stamp = logServiceImpl.getFiltersStamp();
+		if ((current & LEVELS_VALID) != 0 && (int) (current >>> 32) == stamp)
+			return (int) current;
+
+		// the stamp is read first so a concurrent filter change leaves the result stale and it is computed again
+		int levels = logServiceImpl.getLoggableLevels() | LEVELS_VALID;
+		loggableLevels = ((long) stamp << 32) | (levels & 0xFFFFFFFFL);
+		return levels;
 	}
 
 	public void log(int level, String message) {
@@ -41,6 +77,9 @@ public class LoggerImpl implements Logger {
 	}
 
 	public void log(ServiceReference sr, int level, String message, Throwable exception) {
+		if (isRejected(level))
+			return;
+
 		logServiceImpl.log(name, sr, level, message, exception);
 	}
 
@@ -49,6 +88,9 @@ public class LoggerImpl implements Logger {
 	}
 
 	public void log(Object context, int level, String message, Throwable exception) {
+		if (isRejected(level))
+			return;
+
 		logServiceImpl.log(name, context, level, message, exception);
 	}
 }
@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * Copyright (c) 2015 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.registry;
+
+import java.io.*;
+
+/**
+ * Describes the regions of the registry cache data files that hold the registry
+ * objects of one contributor.
+ * <p>
+ * The regions are never modified once written. When the cache is saved, the
+ * segments of the contributors that did not change are kept and only the segments
+ * of the changed contributors are appended to the data files.
+ * </p>
+ */
+public class CacheSegment {
+	final String contributorId;
+
+	// the region of the main data file
+	int mainOffset;
+	int mainLength;
+	int mainChecksum;
+
+	// the region of the extra data file
+	int extraOffset;
+	int extraLength;
+	int extraChecksum;
+
+	// the file offsets of the registry objects in the segment
+	int[] ids = RegistryObjectManager.EMPTY_INT_ARRAY;
+	int[] offsets = RegistryObjectManager.EMPTY_INT_ARRAY;
+
+	public CacheSegment(String contributorId) {
+		this.contributorId = contributorId;
+	}
+
+	public void save(DataOutputStream out) throws IOException {
+		out.writeUTF(contributorId);
+		out.writeInt(mainOffset);
+		out.writeInt(mainLength);
+		out.writeInt(mainChecksum);
+		out.writeInt(extraOffset);
+		out.writeInt(extraLength);
+		out.writeInt(extraChecksum);
+		out.writeInt(ids.length);
+		for (int i = 0; i < ids.length; i++) {
+			out.writeInt(ids[i]);
+			out.writeInt(offsets[i]);
+		}
+	}
+
+	static public CacheSegment load(DataInputStream in) throws IOException {
+		CacheSegment result = new CacheSegment(in.readUTF());
+		result.mainOffset = in.readInt();
+		result.mainLength = in.readInt();
+		result.mainChecksum = in.readInt();
+		result.extraOffset = in.readInt();
+		result.extraLength = in.readInt();
+		result.extraChecksum = in.readInt();
+		int size = in.readInt();
+		result.ids = new int[size];
+		result.offsets = new int[size];
+		for (int i = 0; i < size; i++) {
+			result.ids[i] = in.readInt();
+			result.offsets[i] = in.readInt();
+		}
+		return result;
+	}
+
+	public String toString() {
+		return "CacheSegment: " + contributorId; //$NON-NLS-1$
+	}
+}
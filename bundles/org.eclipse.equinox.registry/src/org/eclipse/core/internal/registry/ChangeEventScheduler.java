@@ -0,0 +1,379 @@
+/*******************************************************************************
+ * Copyright (c) 2015 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.registry;
+
+import java.util.*;
+import org.eclipse.core.runtime.*;
+
+/**
+ * Delivers the registry change events on a dedicated thread, first in - first processed.
+ * <p>
+ * The events waiting in the queue are coalesced before they are delivered: consecutive
+ * events of the same kind sent to the same listeners are merged into a single event,
+ * with their deltas combined per namespace. Each listener still receives the changes
+ * in the order they were made.
+ * </p><p>
+ * The listeners of an event can be notified concurrently by a bounded number of threads.
+ * An event is delivered to all of its listeners before the next event is delivered.
+ * </p>
+ */
+public class ChangeEventScheduler {
+	private static final String DISPATCHER_THREAD_NAME = "Extension Registry Event Dispatcher"; //$NON-NLS-1$
+
+	// The listeners and deltas of a scheduled event
+	private static class QueueElement {
+		final Object[] listenerInfos;
+		final Map scheduledDeltas;
+		final long timestamp; // when the event was scheduled
+
+		QueueElement(Object[] infos, Map deltas, long timestamp) {
+			this.listenerInfos = infos;
+			this.scheduledDeltas = deltas;
+			this.timestamp = timestamp;
+		}
+	}
+
+	private final ExtensionRegistry registry;
+	private final String notNamespace; // the key of the combined delta in the scheduled deltas
+	private final int threadCount;
+
+	private final LinkedList queue = new LinkedList(); // stores registry events info
+	private Thread dispatcher = null; // registry event loop
+	private Thread[] workers = null; // notify listeners along with the dispatcher
+	private Dispatch current = null; // the event being delivered to the listeners; guarded by this
+
+	// metrics; guarded by the queue
+	private int maxQueueDepth = 0;
+	private long scheduledCount = 0;
+	private long dispatchedCount = 0;
+	private long totalLatency = 0;
+	private long maxLatency = 0;
+
+	/**
+	 * @param registry the registry to deliver the events of
+	 * @param notNamespace the key of the {@link CombinedEventDelta} in the scheduled deltas
+	 * @param threadCount the maximum number of threads notifying the listeners
+	 */
+	public ChangeEventScheduler(ExtensionRegistry registry, String notNamespace, int threadCount) {
+		this.registry = registry;
+		this.notNamespace = notNamespace;
+		this.threadCount = Math.max(threadCount, 1);
+	}
+
+	public void schedule(Object[] listenerInfos, Map scheduledDeltas) {
+		QueueElement newElement = new QueueElement(listenerInfos, scheduledDeltas, System.currentTimeMillis());
+		synchronized (queue) {
+			if (dispatcher == null)
+				start();
+			queue.add(newElement);
+			scheduledCount++;
+			if (queue.size() > maxQueueDepth)
+				maxQueueDepth = queue.size();
+			queue.notify();
+		}
+	}
+
+	private void start() {
+		dispatcher = new Thread(DISPATCHER_THREAD_NAME) {
+			public void run() {
+				dispatchEvents();
+			}
+		};
+		dispatcher.setDaemon(true);
+		dispatcher.start();
+		if (threadCount == 1)
+			return;
+		workers = new Thread[threadCount - 1];
+		for (int i = 0; i < workers.length; i++) {
+			workers[i] = new Thread(DISPATCHER_THREAD_NAME + '-' + (i + 1)) {
+				public void run() {
+					notifyListeners();
+				}
+			};
+			workers[i].setDaemon(true);
+			workers[i].start();
+		}
+	}
+
+	/**
+	 * Stops the delivery of the events. The events still in the queue are dropped.
+	 */
+	public void stop() {
+		synchronized (queue) {
+			if (dispatcher == null)
+				return;
+			dispatcher.interrupt();
+			dispatcher = null;
+			if (workers != null) {
+				for (int i = 0; i < workers.length; i++)
+					workers[i].interrupt();
+				workers = null;
+			}
+		}
+	}
+
+	private void dispatchEvents() {
+		while (!Thread.currentThread().isInterrupted()) {
+			QueueElement first;
+			List merged = new ArrayList();
+			synchronized (queue) {
+				try {
+					while (queue.isEmpty())
+						queue.wait();
+				} catch (InterruptedException e) {
+					return;
+				}
+				first = (QueueElement) queue.removeFirst();
+				while (!queue.isEmpty() && canMerge(first, (QueueElement) queue.getFirst()))
+					merged.add(queue.removeFirst());
+			}
+			if (merged.size() != 0)
+				merge(first, merged);
+			try {
+				registry.processChangeEvent(first.listenerInfos, first.scheduledDeltas, threadCount == 1 ? null : this);
+			} catch (RuntimeException e) {
+				// keep delivering the next events
+				registry.log(new Status(IStatus.ERROR, RegistryMessages.OWNER_NAME, RegistryMessages.plugin_eventListenerError, e));
+			}
+			long latency = System.currentTimeMillis() - first.timestamp;
+			synchronized (queue) {
+				dispatchedCount++;
+				totalLatency += latency;
+				if (latency > maxLatency)
+					maxLatency = latency;
+			}
+		}
+	}
+
+	private boolean canMerge(QueueElement first, QueueElement next) {
+		// the same listeners with the same filters
+		if (first.listenerInfos.length != next.listenerInfos.length)
+			return false;
+		for (int i = 0; i < first.listenerInfos.length; i++) {
+			if (first.listenerInfos[i] != next.listenerInfos[i])
+				return false;
+		}
+		// additions and removals are delivered in separate events
+		CombinedEventDelta firstDelta = (CombinedEventDelta) first.scheduledDeltas.get(notNamespace);
+		CombinedEventDelta nextDelta = (CombinedEventDelta) next.scheduledDeltas.get(notNamespace);
+		if (firstDelta == null || nextDelta == null || firstDelta.isAddition() != nextDelta.isAddition())
+			return false;
+		return hasTemporaryManagers(first) && hasTemporaryManagers(next);
+	}
+
+	private boolean hasTemporaryManagers(QueueElement element) {
+		for (Iterator iter = element.scheduledDeltas.values().iterator(); iter.hasNext();) {
+			IObjectManager manager = getObjectManager(iter.next());
+			if (manager != null && !(manager instanceof TemporaryObjectManager))
+				return false;
+		}
+		return true;
+	}
+
+	private static IObjectManager getObjectManager(Object delta) {
+		if (delta instanceof CombinedEventDelta)
+			return ((CombinedEventDelta) delta).getObjectManager();
+		return ((RegistryDelta) delta).getObjectManager();
+	}
+
+	/**
+	 * Merges the deltas of the elements into the first element. All the deltas
+	 * get an object manager that finds the objects of all the merged events.
+	 */
+	private void merge(QueueElement first, List elements) {
+		Set managers = new HashSet();
+		collectManagers(first, managers);
+		Map deltas = first.scheduledDeltas;
+		for (Iterator iter = elements.iterator(); iter.hasNext();) {
+			QueueElement element = (QueueElement) iter.next();
+			collectManagers(element, managers);
+			for (Iterator entries = element.scheduledDeltas.entrySet().iterator(); entries.hasNext();) {
+				Map.Entry entry = (Map.Entry) entries.next();
+				Object delta = deltas.get(entry.getKey());
+				if (delta == null)
+					deltas.put(entry.getKey(), entry.getValue());
+				else if (delta instanceof CombinedEventDelta)
+					((CombinedEventDelta) delta).merge((CombinedEventDelta) entry.getValue());
+				else
+					((RegistryDelta) delta).merge((RegistryDelta) entry.getValue());
+			}
+		}
+		if (managers.isEmpty())
+			return;
+		IObjectManager manager = TemporaryObjectManager.combine(managers);
+		for (Iterator iter = deltas.values().iterator(); iter.hasNext();) {
+			Object delta = iter.next();
+			if (delta instanceof CombinedEventDelta)
+				((CombinedEventDelta) delta).setObjectManager(manager);
+			else
+				((RegistryDelta) delta).setObjectManager(manager);
+		}
+		for (Iterator iter = managers.iterator(); iter.hasNext();)
+			((IObjectManager) iter.next()).close();
+	}
+
+	private void collectManagers(QueueElement element, Set managers) {
+		for (Iterator iter = element.scheduledDeltas.values().iterator(); iter.hasNext();) {
+			IObjectManager manager = getObjectManager(iter.next());
+			if (manager != null)
+				managers.add(manager);
+		}
+	}
+
+	/**
+	 * Notifies the listeners of an event using the worker threads. Returns once
+	 * all the listeners have been notified.
+	 */
+	void notifyListeners(Object[] listenerInfos, Map scheduledDeltas, CombinedEventDelta extendedDelta, MultiStatus result) {
+		Dispatch dispatch = new Dispatch(listenerInfos, scheduledDeltas, extendedDelta, result);
+		synchronized (this) {
+			current = dispatch;
+			notifyAll();
+		}
+		try {
+			dispatch.run();
+			dispatch.await();
+		} catch (InterruptedException e) {
+			// the scheduler is stopping
+			Thread.currentThread().interrupt();
+		} finally {
+			synchronized (this) {
+				current = null;
+			}
+		}
+		if (dispatch.failure instanceof RuntimeException)
+			throw (RuntimeException) dispatch.failure;
+		if (dispatch.failure instanceof Error)
+			throw (Error) dispatch.failure;
+	}
+
+	// the loop of the worker threads
+	private void notifyListeners() {
+		Dispatch last = null;
+		while (true) {
+			Dispatch dispatch;
+			synchronized (this) {
+				try {
+					while (current == null || current == last)
+						wait();
+				} catch (InterruptedException e) {
+					return;
+				}
+				dispatch = current;
+			}
+			dispatch.run();
+			last = dispatch;
+		}
+	}
+
+	// An event being delivered. The threads take the listeners to notify in turn.
+	private class Dispatch {
+		private final Object[] listenerInfos;
+		private final Map scheduledDeltas;
+		private final CombinedEventDelta extendedDelta;
+		private final MultiStatus result;
+		private int next = 0;
+		private int notified = 0;
+		Throwable failure = null; // the first exception thrown by a listener
+
+		Dispatch(Object[] listenerInfos, Map scheduledDeltas, CombinedEventDelta extendedDelta, MultiStatus result) {
+			this.listenerInfos = listenerInfos;
+			this.scheduledDeltas = scheduledDeltas;
+			this.extendedDelta = extendedDelta;
+			this.result = result;
+		}
+
+		void run() {
+			for (int i = nextListener(); i != -1; i = nextListener()) {
+				try {
+					registry.notifyListener((ExtensionRegistry.ListenerInfo) listenerInfos[i], scheduledDeltas, extendedDelta, result);
+				} catch (RuntimeException e) {
+					failed(e);
+				} catch (Error e) {
+					failed(e);
+				} finally {
+					notified();
+				}
+			}
+		}
+
+		private synchronized int nextListener() {
+			return next < listenerInfos.length ? next++ : -1;
+		}
+
+		private synchronized void failed(Throwable e) {
+			if (failure == null)
+				failure = e;
+		}
+
+		private synchronized void notified() {
+			if (++notified == listenerInfos.length)
+				notifyAll();
+		}
+
+		synchronized void await() throws InterruptedException {
+			while (notified < listenerInfos.length)
+				wait();
+		}
+	}
+
+	public int getQueueDepth() {
+		synchronized (queue) {
+			return queue.size();
+		}
+	}
+
+	public int getMaxQueueDepth() {
+		synchronized (queue) {
+			return maxQueueDepth;
+		}
+	}
+
+	/**
+	 * Returns the number of events scheduled for delivery.
+	 */
+	public long getScheduledCount() {
+		synchronized (queue) {
+			return scheduledCount;
+		}
+	}
+
+	/**
+	 * Returns the number of events delivered to the listeners once merged.
+	 */
+	public long getDispatchedCount() {
+		synchronized (queue) {
+			return dispatchedCount;
+		}
+	}
+
+	/**
+	 * Returns the average time, in milliseconds, from the scheduling of an event
+	 * until all its listeners have been notified.
+	 */
+	public long getAverageLatency() {
+		synchronized (queue) {
+			return dispatchedCount == 0 ? 0 : totalLatency / dispatchedCount;
+		}
+	}
+
+	public long getMaxLatency() {
+		synchronized (queue) {
+			return maxLatency;
+		}
+	}
+
+	public String toString() {
+		synchronized (queue) {
+			return "Registry events: " + scheduledCount + " scheduled, " + dispatchedCount + " dispatched, queue depth " + queue.size() + " (max " + maxQueueDepth + "), latency " + getAverageLatency() + "ms (max " + maxLatency + "ms)"; //$NON-NLS-1$//$NON-NLS-2$//$NON-NLS-3$//$NON-NLS-4$//$NON-NLS-5$//$NON-NLS-6$//$NON-NLS-7$
+		}
+	}
+}
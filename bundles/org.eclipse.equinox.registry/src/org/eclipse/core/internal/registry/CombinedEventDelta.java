@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2007 IBM Corporation and others.
+ * Copyright (c) 2007, 2015 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -124,6 +124,29 @@ public class CombinedEventDelta {
 			rememberExtension(extensionPoint, exts[i]);
 	}
 
+	/**
+	 * Appends the changes recorded by the given delta to the changes of this delta.
+	 * Both deltas must be of the same kind.
+	 */
+	void merge(CombinedEventDelta other) {
+		if (other.extPointsByID != null) {
+			for (Iterator iter = other.extPointsByID.entrySet().iterator(); iter.hasNext();) {
+				Map.Entry entry = (Map.Entry) iter.next();
+				getExtPointsBucket((String) entry.getKey()).addAll((List) entry.getValue());
+			}
+		}
+		if (other.extensionsByID != null) {
+			for (Iterator iter = other.extensionsByID.entrySet().iterator(); iter.hasNext();) {
+				Map.Entry entry = (Map.Entry) iter.next();
+				getExtensionsBucket((String) entry.getKey()).addAll((List) entry.getValue());
+			}
+		}
+		if (other.allExtensionPoints != null)
+			getExtPointsGlobal().addAll(other.allExtensionPoints);
+		if (other.allExtensions != null)
+			getExtensionsGlobal().addAll(other.allExtensions);
+	}
+
 	public IExtensionPoint[] getExtensionPoints(String id) {
 		List extensionPoints = null;
 		if (id != null && extPointsByID != null)
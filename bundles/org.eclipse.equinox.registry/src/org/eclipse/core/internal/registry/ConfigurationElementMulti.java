@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2009, 2011 IBM Corporation and others.
+ * Copyright (c) 2009, 2015 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -63,7 +63,7 @@ public class ConfigurationElementMulti extends ConfigurationElement {
 			String[] propertiesNonTranslated = getNonTranslated();
 			translated = registry.translate(propertiesNonTranslated, getContributor(), locale);
 			translatedProperties.put(locale, translated);
-			registry.getObjectManager().markDirty();
+			registry.getObjectManager().markDirty(getContributorId());
 		} else
 			translated = translatedProperties.get(locale);
 
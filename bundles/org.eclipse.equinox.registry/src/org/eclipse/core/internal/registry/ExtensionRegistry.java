@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2012 IBM Corporation and others.
+ * Copyright (c) 2000, 2015 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -70,6 +70,9 @@ public class ExtensionRegistry implements IExtensionRegistry, IDynamicExtensionR
 	// Table reader associated with this extension registry
 	protected TableReader theTableReader = new TableReader(this);
 
+	// The strings of the configuration elements, shared by the elements and the registry cache
+	private StringTable stringTable = new StringTable();
+
 	private Object masterToken; // use to get full control of the registry; objects created as "static" 
 	private Object userToken; // use to modify non-persisted registry elements
 
@@ -129,7 +132,7 @@ public class ExtensionRegistry implements IExtensionRegistry, IDynamicExtensionR
 			fireRegistryChangeEvent();
 			eventDelta = null;
 		} finally {
-			access.exitWrite();
+			exitWrite();
 		}
 	}
 
@@ -248,6 +251,20 @@ public class ExtensionRegistry implements IExtensionRegistry, IDynamicExtensionR
 		registryObjects.removeContributor(contributorId);
 	}
 
+	// allow a batch of changes to be made under one lock. The lock is reentrant
+	public void enterWrite() {
+		access.enterWrite();
+	}
+
+	// publishes the changes to the readers of snapshots before releasing the lock
+	public void exitWrite() {
+		registryObjects.publish();
+		// the contributions are parsed; the index of the strings is built again by the next addition
+		if (access.isLastWrite())
+			stringTable.releaseIndexes();
+		access.exitWrite();
+	}
+
 	// allow other objects in the registry to use the same lock
 	void enterRead() {
 		access.enterRead();
@@ -382,12 +399,8 @@ public class ExtensionRegistry implements IExtensionRegistry, IDynamicExtensionR
 	 * @see org.eclipse.core.runtime.IExtensionRegistry#getExtensionPoint(java.lang.String)
 	 */
 	public IExtensionPoint getExtensionPoint(String xptUniqueId) {
-		access.enterRead();
-		try {
-			return registryObjects.getExtensionPointHandle(xptUniqueId);
-		} finally {
-			access.exitRead();
-		}
+		// reads a published snapshot; no need to lock
+		return registryObjects.getExtensionPointHandle(xptUniqueId);
 	}
 
 	/*
@@ -395,12 +408,8 @@ public class ExtensionRegistry implements IExtensionRegistry, IDynamicExtensionR
 	 * @see org.eclipse.core.runtime.IExtensionRegistry#getExtensionPoint(java.lang.String, java.lang.String)
 	 */
 	public IExtensionPoint getExtensionPoint(String elementName, String xpt) {
-		access.enterRead();
-		try {
-			return registryObjects.getExtensionPointHandle(elementName + '.' + xpt);
-		} finally {
-			access.exitRead();
-		}
+		// reads a published snapshot; no need to lock
+		return registryObjects.getExtensionPointHandle(elementName + '.' + xpt);
 	}
 
 	/*
@@ -408,12 +417,8 @@ public class ExtensionRegistry implements IExtensionRegistry, IDynamicExtensionR
 	 * @see org.eclipse.core.runtime.IExtensionRegistry#getExtensionPoints()
 	 */
 	public IExtensionPoint[] getExtensionPoints() {
-		access.enterRead();
-		try {
-			return registryObjects.getExtensionPointsHandles();
-		} finally {
-			access.exitRead();
-		}
+		// reads a published snapshot; no need to lock
+		return registryObjects.getExtensionPointsHandles();
 	}
 
 	/*
@@ -503,6 +508,8 @@ public class ExtensionRegistry implements IExtensionRegistry, IDynamicExtensionR
 	private void link(ExtensionPoint extPoint, int[] extensions) {
 		extPoint.setRawChildren(extensions);
 		registryObjects.add(extPoint, true);
+		// the extensions of an extension point are saved with the extension point
+		registryObjects.markDirty(extPoint.getContributorId());
 	}
 
 	/*
@@ -571,7 +578,7 @@ public class ExtensionRegistry implements IExtensionRegistry, IDynamicExtensionR
 			fireRegistryChangeEvent();
 			eventDelta = null;
 		} finally {
-			access.exitWrite();
+			exitWrite();
 		}
 	}
 
@@ -760,18 +767,28 @@ public class ExtensionRegistry implements IExtensionRegistry, IDynamicExtensionR
 		File orphansFile = null;
 
 		TableWriter theTableWriter = new TableWriter(this);
+		HashMap segments = null;
 
 		try {
 			cacheStorageManager.lookup(TableReader.TABLE, true);
-			cacheStorageManager.lookup(TableReader.MAIN, true);
-			cacheStorageManager.lookup(TableReader.EXTRA, true);
+			File currentMainFile = cacheStorageManager.lookup(TableReader.MAIN, true);
+			File currentExtraFile = cacheStorageManager.lookup(TableReader.EXTRA, true);
 			cacheStorageManager.lookup(TableReader.CONTRIBUTIONS, true);
 			cacheStorageManager.lookup(TableReader.CONTRIBUTORS, true);
 			cacheStorageManager.lookup(TableReader.NAMESPACES, true);
 			cacheStorageManager.lookup(TableReader.ORPHANS, true);
+			// Only the contributors that changed are appended to the data files read on startup. The data
+			// files are rewritten if they were not read or if most of their contents is no longer used.
+			segments = theTableReader.getReusableSegments(currentMainFile, currentExtraFile);
 			tableFile = File.createTempFile(TableReader.TABLE, ".new", cacheStorageManager.getBase()); //$NON-NLS-1$
-			mainFile = File.createTempFile(TableReader.MAIN, ".new", cacheStorageManager.getBase()); //$NON-NLS-1$
-			extraFile = File.createTempFile(TableReader.EXTRA, ".new", cacheStorageManager.getBase()); //$NON-NLS-1$
+			if (segments != null) {
+				mainFile = currentMainFile;
+				extraFile = currentExtraFile;
+				theTableWriter.setPreviousSegments(segments);
+			} else {
+				mainFile = File.createTempFile(TableReader.MAIN, ".new", cacheStorageManager.getBase()); //$NON-NLS-1$
+				extraFile = File.createTempFile(TableReader.EXTRA, ".new", cacheStorageManager.getBase()); //$NON-NLS-1$
+			}
 			contributionsFile = File.createTempFile(TableReader.CONTRIBUTIONS, ".new", cacheStorageManager.getBase()); //$NON-NLS-1$
 			contributorsFile = File.createTempFile(TableReader.CONTRIBUTORS, ".new", cacheStorageManager.getBase()); //$NON-NLS-1$
 			namespacesFile = File.createTempFile(TableReader.NAMESPACES, ".new", cacheStorageManager.getBase()); //$NON-NLS-1$
@@ -799,8 +816,12 @@ public class ExtensionRegistry implements IExtensionRegistry, IDynamicExtensionR
 			else
 				timestamp = strategy.getContributionsTimestamp(); // use legacy approach
 
-			if (theTableWriter.saveCache(registryObjects, timestamp))
-				cacheStorageManager.update(new String[] {TableReader.TABLE, TableReader.MAIN, TableReader.EXTRA, TableReader.CONTRIBUTIONS, TableReader.CONTRIBUTORS, TableReader.NAMESPACES, TableReader.ORPHANS}, new String[] {tableFile.getName(), mainFile.getName(), extraFile.getName(), contributionsFile.getName(), contributorsFile.getName(), namespacesFile.getName(), orphansFile.getName()});
+			if (theTableWriter.saveCache(registryObjects, timestamp)) {
+				if (segments != null) // the data files were appended to in place
+					cacheStorageManager.update(new String[] {TableReader.TABLE, TableReader.CONTRIBUTIONS, TableReader.CONTRIBUTORS, TableReader.NAMESPACES, TableReader.ORPHANS}, new String[] {tableFile.getName(), contributionsFile.getName(), contributorsFile.getName(), namespacesFile.getName(), orphansFile.getName()});
+				else
+					cacheStorageManager.update(new String[] {TableReader.TABLE, TableReader.MAIN, TableReader.EXTRA, TableReader.CONTRIBUTIONS, TableReader.CONTRIBUTORS, TableReader.NAMESPACES, TableReader.ORPHANS}, new String[] {tableFile.getName(), mainFile.getName(), extraFile.getName(), contributionsFile.getName(), contributorsFile.getName(), namespacesFile.getName(), orphansFile.getName()});
+			}
 		} catch (IOException e) {
 			//Ignore the exception since we can recompute the cache
 		}
@@ -847,6 +868,15 @@ public class ExtensionRegistry implements IExtensionRegistry, IDynamicExtensionR
 		return theTableReader;
 	}
 
+	StringTable getStringTable() {
+		return stringTable;
+	}
+
+	// Called when the registry is filled from the cache
+	void setStringTable(StringTable table) {
+		stringTable = table;
+	}
+
 	public void log(IStatus status) {
 		strategy.log(status);
 	}
@@ -909,114 +939,102 @@ public class ExtensionRegistry implements IExtensionRegistry, IDynamicExtensionR
 	// Registry change events processing
 
 	public IStatus processChangeEvent(Object[] listenerInfos, final Map scheduledDeltas) {
+		return processChangeEvent(listenerInfos, scheduledDeltas, null);
+	}
+
+	/**
+	 * @param scheduler if not null, the listeners are notified by the threads of the scheduler
+	 */
+	IStatus processChangeEvent(Object[] listenerInfos, final Map scheduledDeltas, ChangeEventScheduler scheduler) {
 		// Separate new event delta from the pack
 		final CombinedEventDelta extendedDelta = (CombinedEventDelta) scheduledDeltas.remove(notNamespace);
 
 		final MultiStatus result = new MultiStatus(RegistryMessages.OWNER_NAME, IStatus.OK, RegistryMessages.plugin_eventListenerError, null);
-		for (int i = 0; i < listenerInfos.length; i++) {
-			final ListenerInfo listenerInfo = (ListenerInfo) listenerInfos[i];
-			if ((listenerInfo.listener instanceof IRegistryChangeListener) && scheduledDeltas.size() != 0) {
-				if (listenerInfo.filter == null || scheduledDeltas.containsKey(listenerInfo.filter)) {
-					SafeRunner.run(new ISafeRunnable() {
-						public void run() throws Exception {
-							((IRegistryChangeListener) listenerInfo.listener).registryChanged(new RegistryChangeEvent(scheduledDeltas, listenerInfo.filter));
-						}
+		try {
+			if (scheduler != null && listenerInfos.length > 1)
+				scheduler.notifyListeners(listenerInfos, scheduledDeltas, extendedDelta, result);
+			else {
+				for (int i = 0; i < listenerInfos.length; i++)
+					notifyListener((ListenerInfo) listenerInfos[i], scheduledDeltas, extendedDelta, result);
+			}
+		} finally {
+			for (Iterator iter = scheduledDeltas.values().iterator(); iter.hasNext();) {
+				((RegistryDelta) iter.next()).getObjectManager().close();
+			}
+			IObjectManager manager = extendedDelta.getObjectManager();
+			if (manager != null)
+				manager.close();
+		}
+		return result;
+	}
+
+	void notifyListener(final ListenerInfo listenerInfo, final Map scheduledDeltas, CombinedEventDelta extendedDelta, final MultiStatus result) {
+		if ((listenerInfo.listener instanceof IRegistryChangeListener) && scheduledDeltas.size() != 0) {
+			if (listenerInfo.filter == null || scheduledDeltas.containsKey(listenerInfo.filter)) {
+				SafeRunner.run(new ISafeRunnable() {
+					public void run() throws Exception {
+						((IRegistryChangeListener) listenerInfo.listener).registryChanged(new RegistryChangeEvent(scheduledDeltas, listenerInfo.filter));
+					}
 
-						public void handleException(Throwable exception) {
+					public void handleException(Throwable exception) {
+						synchronized (result) {
 							result.add(new Status(IStatus.ERROR, RegistryMessages.OWNER_NAME, RegistryMessages.plugin_eventListenerError, exception));
 						}
-					});
-				}
-			}
-			if (listenerInfo.listener instanceof IRegistryEventListener) {
-				IRegistryEventListener extensionListener = (IRegistryEventListener) listenerInfo.listener;
-				IExtension[] extensions = extendedDelta.getExtensions(listenerInfo.filter);
-				IExtensionPoint[] extensionPoints = extendedDelta.getExtensionPoints(listenerInfo.filter);
-
-				// notification order - on addition: extension points; then extensions
-				if (extendedDelta.isAddition()) {
-					if (extensionPoints != null)
-						extensionListener.added(extensionPoints);
-					if (extensions != null)
-						extensionListener.added(extensions);
-				} else { // on removal: extensions; then extension points
-					if (extensions != null)
-						extensionListener.removed(extensions);
-					if (extensionPoints != null)
-						extensionListener.removed(extensionPoints);
-				}
+					}
+				});
 			}
 		}
-		for (Iterator iter = scheduledDeltas.values().iterator(); iter.hasNext();) {
-			((RegistryDelta) iter.next()).getObjectManager().close();
+		if (listenerInfo.listener instanceof IRegistryEventListener) {
+			IRegistryEventListener extensionListener = (IRegistryEventListener) listenerInfo.listener;
+			IExtension[] extensions = extendedDelta.getExtensions(listenerInfo.filter);
+			IExtensionPoint[] extensionPoints = extendedDelta.getExtensionPoints(listenerInfo.filter);
+
+			// notification order - on addition: extension points; then extensions
+			if (extendedDelta.isAddition()) {
+				if (extensionPoints != null)
+					extensionListener.added(extensionPoints);
+				if (extensions != null)
+					extensionListener.added(extensions);
+			} else { // on removal: extensions; then extension points
+				if (extensions != null)
+					extensionListener.removed(extensions);
+				if (extensionPoints != null)
+					extensionListener.removed(extensionPoints);
+			}
 		}
-		IObjectManager manager = extendedDelta.getObjectManager();
-		if (manager != null)
-			manager.close();
-		return result;
 	}
 
-	private RegistryEventThread eventThread = null; // registry event loop
-	protected final List queue = new LinkedList(); // stores registry events info
+	private final ChangeEventScheduler eventScheduler = new ChangeEventScheduler(this, notNamespace, getEventDispatchThreads());
 
 	// Registry events notifications are done on a separate thread in a sequential manner
 	// (first in - first processed)
 	public void scheduleChangeEvent(Object[] listenerInfos, Map scheduledDeltas) {
-		QueueElement newElement = new QueueElement(listenerInfos, scheduledDeltas);
-		if (eventThread == null) {
-			eventThread = new RegistryEventThread(this);
-			eventThread.start();
-		}
-		synchronized (queue) {
-			queue.add(newElement);
-			queue.notify();
-		}
+		eventScheduler.schedule(listenerInfos, scheduledDeltas);
 	}
 
-	// The pair of values we store in the event queue
-	private class QueueElement {
-		Object[] listenerInfos;
-		Map scheduledDeltas;
-
-		QueueElement(Object[] infos, Map deltas) {
-			this.scheduledDeltas = deltas;
-			listenerInfos = infos;
+	private static int getEventDispatchThreads() {
+		String value = RegistryProperties.getProperty(IRegistryConstants.PROP_EVENT_DISPATCH_THREADS);
+		if (value == null)
+			return 1;
+		try {
+			return Math.max(Integer.parseInt(value.trim()), 1);
+		} catch (NumberFormatException e) {
+			return 1;
 		}
 	}
 
-	private class RegistryEventThread extends Thread {
-		private ExtensionRegistry registry;
-
-		public RegistryEventThread(ExtensionRegistry registry) {
-			super("Extension Registry Event Dispatcher"); //$NON-NLS-1$
-			setDaemon(true);
-			this.registry = registry;
-		}
-
-		public void run() {
-			while (true) {
-				QueueElement element;
-				synchronized (queue) {
-					try {
-						while (queue.isEmpty())
-							queue.wait();
-					} catch (InterruptedException e) {
-						return;
-					}
-					element = (QueueElement) queue.remove(0);
-				}
-				registry.processChangeEvent(element.listenerInfos, element.scheduledDeltas);
-			}
-		}
+	/**
+	 * Returns the scheduler delivering the registry change events. Its metrics
+	 * describe the events delivered so far.
+	 */
+	public ChangeEventScheduler getChangeEventScheduler() {
+		return eventScheduler;
 	}
 
 	protected void stopChangeEventScheduler() {
-		if (eventThread != null) {
-			synchronized (queue) {
-				eventThread.interrupt();
-				eventThread = null;
-			}
-		}
+		eventScheduler.stop();
+		if (debugEvents())
+			System.out.println(eventScheduler);
 	}
 
 	/**
@@ -1044,6 +1062,22 @@ public class ExtensionRegistry implements IExtensionRegistry, IDynamicExtensionR
 	}
 
 	public boolean addContribution(InputStream is, IContributor contributor, boolean persist, String contributionName, ResourceBundle translationBundle, Object key) {
+		return addContribution(is, null, contributor, persist, contributionName, translationBundle, key);
+	}
+
+	/**
+	 * Adds a contribution from a manifest which has been parsed already.
+	 * @see #addContribution(InputStream, IContributor, boolean, String, ResourceBundle, Object, long)
+	 */
+	public boolean addContribution(RecordedManifest manifest, IContributor contributor, boolean persist, String contributionName, ResourceBundle translationBundle, Object key, long timestamp) {
+		boolean result = addContribution(null, manifest, contributor, persist, contributionName, translationBundle, key);
+		if (timestamp != 0)
+			aggregatedTimestamp.add(timestamp);
+		return result;
+	}
+
+	// either the stream or the recorded manifest is not null
+	private boolean addContribution(InputStream is, RecordedManifest manifest, IContributor contributor, boolean persist, String contributionName, ResourceBundle translationBundle, Object key) {
 		if (!checkReadWriteAccess(key, persist))
 			throw new IllegalArgumentException("Unauthorized access to the ExtensionRegistry.addContribution() method. Check if proper access token is supplied."); //$NON-NLS-1$
 		if (contributionName == null)
@@ -1059,7 +1093,10 @@ public class ExtensionRegistry implements IExtensionRegistry, IDynamicExtensionR
 		Contribution contribution = getElementFactory().createContribution(internalContributor.getActualId(), persist);
 
 		try {
-			parser.parseManifest(strategy.getXMLParser(), new InputSource(is), contributionName, getObjectManager(), contribution, translationBundle);
+			if (manifest != null)
+				parser.parseManifest(manifest, contributionName, getObjectManager(), contribution, translationBundle);
+			else
+				parser.parseManifest(strategy.getXMLParser(), new InputSource(is), contributionName, getObjectManager(), contribution, translationBundle);
 			int status = problems.getSeverity();
 			if (status != IStatus.OK) {
 				log(problems);
@@ -1077,7 +1114,8 @@ public class ExtensionRegistry implements IExtensionRegistry, IDynamicExtensionR
 			return false;
 		} finally {
 			try {
-				is.close();
+				if (is != null)
+					is.close();
 			} catch (IOException ioe) {
 				// nothing to do
 			}
@@ -1347,7 +1385,7 @@ public class ExtensionRegistry implements IExtensionRegistry, IDynamicExtensionR
 			fireRegistryChangeEvent();
 			eventDelta = null;
 		} finally {
-			access.exitWrite();
+			exitWrite();
 		}
 		return true;
 	}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2009 IBM Corporation and others.
+ * Copyright (c) 2000, 2015 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -13,8 +13,7 @@ package org.eclipse.core.internal.registry;
 
 import java.io.IOException;
 import java.util.*;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.parsers.SAXParserFactory;
+import javax.xml.parsers.*;
 import org.eclipse.core.runtime.*;
 import org.eclipse.osgi.util.NLS;
 import org.xml.sax.*;
@@ -25,6 +24,8 @@ public class ExtensionsParser extends DefaultHandler {
 	private final static String NO_EXTENSION_MUNGING = "eclipse.noExtensionMunging"; //$NON-NLS-1$ //System property
 	private static final String VERSION_3_0 = "3.0"; //$NON-NLS-1$
 	private static final String VERSION_3_2 = "3.2"; //$NON-NLS-1$
+	// the longest attribute value shared through the string table; longer values seldom repeat
+	private static final int MAX_SHARED_VALUE_LENGTH = 64;
 	private static Map extensionPointMap;
 
 	static {
@@ -324,7 +325,7 @@ public class ExtensionsParser extends DefaultHandler {
 		ConfigurationElement currentConfigurationElement = registry.getElementFactory().createConfigurationElement(contribution.shouldPersist());
 		currentConfigurationElement.setContributorId(contribution.getContributorId());
 		objectStack.push(currentConfigurationElement);
-		currentConfigurationElement.setName(elementName);
+		currentConfigurationElement.setName(registry.getStringTable().intern(elementName));
 
 		// Processing the attributes of a configuration element involves creating
 		// a new configuration property for each attribute and populating the configuration
@@ -395,14 +396,7 @@ public class ExtensionsParser extends DefaultHandler {
 			locationName = in.getSystemId();
 			if (locationName == null)
 				locationName = manifestName;
-			factory.setNamespaceAware(true);
-			try {
-				factory.setFeature("http://xml.org/sax/features/string-interning", true); //$NON-NLS-1$
-			} catch (SAXException se) {
-				// ignore; we can still operate without string-interning
-			}
-			factory.setValidating(false);
-			factory.newSAXParser().parse(in, this);
+			createParser(factory).parse(in, this);
 			return (Contribution) objectStack.pop();
 		} finally {
 			if (registry.debug()) {
@@ -412,6 +406,32 @@ public class ExtensionsParser extends DefaultHandler {
 		}
 	}
 
+	/**
+	 * Builds the contribution from a manifest which has been parsed already.
+	 */
+	public Contribution parseManifest(RecordedManifest in, String manifestName, RegistryObjectManager registryObjects, Contribution currentNamespace, ResourceBundle bundle) throws ParserConfigurationException, SAXException, IOException {
+		this.resources = bundle;
+		this.objectManager = registryObjects;
+		this.contribution = currentNamespace;
+		locationName = in.getSystemId();
+		if (locationName == null)
+			locationName = manifestName;
+		in.replay(this);
+		return (Contribution) objectStack.pop();
+	}
+
+	// Not thread safe; the factory is configured for every parser it creates
+	static SAXParser createParser(SAXParserFactory factory) throws ParserConfigurationException, SAXException {
+		factory.setNamespaceAware(true);
+		try {
+			factory.setFeature("http://xml.org/sax/features/string-interning", true); //$NON-NLS-1$
+		} catch (SAXException se) {
+			// ignore; we can still operate without string-interning
+		}
+		factory.setValidating(false);
+		return factory.newSAXParser();
+	}
+
 	private void parseConfigurationElementAttributes(Attributes attributes) {
 		ConfigurationElement parentConfigurationElement = (ConfigurationElement) objectStack.peek();
 
@@ -421,10 +441,17 @@ public class ExtensionsParser extends DefaultHandler {
 			parentConfigurationElement.setProperties(RegistryObjectManager.EMPTY_STRING_ARRAY);
 			return;
 		}
+		// attribute names and short values repeat across elements; share a single instance of each.
+		// Translated values are not shared, as they depend on the locale.
+		StringTable strings = registry.getStringTable();
 		String[] properties = new String[len * 2];
 		for (int i = 0; i < len; i++) {
-			properties[i * 2] = attributes.getLocalName(i);
-			properties[i * 2 + 1] = translate(attributes.getValue(i));
+			properties[i * 2] = strings.intern(attributes.getLocalName(i));
+			String value = attributes.getValue(i);
+			if (value.length() <= MAX_SHARED_VALUE_LENGTH && !value.startsWith("%")) //$NON-NLS-1$
+				properties[i * 2 + 1] = strings.intern(value);
+			else
+				properties[i * 2 + 1] = translate(value);
 		}
 		parentConfigurationElement.setProperties(properties);
 		properties = null;
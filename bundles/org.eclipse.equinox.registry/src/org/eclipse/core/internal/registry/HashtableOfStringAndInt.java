@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2006 IBM Corporation and others.
+ * Copyright (c) 2000, 2015 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -40,20 +40,16 @@ public final class HashtableOfStringAndInt implements Cloneable {
 		this.valueTable = new int[extraRoom];
 	}
 
-	public Object clone() throws CloneNotSupportedException {
-		throw new CloneNotSupportedException();
-		//		HashtableOfStringAndInt result = (HashtableOfStringAndInt) super.clone();
-		//		result.elementSize = this.elementSize;
-		//		result.threshold = this.threshold;
-		//
-		//		int length = this.keyTable.length;
-		//		result.keyTable = new char[length][];
-		//		System.arraycopy(this.keyTable, 0, result.keyTable, 0, length);
-		//
-		//		length = this.valueTable.length;
-		//		result.valueTable = new Object[length];
-		//		System.arraycopy(this.valueTable, 0, result.valueTable, 0, length);
-		//		return result;
+	public Object clone() {
+		HashtableOfStringAndInt result;
+		try {
+			result = (HashtableOfStringAndInt) super.clone();
+		} catch (CloneNotSupportedException e) {
+			throw new InternalError();
+		}
+		result.keyTable = (String[]) keyTable.clone();
+		result.valueTable = (int[]) valueTable.clone();
+		return result;
 	}
 
 	public boolean containsKey(String key) {
@@ -0,0 +1,99 @@
+/*******************************************************************************
+ * Copyright (c) 2015 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.registry;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Provides random read access to a file mapped into memory.
+ * <p>
+ * Every call to {@link #getInput(int)} returns a stream with its own position, so
+ * several threads can read from the file concurrently without synchronization.
+ * This class requires java.nio and must not be used on platforms that lack it.
+ * </p>
+ */
+public class MappedInputFile {
+
+	private final ByteBuffer buffer;
+	private final String filePath; // Canonical path to the underlying file used for logging
+
+	public MappedInputFile(File file) throws IOException {
+		filePath = file.getCanonicalPath();
+		RandomAccessFile inputFile = new RandomAccessFile(file, "r"); //$NON-NLS-1$
+		try {
+			FileChannel channel = inputFile.getChannel();
+			// the mapping stays valid after the file is closed
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			inputFile.close();
+		}
+	}
+
+	/**
+	 * Returns a stream reading the file from the given offset.
+	 *
+	 * @param offset offset
+	 * @return a new stream
+	 * @throws IOException if the offset is outside of the file
+	 */
+	public DataInputStream getInput(int offset) throws IOException {
+		if (offset < 0 || offset > buffer.limit())
+			throw new EOFException(filePath);
+		// the views share the content but not the position
+		ByteBuffer view = buffer.duplicate();
+		view.position(offset);
+		return new DataInputStream(new ByteBufferInputStream(view));
+	}
+
+	public String toString() {
+		return filePath;
+	}
+
+	private static class ByteBufferInputStream extends InputStream {
+		private final ByteBuffer buffer;
+
+		ByteBufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		public int read() {
+			if (!buffer.hasRemaining())
+				return -1;
+			return buffer.get() & 0xFF;
+		}
+
+		public int read(byte b[], int off, int len) {
+			if (len == 0)
+				return 0;
+			int available = buffer.remaining();
+			if (available == 0)
+				return -1;
+			if (len > available)
+				len = available;
+			buffer.get(b, off, len);
+			return len;
+		}
+
+		public long skip(long n) {
+			if (n <= 0)
+				return 0;
+			int skipped = (int) Math.min(n, buffer.remaining());
+			buffer.position(buffer.position() + skipped);
+			return skipped;
+		}
+
+		public int available() {
+			return buffer.remaining();
+		}
+	}
+}
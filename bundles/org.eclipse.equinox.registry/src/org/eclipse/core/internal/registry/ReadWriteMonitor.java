@@ -87,6 +87,14 @@ public class ReadWriteMonitor {
 		}
 	}
 
+	/**
+	 * Returns whether the next exitWrite() of the current thread releases the
+	 * write lock.
+	 */
+	public synchronized boolean isLastWrite() {
+		return writeLockowner == Thread.currentThread() && status == -1;
+	}
+
 	public String toString() {
 		StringBuffer buffer = new StringBuffer();
 		buffer.append(this.hashCode());
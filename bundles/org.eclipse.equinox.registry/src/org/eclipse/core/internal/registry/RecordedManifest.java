@@ -0,0 +1,261 @@
+/*******************************************************************************
+ * Copyright (c) 2015 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.registry;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import javax.xml.parsers.*;
+import org.xml.sax.*;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * The SAX events of a parsed manifest.
+ * <p>
+ * Parsing a manifest does not touch the registry, so manifests can be recorded
+ * concurrently. The events are replayed into an {@link ExtensionsParser} which
+ * builds the registry objects, so the objects are created in the order the
+ * manifests are replayed in.
+ * </p>
+ */
+public class RecordedManifest extends DefaultHandler implements Locator {
+	private static final byte START_DOCUMENT = 0;
+	private static final byte END_DOCUMENT = 1;
+	private static final byte START_ELEMENT = 2;
+	private static final byte END_ELEMENT = 3;
+	private static final byte CHARACTERS = 4;
+	private static final byte PROCESSING_INSTRUCTION = 5;
+	private static final byte WARNING = 6;
+	private static final byte ERROR = 7;
+	private static final byte FATAL_ERROR = 8;
+
+	private static class Event {
+		byte type;
+		int lineNumber;
+		int columnNumber;
+		String uri; // or the target of a processing instruction
+		String localName; // or the data of a processing instruction or the characters
+		String qName;
+		Attributes attributes;
+		SAXParseException exception;
+	}
+
+	private ArrayList events = new ArrayList();
+	private Exception failure; // the exception the parse ended with
+	private Locator recordingLocator;
+	private String publicId;
+	private String systemId;
+	private Event current; // the event being replayed
+
+	/**
+	 * Parses the manifest and records its events. Problems are recorded as well
+	 * and reported when the manifest is replayed.
+	 *
+	 * @param factory the factory to create the parser with; may be used by several threads
+	 * @param in the manifest
+	 */
+	public void record(SAXParserFactory factory, InputSource in) {
+		try {
+			if (factory == null)
+				throw new SAXException(RegistryMessages.parse_xmlParserNotAvailable);
+			SAXParser parser;
+			synchronized (factory) {
+				parser = ExtensionsParser.createParser(factory);
+			}
+			parser.parse(in, this);
+		} catch (ParserConfigurationException e) {
+			failure = e;
+		} catch (SAXException e) {
+			failure = e;
+		} catch (IOException e) {
+			failure = e;
+		} finally {
+			recordingLocator = null;
+		}
+	}
+
+	/**
+	 * Sends the recorded events to the handler.
+	 *
+	 * @param handler the handler
+	 * @throws ParserConfigurationException if the manifest parser could not be created
+	 * @throws SAXException if the manifest could not be parsed
+	 * @throws IOException if the manifest could not be read
+	 */
+	public void replay(DefaultHandler handler) throws ParserConfigurationException, SAXException, IOException {
+		handler.setDocumentLocator(this);
+		for (int i = 0; i < events.size(); i++) {
+			current = (Event) events.get(i);
+			switch (current.type) {
+				case START_DOCUMENT :
+					handler.startDocument();
+					break;
+				case END_DOCUMENT :
+					handler.endDocument();
+					break;
+				case START_ELEMENT :
+					handler.startElement(current.uri, current.localName, current.qName, current.attributes);
+					break;
+				case END_ELEMENT :
+					handler.endElement(current.uri, current.localName, current.qName);
+					break;
+				case CHARACTERS :
+					char[] ch = current.localName.toCharArray();
+					handler.characters(ch, 0, ch.length);
+					break;
+				case PROCESSING_INSTRUCTION :
+					handler.processingInstruction(current.uri, current.localName);
+					break;
+				case WARNING :
+					handler.warning(current.exception);
+					break;
+				case ERROR :
+					handler.error(current.exception);
+					break;
+				case FATAL_ERROR :
+					handler.fatalError(current.exception);
+					break;
+			}
+		}
+		current = null;
+		if (failure instanceof ParserConfigurationException)
+			throw (ParserConfigurationException) failure;
+		if (failure instanceof SAXException)
+			throw (SAXException) failure;
+		if (failure instanceof IOException)
+			throw (IOException) failure;
+	}
+
+	private Event addEvent(byte type) {
+		Event event = new Event();
+		event.type = type;
+		if (recordingLocator != null) {
+			event.lineNumber = recordingLocator.getLineNumber();
+			event.columnNumber = recordingLocator.getColumnNumber();
+		} else {
+			event.lineNumber = -1;
+			event.columnNumber = -1;
+		}
+		events.add(event);
+		return event;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.xml.sax.helpers.DefaultHandler#setDocumentLocator(org.xml.sax.Locator)
+	 */
+	public void setDocumentLocator(Locator locator) {
+		recordingLocator = locator;
+		publicId = locator.getPublicId();
+		systemId = locator.getSystemId();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.xml.sax.helpers.DefaultHandler#startDocument()
+	 */
+	public void startDocument() {
+		addEvent(START_DOCUMENT);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.xml.sax.helpers.DefaultHandler#endDocument()
+	 */
+	public void endDocument() {
+		addEvent(END_DOCUMENT);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.xml.sax.helpers.DefaultHandler#startElement(java.lang.String, java.lang.String, java.lang.String, org.xml.sax.Attributes)
+	 */
+	public void startElement(String uri, String localName, String qName, Attributes attributes) {
+		Event event = addEvent(START_ELEMENT);
+		event.uri = uri;
+		event.localName = localName;
+		event.qName = qName;
+		// the parser reuses the attributes
+		event.attributes = new AttributesImpl(attributes);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.xml.sax.helpers.DefaultHandler#endElement(java.lang.String, java.lang.String, java.lang.String)
+	 */
+	public void endElement(String uri, String localName, String qName) {
+		Event event = addEvent(END_ELEMENT);
+		event.uri = uri;
+		event.localName = localName;
+		event.qName = qName;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.xml.sax.helpers.DefaultHandler#characters(char[], int, int)
+	 */
+	public void characters(char[] ch, int start, int length) {
+		addEvent(CHARACTERS).localName = new String(ch, start, length);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.xml.sax.helpers.DefaultHandler#processingInstruction(java.lang.String, java.lang.String)
+	 */
+	public void processingInstruction(String target, String data) {
+		Event event = addEvent(PROCESSING_INSTRUCTION);
+		event.uri = target;
+		event.localName = data;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.xml.sax.helpers.DefaultHandler#warning(org.xml.sax.SAXParseException)
+	 */
+	public void warning(SAXParseException ex) {
+		addEvent(WARNING).exception = ex;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.xml.sax.helpers.DefaultHandler#error(org.xml.sax.SAXParseException)
+	 */
+	public void error(SAXParseException ex) {
+		addEvent(ERROR).exception = ex;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.xml.sax.helpers.DefaultHandler#fatalError(org.xml.sax.SAXParseException)
+	 */
+	public void fatalError(SAXParseException ex) throws SAXException {
+		addEvent(FATAL_ERROR).exception = ex;
+		throw ex;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.xml.sax.Locator#getPublicId()
+	 */
+	public String getPublicId() {
+		return publicId;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.xml.sax.Locator#getSystemId()
+	 */
+	public String getSystemId() {
+		return systemId;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.xml.sax.Locator#getLineNumber()
+	 */
+	public int getLineNumber() {
+		return current == null ? -1 : current.lineNumber;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.xml.sax.Locator#getColumnNumber()
+	 */
+	public int getColumnNumber() {
+		return current == null ? -1 : current.columnNumber;
+	}
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2006 IBM Corporation and others.
+ * Copyright (c) 2000, 2015 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -62,6 +62,14 @@ public class RegistryDelta {
 		((ExtensionDelta) extensionDelta).setContainingDelta(this);
 	}
 
+	/**
+	 * Moves the extension deltas of the given delta into this delta.
+	 */
+	void merge(RegistryDelta other) {
+		for (Iterator iter = other.extensionDeltas.iterator(); iter.hasNext();)
+			addExtensionDelta((IExtensionDelta) iter.next());
+	}
+
 	public String toString() {
 		return "\n\tHost " + ": " + extensionDeltas; //$NON-NLS-1$//$NON-NLS-2$
 	}
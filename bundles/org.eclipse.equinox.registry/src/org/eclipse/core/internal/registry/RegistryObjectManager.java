@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2004, 2012 IBM Corporation and others.
+ * Copyright (c) 2004, 2015 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -20,6 +20,13 @@ import org.eclipse.core.runtime.spi.RegistryContributor;
  * This class manage all the object from the registry but does not deal with their dependencies.
  * It serves the objects which are either directly obtained from memory or read from a cache.
  * It also returns handles for objects.
+ * <p>
+ * Queries for extension points read a snapshot of the extension point table. Writers
+ * modify a private copy of the table which is published by {@link #publish()} when the
+ * write completes, so readers never see the table half way through a change and do not
+ * need to lock it. The objects are served from a segmented cache which readers can access
+ * without holding the lock of this object manager.
+ * </p>
  */
 public class RegistryObjectManager implements IObjectManager {
 	//Constants used to get the objects and their handles
@@ -40,10 +47,12 @@ public class RegistryObjectManager implements IObjectManager {
 
 	// key: extensionPointName, value: object id
 	private HashtableOfStringAndInt extensionPoints; //This is loaded on startup. Then entries can be added when loading a new plugin from the xml.
+	// the snapshot of the extension point table seen by readers. The table is shared with extensionPoints until it is modified
+	private volatile HashtableOfStringAndInt publishedExtensionPoints;
 	// key: object id, value: an object
-	private ReferenceMap cache; //Entries are added by getter. The structure is not thread safe.
+	private SegmentedReferenceMap cache; //Entries are added by getter.
 	//key: int, value: int
-	private OffsetTable fileOffsets = null; //This is read once on startup when loading from the cache. Entries are never added here. They are only removed to prevent "removed" objects to be reloaded.
+	private OffsetTable fileOffsets = null; //This is read once on startup when loading from the cache. Entries are never added here. They are only removed, under the cache lock of the key, to prevent "removed" objects to be reloaded.
 
 	private int nextId = 1; //This is only used to get the next number available.
 
@@ -65,6 +74,9 @@ public class RegistryObjectManager implements IObjectManager {
 	//Indicate if objects have been removed or added from the table. This only needs to be set in a couple of places (addNamespace and removeNamespace)
 	private boolean isDirty = false;
 
+	// The ids of the contributors whose registry objects changed. Only their objects are written when the cache is saved.
+	private HashSet dirtyContributors = new HashSet();
+
 	private boolean fromCache = false;
 
 	private ExtensionRegistry registry;
@@ -75,10 +87,11 @@ public class RegistryObjectManager implements IObjectManager {
 
 	public RegistryObjectManager(ExtensionRegistry registry) {
 		extensionPoints = new HashtableOfStringAndInt();
+		publishedExtensionPoints = extensionPoints;
 		if ("true".equalsIgnoreCase(RegistryProperties.getProperty(PROP_NO_REGISTRY_FLUSHING))) { //$NON-NLS-1$
-			cache = new ReferenceMap(ReferenceMap.HARD, CACHE_INITIAL_SIZE, DEFAULT_LOADFACTOR);
+			cache = new SegmentedReferenceMap(ReferenceMap.HARD, CACHE_INITIAL_SIZE, DEFAULT_LOADFACTOR);
 		} else {
-			cache = new ReferenceMap(ReferenceMap.SOFT, CACHE_INITIAL_SIZE, DEFAULT_LOADFACTOR);
+			cache = new SegmentedReferenceMap(ReferenceMap.SOFT, CACHE_INITIAL_SIZE, DEFAULT_LOADFACTOR);
 		}
 		newContributions = new KeyedHashSet();
 
@@ -96,6 +109,7 @@ public class RegistryObjectManager implements IObjectManager {
 		}
 		fileOffsets = (OffsetTable) results[0];
 		extensionPoints = (HashtableOfStringAndInt) results[1];
+		publishedExtensionPoints = extensionPoints;
 		nextId = ((Integer) results[2]).intValue();
 		fromCache = true;
 
@@ -110,8 +124,8 @@ public class RegistryObjectManager implements IObjectManager {
 	}
 
 	synchronized void addContribution(Contribution contribution) {
-		isDirty = true;
 		Object Id = contribution.getKey();
+		markDirty((String) Id);
 
 		KeyedElement existingContribution = getFormerContributions().getByKey(Id);
 		if (existingContribution != null) { // move it from former to new contributions
@@ -227,39 +241,44 @@ public class RegistryObjectManager implements IObjectManager {
 		return result;
 	}
 
-	synchronized public void add(RegistryObject registryObject, boolean hold) {
+	// Not synchronized: the table reader adds the objects it loads while holding its file locks.
+	// Only new objects, which are never loaded, take the lock of this object manager.
+	public void add(RegistryObject registryObject, boolean hold) {
 		if (registryObject.getObjectId() == UNKNOWN) {
-			int id = nextId++;
-			registryObject.setObjectId(id);
+			synchronized (this) {
+				int id = nextId++;
+				registryObject.setObjectId(id);
+			}
 		}
 		cache.put(registryObject.getObjectId(), registryObject);
 		if (hold)
 			hold(registryObject);
 	}
 
-	private void remove(RegistryObject registryObject, boolean release) {
-		cache.remove(registryObject.getObjectId());
-		if (release)
-			release(registryObject);
-	}
-
 	synchronized void remove(int id, boolean release) {
-		RegistryObject toRemove = (RegistryObject) cache.get(id);
-		if (fileOffsets != null)
-			fileOffsets.removeKey(id);
-		if (toRemove != null)
-			remove(toRemove, release);
+		RegistryObject toRemove;
+		synchronized (cache.getLock(id)) {
+			if (fileOffsets != null)
+				fileOffsets.removeKey(id);
+			toRemove = (RegistryObject) cache.remove(id);
+		}
+		if (toRemove != null && release)
+			release(toRemove);
 	}
 
 	private void hold(RegistryObject toHold) {
-		heldObjects.add(toHold);
+		synchronized (heldObjects) {
+			heldObjects.add(toHold);
+		}
 	}
 
 	private void release(RegistryObject toRelease) {
-		heldObjects.remove(toRelease);
+		synchronized (heldObjects) {
+			heldObjects.remove(toRelease);
+		}
 	}
 
-	public synchronized Object getObject(int id, byte type) {
+	public Object getObject(int id, byte type) {
 		return basicGetObject(id, type);
 	}
 
@@ -271,7 +290,16 @@ public class RegistryObjectManager implements IObjectManager {
 			result = load(id, type);
 		if (result == null)
 			throw new InvalidRegistryObjectException();
-		cache.put(id, result);
+		// The object was loaded without a lock. Another thread may have loaded it as well,
+		// or removed it from the registry, in the meantime.
+		synchronized (cache.getLock(id)) {
+			Object existing = cache.get(id);
+			if (existing != null)
+				return existing;
+			if (fileOffsets != null && fileOffsets.get(id) == Integer.MIN_VALUE)
+				throw new InvalidRegistryObjectException();
+			cache.put(id, result);
+		}
 		return result;
 	}
 
@@ -290,7 +318,7 @@ public class RegistryObjectManager implements IObjectManager {
 		return true;
 	}
 
-	public synchronized RegistryObject[] getObjects(int[] values, byte type) {
+	public RegistryObject[] getObjects(int[] values, byte type) {
 		if (values.length == 0) {
 			switch (type) {
 				case EXTENSION_POINT :
@@ -389,12 +417,14 @@ public class RegistryObjectManager implements IObjectManager {
 		return results;
 	}
 
-	synchronized ExtensionPointHandle[] getExtensionPointsHandles() {
-		return (ExtensionPointHandle[]) getHandles(extensionPoints.getValues(), EXTENSION_POINT);
+	// Reads the published snapshot; does not see changes of a write in progress
+	ExtensionPointHandle[] getExtensionPointsHandles() {
+		return (ExtensionPointHandle[]) getHandles(publishedExtensionPoints.getValues(), EXTENSION_POINT);
 	}
 
-	synchronized ExtensionPointHandle getExtensionPointHandle(String xptUniqueId) {
-		int id = extensionPoints.get(xptUniqueId);
+	// Reads the published snapshot; does not see changes of a write in progress
+	ExtensionPointHandle getExtensionPointHandle(String xptUniqueId) {
+		int id = publishedExtensionPoints.get(xptUniqueId);
 		if (id == HashtableOfStringAndInt.MISSING_ELEMENT)
 			return null;
 		return (ExtensionPointHandle) getHandle(id, EXTENSION_POINT);
@@ -419,7 +449,7 @@ public class RegistryObjectManager implements IObjectManager {
 
 			case EXTENSION_POINT :
 			default : //avoid compile errors. type must always be known
-				return reader.loadExtensionPointTree(offset, this);
+				return reader.loadExtensionPoint(offset);
 		}
 	}
 
@@ -437,17 +467,32 @@ public class RegistryObjectManager implements IObjectManager {
 		if (extensionPoints.get(uniqueId) != HashtableOfStringAndInt.MISSING_ELEMENT)
 			return false;
 		add(currentExtPoint, hold);
-		extensionPoints.put(uniqueId, currentExtPoint.getObjectId());
+		getWritableExtensionPoints().put(uniqueId, currentExtPoint.getObjectId());
 		return true;
 	}
 
 	synchronized void removeExtensionPoint(String extensionPointId) {
-		int pointId = extensionPoints.removeKey(extensionPointId);
-		if (pointId == HashtableOfStringAndInt.MISSING_ELEMENT)
+		if (extensionPoints.get(extensionPointId) == HashtableOfStringAndInt.MISSING_ELEMENT)
 			return;
+		int pointId = getWritableExtensionPoints().removeKey(extensionPointId);
 		remove(pointId, true);
 	}
 
+	// Copies the extension point table on the first change after it was published
+	private HashtableOfStringAndInt getWritableExtensionPoints() {
+		if (extensionPoints == publishedExtensionPoints)
+			extensionPoints = (HashtableOfStringAndInt) extensionPoints.clone();
+		return extensionPoints;
+	}
+
+	/**
+	 * Publishes the changes made to the extension point table to the readers. Called when
+	 * a write to the registry completes.
+	 */
+	synchronized void publish() {
+		publishedExtensionPoints = extensionPoints;
+	}
+
 	public boolean isDirty() {
 		return isDirty;
 	}
@@ -456,6 +501,22 @@ public class RegistryObjectManager implements IObjectManager {
 		isDirty = true;
 	}
 
+	/**
+	 * Marks the registry objects of the contributor as changed.
+	 */
+	public void markDirty(String contributorId) {
+		synchronized (dirtyContributors) {
+			dirtyContributors.add(contributorId);
+		}
+		isDirty = true;
+	}
+
+	boolean isDirty(String contributorId) {
+		synchronized (dirtyContributors) {
+			return dirtyContributors.contains(contributorId);
+		}
+	}
+
 	synchronized void removeContribution(Object contributorId) {
 		boolean removed = newContributions.removeByKey(contributorId);
 		if (removed == false) {
@@ -465,7 +526,7 @@ public class RegistryObjectManager implements IObjectManager {
 		}
 
 		if (removed) {
-			isDirty = true;
+			markDirty((String) contributorId);
 			return;
 		}
 
@@ -764,6 +825,7 @@ public class RegistryObjectManager implements IObjectManager {
 				continue;
 			if (candidate.hasChild(id)) {
 				candidate.unlinkChild(id);
+				markDirty(candidate.getContributorId());
 				if (candidate.isEmpty())
 					removeContribution(candidate.getContributorId());
 				return true;
@@ -0,0 +1,74 @@
+/*******************************************************************************
+ * Copyright (c) 2015 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.registry;
+
+/**
+ * A thread safe map of int keys to hard or soft referenced values. The keys are split
+ * over a fixed number of {@link ReferenceMap} segments, each guarded by its own monitor,
+ * so threads accessing different keys rarely contend.
+ * <p>
+ * A caller that needs several operations on a key to be atomic can synchronize on
+ * the lock returned by {@link #getLock(int)}.
+ * </p>
+ */
+public class SegmentedReferenceMap {
+	// must be a power of two
+	private static final int SEGMENTS = 16;
+
+	private final ReferenceMap[] segments = new ReferenceMap[SEGMENTS];
+
+	/**
+	 * Constructs a new map.
+	 *
+	 * @param referenceType the type of reference to use for values;
+	 * must be {@link ReferenceMap#HARD} or {@link ReferenceMap#SOFT}
+	 * @param capacity the initial capacity of the whole map
+	 * @param loadFactor the load factor of the segments
+	 */
+	public SegmentedReferenceMap(int referenceType, int capacity, float loadFactor) {
+		int segmentCapacity = Math.max(capacity / SEGMENTS, 1);
+		for (int i = 0; i < SEGMENTS; i++)
+			segments[i] = new ReferenceMap(referenceType, segmentCapacity, loadFactor);
+	}
+
+	/**
+	 * Returns the lock guarding the given key.
+	 */
+	public Object getLock(int key) {
+		return segmentFor(key);
+	}
+
+	public Object get(int key) {
+		ReferenceMap segment = segmentFor(key);
+		synchronized (segment) {
+			return segment.get(key);
+		}
+	}
+
+	public void put(int key, Object value) {
+		ReferenceMap segment = segmentFor(key);
+		synchronized (segment) {
+			segment.put(key, value);
+		}
+	}
+
+	public Object remove(int key) {
+		ReferenceMap segment = segmentFor(key);
+		synchronized (segment) {
+			return segment.remove(key);
+		}
+	}
+
+	private ReferenceMap segmentFor(int key) {
+		// object ids are allocated sequentially so the low bits spread them evenly
+		return segments[key & (SEGMENTS - 1)];
+	}
+}
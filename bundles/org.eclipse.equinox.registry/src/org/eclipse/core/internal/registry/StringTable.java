@@ -0,0 +1,138 @@
+/*******************************************************************************
+ * Copyright (c) 2015 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.registry;
+
+import java.io.*;
+import java.util.HashMap;
+
+/**
+ * The strings of the configuration elements in the registry. Each distinct string
+ * is kept once and identified by its index in the table.
+ * <p>
+ * The configuration elements in memory share the string instances of the table.
+ * While parsing, only the names and the short untranslated attribute values are
+ * added; the other values are added when the cache is saved. The index from a
+ * string to its position is only kept while strings are added, and is released
+ * once the contributions are added to the registry or the cache is saved.
+ * The registry cache refers to the strings by their index and stores the table
+ * once, so the indexes of the strings never change while the table is used.
+ * Strings are never removed; the cache starts from a new table whenever its
+ * data files are rewritten, which drops the strings no longer used.
+ * </p><p>
+ * The strings can be read by several threads while a single writer adds strings.
+ * </p>
+ */
+public class StringTable {
+	static final int NULL_INDEX = -1;
+
+	private static final float GROWTH_FACTOR = 1.5f;
+
+	private volatile String[] strings;
+	private int size = 0;
+
+	// key: string, value: Integer index. This is only built when strings are added.
+	private HashMap indexes = null;
+	// the number of strings read from the cache
+	private int loadedSize = 0;
+
+	public StringTable() {
+		this(16);
+	}
+
+	public StringTable(int capacity) {
+		strings = new String[Math.max(capacity, 1)];
+	}
+
+	/**
+	 * Returns the string at the given index.
+	 */
+	public String get(int index) {
+		if (index == NULL_INDEX)
+			return null;
+		return strings[index];
+	}
+
+	/**
+	 * Returns the index of the string, adding it to the table if needed.
+	 */
+	public synchronized int getIndex(String string) {
+		if (string == null)
+			return NULL_INDEX;
+		Integer index = (Integer) getIndexes().get(string);
+		if (index != null)
+			return index.intValue();
+		return add(string);
+	}
+
+	/**
+	 * Returns the instance of the string kept in the table, adding it to the table if needed.
+	 */
+	public synchronized String intern(String string) {
+		return get(getIndex(string));
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the number of strings which were read from the cache.
+	 */
+	public synchronized int loadedSize() {
+		return loadedSize;
+	}
+
+	/**
+	 * Discards the index of the strings. It is built again when a string is added.
+	 */
+	public synchronized void releaseIndexes() {
+		indexes = null;
+	}
+
+	private int add(String string) {
+		String[] current = strings;
+		if (size == current.length) {
+			String[] newStrings = new String[(int) (size * GROWTH_FACTOR) + 1];
+			System.arraycopy(current, 0, newStrings, 0, size);
+			newStrings[size] = string;
+			strings = newStrings;
+		} else
+			current[size] = string;
+		if (indexes != null)
+			indexes.put(string, new Integer(size));
+		return size++;
+	}
+
+	private HashMap getIndexes() {
+		if (indexes == null) {
+			indexes = new HashMap((int) (size * GROWTH_FACTOR) + 16);
+			for (int i = 0; i < size; i++)
+				indexes.put(strings[i], new Integer(i));
+		}
+		return indexes;
+	}
+
+	public synchronized void save(DataOutputStream out) throws IOException {
+		out.writeInt(size);
+		for (int i = 0; i < size; i++)
+			out.writeUTF(strings[i]);
+	}
+
+	static public StringTable load(DataInputStream in) throws IOException {
+		int tableSize = in.readInt();
+		StringTable result = new StringTable(tableSize);
+		for (int i = 0; i < tableSize; i++)
+			result.strings[i] = in.readUTF();
+		result.size = tableSize;
+		result.loadedSize = tableSize;
+		return result;
+	}
+}
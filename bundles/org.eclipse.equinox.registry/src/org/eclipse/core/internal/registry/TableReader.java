@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2004, 2009 IBM Corporation and others.
+ * Copyright (c) 2004, 2015 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -12,6 +12,8 @@ package org.eclipse.core.internal.registry;
 
 import java.io.*;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.zip.CRC32;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Status;
 import org.eclipse.core.runtime.spi.RegistryContributor;
@@ -23,27 +25,37 @@ public class TableReader {
 	static final int OBJECT = 1;
 
 	//The version of the cache
-	static final int CACHE_VERSION = 7;
+	static final int CACHE_VERSION = 9;
 	// Version 1 -> 2: the contributor Ids changed from "long" to "String"
 	// Version 2 -> 3: added namespace index and the table of contributors
 	// Version 3 -> 4: offset table saved in a binary form (performance)
 	// Version 4 -> 5: remove support added in version 4 to save offset table in a binary form (performance)
 	// Version 5 -> 6: replace HashtableOfInt with OffsetTable (memory usage optimization)
 	// Version 6 -> 7: added option for multi-language support
+	// Version 7 -> 8: data files split in checksummed segments per contributor; offset table saved with the segments
+	// Version 8 -> 9: strings of configuration elements saved once in a string table and referred to by index
 
 	//Informations representing the MAIN file
 	static final String MAIN = ".mainData"; //$NON-NLS-1$
+	File mainFile;
 	BufferedRandomInputStream mainDataFile = null;
 	DataInputStream mainInput = null;
+	MappedInputFile mappedMainDataFile = null; // used for random access if not null
 
 	//Informations representing the EXTRA file
 	static final String EXTRA = ".extraData"; //$NON-NLS-1$
+	File extraFile;
 	BufferedRandomInputStream extraDataFile = null;
 	DataInputStream extraInput = null;
+	MappedInputFile mappedExtraDataFile = null; // used for random access if not null
 
 	//The table file
 	static final String TABLE = ".table"; //$NON-NLS-1$
 	File tableFile;
+	// key: contributor id, value: CacheSegment. The segments of the data files read from the table file 
+	private HashMap segments = null;
+	// The strings of the configuration elements read from the table file
+	private StringTable strings = null;
 
 	//The contributions file
 	static final String CONTRIBUTIONS = ".contributions"; //$NON-NLS-1$
@@ -70,13 +82,31 @@ public class TableReader {
 	private ExtensionRegistry registry;
 
 	void setMainDataFile(File main) throws IOException {
+		mainFile = main;
 		mainDataFile = new BufferedRandomInputStream(main);
 		mainInput = new DataInputStream(mainDataFile);
+		mappedMainDataFile = map(main);
 	}
 
 	void setExtraDataFile(File extra) throws IOException {
+		extraFile = extra;
 		extraDataFile = new BufferedRandomInputStream(extra);
 		extraInput = new DataInputStream(extraDataFile);
+		mappedExtraDataFile = map(extra);
+	}
+
+	// Maps the file into memory for lazy loading. The buffered streams are used if
+	// the file can not be mapped, e.g. on platforms without java.nio.
+	private MappedInputFile map(File file) {
+		if ("true".equalsIgnoreCase(RegistryProperties.getProperty(IRegistryConstants.PROP_NO_CACHE_MAPPING))) //$NON-NLS-1$
+			return null;
+		try {
+			return new MappedInputFile(file);
+		} catch (IOException e) {
+			return null;
+		} catch (LinkageError e) {
+			return null;
+		}
 	}
 
 	void setTableFile(File table) {
@@ -114,9 +144,23 @@ public class TableReader {
 				return null;
 
 			Integer nextId = new Integer(tableInput.readInt());
-			OffsetTable offsets = OffsetTable.load(tableInput);
+			OffsetTable offsets = new OffsetTable(nextId.intValue());
+			int numberOfSegments = tableInput.readInt();
+			HashMap loadedSegments = new HashMap(numberOfSegments);
+			for (int i = 0; i < numberOfSegments; i++) {
+				CacheSegment segment = CacheSegment.load(tableInput);
+				if (!checkSegmentValidity(segment))
+					return null;
+				for (int j = 0; j < segment.ids.length; j++)
+					offsets.put(segment.ids[j], segment.offsets[j]);
+				loadedSegments.put(segment.contributorId, segment);
+			}
+			StringTable loadedStrings = StringTable.load(tableInput);
 			extensionPoints = new HashtableOfStringAndInt();
 			extensionPoints.load(tableInput);
+			segments = loadedSegments;
+			strings = loadedStrings;
+			registry.setStringTable(loadedStrings);
 			return new Object[] {offsets, extensionPoints, nextId};
 		} catch (IOException e) {
 			log(new Status(IStatus.ERROR, RegistryMessages.OWNER_NAME, fileError, RegistryMessages.meta_registryCacheReadProblems, e));
@@ -142,8 +186,6 @@ public class TableReader {
 
 			long installStamp = in.readLong();
 			long registryStamp = in.readLong();
-			long mainDataFileSize = in.readLong();
-			long extraDataFileSize = in.readLong();
 			long contributionsFileSize = in.readLong();
 			long contributorsFileSize = in.readLong();
 			long namespacesFileSize = in.readLong();
@@ -163,22 +205,98 @@ public class TableReader {
 			if (!validTime || !validInstall || !validOS || !validWS || !validNL || !validMultiLang)
 				return false;
 
-			boolean validMain = (mainDataFileSize == mainDataFile.length());
-			boolean validExtra = (extraDataFileSize == extraDataFile.length());
 			boolean validContrib = (contributionsFileSize == contributionsFile.length());
 			boolean validContributors = (contributorsFileSize == contributorsFile.length());
 			boolean validNamespace = (namespacesFileSize == namespacesFile.length());
 			boolean validOrphan = (orphansFileSize == orphansFile.length());
 
-			return (validMain && validExtra && validContrib && validContributors && validNamespace && validOrphan);
+			return (validContrib && validContributors && validNamespace && validOrphan);
 		} catch (IOException e) {
 			log(new Status(IStatus.ERROR, RegistryMessages.OWNER_NAME, fileError, RegistryMessages.meta_registryCacheInconsistent, e));
 			return false;
 		}
 	}
 
+	// Check that the regions of the segment are in the data files and have the expected contents. The data
+	// files might have been appended to after the table file was written, so they can be longer than the segments.
+	private boolean checkSegmentValidity(CacheSegment segment) throws IOException {
+		if (segment.mainOffset < 0 || segment.mainLength < 0 || (long) segment.mainOffset + segment.mainLength > mainDataFile.length())
+			return false;
+		if (segment.extraOffset < 0 || segment.extraLength < 0 || (long) segment.extraOffset + segment.extraLength > extraDataFile.length())
+			return false;
+		// each object lies in the region of the main or the extra data file
+		for (int i = 0; i < segment.offsets.length; i++) {
+			int offset = segment.offsets[i];
+			boolean inMain = offset >= segment.mainOffset && offset - segment.mainOffset < segment.mainLength;
+			boolean inExtra = offset >= segment.extraOffset && offset - segment.extraOffset < segment.extraLength;
+			if (!inMain && !inExtra)
+				return false;
+		}
+		int mainChecksum;
+		if (mappedMainDataFile != null)
+			mainChecksum = computeChecksum(mappedMainDataFile.getInput(segment.mainOffset), segment.mainLength);
+		else {
+			synchronized (mainDataFile) {
+				goToInputFile(segment.mainOffset);
+				mainChecksum = computeChecksum(mainInput, segment.mainLength);
+			}
+		}
+		if (mainChecksum != segment.mainChecksum)
+			return false;
+		int extraChecksum;
+		if (mappedExtraDataFile != null)
+			extraChecksum = computeChecksum(mappedExtraDataFile.getInput(segment.extraOffset), segment.extraLength);
+		else {
+			synchronized (extraDataFile) {
+				goToExtraFile(segment.extraOffset);
+				extraChecksum = computeChecksum(extraInput, segment.extraLength);
+			}
+		}
+		return extraChecksum == segment.extraChecksum;
+	}
+
+	private int computeChecksum(DataInputStream in, int length) throws IOException {
+		CRC32 checksum = new CRC32();
+		byte[] buffer = new byte[Math.min(length, 8192)];
+		while (length > 0) {
+			int count = Math.min(length, buffer.length);
+			in.readFully(buffer, 0, count);
+			checksum.update(buffer, 0, count);
+			length -= count;
+		}
+		return (int) checksum.getValue();
+	}
+
+	/**
+	 * Returns the segments read from the cache if the data files read are the given files and
+	 * can be appended to, or <code>null</code> if the cache must be rewritten.
+	 */
+	HashMap getReusableSegments(File main, File extra) {
+		if (segments == null || !main.equals(mainFile) || !extra.equals(extraFile))
+			return null;
+		// the segments of the contributors that changed are replaced or dropped when the cache is saved
+		RegistryObjectManager objectManager = registry.getObjectManager();
+		long kept = 0;
+		for (Iterator iter = segments.values().iterator(); iter.hasNext();) {
+			CacheSegment segment = (CacheSegment) iter.next();
+			if (!objectManager.isDirty(segment.contributorId))
+				kept += segment.mainLength + segment.extraLength;
+		}
+		// compact the data files once most of their contents would be unused
+		long unused = main.length() + extra.length() - kept;
+		if (unused > kept)
+			return null;
+		// the reused segments refer to the string table read on startup, which only grows; rewriting
+		// the data files starts a new table with the strings still used
+		if (strings.size() > 2 * strings.loadedSize())
+			return null;
+		return segments;
+	}
+
 	public Object loadConfigurationElement(int offset) {
 		try {
+			if (mappedMainDataFile != null)
+				return basicLoadConfigurationElement(mappedMainDataFile.getInput(offset), null);
 			synchronized (mainDataFile) {
 				goToInputFile(offset);
 				return basicLoadConfigurationElement(mainInput, null);
@@ -194,8 +312,8 @@ public class TableReader {
 
 	private ConfigurationElement basicLoadConfigurationElement(DataInputStream is, String actualContributorId) throws IOException {
 		int self = is.readInt();
-		String contributorId = readStringOrNull(is);
-		String name = readStringOrNull(is);
+		String contributorId = strings.get(is.readInt());
+		String name = strings.get(is.readInt());
 		int parentId = is.readInt();
 		byte parentType = is.readByte();
 		int misc = is.readInt();//this is set in second level CEs, to indicate where in the extra data file the children CEs are
@@ -235,6 +353,8 @@ public class TableReader {
 
 	public Object loadThirdLevelConfigurationElements(int offset, RegistryObjectManager objectManager) {
 		try {
+			if (mappedExtraDataFile != null)
+				return loadConfigurationElementAndChildren(null, mappedExtraDataFile.getInput(offset), 3, Integer.MAX_VALUE, objectManager, null);
 			synchronized (extraDataFile) {
 				goToExtraFile(offset);
 				return loadConfigurationElementAndChildren(null, extraInput, 3, Integer.MAX_VALUE, objectManager, null);
@@ -274,13 +394,15 @@ public class TableReader {
 			return RegistryObjectManager.EMPTY_STRING_ARRAY;
 		String[] properties = new String[numberOfProperties];
 		for (int i = 0; i < numberOfProperties; i++) {
-			properties[i] = readStringOrNull(inputStream);
+			properties[i] = strings.get(inputStream.readInt());
 		}
 		return properties;
 	}
 
 	public Object loadExtension(int offset) {
 		try {
+			if (mappedMainDataFile != null)
+				return basicLoadExtension(mappedMainDataFile.getInput(offset));
 			synchronized (mainDataFile) {
 				goToInputFile(offset);
 				return basicLoadExtension(mainInput);
@@ -296,60 +418,34 @@ public class TableReader {
 
 	private Extension basicLoadExtension(DataInputStream inputStream) throws IOException {
 		int self = inputStream.readInt();
-		String simpleId = readStringOrNull(mainInput);
-		String namespace = readStringOrNull(mainInput);
-		int[] children = readArray(mainInput);
-		int extraData = mainInput.readInt();
+		String simpleId = readStringOrNull(inputStream);
+		String namespace = readStringOrNull(inputStream);
+		int[] children = readArray(inputStream);
+		int extraData = inputStream.readInt();
 		return getObjectFactory().createExtension(self, simpleId, namespace, children, extraData, true);
 	}
 
-	public ExtensionPoint loadExtensionPointTree(int offset, RegistryObjectManager objects) {
+	public ExtensionPoint loadExtensionPoint(int offset) {
 		try {
+			if (mappedMainDataFile != null)
+				return basicLoadExtensionPoint(mappedMainDataFile.getInput(offset));
 			synchronized (mainDataFile) {
-				ExtensionPoint xpt = (ExtensionPoint) loadExtensionPoint(offset);
-				int[] children = xpt.getRawChildren();
-				int nbrOfExtension = children.length;
-				for (int i = 0; i < nbrOfExtension; i++) {
-					Extension loaded = basicLoadExtension(mainInput);
-					objects.add(loaded, holdObjects);
-				}
-
-				for (int i = 0; i < nbrOfExtension; i++) {
-					int nbrOfCe = mainInput.readInt();
-					for (int j = 0; j < nbrOfCe; j++) {
-						// note that max depth is set to 2 and extra input is never going to 
-						// be used in this call to the loadConfigurationElementAndChildren().
-						objects.add(loadConfigurationElementAndChildren(mainInput, null, 1, 2, objects, null), holdObjects);
-					}
-				}
-				return xpt;
+				goToInputFile(offset);
+				return basicLoadExtensionPoint(mainInput);
 			}
 		} catch (IOException e) {
 			String message = NLS.bind(RegistryMessages.meta_regCacheIOExceptionReading, mainDataFile);
 			log(new Status(IStatus.ERROR, RegistryMessages.OWNER_NAME, fileError, message, e));
 			if (DEBUG)
-				log(new Status(IStatus.ERROR, RegistryMessages.OWNER_NAME, fileError, "Error reading an extension point tree (" + offset + ") from the registry cache", e)); //$NON-NLS-1$//$NON-NLS-2$
+				log(new Status(IStatus.ERROR, RegistryMessages.OWNER_NAME, fileError, "Error reading an extension point (" + offset + ") from the registry cache", e)); //$NON-NLS-1$//$NON-NLS-2$
 			return null;
 		}
 	}
 
-	private Object loadExtensionPoint(int offset) {
-		try {
-			goToInputFile(offset);
-			return basicLoadExtensionPoint();
-		} catch (IOException e) {
-			String message = NLS.bind(RegistryMessages.meta_regCacheIOExceptionReading, mainDataFile);
-			log(new Status(IStatus.ERROR, RegistryMessages.OWNER_NAME, fileError, message, e));
-			if (DEBUG)
-				log(new Status(IStatus.ERROR, RegistryMessages.OWNER_NAME, fileError, "Error reading an extension point (" + offset + ") from the registry cache", e)); //$NON-NLS-1$ //$NON-NLS-2$
-			return null;
-		}
-	}
-
-	private ExtensionPoint basicLoadExtensionPoint() throws IOException {
-		int self = mainInput.readInt();
-		int[] children = readArray(mainInput);
-		int extraData = mainInput.readInt();
+	private ExtensionPoint basicLoadExtensionPoint(DataInputStream inputStream) throws IOException {
+		int self = inputStream.readInt();
+		int[] children = readArray(inputStream);
+		int extraData = inputStream.readInt();
 		return getObjectFactory().createExtensionPoint(self, children, extraData, true);
 	}
 
@@ -381,9 +477,11 @@ public class TableReader {
 
 	public String[] loadExtensionExtraData(int dataPosition) {
 		try {
+			if (mappedExtraDataFile != null)
+				return basicLoadExtensionExtraData(mappedExtraDataFile.getInput(dataPosition));
 			synchronized (extraDataFile) {
 				goToExtraFile(dataPosition);
-				return basicLoadExtensionExtraData();
+				return basicLoadExtensionExtraData(extraInput);
 			}
 		} catch (IOException e) {
 			String message = NLS.bind(RegistryMessages.meta_regCacheIOExceptionReading, extraDataFile);
@@ -394,15 +492,17 @@ public class TableReader {
 		}
 	}
 
-	private String[] basicLoadExtensionExtraData() throws IOException {
-		return new String[] {readStringOrNull(extraInput), readStringOrNull(extraInput), readStringOrNull(extraInput)};
+	private String[] basicLoadExtensionExtraData(DataInputStream inputStream) throws IOException {
+		return new String[] {readStringOrNull(inputStream), readStringOrNull(inputStream), readStringOrNull(inputStream)};
 	}
 
 	public String[] loadExtensionPointExtraData(int offset) {
 		try {
+			if (mappedExtraDataFile != null)
+				return basicLoadExtensionPointExtraData(mappedExtraDataFile.getInput(offset));
 			synchronized (extraDataFile) {
 				goToExtraFile(offset);
-				return basicLoadExtensionPointExtraData();
+				return basicLoadExtensionPointExtraData(extraInput);
 			}
 		} catch (IOException e) {
 			String message = NLS.bind(RegistryMessages.meta_regCacheIOExceptionReading, extraDataFile);
@@ -413,13 +513,13 @@ public class TableReader {
 		}
 	}
 
-	private String[] basicLoadExtensionPointExtraData() throws IOException {
+	private String[] basicLoadExtensionPointExtraData(DataInputStream inputStream) throws IOException {
 		String[] result = new String[5];
-		result[0] = readStringOrNull(extraInput); //the label
-		result[1] = readStringOrNull(extraInput); //the schema
-		result[2] = readStringOrNull(extraInput); //the fully qualified name
-		result[3] = readStringOrNull(extraInput); //the namespace
-		result[4] = readStringOrNull(extraInput); //the contributor Id 
+		result[0] = readStringOrNull(inputStream); //the label
+		result[1] = readStringOrNull(inputStream); //the schema
+		result[2] = readStringOrNull(inputStream); //the fully qualified name
+		result[3] = readStringOrNull(inputStream); //the namespace
+		result[4] = readStringOrNull(inputStream); //the contributor Id 
 		return result;
 	}
 
@@ -515,32 +615,14 @@ public class TableReader {
 		}
 	}
 
-	private void loadAllOrphans(RegistryObjectManager objectManager) throws IOException {
-		//Read the extensions and configuration elements of the orphans
-		int orphans = objectManager.getOrphanExtensions().size();
-		for (int k = 0; k < orphans; k++) {
-			int numberOfOrphanExtensions = mainInput.readInt();
-			for (int i = 0; i < numberOfOrphanExtensions; i++) {
-				loadFullExtension(objectManager);
-			}
-			for (int i = 0; i < numberOfOrphanExtensions; i++) {
-				int nbrOfCe = mainInput.readInt();
-				for (int j = 0; j < nbrOfCe; j++) {
-					objectManager.add(loadConfigurationElementAndChildren(mainInput, extraInput, 1, Integer.MAX_VALUE, objectManager, null), true);
-				}
-			}
-		}
-	}
-
 	// Do not need to synchronize - called only from a synchronized method
 	public boolean readAllCache(RegistryObjectManager objectManager) {
 		try {
-			int size = objectManager.getExtensionPoints().size();
-			for (int i = 0; i < size; i++) {
-				objectManager.add(readAllExtensionPointTree(objectManager), holdObjects);
+			for (Iterator iter = segments.values().iterator(); iter.hasNext();) {
+				readAllSegment((CacheSegment) iter.next(), objectManager);
 			}
-			loadAllOrphans(objectManager);
 		} catch (IOException e) {
+			segments = null;
 			String message = NLS.bind(RegistryMessages.meta_regCacheIOExceptionReading, mainDataFile);
 			log(new Status(IStatus.ERROR, RegistryMessages.OWNER_NAME, fileError, message, e));
 			return false;
@@ -548,10 +630,15 @@ public class TableReader {
 		return true;
 	}
 
-	private ExtensionPoint readAllExtensionPointTree(RegistryObjectManager objectManager) throws IOException {
-		ExtensionPoint xpt = loadFullExtensionPoint();
-		int[] children = xpt.getRawChildren();
-		int nbrOfExtension = children.length;
+	private void readAllSegment(CacheSegment segment, RegistryObjectManager objectManager) throws IOException {
+		goToInputFile(segment.mainOffset);
+		goToExtraFile(segment.extraOffset);
+		int nbrOfExtensionPoints = mainInput.readInt();
+		for (int i = 0; i < nbrOfExtensionPoints; i++) {
+			objectManager.add(loadFullExtensionPoint(), holdObjects);
+		}
+
+		int nbrOfExtension = mainInput.readInt();
 		for (int i = 0; i < nbrOfExtension; i++) {
 			loadFullExtension(objectManager);
 		}
@@ -562,12 +649,11 @@ public class TableReader {
 				objectManager.add(loadConfigurationElementAndChildren(mainInput, extraInput, 1, Integer.MAX_VALUE, objectManager, null), true);
 			}
 		}
-		return xpt;
 	}
 
 	private ExtensionPoint loadFullExtensionPoint() throws IOException { //TODO I don't like this. 
-		ExtensionPoint xpt = basicLoadExtensionPoint();
-		String[] tmp = basicLoadExtensionPointExtraData();
+		ExtensionPoint xpt = basicLoadExtensionPoint(mainInput);
+		String[] tmp = basicLoadExtensionPointExtraData(extraInput);
 		xpt.setLabel(tmp[0]);
 		xpt.setSchema(tmp[1]);
 		xpt.setUniqueIdentifier(tmp[2]);
@@ -579,7 +665,7 @@ public class TableReader {
 	private Extension loadFullExtension(RegistryObjectManager objectManager) throws IOException {
 		String[] tmp;
 		Extension loaded = basicLoadExtension(mainInput);
-		tmp = basicLoadExtensionExtraData();
+		tmp = basicLoadExtensionExtraData(extraInput);
 		loaded.setLabel(tmp[0]);
 		loaded.setExtensionPointIdentifier(tmp[1]);
 		loaded.setContributorId(tmp[2]);
@@ -632,6 +718,9 @@ public class TableReader {
 	}
 
 	public void close() {
+		// the mappings are released when they are garbage collected
+		mappedMainDataFile = null;
+		mappedExtraDataFile = null;
 		try {
 			if (mainInput != null)
 				mainInput.close();
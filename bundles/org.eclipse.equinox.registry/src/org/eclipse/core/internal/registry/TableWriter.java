@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2004, 2009 IBM Corporation and others.
+ * Copyright (c) 2004, 2015 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -12,6 +12,7 @@ package org.eclipse.core.internal.registry;
 
 import java.io.*;
 import java.util.*;
+import java.util.zip.*;
 import org.eclipse.core.runtime.*;
 import org.eclipse.core.runtime.spi.RegistryContributor;
 
@@ -54,12 +55,30 @@ public class TableWriter {
 		orphansFile = orphan;
 	}
 
+	// The segments of the data files written by a previous session. The data files are
+	// appended to if set, and rewritten otherwise.
+	private HashMap previousSegments = null;
+
+	void setPreviousSegments(HashMap segments) {
+		previousSegments = segments;
+	}
+
 	DataOutputStream mainOutput;
 	DataOutputStream extraOutput;
 	FileOutputStream mainFileOutput = null;
 	FileOutputStream extraFileOutput = null;
-
-	private OffsetTable offsets;
+	Checksum mainChecksum;
+	Checksum extraChecksum;
+	// the sizes of the data files before this session appended to them
+	private int mainBase;
+	private int extraBase;
+
+	private ArrayList segments; // the segments in the saved cache
+	private StringTable strings; // the strings of the configuration elements in the saved cache
+	// the file offsets of the objects in the segment being written
+	private int[] segmentIds = new int[64];
+	private int[] segmentOffsets = new int[64];
+	private int segmentSize;
 
 	private ExtensionRegistry registry;
 	private RegistryObjectManager objectManager;
@@ -68,8 +87,12 @@ public class TableWriter {
 		this.registry = registry;
 	}
 
+	private int getMainDataPosition() {
+		return mainBase + mainOutput.size();
+	}
+
 	private int getExtraDataPosition() {
-		return extraOutput.size();
+		return extraBase + extraOutput.size();
 	}
 
 	public boolean saveCache(RegistryObjectManager objectManager, long timestamp) {
@@ -90,11 +113,18 @@ public class TableWriter {
 	}
 
 	private boolean openFiles() {
+		boolean append = previousSegments != null;
 		try {
-			mainFileOutput = new FileOutputStream(mainDataFile);
-			mainOutput = new DataOutputStream(new BufferedOutputStream(mainFileOutput));
-			extraFileOutput = new FileOutputStream(extraDataFile);
-			extraOutput = new DataOutputStream(new BufferedOutputStream(extraFileOutput));
+			mainBase = append ? (int) mainDataFile.length() : 0;
+			mainFileOutput = new FileOutputStream(mainDataFile.getPath(), append);
+			CheckedOutputStream checkedMain = new CheckedOutputStream(new BufferedOutputStream(mainFileOutput), new CRC32());
+			mainChecksum = checkedMain.getChecksum();
+			mainOutput = new DataOutputStream(checkedMain);
+			extraBase = append ? (int) extraDataFile.length() : 0;
+			extraFileOutput = new FileOutputStream(extraDataFile.getPath(), append);
+			CheckedOutputStream checkedExtra = new CheckedOutputStream(new BufferedOutputStream(extraFileOutput), new CRC32());
+			extraChecksum = checkedExtra.getChecksum();
+			extraOutput = new DataOutputStream(checkedExtra);
 		} catch (FileNotFoundException e) {
 			if (mainFileOutput != null)
 				try {
@@ -137,17 +167,83 @@ public class TableWriter {
 	}
 
 	private void saveExtensionRegistry(long timestamp) throws IOException {
-		ExtensionPointHandle[] points = objectManager.getExtensionPointsHandles();
-		offsets = new OffsetTable(objectManager.getNextId());
-		for (int i = 0; i < points.length; i++) {
-			saveExtensionPoint(points[i]);
+		KeyedHashSet[] contributions = objectManager.getContributions();
+		segments = new ArrayList();
+		// the reused segments refer to the strings of the table read on startup; rewritten data files
+		// get a new table with only the strings of the saved configuration elements
+		strings = previousSegments != null ? registry.getStringTable() : new StringTable();
+		for (int i = 0; i < contributions.length; i++) {
+			KeyedElement[] elements = contributions[i].elements();
+			for (int j = 0; j < elements.length; j++) {
+				saveSegment((Contribution) elements[j]);
+			}
 		}
 		saveOrphans();
-		saveContributions(objectManager.getContributions());
+		saveContributions(contributions);
 		saveContributors(objectManager.getContributors());
 		saveNamespaces(objectManager.getNamespacesIndex());
 		closeFiles(); //Close the files here so we can write the appropriate size information in the table file.
 		saveTables(timestamp); //Write the table last so if that is something went wrong we can know
+		// the index of the strings is only needed to write the configuration elements
+		strings.releaseIndexes();
+	}
+
+	// Writes the registry objects of the contribution to a new segment of the data files,
+	// unless the segment saved by a previous session is still current
+	private void saveSegment(Contribution contribution) throws IOException {
+		if (!contribution.shouldPersist())
+			return;
+		String contributorId = contribution.getContributorId();
+		if (previousSegments != null && !objectManager.isDirty(contributorId)) {
+			CacheSegment previous = (CacheSegment) previousSegments.get(contributorId);
+			if (previous != null) {
+				segments.add(previous);
+				return;
+			}
+		}
+		int[] extensionPoints = filter(contribution.getExtensionPoints());
+		int[] extensions = filter(contribution.getExtensions());
+		if (extensionPoints.length == 0 && extensions.length == 0)
+			return;
+
+		CacheSegment segment = new CacheSegment(contributorId);
+		segment.mainOffset = getMainDataPosition();
+		segment.extraOffset = getExtraDataPosition();
+		mainChecksum.reset();
+		extraChecksum.reset();
+		segmentSize = 0;
+
+		mainOutput.writeInt(extensionPoints.length);
+		ExtensionPointHandle[] points = (ExtensionPointHandle[]) objectManager.getHandles(extensionPoints, RegistryObjectManager.EXTENSION_POINT);
+		for (int i = 0; i < points.length; i++) {
+			saveExtensionPoint(points[i]);
+		}
+		mainOutput.writeInt(extensions.length);
+		saveExtensions((IExtension[]) objectManager.getHandles(extensions, RegistryObjectManager.EXTENSION), mainOutput);
+
+		segment.mainLength = getMainDataPosition() - segment.mainOffset;
+		segment.mainChecksum = (int) mainChecksum.getValue();
+		segment.extraLength = getExtraDataPosition() - segment.extraOffset;
+		segment.extraChecksum = (int) extraChecksum.getValue();
+		segment.ids = new int[segmentSize];
+		segment.offsets = new int[segmentSize];
+		System.arraycopy(segmentIds, 0, segment.ids, 0, segmentSize);
+		System.arraycopy(segmentOffsets, 0, segment.offsets, 0, segmentSize);
+		segments.add(segment);
+	}
+
+	private void putOffset(int id, int offset) {
+		if (segmentSize == segmentIds.length) {
+			int[] newIds = new int[segmentSize * 2];
+			int[] newOffsets = new int[segmentSize * 2];
+			System.arraycopy(segmentIds, 0, newIds, 0, segmentSize);
+			System.arraycopy(segmentOffsets, 0, newOffsets, 0, segmentSize);
+			segmentIds = newIds;
+			segmentOffsets = newOffsets;
+		}
+		segmentIds[segmentSize] = id;
+		segmentOffsets[segmentSize] = offset;
+		segmentSize++;
 	}
 
 	private void saveContributions(KeyedHashSet[] contributions) throws IOException {
@@ -255,7 +351,11 @@ public class TableWriter {
 		DataOutputStream outputTable = new DataOutputStream(new BufferedOutputStream(fosTable));
 		writeCacheHeader(outputTable, registryTimeStamp);
 		outputTable.writeInt(objectManager.getNextId());
-		offsets.save(outputTable);
+		outputTable.writeInt(segments.size());
+		for (int i = 0; i < segments.size(); i++) {
+			((CacheSegment) segments.get(i)).save(outputTable);
+		}
+		strings.save(outputTable);
 		objectManager.getExtensionPoints().save(outputTable, objectManager); // uses writer to filter contents
 		outputTable.flush();
 		fosTable.getFD().sync();
@@ -266,8 +366,6 @@ public class TableWriter {
 		output.writeInt(TableReader.CACHE_VERSION);
 		output.writeLong(registry.computeState());
 		output.writeLong(registryTimeStamp);
-		output.writeLong(mainDataFile.length());
-		output.writeLong(extraDataFile.length());
 		output.writeLong(contributionsFile.length());
 		output.writeLong(contributorsFile.length());
 		output.writeLong(namespacesFile.length());
@@ -293,20 +391,18 @@ public class TableWriter {
 		if (!xpt.shouldPersist())
 			return;
 		//save the file position
-		offsets.put(xpt.getId(), mainOutput.size());
+		putOffset(xpt.getId(), getMainDataPosition());
 		//save the extensionPoint
 		mainOutput.writeInt(xpt.getId());
 		saveArray(filter(xpt.getObject().getRawChildren()), mainOutput);
 		mainOutput.writeInt(getExtraDataPosition());
 		saveExtensionPointData(xpt);
-
-		saveExtensions(xpt.getExtensions(), mainOutput);
 	}
 
 	private void saveExtension(ExtensionHandle ext, DataOutputStream outputStream) throws IOException {
 		if (!ext.shouldPersist())
 			return;
-		offsets.put(ext.getId(), outputStream.size());
+		putOffset(ext.getId(), getMainDataPosition());
 		outputStream.writeInt(ext.getId());
 		writeStringOrNull(ext.getSimpleIdentifier(), outputStream);
 		writeStringOrNull(ext.getNamespaceIdentifier(), outputStream);
@@ -322,6 +418,13 @@ public class TableWriter {
 		}
 	}
 
+	private void writeStringIndexArray(String[] array, DataOutputStream outputStream) throws IOException {
+		outputStream.writeInt(array == null ? 0 : array.length);
+		for (int i = 0; i < (array == null ? 0 : array.length); i++) {
+			outputStream.writeInt(strings.getIndex(array[i]));
+		}
+	}
+
 	private void writeStringArray(String[] array, int size, DataOutputStream outputStream) throws IOException {
 		outputStream.writeInt(array == null ? 0 : size);
 		if (array == null)
@@ -339,17 +442,17 @@ public class TableWriter {
 		if (depth > 2)
 			currentOutput = extraOutputStream;
 
-		offsets.put(element.getId(), currentOutput.size());
+		putOffset(element.getId(), depth > 2 ? getExtraDataPosition() : getMainDataPosition());
 
 		currentOutput.writeInt(element.getId());
 		ConfigurationElement actualCe = (ConfigurationElement) element.getObject();
 
-		writeStringOrNull(actualCe.getContributorId(), currentOutput);
-		writeStringOrNull(actualCe.getName(), currentOutput);
+		currentOutput.writeInt(strings.getIndex(actualCe.getContributorId()));
+		currentOutput.writeInt(strings.getIndex(actualCe.getName()));
 		currentOutput.writeInt(actualCe.parentId);
 		currentOutput.writeByte(actualCe.parentType);
-		currentOutput.writeInt(depth > 1 ? extraOutputStream.size() : -1);
-		writeStringArray(actualCe.getPropertiesAndValue(), currentOutput);
+		currentOutput.writeInt(depth > 1 ? getExtraDataPosition() : -1);
+		writeStringIndexArray(actualCe.getPropertiesAndValue(), currentOutput);
 		//save the children
 		saveArray(filter(actualCe.getRawChildren()), currentOutput);
 
@@ -440,11 +543,6 @@ public class TableWriter {
 			outputOrphan.writeUTF((String) entry.getKey());
 			saveArray((int[]) entry.getValue(), outputOrphan);
 		}
-		for (Iterator iter = elements.iterator(); iter.hasNext();) {
-			Map.Entry entry = (Map.Entry) iter.next();
-			mainOutput.writeInt(((int[]) entry.getValue()).length);
-			saveExtensions((IExtension[]) objectManager.getHandles((int[]) entry.getValue(), RegistryObjectManager.EXTENSION), mainOutput);
-		}
 		outputOrphan.flush();
 		fosOrphan.getFD().sync();
 		outputOrphan.close();
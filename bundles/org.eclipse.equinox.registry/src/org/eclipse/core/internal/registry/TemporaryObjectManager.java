@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2004, 2006 IBM Corporation and others.
+ * Copyright (c) 2004, 2015 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -10,7 +10,7 @@
  *******************************************************************************/
 package org.eclipse.core.internal.registry;
 
-import java.util.Map;
+import java.util.*;
 import org.eclipse.core.runtime.InvalidRegistryObjectException;
 
 /**
@@ -131,6 +131,25 @@ public class TemporaryObjectManager implements IObjectManager {
 		return results;
 	}
 
+	/**
+	 * Creates a manager that finds the objects of all the given managers.
+	 * 
+	 * @param managers the managers to combine; must not be empty
+	 */
+	static TemporaryObjectManager combine(Collection managers) {
+		Map objects = new HashMap();
+		RegistryObjectManager parent = null;
+		for (Iterator iter = managers.iterator(); iter.hasNext();) {
+			TemporaryObjectManager manager = (TemporaryObjectManager) iter.next();
+			synchronized (manager) {
+				if (manager.actualObjects != null)
+					objects.putAll(manager.actualObjects);
+				parent = manager.parent;
+			}
+		}
+		return new TemporaryObjectManager(objects, parent);
+	}
+
 	public synchronized void close() {
 		actualObjects = null;
 	}
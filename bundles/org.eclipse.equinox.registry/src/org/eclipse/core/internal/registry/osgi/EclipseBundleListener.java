@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2003, 2014 IBM Corporation and others.
+ * Copyright (c) 2003, 2015 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -13,14 +13,15 @@ package org.eclipse.core.internal.registry.osgi;
 import java.io.*;
 import java.net.URL;
 import java.util.*;
-import org.eclipse.core.internal.registry.ExtensionRegistry;
-import org.eclipse.core.internal.registry.RegistryMessages;
+import javax.xml.parsers.SAXParserFactory;
+import org.eclipse.core.internal.registry.*;
 import org.eclipse.core.internal.runtime.ResourceTranslator;
 import org.eclipse.core.internal.runtime.RuntimeLog;
 import org.eclipse.core.runtime.*;
 import org.eclipse.osgi.util.ManifestElement;
 import org.eclipse.osgi.util.NLS;
 import org.osgi.framework.*;
+import org.xml.sax.InputSource;
 
 /**
  * A listener for bundle events.  When a bundles come and go we look to see 
@@ -34,6 +35,7 @@ import org.osgi.framework.*;
 public class EclipseBundleListener implements SynchronousBundleListener {
 	private static final String PLUGIN_MANIFEST = "plugin.xml"; //$NON-NLS-1$
 	private static final String FRAGMENT_MANIFEST = "fragment.xml"; //$NON-NLS-1$	
+	private static final String PARSER_THREAD_NAME = "Registry Manifest Parser"; //$NON-NLS-1$
 
 	private ExtensionRegistry registry;
 	private RegistryStrategyOSGI strategy;
@@ -79,18 +81,131 @@ public class EclipseBundleListener implements SynchronousBundleListener {
 				addBundle(bundle, true);
 				break;
 			case BundleEvent.UNRESOLVED :
+				// the class loader of the bundle is discarded
+				strategy.getClassCache().remove(bundle);
 				removeBundle(bundle);
 				break;
 		}
 	}
 
+	/**
+	 * A bundle to be added to the registry by {@link EclipseBundleListener#processBundles(Bundle[])}.
+	 */
+	private static class PendingContribution {
+		final Bundle bundle;
+		final IContributor contributor;
+		final URL pluginManifest;
+		RecordedManifest manifest; // null if the manifest could not be opened
+		ResourceBundle translationBundle;
+
+		PendingContribution(Bundle bundle, IContributor contributor, URL pluginManifest) {
+			this.bundle = bundle;
+			this.contributor = contributor;
+			this.pluginManifest = pluginManifest;
+		}
+
+		// does not access the registry; may run concurrently with other contributions
+		void parse(SAXParserFactory factory) {
+			InputStream is;
+			try {
+				is = new BufferedInputStream(pluginManifest.openStream());
+			} catch (IOException ex) {
+				return;
+			}
+			RecordedManifest recorded = new RecordedManifest();
+			try {
+				recorded.record(factory, new InputSource(is));
+			} finally {
+				try {
+					is.close();
+				} catch (IOException ioe) {
+					// nothing to do
+				}
+			}
+			translationBundle = getTranslationBundle(bundle);
+			manifest = recorded;
+		}
+	}
+
+	/**
+	 * Adds the resolved bundles to the registry and removes the others. The manifests
+	 * of the bundles are parsed concurrently. The contributions are then added in the
+	 * order of the bundles under one write lock, so the registry objects get the same
+	 * ids and the change events are sent in the same order as if the bundles were
+	 * added one by one.
+	 */
 	public void processBundles(Bundle[] bundles) {
+		List pending = new ArrayList();
 		for (int i = 0; i < bundles.length; i++) {
-			if (isBundleResolved(bundles[i]))
-				addBundle(bundles[i], false);
-			else
+			if (isBundleResolved(bundles[i])) {
+				IContributor contributor = ContributorFactoryOSGi.createContributor(bundles[i]);
+				if (registry.hasContributor(contributor))
+					continue;
+				URL pluginManifest = getExtensionURL(bundles[i], true);
+				if (pluginManifest != null)
+					pending.add(new PendingContribution(bundles[i], contributor, pluginManifest));
+			} else
 				removeBundle(bundles[i]);
 		}
+		if (pending.isEmpty())
+			return;
+
+		PendingContribution[] contributions = (PendingContribution[]) pending.toArray(new PendingContribution[pending.size()]);
+		parseManifests(contributions, strategy.getXMLParser());
+		registry.enterWrite();
+		try {
+			for (int i = 0; i < contributions.length; i++) {
+				PendingContribution contribution = contributions[i];
+				// the bundle may have been added by a bundle event in the meantime
+				if (contribution.manifest == null || registry.hasContributor(contribution.contributor))
+					continue;
+				long timestamp = 0;
+				if (strategy.checkContributionsTimestamp())
+					timestamp = strategy.getExtendedTimestamp(contribution.bundle, contribution.pluginManifest);
+				registry.addContribution(contribution.manifest, contribution.contributor, true, contribution.pluginManifest.getPath(), contribution.translationBundle, token, timestamp);
+				contribution.manifest = null; // not needed any longer
+			}
+		} finally {
+			registry.exitWrite();
+		}
+	}
+
+	private void parseManifests(final PendingContribution[] contributions, final SAXParserFactory factory) {
+		final int[] next = new int[] {0};
+		Runnable parser = new Runnable() {
+			public void run() {
+				while (true) {
+					int current;
+					synchronized (next) {
+						if (next[0] == contributions.length)
+							return;
+						current = next[0]++;
+					}
+					contributions[current].parse(factory);
+				}
+			}
+		};
+		// the calling thread parses as well
+		int threadCount = Math.min(Runtime.getRuntime().availableProcessors(), contributions.length) - 1;
+		Thread[] threads = new Thread[threadCount];
+		for (int i = 0; i < threadCount; i++) {
+			threads[i] = new Thread(parser, PARSER_THREAD_NAME + '-' + (i + 1));
+			threads[i].setDaemon(true);
+			threads[i].start();
+		}
+		parser.run();
+		boolean interrupted = false;
+		for (int i = 0; i < threadCount; i++) {
+			while (threads[i].isAlive()) {
+				try {
+					threads[i].join();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
 	}
 
 	private boolean isBundleResolved(Bundle bundle) {
@@ -169,18 +284,22 @@ public class EclipseBundleListener implements SynchronousBundleListener {
 		if (is == null)
 			return;
 
-		ResourceBundle translationBundle = null;
-		try {
-			translationBundle = ResourceTranslator.getResourceBundle(bundle);
-		} catch (MissingResourceException e) {
-			//Ignore the exception
-		}
+		ResourceBundle translationBundle = getTranslationBundle(bundle);
 		long timestamp = 0;
 		if (strategy.checkContributionsTimestamp())
 			timestamp = strategy.getExtendedTimestamp(bundle, pluginManifest);
 		registry.addContribution(is, contributor, true, pluginManifest.getPath(), translationBundle, token, timestamp);
 	}
 
+	static ResourceBundle getTranslationBundle(Bundle bundle) {
+		try {
+			return ResourceTranslator.getResourceBundle(bundle);
+		} catch (MissingResourceException e) {
+			//Ignore the exception
+			return null;
+		}
+	}
+
 	private void checkForNLSFragment(Bundle bundle) {
 		if (!OSGIUtils.getDefault().isFragment(bundle)) {
 			// only need to worry about fragments
@@ -0,0 +1,66 @@
+/*******************************************************************************
+ * Copyright (c) 2015 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.registry.osgi;
+
+import java.util.*;
+import org.osgi.framework.Bundle;
+
+/**
+ * Caches the no-argument constructors of the executable extension classes, per
+ * contributing bundle, so the classes are loaded from the bundles only once.
+ * <p>
+ * The constructors of a bundle must be removed by {@link #remove(Bundle)} when the
+ * bundle is unresolved, as its class loader is discarded. Only successful lookups
+ * are cached; a class that could not be loaded is looked up again on the next call.
+ * </p><p>
+ * This class is thread safe.
+ * </p>
+ */
+public class ExtensionClassCache {
+	// key: Long bundle id, value: Map of class name -> Constructor
+	private final HashMap bundles = new HashMap();
+
+	/**
+	 * Returns the map of class names to no-argument constructors of the bundle.
+	 * The map is synchronized.
+	 * <p>
+	 * A constructor added to the map after the bundle is removed from the cache
+	 * is discarded with the map, so the caller must get the map before it loads
+	 * the class.
+	 * </p>
+	 */
+	public Map getConstructors(Bundle bundle) {
+		Long key = new Long(bundle.getBundleId());
+		synchronized (bundles) {
+			Map constructors = (Map) bundles.get(key);
+			if (constructors == null) {
+				constructors = Collections.synchronizedMap(new HashMap());
+				bundles.put(key, constructors);
+			}
+			return constructors;
+		}
+	}
+
+	/**
+	 * Forgets the classes loaded from the bundle.
+	 */
+	public void remove(Bundle bundle) {
+		synchronized (bundles) {
+			bundles.remove(new Long(bundle.getBundleId()));
+		}
+	}
+
+	public void clear() {
+		synchronized (bundles) {
+			bundles.clear();
+		}
+	}
+}
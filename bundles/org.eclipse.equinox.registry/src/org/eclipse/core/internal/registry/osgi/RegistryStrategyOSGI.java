@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2005, 2009 IBM Corporation and others.
+ * Copyright (c) 2005, 2015 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -12,9 +12,10 @@ package org.eclipse.core.internal.registry.osgi;
 
 import java.io.File;
 import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
 import java.net.URL;
-import java.util.Locale;
-import java.util.ResourceBundle;
+import java.util.*;
 import javax.xml.parsers.SAXParserFactory;
 import org.eclipse.core.internal.registry.*;
 import org.eclipse.core.internal.runtime.ResourceTranslator;
@@ -155,6 +156,19 @@ public class RegistryStrategyOSGI extends RegistryStrategy {
 	/////////////////////////////////////////////////////////////////////////////////////
 	// Executable extensions: bundle-based class loading
 
+	private static final Class[] NO_PARAMETERS = new Class[0];
+	private static final Object[] NO_ARGUMENTS = new Object[0];
+
+	/**
+	 * The constructors of the executable extensions created so far. The bundle 
+	 * listener removes the constructors of the bundles that are unresolved.
+	 */
+	private final ExtensionClassCache classCache = new ExtensionClassCache();
+
+	ExtensionClassCache getClassCache() {
+		return classCache;
+	}
+
 	/* (non-Javadoc)
 	 * @see org.eclipse.core.runtime.spi.RegistryStrategy#createExecutableExtension(org.eclipse.core.runtime.spi.RegistryContributor, java.lang.String, java.lang.String)
 	 */
@@ -168,20 +182,41 @@ public class RegistryStrategyOSGI extends RegistryStrategy {
 		if (contributingBundle == null)
 			throwException(NLS.bind(RegistryMessages.plugin_loadClassError, "UNKNOWN BUNDLE", className), new InvalidRegistryObjectException()); //$NON-NLS-1$ 
 
-		// load the requested class from this bundle
-		Class classInstance = null;
-		try {
-			classInstance = contributingBundle.loadClass(className);
-		} catch (Exception e1) {
-			throwException(NLS.bind(RegistryMessages.plugin_loadClassError, contributingBundle.getSymbolicName(), className), e1);
-		} catch (LinkageError e) {
-			throwException(NLS.bind(RegistryMessages.plugin_loadClassError, contributingBundle.getSymbolicName(), className), e);
+		Map constructors = classCache.getConstructors(contributingBundle);
+		Constructor constructor = (Constructor) constructors.get(className);
+		if (constructor == null) {
+			// load the requested class from this bundle
+			Class classInstance = null;
+			try {
+				classInstance = contributingBundle.loadClass(className);
+			} catch (Exception e1) {
+				throwException(NLS.bind(RegistryMessages.plugin_loadClassError, contributingBundle.getSymbolicName(), className), e1);
+			} catch (LinkageError e) {
+				throwException(NLS.bind(RegistryMessages.plugin_loadClassError, contributingBundle.getSymbolicName(), className), e);
+			}
+			try {
+				constructor = classInstance.getDeclaredConstructor(NO_PARAMETERS);
+			} catch (NoSuchMethodException e) {
+				// as reported by Class#newInstance()
+				throwException(NLS.bind(RegistryMessages.plugin_instantiateClassError, contributingBundle.getSymbolicName(), className), new InstantiationException(className));
+			} catch (Exception e) {
+				throwException(NLS.bind(RegistryMessages.plugin_instantiateClassError, contributingBundle.getSymbolicName(), className), e);
+			} catch (LinkageError e1) {
+				throwException(NLS.bind(RegistryMessages.plugin_instantiateClassError, contributingBundle.getSymbolicName(), className), e1);
+			}
+			constructors.put(className, constructor);
 		}
 
 		// create a new instance
 		Object result = null;
 		try {
-			result = classInstance.newInstance();
+			result = constructor.newInstance(NO_ARGUMENTS);
+		} catch (InvocationTargetException e) {
+			// report what the constructor threw, as Class#newInstance() does
+			Throwable target = e.getTargetException();
+			if (target instanceof Error && !(target instanceof LinkageError))
+				throw (Error) target;
+			throwException(NLS.bind(RegistryMessages.plugin_instantiateClassError, contributingBundle.getSymbolicName(), className), target);
 		} catch (Exception e) {
 			throwException(NLS.bind(RegistryMessages.plugin_instantiateClassError, contributingBundle.getSymbolicName(), className), e);
 		} catch (LinkageError e1) {
@@ -230,6 +265,7 @@ public class RegistryStrategyOSGI extends RegistryStrategy {
 	public void onStop(IExtensionRegistry registry) {
 		if (pluginBundleListener != null)
 			Activator.getContext().removeBundleListener(pluginBundleListener);
+		classCache.clear();
 		if (xmlTracker != null) {
 			xmlTracker.close();
 			xmlTracker = null;